@@ -0,0 +1,122 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.Post;
+import com.google.sps.data.PostService;
+import com.google.sps.data.School;
+import java.io.CharArrayWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing posts and schools with the hand-written adapters of the shared Gson to the
+ * reflective adapters, both of a shared Gson and of a new Gson per response as the servlets used to
+ * create. The allocation rate is reported with every run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JsonBenchmark {
+  @Param({"1000"})
+  public int payloadSize;
+
+  private final LocalDatastore localDatastore = new LocalDatastore();
+  private final Gson reflectiveGson = new Gson();
+  private final Gson adapterGson = JsonResponses.getGson();
+  // Reset before every write, so the output buffer is only allocated once.
+  private final CharArrayWriter out = new CharArrayWriter(1 << 20);
+  private List<Post> posts;
+  private List<School> schools;
+
+  @Setup(Level.Trial)
+  public void createPayloads() {
+    // Entities need the App Engine environment to be created, but nothing is stored.
+    localDatastore.start();
+    posts =
+        SyntheticPosts.create(payloadSize, 42).stream()
+            .map(PostService::convertEntityToPost)
+            .collect(Collectors.toList());
+
+    Random random = new Random(42);
+    schools = new ArrayList<>(payloadSize);
+    for (int i = 0; i < payloadSize; i++) {
+      String name = SyntheticPosts.SCHOOLS[i % SyntheticPosts.SCHOOLS.length] + " " + i;
+      schools.add(
+          new School(name, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void stopDatastore() {
+    localDatastore.stop();
+  }
+
+  @Benchmark
+  public int postsWithAdapters() {
+    out.reset();
+    adapterGson.toJson(posts, out);
+    return out.size();
+  }
+
+  @Benchmark
+  public int postsWithReflection() {
+    out.reset();
+    reflectiveGson.toJson(posts, out);
+    return out.size();
+  }
+
+  @Benchmark
+  public int postsWithNewGson() {
+    out.reset();
+    new Gson().toJson(posts, out);
+    return out.size();
+  }
+
+  @Benchmark
+  public int schoolsWithAdapters() {
+    out.reset();
+    adapterGson.toJson(schools, out);
+    return out.size();
+  }
+
+  @Benchmark
+  public int schoolsWithReflection() {
+    out.reset();
+    reflectiveGson.toJson(schools, out);
+    return out.size();
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Runs the in-memory App Engine services that the unit tests use, so the benchmarks can call the
+ * data layer without a deployed app.
+ */
+public final class LocalDatastore {
+  private final LocalServiceTestHelper serviceHelper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true);
+  private ApiProxy.Environment environment;
+
+  /** Starts the local services and attaches them to the current thread. */
+  public void start() {
+    serviceHelper.setUp();
+    environment = ApiProxy.getCurrentEnvironment();
+  }
+
+  /**
+   * Attaches the local services to the current thread. JMH may run an iteration on another thread
+   * than the one that started the services, so every iteration attaches them first.
+   */
+  public void attach() {
+    ApiProxy.setEnvironmentForCurrentThread(environment);
+  }
+
+  /** Stops the local services and drops everything that was stored. */
+  public void stop() {
+    attach();
+    serviceHelper.tearDown();
+  }
+}
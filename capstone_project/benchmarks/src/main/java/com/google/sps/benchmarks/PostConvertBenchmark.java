@@ -0,0 +1,76 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.Post;
+import com.google.sps.data.PostService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures PostService.convertEntityToPost over every post of a corpus, the conversion every post
+ * list response makes once per post. Full posts take a few kilobytes each, so the largest corpus is
+ * a hundred thousand posts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PostConvertBenchmark {
+  @Param({"1000", "10000", "100000"})
+  public int corpusSize;
+
+  private final LocalDatastore localDatastore = new LocalDatastore();
+  private List<Entity> posts;
+
+  @Setup(Level.Trial)
+  public void createPosts() {
+    // Entities need the App Engine environment to be created, but nothing is stored.
+    localDatastore.start();
+    posts = SyntheticPosts.create(corpusSize, 42);
+  }
+
+  @TearDown(Level.Trial)
+  public void stopDatastore() {
+    localDatastore.stop();
+  }
+
+  @Benchmark
+  public void convertEntityToPost(Blackhole blackhole) {
+    for (Entity post : posts) {
+      Post converted = PostService.convertEntityToPost(post);
+      blackhole.consume(converted);
+    }
+  }
+}
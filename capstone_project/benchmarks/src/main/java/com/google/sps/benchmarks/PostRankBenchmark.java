@@ -0,0 +1,86 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.PostIndex;
+import com.google.sps.data.PostRanker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares ranking search results by scoring each post once and counting sort to the comparator
+ * sort that computed the weights of both posts on every comparison. The posts are kept in memory,
+ * so only the ranking is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PostRankBenchmark {
+  // A search ranks at most PostFilter.MAX_CANDIDATES posts.
+  @Param({"1000", "4000"})
+  public int corpusSize;
+
+  // A school name and a word that appears in most posts.
+  @Param({"stanford", "exam"})
+  public String query;
+
+  private final LocalDatastore localDatastore = new LocalDatastore();
+  private List<Entity> posts;
+  private List<String> queryTokens;
+
+  @Setup(Level.Trial)
+  public void createPosts() {
+    // Entities need the App Engine environment to be created, but nothing is stored.
+    localDatastore.start();
+    posts = SyntheticPosts.create(corpusSize, 42);
+    queryTokens = PostIndex.tokenize(query);
+  }
+
+  @TearDown(Level.Trial)
+  public void stopDatastore() {
+    localDatastore.stop();
+  }
+
+  @Benchmark
+  public List<Entity> scoreOnceCountingSort() {
+    return PostRanker.rank(posts, queryTokens);
+  }
+
+  @Benchmark
+  public List<Entity> comparatorSort() {
+    // The comparator sort removes and sorts in place, so it works on a copy.
+    return ScanFilter.rank(new ArrayList<>(posts), query);
+  }
+}
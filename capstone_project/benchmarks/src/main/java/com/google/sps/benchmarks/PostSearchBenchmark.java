@@ -0,0 +1,80 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.PostFilter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Compares the indexed post search to the full scan it replaced. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PostSearchBenchmark {
+  @Param({"1000", "10000"})
+  public int corpusSize;
+
+  // A school name, a phrase spread over the title and text, and a word that appears in most posts.
+  @Param({"stanford", "state university", "exam"})
+  public String query;
+
+  private final LocalDatastore localDatastore = new LocalDatastore();
+
+  @Setup(Level.Trial)
+  public void storePosts() {
+    localDatastore.start();
+    SyntheticPosts.store(DatastoreServiceFactory.getDatastoreService(), corpusSize, 42);
+  }
+
+  @Setup(Level.Iteration)
+  public void attachDatastore() {
+    localDatastore.attach();
+  }
+
+  @TearDown(Level.Trial)
+  public void stopDatastore() {
+    localDatastore.stop();
+  }
+
+  @Benchmark
+  public List<Entity> indexedSearch() {
+    return PostFilter.filterPosts(query);
+  }
+
+  @Benchmark
+  public List<Entity> fullScan() {
+    return ScanFilter.filterPosts(query);
+  }
+}
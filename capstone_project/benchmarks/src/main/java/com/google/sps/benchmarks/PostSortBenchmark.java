@@ -0,0 +1,101 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.data.PostPage;
+import com.google.sps.data.PostService;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures PostService.getSortedPostsPage, which serves the sorted feeds, for every sort type. The
+ * first page is read without a cursor, and a later page from the cursor the pages before it ended
+ * at, as when a user scrolls down the feed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PostSortBenchmark {
+  // The page read from a cursor.
+  private static final int LATER_PAGE = 10;
+
+  @Param({"1000", "10000"})
+  public int corpusSize;
+
+  @Param({"new", "top", "trending"})
+  public String sortType;
+
+  private final LocalDatastore localDatastore = new LocalDatastore();
+  private PostService postService;
+  private Optional<String> laterPageCursor;
+
+  @Setup(Level.Trial)
+  public void storePosts() {
+    localDatastore.start();
+    SyntheticPosts.store(DatastoreServiceFactory.getDatastoreService(), corpusSize, 42);
+    postService = PostService.Builder.builder().build();
+    laterPageCursor = Optional.empty();
+    for (int page = 1; page < LATER_PAGE; page++) {
+      laterPageCursor =
+          postService
+              .getSortedPostsPage(sortType, PostPage.DEFAULT_PAGE_SIZE, laterPageCursor)
+              .get()
+              .getCursor();
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void attachDatastore() {
+    localDatastore.attach();
+  }
+
+  @TearDown(Level.Trial)
+  public void stopDatastore() {
+    localDatastore.stop();
+  }
+
+  @Benchmark
+  public PostPage firstPage() {
+    return postService
+        .getSortedPostsPage(sortType, PostPage.DEFAULT_PAGE_SIZE, Optional.empty())
+        .get();
+  }
+
+  @Benchmark
+  public PostPage laterPage() {
+    return postService
+        .getSortedPostsPage(sortType, PostPage.DEFAULT_PAGE_SIZE, laterPageCursor)
+        .get();
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The search that PostFilter ran before posts were indexed: every post is loaded and its fields are
+ * searched for the query. Kept as the baseline the indexed search is measured against.
+ */
+final class ScanFilter {
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private ScanFilter() {}
+
+  static List<Entity> filterPosts(String searchQuery) {
+    Query query = new Query("Post");
+    List<Entity> posts = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+    return rank(posts, searchQuery);
+  }
+
+  /**
+   * Removes the posts that do not contain the query and sorts the rest, computing the weights of
+   * both posts on every comparison.
+   */
+  static List<Entity> rank(List<Entity> posts, String searchQuery) {
+    String lowerQuery = searchQuery.toLowerCase();
+    posts.removeIf(post -> !calculateWeight(post, lowerQuery).isPresent());
+    posts.sort((post1, post2) -> compare(post1, post2, lowerQuery));
+    return posts;
+  }
+
+  private static int compare(Entity post1, Entity post2, String lowerQuery) {
+    Optional<Integer> post1Type = calculateWeight(post1, lowerQuery);
+    Optional<Integer> post2Type = calculateWeight(post2, lowerQuery);
+    return Integer.compare(post2Type.orElse(0), post1Type.orElse(0));
+  }
+
+  private static Optional<Integer> calculateWeight(Entity post, String lowerQuery) {
+    String postSchool = ((String) post.getProperty("schoolName")).toLowerCase();
+    String postTitle = ((String) post.getProperty("title")).toLowerCase();
+    String postText = ((Text) post.getProperty("text")).getValue().toLowerCase();
+
+    if (postSchool.contains(lowerQuery)) {
+      return Optional.of(1);
+    } else if (postTitle.contains(lowerQuery)) {
+      return Optional.of(0);
+    } else if (postText.contains(lowerQuery)) {
+      return Optional.of(-1);
+    }
+    return Optional.empty();
+  }
+}
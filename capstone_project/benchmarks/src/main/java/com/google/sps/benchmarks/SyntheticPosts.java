@@ -0,0 +1,205 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.sps.data.PostIndex;
+import com.google.sps.data.PostService;
+import com.google.sps.data.PostSummary;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates posts shaped like the ones PostService stores. The same size and seed always give the
+ * same posts, so runs of a benchmark can be compared.
+ */
+public final class SyntheticPosts {
+  /** The time the posts are generated as of, in milliseconds since the epoch. */
+  public static final long NOW = 1600000000000L;
+
+  public static final String[] SCHOOLS = {
+    "Arizona State University",
+    "Boston University",
+    "Carnegie Mellon University",
+    "Cornell University",
+    "Georgia Institute of Technology",
+    "Harvard University",
+    "Howard University",
+    "Massachusetts Institute of Technology",
+    "New York University",
+    "Ohio State University",
+    "Purdue University",
+    "Rice University",
+    "Stanford University",
+    "Texas A&M University",
+    "University of California, Berkeley",
+    "University of California, Los Angeles",
+    "University of Michigan",
+    "University of Texas at Austin",
+    "University of Washington",
+    "Yale University"
+  };
+  private static final String[] WORDS = {
+    "exam",
+    "midterm",
+    "final",
+    "stress",
+    "library",
+    "dorm",
+    "roommate",
+    "dining",
+    "hall",
+    "professor",
+    "lecture",
+    "homework",
+    "project",
+    "deadline",
+    "campus",
+    "club",
+    "party",
+    "game",
+    "football",
+    "basketball",
+    "study",
+    "group",
+    "coffee",
+    "sleep",
+    "tired",
+    "happy",
+    "sad",
+    "anxious",
+    "excited",
+    "internship",
+    "interview",
+    "resume",
+    "career",
+    "fair",
+    "grades",
+    "semester",
+    "quarter",
+    "break",
+    "spring",
+    "winter",
+    "summer",
+    "fall",
+    "housing",
+    "rent",
+    "parking",
+    "bus",
+    "bike",
+    "weather",
+    "rain",
+    "snow",
+    "friends",
+    "family",
+    "home",
+    "lonely",
+    "counseling",
+    "health",
+    "center",
+    "gym",
+    "workout",
+    "food",
+    "pizza",
+    "ramen",
+    "budget",
+    "scholarship",
+    "tuition",
+    "loan",
+    "major",
+    "minor",
+    "computer",
+    "science",
+    "biology",
+    "chemistry",
+    "physics",
+    "math",
+    "history",
+    "english",
+    "art",
+    "music",
+    "research",
+    "lab",
+    "thesis",
+    "graduation",
+    "alumni",
+    "state",
+    "university",
+    "college",
+    "online",
+    "zoom",
+    "class"
+  };
+  private static final String[] REACTIONS = {"laugh", "love", "sad", "think", "wow", "yikes"};
+  private static final int TITLE_WORDS = 6;
+  private static final int TEXT_WORDS = 60;
+  // Datastore accepts at most 500 entities per batch put.
+  private static final int BATCH_SIZE = 500;
+
+  private SyntheticPosts() {}
+
+  /**
+   * Returns the given number of indexed posts that are not stored yet, with the summary properties
+   * and trending score that PostService writes.
+   */
+  public static List<Entity> create(int count, long seed) {
+    Random random = new Random(seed);
+    List<Entity> posts = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Entity post = new Entity("Post");
+      EmbeddedEntity reactions = new EmbeddedEntity();
+      for (String reaction : REACTIONS) {
+        reactions.setProperty(reaction, (long) random.nextInt(50));
+      }
+      post.setProperty("reactions", reactions);
+      post.setProperty("fileType", "none");
+      post.setProperty("text", new Text(words(random, TEXT_WORDS)));
+      post.setProperty("upvotes", (long) random.nextInt(1000));
+      post.setProperty("schoolName", SCHOOLS[random.nextInt(SCHOOLS.length)]);
+      // Spreads the posts over the last 30 days.
+      post.setProperty("timestamp", NOW - random.nextInt(30 * 24 * 60 * 60) * 1000L);
+      post.setProperty("title", words(random, TITLE_WORDS));
+      post.setProperty("trendingScore", PostService.calculateTrendingScore(post, NOW));
+      PostIndex.indexPost(post);
+      PostSummary.addSummaryProperties(post);
+      posts.add(post);
+    }
+    return posts;
+  }
+
+  /** Creates the given number of posts and stores them in datastore. */
+  public static List<Entity> store(DatastoreService datastore, int count, long seed) {
+    List<Entity> posts = create(count, seed);
+    for (int start = 0; start < posts.size(); start += BATCH_SIZE) {
+      datastore.put(posts.subList(start, Math.min(start + BATCH_SIZE, posts.size())));
+    }
+    return posts;
+  }
+
+  private static String words(Random random, int count) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        text.append(' ');
+      }
+      text.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return text.toString();
+  }
+}
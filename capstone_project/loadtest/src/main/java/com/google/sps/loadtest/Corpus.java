@@ -0,0 +1,177 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * What the virtual users know about the content of the app: the posts they have seen in the feed,
+ * the words they search for and the locations of the schools. Like real users, they vote on the
+ * newest posts far more often than on older ones, so the first posts of the feed are kept as the
+ * hot posts.
+ */
+public final class Corpus {
+  // Bounds the memory of a long run against a large app.
+  private static final int MAX_POSTS = 10000;
+  private static final int MAX_SEARCH_TERMS = 1000;
+  // Search matches the beginning of words, so users often stop typing after a few letters.
+  private static final double PREFIX_SHARE = 0.3;
+  private static final int MIN_PREFIX_LENGTH = 3;
+
+  private final int hotPostCount;
+  private final double hotShare;
+  private List<Long> hotPosts = Collections.emptyList();
+  private final List<Long> posts = new ArrayList<>();
+  private final Set<Long> knownPosts = new HashSet<>();
+  private final List<String> searchTerms = new ArrayList<>();
+  private final Set<String> knownSearchTerms = new HashSet<>();
+  private final List<double[]> schoolLocations = new ArrayList<>();
+
+  public Corpus(int hotPostCount, double hotShare) {
+    this.hotPostCount = hotPostCount;
+    this.hotShare = hotShare;
+  }
+
+  /**
+   * Reads the posts of a feed page from its JSON, and their titles and schools as search terms.
+   * Returns the cursor of the next page, if there is one. Throws JsonParseException if the page is
+   * malformed.
+   */
+  public Optional<String> addFeedPage(String json, boolean firstPage) {
+    JsonObject page = JsonParser.parseString(json).getAsJsonObject();
+    List<Long> postIds = new ArrayList<>();
+    for (JsonElement element : page.getAsJsonArray("posts")) {
+      JsonObject post = element.getAsJsonObject();
+      postIds.add(post.get("postId").getAsLong());
+      addSearchTerms(getString(post, "title"));
+      addSearchTerms(getString(post, "schoolName"));
+    }
+    addPosts(postIds, firstPage);
+    return Optional.ofNullable(getString(page, "cursor"));
+  }
+
+  /**
+   * Reads the schools of the school list from its JSON, adding their locations and the words of
+   * their names. Returns the names of the schools. Throws JsonParseException if the list is
+   * malformed.
+   */
+  public List<String> addSchools(String json) {
+    List<String> names = new ArrayList<>();
+    for (JsonElement element : JsonParser.parseString(json).getAsJsonArray()) {
+      JsonObject school = element.getAsJsonObject();
+      String name = getString(school, "name");
+      if (name != null) {
+        names.add(name);
+        addSearchTerms(name);
+      }
+      addSchoolLocation(
+          school.get("latitude").getAsDouble(), school.get("longitude").getAsDouble());
+    }
+    return names;
+  }
+
+  /**
+   * Adds the posts of a feed page. The first page of the feed holds the newest posts, which become
+   * the hot posts.
+   */
+  public synchronized void addPosts(List<Long> postIds, boolean firstPage) {
+    if (firstPage && !postIds.isEmpty()) {
+      hotPosts = new ArrayList<>(postIds.subList(0, Math.min(hotPostCount, postIds.size())));
+    }
+    for (long postId : postIds) {
+      if (posts.size() < MAX_POSTS && knownPosts.add(postId)) {
+        posts.add(postId);
+      }
+    }
+  }
+
+  /** Adds the words of the text as search terms. */
+  public synchronized void addSearchTerms(String text) {
+    if (text == null) {
+      return;
+    }
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (word.length() >= MIN_PREFIX_LENGTH
+          && searchTerms.size() < MAX_SEARCH_TERMS
+          && knownSearchTerms.add(word)) {
+        searchTerms.add(word);
+      }
+    }
+  }
+
+  public synchronized void addSchoolLocation(double latitude, double longitude) {
+    schoolLocations.add(new double[] {latitude, longitude});
+  }
+
+  /**
+   * Picks the post to vote on, from the hot posts with a probability of hotShare and from all known
+   * posts otherwise. Returns an empty OptionalLong if no post is known yet.
+   */
+  public synchronized OptionalLong pickPost(Random random) {
+    if (!hotPosts.isEmpty() && (posts.isEmpty() || random.nextDouble() < hotShare)) {
+      return OptionalLong.of(hotPosts.get(random.nextInt(hotPosts.size())));
+    }
+    if (posts.isEmpty()) {
+      return OptionalLong.empty();
+    }
+    return OptionalLong.of(posts.get(random.nextInt(posts.size())));
+  }
+
+  /** Picks a search, which is sometimes only the first letters of a word. */
+  public synchronized Optional<String> pickSearchTerm(Random random) {
+    if (searchTerms.isEmpty()) {
+      return Optional.empty();
+    }
+    String term = searchTerms.get(random.nextInt(searchTerms.size()));
+    if (random.nextDouble() < PREFIX_SHARE) {
+      term =
+          term.substring(
+              0, MIN_PREFIX_LENGTH + random.nextInt(term.length() - MIN_PREFIX_LENGTH + 1));
+    }
+    return Optional.of(term);
+  }
+
+  /** Picks the latitude and longitude of a school, to center a map viewport on. */
+  public synchronized Optional<double[]> pickSchoolLocation(Random random) {
+    if (schoolLocations.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(schoolLocations.get(random.nextInt(schoolLocations.size())));
+  }
+
+  private static String getString(JsonObject object, String name) {
+    JsonElement value = object.get(name);
+    return value == null || value.isJsonNull() ? null : value.getAsString();
+  }
+
+  public synchronized int getPostCount() {
+    return posts.size();
+  }
+
+  public synchronized int getSearchTermCount() {
+    return searchTerms.size();
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+/** The servlets the load test sends traffic to, with their share of the default traffic mix. */
+public enum Endpoint {
+  /** Pages of the newest posts, as the comments page loads them while the user scrolls. */
+  FEED("feed", "/post-process", 40),
+  /** Bursts of upvotes on the posts at the top of the feed. */
+  UPVOTE("upvote", "/upvote", 20),
+  /** Bursts of reactions on the posts at the top of the feed. */
+  REACT("react", "/post-react", 15),
+  /** Searches from the search bar. */
+  SEARCH("search", "/filter-posts", 15),
+  /** The school list and the schools of a map viewport. */
+  SCHOOLS("schools", "/school-data", 10);
+
+  private final String name;
+  private final String path;
+  private final int defaultWeight;
+
+  Endpoint(String name, String path, int defaultWeight) {
+    this.name = name;
+    this.path = path;
+    this.defaultWeight = defaultWeight;
+  }
+
+  /** Returns the name of the endpoint in the traffic mix and the report. */
+  public String getName() {
+    return name;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public int getDefaultWeight() {
+    return defaultWeight;
+  }
+
+  /** Returns the endpoint with the given name. Throws IllegalArgumentException if there is none. */
+  public static Endpoint forName(String name) {
+    for (Endpoint endpoint : values()) {
+      if (endpoint.name.equals(name)) {
+        return endpoint;
+      }
+    }
+    throw new IllegalArgumentException("Unknown endpoint in the traffic mix: " + name);
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The requests one or more virtual users sent to an endpoint during the measured part of a stage.
+ * Every latency is kept, so percentiles are exact rather than estimated from buckets. Latencies
+ * include failed requests, which is why the error rate should be read next to them.
+ */
+public final class EndpointStats {
+  private long[] latenciesMicros = new long[256];
+  private int count;
+  private boolean sorted = true;
+  private final Map<String, Long> errors = new TreeMap<>();
+  private long errorCount;
+
+  /** Records a request that got a 2xx or 304 response. */
+  public void recordSuccess(long latencyMicros) {
+    addLatency(latencyMicros);
+  }
+
+  /**
+   * Records a failed request, counted by the kind of failure, such as "status 500" or "timeout".
+   */
+  public void recordError(long latencyMicros, String kind) {
+    addLatency(latencyMicros);
+    errors.merge(kind, 1L, Long::sum);
+    errorCount++;
+  }
+
+  /** Adds the requests of the other stats to these. */
+  public void merge(EndpointStats other) {
+    ensureCapacity(count + other.count);
+    System.arraycopy(other.latenciesMicros, 0, latenciesMicros, count, other.count);
+    count += other.count;
+    sorted = false;
+    for (Map.Entry<String, Long> error : other.errors.entrySet()) {
+      errors.merge(error.getKey(), error.getValue(), Long::sum);
+    }
+    errorCount += other.errorCount;
+  }
+
+  /** Returns the number of requests, successful or not. */
+  public int getCount() {
+    return count;
+  }
+
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  /** Returns the share of the requests that failed, or 0 if there were none. */
+  public double getErrorRate() {
+    return count == 0 ? 0 : (double) errorCount / count;
+  }
+
+  /** Returns the number of failed requests by kind of failure. */
+  public Map<String, Long> getErrors() {
+    return Collections.unmodifiableMap(errors);
+  }
+
+  /**
+   * Returns the latency that the given percentage of the requests did not exceed, using the nearest
+   * rank. Returns 0 if there were no requests.
+   */
+  public long getPercentileMicros(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    if (!sorted) {
+      Arrays.sort(latenciesMicros, 0, count);
+      sorted = true;
+    }
+    int rank = (int) Math.ceil(percentile / 100 * count);
+    return latenciesMicros[Math.max(0, Math.min(rank, count) - 1)];
+  }
+
+  public long getMaxMicros() {
+    return getPercentileMicros(100);
+  }
+
+  private void addLatency(long latencyMicros) {
+    ensureCapacity(count + 1);
+    latenciesMicros[count++] = latencyMicros;
+    sorted = false;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > latenciesMicros.length) {
+      latenciesMicros =
+          Arrays.copyOf(latenciesMicros, Math.max(capacity, latenciesMicros.length * 2));
+    }
+  }
+}
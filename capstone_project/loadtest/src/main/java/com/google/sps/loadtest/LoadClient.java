@@ -0,0 +1,246 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends requests to the app. Redirects are not followed, since the servlets answer a request that
+ * is not logged in with a redirect to the login page, and the load test counts that as an error.
+ * Every response is read to the end, so its connection can be reused by the next request.
+ */
+public final class LoadClient {
+  private static final String LOGIN_COOKIE = "dev_appserver_login";
+
+  private final String target;
+  private final int timeoutMillis;
+
+  public LoadClient(String target, int timeoutMillis) {
+    this.target = target;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /** A status, its headers and the body of a response. */
+  public static final class Response {
+    private final int status;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+
+    private Response(int status, Map<String, List<String>> headers, byte[] body) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /** Returns true if the status is 2xx or 304 Not Modified. */
+    public boolean isSuccessful() {
+      return (status >= 200 && status < 300) || status == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /** Returns the first value of the header, or null if the response does not have it. */
+    public String getHeader(String name) {
+      for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+        if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+          return entry.getValue().get(0);
+        }
+      }
+      return null;
+    }
+
+    /** Returns every value of the header. */
+    public List<String> getHeaders(String name) {
+      for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+        if (name.equalsIgnoreCase(entry.getKey())) {
+          return entry.getValue();
+        }
+      }
+      return Collections.emptyList();
+    }
+
+    /** Returns the body as text, decompressing it if it was sent gzipped. */
+    public String getText() throws IOException {
+      if (!"gzip".equalsIgnoreCase(getHeader("Content-Encoding"))) {
+        return new String(body, StandardCharsets.UTF_8);
+      }
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+        return new String(readAll(in), StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * Logs in to the local development server as the given user and returns the cookie that
+   * identifies them. Throws IOException if the server did not log the user in, which is the case on
+   * a deployed app, where only Google accounts can log in.
+   */
+  public String logIn(String email, boolean admin) throws IOException {
+    StringBuilder form =
+        new StringBuilder()
+            .append("email=")
+            .append(encode(email))
+            .append("&action=")
+            .append(encode("Log In"))
+            .append("&continue=")
+            .append(encode("/"));
+    if (admin) {
+      form.append("&isAdmin=on");
+    }
+
+    HttpURLConnection connection = open(target + "/_ah/login");
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    Response response = send(connection, form.toString().getBytes(StandardCharsets.UTF_8));
+    for (String cookie : response.getHeaders("Set-Cookie")) {
+      if (cookie.startsWith(LOGIN_COOKIE + "=")) {
+        int end = cookie.indexOf(';');
+        return end < 0 ? cookie : cookie.substring(0, end);
+      }
+    }
+    throw new IOException(
+        "The server did not log in " + email + " (status " + response.getStatus() + ")");
+  }
+
+  /** Sends a GET request to the path, which may include a query string. */
+  public Response get(String path, String cookie, Map<String, String> headers) throws IOException {
+    HttpURLConnection connection = open(target + path);
+    connection.setRequestProperty("Cookie", cookie);
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      connection.setRequestProperty(header.getKey(), header.getValue());
+    }
+    return send(connection, null);
+  }
+
+  /** Sends a POST request with the parameters as a URL encoded form. */
+  public Response postForm(String path, String cookie, Map<String, String> parameters)
+      throws IOException {
+    HttpURLConnection connection = open(target + path);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Cookie", cookie);
+    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    return send(connection, toQuery(parameters).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Sends a POST request with the JSON as its body. */
+  public Response postJson(String path, String cookie, String json) throws IOException {
+    HttpURLConnection connection = open(target + path);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Cookie", cookie);
+    connection.setRequestProperty("Content-Type", "application/json");
+    return send(connection, json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Sends a POST request with the fields as a multipart form, as the browser submits the post form
+   * to a Blobstore upload URL. The URL is absolute, since the server creates upload URLs that way.
+   */
+  public Response postMultipart(String url, String cookie, Map<String, String> fields)
+      throws IOException {
+    String boundary = "loadtest" + UUID.randomUUID().toString().replace("-", "");
+    StringBuilder body = new StringBuilder();
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      body.append("--")
+          .append(boundary)
+          .append("\r\nContent-Disposition: form-data; name=\"")
+          .append(field.getKey())
+          .append("\"\r\n\r\n")
+          .append(field.getValue())
+          .append("\r\n");
+    }
+    body.append("--").append(boundary).append("--\r\n");
+
+    HttpURLConnection connection = open(url);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Cookie", cookie);
+    connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+    return send(connection, body.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Joins the parameters into a URL encoded query string, without the leading question mark. */
+  public static String toQuery(Map<String, String> parameters) {
+    StringBuilder query = new StringBuilder();
+    for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+      if (query.length() > 0) {
+        query.append('&');
+      }
+      query.append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+    }
+    return query.toString();
+  }
+
+  private HttpURLConnection open(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setInstanceFollowRedirects(false);
+    connection.setUseCaches(false);
+    connection.setConnectTimeout(timeoutMillis);
+    connection.setReadTimeout(timeoutMillis);
+    return connection;
+  }
+
+  private static Response send(HttpURLConnection connection, byte[] body) throws IOException {
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+    }
+
+    int status = connection.getResponseCode();
+    InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+    byte[] responseBody = new byte[0];
+    if (in != null) {
+      try (InputStream stream = in) {
+        responseBody = readAll(stream);
+      }
+    }
+    return new Response(status, connection.getHeaderFields(), responseBody);
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError("Every JVM supports UTF-8", e);
+    }
+  }
+}
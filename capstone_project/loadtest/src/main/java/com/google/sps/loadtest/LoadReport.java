@@ -0,0 +1,207 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+
+/**
+ * Prints the results of the stages as tables and writes them to a JSON file. Also finds the knee of
+ * each endpoint: the concurrency after which adding users no longer adds throughput, because the
+ * requests only wait longer.
+ */
+public final class LoadReport {
+  // Throughput that grows by less than this between stages has stopped growing.
+  private static final double KNEE_GROWTH = 1.1;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final LoadTestConfig config;
+  private final List<StageResult> stages = new ArrayList<>();
+
+  public LoadReport(LoadTestConfig config) {
+    this.config = config;
+  }
+
+  public void add(StageResult stage) {
+    stages.add(stage);
+  }
+
+  /** Prints the requests, throughput, error rate and latency of each endpoint of the stage. */
+  public static void printStage(StageResult stage, PrintStream out) {
+    out.printf(
+        "%n%d users, %.0f s measured%n%-9s %9s %9s %8s %9s %9s %9s %9s %9s%n",
+        stage.getConcurrency(),
+        stage.getSeconds(),
+        "endpoint",
+        "requests",
+        "req/s",
+        "errors",
+        "p50 ms",
+        "p90 ms",
+        "p99 ms",
+        "p99.9 ms",
+        "max ms");
+    for (Map.Entry<Endpoint, EndpointStats> entry : stage.getEndpoints().entrySet()) {
+      printRow(entry.getKey().getName(), entry.getValue(), stage, out);
+    }
+    printRow("total", stage.getTotal(), stage, out);
+
+    for (Map.Entry<Endpoint, EndpointStats> entry : stage.getEndpoints().entrySet()) {
+      for (Map.Entry<String, Long> error : entry.getValue().getErrors().entrySet()) {
+        out.printf("  %s: %d x %s%n", entry.getKey().getName(), error.getValue(), error.getKey());
+      }
+    }
+  }
+
+  private static void printRow(
+      String name, EndpointStats stats, StageResult stage, PrintStream out) {
+    out.printf(
+        "%-9s %9d %9.1f %7.2f%% %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+        name,
+        stats.getCount(),
+        stage.getThroughput(stats),
+        stats.getErrorRate() * 100,
+        toMillis(stats.getPercentileMicros(50)),
+        toMillis(stats.getPercentileMicros(90)),
+        toMillis(stats.getPercentileMicros(99)),
+        toMillis(stats.getPercentileMicros(99.9)),
+        toMillis(stats.getMaxMicros()));
+  }
+
+  /** Prints the knee of each endpoint and of all endpoints together. */
+  public void printKnees(PrintStream out) {
+    out.println();
+    for (Map.Entry<String, OptionalInt> knee : getKnees().entrySet()) {
+      if (knee.getValue().isPresent()) {
+        out.printf(
+            "%-9s throughput stops growing after %d users%n",
+            knee.getKey(), knee.getValue().getAsInt());
+      } else {
+        out.printf("%-9s throughput still grows at the last stage%n", knee.getKey());
+      }
+    }
+  }
+
+  /** Writes the settings, the results of every stage and the knees to the report file. */
+  public void write() throws IOException {
+    JsonObject report = new JsonObject();
+    report.addProperty("target", config.getTarget());
+    report.addProperty("mix", config.getMix().toString());
+    report.addProperty("thinkMillis", config.getThinkMillis());
+    report.addProperty("burst", config.getBurst());
+
+    JsonArray stageReports = new JsonArray();
+    for (StageResult stage : stages) {
+      JsonObject stageReport = new JsonObject();
+      stageReport.addProperty("concurrency", stage.getConcurrency());
+      stageReport.addProperty("seconds", stage.getSeconds());
+      JsonObject endpoints = new JsonObject();
+      for (Map.Entry<Endpoint, EndpointStats> entry : stage.getEndpoints().entrySet()) {
+        endpoints.add(entry.getKey().getName(), toJson(entry.getValue(), stage));
+      }
+      endpoints.add("total", toJson(stage.getTotal(), stage));
+      stageReport.add("endpoints", endpoints);
+      stageReports.add(stageReport);
+    }
+    report.add("stages", stageReports);
+
+    JsonObject knees = new JsonObject();
+    for (Map.Entry<String, OptionalInt> knee : getKnees().entrySet()) {
+      knees.addProperty(
+          knee.getKey(), knee.getValue().isPresent() ? knee.getValue().getAsInt() : null);
+    }
+    report.add("knees", knees);
+
+    try (Writer writer =
+        Files.newBufferedWriter(Paths.get(config.getReportFile()), StandardCharsets.UTF_8)) {
+      new GsonBuilder()
+          .setPrettyPrinting()
+          .serializeNulls()
+          .disableHtmlEscaping()
+          .create()
+          .toJson(report, writer);
+    }
+  }
+
+  /**
+   * Returns the knee of each endpoint, and of all of them as "total": the concurrency of the last
+   * stage before one whose throughput grew by less than 10%. Empty if throughput grew at every
+   * stage.
+   */
+  private Map<String, OptionalInt> getKnees() {
+    Map<String, OptionalInt> knees = new LinkedHashMap<>();
+    for (Endpoint endpoint : Endpoint.values()) {
+      knees.put(endpoint.getName(), findKnee(endpoint));
+    }
+    knees.put("total", findKnee(null));
+    return knees;
+  }
+
+  /** Returns the knee of the endpoint, or of all endpoints together if it is null. */
+  private OptionalInt findKnee(Endpoint endpoint) {
+    for (int i = 1; i < stages.size(); i++) {
+      StageResult previous = stages.get(i - 1);
+      StageResult current = stages.get(i);
+      double previousThroughput = previous.getThroughput(getStats(previous, endpoint));
+      double currentThroughput = current.getThroughput(getStats(current, endpoint));
+      if (previousThroughput > 0 && currentThroughput < previousThroughput * KNEE_GROWTH) {
+        return OptionalInt.of(previous.getConcurrency());
+      }
+    }
+    return OptionalInt.empty();
+  }
+
+  private static EndpointStats getStats(StageResult stage, Endpoint endpoint) {
+    return endpoint == null ? stage.getTotal() : stage.getEndpoints().get(endpoint);
+  }
+
+  private static JsonObject toJson(EndpointStats stats, StageResult stage) {
+    JsonObject json = new JsonObject();
+    json.addProperty("requests", stats.getCount());
+    json.addProperty("throughput", stage.getThroughput(stats));
+    json.addProperty("errorRate", stats.getErrorRate());
+    JsonObject errors = new JsonObject();
+    for (Map.Entry<String, Long> error : stats.getErrors().entrySet()) {
+      errors.addProperty(error.getKey(), error.getValue());
+    }
+    json.add("errors", errors);
+
+    JsonObject latency = new JsonObject();
+    for (double percentile : PERCENTILES) {
+      latency.addProperty(
+          "p" + (percentile == (int) percentile ? String.valueOf((int) percentile) : percentile),
+          toMillis(stats.getPercentileMicros(percentile)));
+    }
+    latency.addProperty("max", toMillis(stats.getMaxMicros()));
+    json.add("latencyMillis", latency);
+    return json;
+  }
+
+  private static double toMillis(long micros) {
+    return micros / 1000.0;
+  }
+}
@@ -0,0 +1,338 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** The settings of a load test run, read from the command line. */
+public final class LoadTestConfig {
+  public static final String USAGE =
+      String.join(
+          "\n",
+          "Usage: java -jar target/loadtest.jar [options]",
+          "  --target URL          the app to load (default http://localhost:8080)",
+          "  --concurrency N,N,..  virtual users of each stage (default 1,4,16,64)",
+          "  --duration SECONDS    measured length of each stage (default 30)",
+          "  --warmup SECONDS      unmeasured start of each stage (default 5)",
+          "  --mix NAME=W,...      weights of feed, upvote, react, search and schools",
+          "                        (default " + TrafficMix.getDefault() + ")",
+          "  --users N             distinct accounts the virtual users log in as (default 16)",
+          "  --hot-posts N         newest posts that get most of the votes (default 10)",
+          "  --hot-share FRACTION  share of the votes that go to the hot posts (default 0.8)",
+          "  --burst N             votes or reactions a user sends in a row (default 5)",
+          "  --think-ms MILLIS     pause of a virtual user between actions (default 0)",
+          "  --seed-posts N        posts to create first if the feed has fewer (default 200)",
+          "  --timeout-ms MILLIS   connect and read timeout of a request (default 10000)",
+          "  --report FILE         where to write the JSON report (default loadtest-report.json)",
+          "  --seed N              seed of the random choices (default 1)");
+
+  private final String target;
+  private final List<Integer> concurrencyLevels;
+  private final int durationSeconds;
+  private final int warmupSeconds;
+  private final TrafficMix mix;
+  private final int users;
+  private final int hotPosts;
+  private final double hotShare;
+  private final int burst;
+  private final long thinkMillis;
+  private final int seedPosts;
+  private final int timeoutMillis;
+  private final String reportFile;
+  private final long seed;
+
+  public static class Builder {
+    private String target = "http://localhost:8080";
+    private List<Integer> concurrencyLevels = Arrays.asList(1, 4, 16, 64);
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private TrafficMix mix = TrafficMix.getDefault();
+    private int users = 16;
+    private int hotPosts = 10;
+    private double hotShare = 0.8;
+    private int burst = 5;
+    private long thinkMillis = 0;
+    private int seedPosts = 200;
+    private int timeoutMillis = 10000;
+    private String reportFile = "loadtest-report.json";
+    private long seed = 1;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    /** Sets the base URL of the app, without a trailing slash. */
+    public Builder target(String target) {
+      this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+      return this;
+    }
+
+    /** Sets the number of virtual users of each stage. The stages run in the given order. */
+    public Builder concurrencyLevels(List<Integer> concurrencyLevels) {
+      this.concurrencyLevels = concurrencyLevels;
+      return this;
+    }
+
+    public Builder durationSeconds(int durationSeconds) {
+      this.durationSeconds = durationSeconds;
+      return this;
+    }
+
+    /** Sets how long each stage runs before its requests are measured. */
+    public Builder warmupSeconds(int warmupSeconds) {
+      this.warmupSeconds = warmupSeconds;
+      return this;
+    }
+
+    public Builder mix(TrafficMix mix) {
+      this.mix = mix;
+      return this;
+    }
+
+    /** Sets the number of accounts. Virtual users share them when there are more users. */
+    public Builder users(int users) {
+      this.users = users;
+      return this;
+    }
+
+    public Builder hotPosts(int hotPosts) {
+      this.hotPosts = hotPosts;
+      return this;
+    }
+
+    public Builder hotShare(double hotShare) {
+      this.hotShare = hotShare;
+      return this;
+    }
+
+    public Builder burst(int burst) {
+      this.burst = burst;
+      return this;
+    }
+
+    public Builder thinkMillis(long thinkMillis) {
+      this.thinkMillis = thinkMillis;
+      return this;
+    }
+
+    public Builder seedPosts(int seedPosts) {
+      this.seedPosts = seedPosts;
+      return this;
+    }
+
+    public Builder timeoutMillis(int timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+      return this;
+    }
+
+    public Builder reportFile(String reportFile) {
+      this.reportFile = reportFile;
+      return this;
+    }
+
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public LoadTestConfig build() {
+      return new LoadTestConfig(this);
+    }
+  }
+
+  private LoadTestConfig(Builder builder) {
+    if (builder.concurrencyLevels.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one stage");
+    }
+    for (int concurrency : builder.concurrencyLevels) {
+      requirePositive("concurrency", concurrency);
+    }
+    requirePositive("duration", builder.durationSeconds);
+    requireNonNegative("warmup", builder.warmupSeconds);
+    requirePositive("users", builder.users);
+    requirePositive("hot-posts", builder.hotPosts);
+    requirePositive("burst", builder.burst);
+    requireNonNegative("think-ms", builder.thinkMillis);
+    requireNonNegative("seed-posts", builder.seedPosts);
+    requirePositive("timeout-ms", builder.timeoutMillis);
+    if (builder.hotShare < 0 || builder.hotShare > 1) {
+      throw new IllegalArgumentException("hot-share must be between 0 and 1");
+    }
+
+    this.target = builder.target;
+    this.concurrencyLevels =
+        Collections.unmodifiableList(new ArrayList<>(builder.concurrencyLevels));
+    this.durationSeconds = builder.durationSeconds;
+    this.warmupSeconds = builder.warmupSeconds;
+    this.mix = builder.mix;
+    this.users = builder.users;
+    this.hotPosts = builder.hotPosts;
+    this.hotShare = builder.hotShare;
+    this.burst = builder.burst;
+    this.thinkMillis = builder.thinkMillis;
+    this.seedPosts = builder.seedPosts;
+    this.timeoutMillis = builder.timeoutMillis;
+    this.reportFile = builder.reportFile;
+    this.seed = builder.seed;
+  }
+
+  /**
+   * Reads the settings from command line options of the form "--name value" or "--name=value".
+   * Throws IllegalArgumentException if an option is unknown, has no value or has a bad value.
+   */
+  public static LoadTestConfig parse(String[] args) {
+    Builder builder = Builder.builder();
+    for (int i = 0; i < args.length; i++) {
+      String name = args[i];
+      String value;
+      int equals = name.indexOf('=');
+      if (equals >= 0) {
+        value = name.substring(equals + 1);
+        name = name.substring(0, equals);
+      } else if (i + 1 < args.length) {
+        value = args[++i];
+      } else {
+        throw new IllegalArgumentException("Option " + name + " has no value");
+      }
+
+      try {
+        switch (name) {
+          case "--target":
+            builder.target(value);
+            break;
+          case "--concurrency":
+            List<Integer> levels = new ArrayList<>();
+            for (String level : value.split(",")) {
+              levels.add(Integer.parseInt(level.trim()));
+            }
+            builder.concurrencyLevels(levels);
+            break;
+          case "--duration":
+            builder.durationSeconds(Integer.parseInt(value));
+            break;
+          case "--warmup":
+            builder.warmupSeconds(Integer.parseInt(value));
+            break;
+          case "--mix":
+            builder.mix(TrafficMix.parse(value));
+            break;
+          case "--users":
+            builder.users(Integer.parseInt(value));
+            break;
+          case "--hot-posts":
+            builder.hotPosts(Integer.parseInt(value));
+            break;
+          case "--hot-share":
+            builder.hotShare(Double.parseDouble(value));
+            break;
+          case "--burst":
+            builder.burst(Integer.parseInt(value));
+            break;
+          case "--think-ms":
+            builder.thinkMillis(Long.parseLong(value));
+            break;
+          case "--seed-posts":
+            builder.seedPosts(Integer.parseInt(value));
+            break;
+          case "--timeout-ms":
+            builder.timeoutMillis(Integer.parseInt(value));
+            break;
+          case "--report":
+            builder.reportFile(value);
+            break;
+          case "--seed":
+            builder.seed(Long.parseLong(value));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + name);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Option " + name + " is not a number: " + value, e);
+      }
+    }
+    return builder.build();
+  }
+
+  private static void requirePositive(String name, long value) {
+    if (value <= 0) {
+      throw new IllegalArgumentException(name + " must be positive");
+    }
+  }
+
+  private static void requireNonNegative(String name, long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException(name + " must not be negative");
+    }
+  }
+
+  public String getTarget() {
+    return target;
+  }
+
+  public List<Integer> getConcurrencyLevels() {
+    return concurrencyLevels;
+  }
+
+  public int getDurationSeconds() {
+    return durationSeconds;
+  }
+
+  public int getWarmupSeconds() {
+    return warmupSeconds;
+  }
+
+  public TrafficMix getMix() {
+    return mix;
+  }
+
+  public int getUsers() {
+    return users;
+  }
+
+  public int getHotPosts() {
+    return hotPosts;
+  }
+
+  public double getHotShare() {
+    return hotShare;
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+
+  public long getThinkMillis() {
+    return thinkMillis;
+  }
+
+  public int getSeedPosts() {
+    return seedPosts;
+  }
+
+  public int getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public String getReportFile() {
+    return reportFile;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the traffic mix of the app against a development server started with `mvn package
+ * appengine:run`, in stages of a growing number of virtual users. Reports the throughput, error
+ * rate and latency percentiles of every endpoint at each stage, and the concurrency at which the
+ * throughput of each endpoint stops growing.
+ */
+public final class LoadTestMain {
+  private LoadTestMain() {}
+
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length > 0 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+      System.out.println(LoadTestConfig.USAGE);
+      return;
+    }
+
+    LoadTestConfig config;
+    try {
+      config = LoadTestConfig.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(LoadTestConfig.USAGE);
+      System.exit(2);
+      return;
+    }
+
+    // Keep a connection open for every virtual user instead of the default five.
+    System.setProperty(
+        "http.maxConnections", String.valueOf(Collections.max(config.getConcurrencyLevels())));
+    LoadClient client = new LoadClient(config.getTarget(), config.getTimeoutMillis());
+    Random random = new Random(config.getSeed());
+    Corpus corpus = new Corpus(config.getHotPosts(), config.getHotShare());
+
+    List<String> cookies = new ArrayList<>();
+    try {
+      for (int i = 0; i < config.getUsers(); i++) {
+        cookies.add(client.logIn("loadtest-" + i + "@example.com", false));
+      }
+      new Seeder(client, cookies.get(0), corpus, random).seed(config.getSeedPosts());
+    } catch (IOException e) {
+      System.err.println(
+          "Could not prepare "
+              + config.getTarget()
+              + ", which must be a development server started with `mvn package appengine:run`: "
+              + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    System.out.printf(
+        "Loading %s with %s, %d posts and %d search terms known%n",
+        config.getTarget(), config.getMix(), corpus.getPostCount(), corpus.getSearchTermCount());
+
+    LoadReport report = new LoadReport(config);
+    for (int stage = 0; stage < config.getConcurrencyLevels().size(); stage++) {
+      StageResult result =
+          runStage(
+              client,
+              cookies,
+              corpus,
+              config,
+              config.getConcurrencyLevels().get(stage),
+              config.getSeed() + stage);
+      LoadReport.printStage(result, System.out);
+      report.add(result);
+    }
+    report.printKnees(System.out);
+
+    try {
+      report.write();
+      System.out.println("\nWrote " + config.getReportFile());
+    } catch (IOException e) {
+      System.err.println("Could not write " + config.getReportFile() + ": " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /** Runs the given number of virtual users for the warmup and duration of a stage. */
+  private static StageResult runStage(
+      LoadClient client,
+      List<String> cookies,
+      Corpus corpus,
+      LoadTestConfig config,
+      int concurrency,
+      long seed)
+      throws InterruptedException {
+    long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+    long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+    Random seeds = new Random(seed);
+
+    List<VirtualUser> users = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      VirtualUser user =
+          new VirtualUser(
+              client,
+              cookies.get(i % cookies.size()),
+              corpus,
+              config,
+              new Random(seeds.nextLong()),
+              measureFrom,
+              stopAt);
+      Thread thread = new Thread(user, "virtual-user-" + i);
+      thread.setDaemon(true);
+      users.add(user);
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // Requests that were still running at the end of the stage make it a little longer.
+    double seconds = (System.nanoTime() - measureFrom) / 1e9;
+    StageResult result = new StageResult(concurrency, seconds);
+    for (VirtualUser user : users) {
+      result.add(user.getStats());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Prepares the app for a load test. Learns the schools and posts the app already has, and creates
+ * schools and posts through the same forms users submit when there are too few to spread the
+ * traffic over. New posts are analyzed by the post-analysis queue, which fails without Natural
+ * Language API credentials; that does not affect the endpoints under load.
+ */
+public final class Seeder {
+  private static final String[] WORDS = {
+    "exam", "dorm", "housing", "scholarship", "internship", "tuition", "professor", "campus",
+    "library", "roommate", "financial", "aid", "club", "major", "advice", "application",
+    "deadline", "semester", "midterm", "lab", "research", "career", "parking", "dining"
+  };
+  private static final Object[][] SCHOOLS = {
+    {"Load Test University", 37.4275, -122.1697},
+    {"Load Test State University", 42.3601, -71.0942},
+    {"Load Test Institute of Technology", 34.1377, -118.1253},
+    {"Load Test College", 40.8075, -73.9626},
+    {"Load Test Community College", 47.6553, -122.3035}
+  };
+  private static final int PAGE_SIZE = 20;
+  private static final int WORDS_PER_TITLE = 3;
+  private static final int WORDS_PER_TEXT = 40;
+
+  private final LoadClient client;
+  private final String cookie;
+  private final Corpus corpus;
+  private final Random random;
+
+  public Seeder(LoadClient client, String cookie, Corpus corpus, Random random) {
+    this.client = client;
+    this.cookie = cookie;
+    this.corpus = corpus;
+    this.random = random;
+  }
+
+  /**
+   * Makes sure the app has schools and at least the given number of posts, and adds them to the
+   * corpus. Throws IOException if the app cannot be reached or rejects a request.
+   */
+  public void seed(int minPosts) throws IOException {
+    List<String> schools = loadSchools();
+    if (schools.isEmpty()) {
+      System.out.println("Creating " + SCHOOLS.length + " schools");
+      for (Object[] school : SCHOOLS) {
+        createSchool((String) school[0], (double) school[1], (double) school[2]);
+      }
+      schools = loadSchools();
+      if (schools.isEmpty()) {
+        throw new IOException("The created schools are not in the school list");
+      }
+    }
+
+    int missingPosts = minPosts - loadFeed(minPosts);
+    if (missingPosts > 0) {
+      System.out.println("Creating " + missingPosts + " posts");
+      for (int i = 0; i < missingPosts; i++) {
+        createPost(schools.get(random.nextInt(schools.size())));
+      }
+      loadFeed(minPosts);
+    }
+  }
+
+  private List<String> loadSchools() throws IOException {
+    LoadClient.Response response =
+        check(
+            client.get(Endpoint.SCHOOLS.getPath(), cookie, Collections.emptyMap()),
+            "the school list",
+            false);
+    try {
+      return corpus.addSchools(response.getText());
+    } catch (JsonParseException | IllegalStateException e) {
+      throw new IOException("The school list is malformed", e);
+    }
+  }
+
+  /**
+   * Reads pages of the feed until the corpus knows the given number of posts or the feed ends, and
+   * returns the number of posts the corpus knows.
+   */
+  private int loadFeed(int posts) throws IOException {
+    boolean firstPage = true;
+    Optional<String> cursor = Optional.empty();
+    do {
+      Map<String, String> parameters = new LinkedHashMap<>();
+      parameters.put("page-size", String.valueOf(PAGE_SIZE));
+      cursor.ifPresent(value -> parameters.put("cursor", value));
+      String path = Endpoint.FEED.getPath() + "?" + LoadClient.toQuery(parameters);
+
+      LoadClient.Response response =
+          check(client.get(path, cookie, Collections.emptyMap()), "the feed", false);
+      try {
+        cursor = corpus.addFeedPage(response.getText(), firstPage);
+      } catch (JsonParseException | IllegalStateException e) {
+        throw new IOException("A page of the feed is malformed", e);
+      }
+      firstPage = false;
+    } while (cursor.isPresent() && corpus.getPostCount() < posts);
+    return corpus.getPostCount();
+  }
+
+  private void createSchool(String name, double latitude, double longitude) throws IOException {
+    JsonObject school = new JsonObject();
+    school.addProperty("name", name);
+    school.addProperty("latitude", latitude);
+    school.addProperty("longitude", longitude);
+    check(
+        client.postJson(Endpoint.SCHOOLS.getPath(), cookie, school.toString()),
+        "a new school",
+        true);
+  }
+
+  /** Creates a post by submitting the post form to a Blobstore upload URL, as the browser does. */
+  private void createPost(String schoolName) throws IOException {
+    String uploadUrl =
+        check(
+                client.get("/fetch-blobstore-url?file-type=none", cookie, Collections.emptyMap()),
+                "an upload URL",
+                false)
+            .getText()
+            .trim();
+
+    Map<String, String> fields = new LinkedHashMap<>();
+    fields.put("title", getWords(WORDS_PER_TITLE));
+    fields.put("schools", schoolName);
+    fields.put("text", getWords(WORDS_PER_TEXT));
+    check(client.postMultipart(uploadUrl, cookie, fields), "a new post", true);
+  }
+
+  private String getWords(int count) {
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        words.append(' ');
+      }
+      words.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return words.toString();
+  }
+
+  /**
+   * Returns the response if it succeeded, or if it redirected and that is allowed, as the forms
+   * redirect after a submission. Throws IOException otherwise.
+   */
+  private static LoadClient.Response check(
+      LoadClient.Response response, String what, boolean allowRedirect) throws IOException {
+    int status = response.getStatus();
+    if (status >= 400 || (status >= 300 && !allowRedirect)) {
+      throw new IOException("The request for " + what + " failed with status " + status);
+    }
+    return response;
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/** The requests of all virtual users of a stage, by endpoint and in total. */
+public final class StageResult {
+  private final int concurrency;
+  private final double seconds;
+  private final Map<Endpoint, EndpointStats> endpoints = new EnumMap<>(Endpoint.class);
+  private final EndpointStats total = new EndpointStats();
+
+  /** Creates the result of a stage whose measured part lasted the given number of seconds. */
+  public StageResult(int concurrency, double seconds) {
+    this.concurrency = concurrency;
+    this.seconds = seconds;
+    for (Endpoint endpoint : Endpoint.values()) {
+      endpoints.put(endpoint, new EndpointStats());
+    }
+  }
+
+  /** Adds the requests of a virtual user of the stage. */
+  public void add(Map<Endpoint, EndpointStats> userStats) {
+    for (Map.Entry<Endpoint, EndpointStats> entry : userStats.entrySet()) {
+      endpoints.get(entry.getKey()).merge(entry.getValue());
+      total.merge(entry.getValue());
+    }
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  public double getSeconds() {
+    return seconds;
+  }
+
+  public Map<Endpoint, EndpointStats> getEndpoints() {
+    return Collections.unmodifiableMap(endpoints);
+  }
+
+  /** Returns the requests to all endpoints together. */
+  public EndpointStats getTotal() {
+    return total;
+  }
+
+  /** Returns the requests per second the stats describe, successful or not. */
+  public double getThroughput(EndpointStats stats) {
+    return stats.getCount() / seconds;
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/** The share of the actions of a virtual user that go to each endpoint. */
+public final class TrafficMix {
+  private final Map<Endpoint, Integer> weights;
+  private final int totalWeight;
+
+  private TrafficMix(Map<Endpoint, Integer> weights) {
+    this.weights = Collections.unmodifiableMap(new EnumMap<>(weights));
+    int total = 0;
+    for (int weight : weights.values()) {
+      total += weight;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("The traffic mix sends no traffic to any endpoint");
+    }
+    this.totalWeight = total;
+  }
+
+  /** Returns the mix of the production traffic the endpoints were sized for. */
+  public static TrafficMix getDefault() {
+    Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+    for (Endpoint endpoint : Endpoint.values()) {
+      weights.put(endpoint, endpoint.getDefaultWeight());
+    }
+    return new TrafficMix(weights);
+  }
+
+  /**
+   * Parses a mix such as "feed=40,upvote=20,search=40". Endpoints that are left out get no traffic.
+   * Throws IllegalArgumentException if the mix is malformed or sends no traffic at all.
+   */
+  public static TrafficMix parse(String mix) {
+    Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Expected endpoint=weight in the traffic mix: " + entry);
+      }
+
+      int weight;
+      try {
+        weight = Integer.parseInt(parts[1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("The weight of " + parts[0] + " is not a number", e);
+      }
+      if (weight < 0) {
+        throw new IllegalArgumentException("The weight of " + parts[0] + " is negative");
+      }
+      weights.put(Endpoint.forName(parts[0].trim()), weight);
+    }
+    return new TrafficMix(weights);
+  }
+
+  /** Picks the endpoint of the next action, each with a probability proportional to its weight. */
+  public Endpoint pick(Random random) {
+    int value = random.nextInt(totalWeight);
+    for (Map.Entry<Endpoint, Integer> entry : weights.entrySet()) {
+      value -= entry.getValue();
+      if (value < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new AssertionError("The weights add up to more than their total");
+  }
+
+  public Map<Endpoint, Integer> getWeights() {
+    return weights;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<Endpoint, Integer> entry : weights.entrySet()) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(entry.getKey().getName()).append('=').append(entry.getValue());
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,277 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A user who keeps acting on the app until the end of a stage, picking each action from the traffic
+ * mix: loading a few pages of the feed, voting or reacting several times in a row on one post,
+ * searching, or loading the school list or a map viewport. The next action starts when the previous
+ * one finishes, after the think time, so the load grows with the number of users.
+ */
+public final class VirtualUser implements Runnable {
+  static final String[] REACTIONS = {"laugh", "love", "sad", "think", "wow", "yikes"};
+  private static final int FEED_PAGE_SIZE = 20;
+  // Most users read the first page of the feed, some scroll to the next ones.
+  private static final int MAX_FEED_PAGES = 3;
+  private static final double VIEWPORT_SHARE = 0.5;
+  private static final int MIN_ZOOM = 4;
+  private static final int MAX_ZOOM = 14;
+
+  private final LoadClient client;
+  private final String cookie;
+  private final Corpus corpus;
+  private final LoadTestConfig config;
+  private final Random random;
+  private final long measureFromNanos;
+  private final long stopAtNanos;
+  private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+  // The ETag of the school list this user's browser has cached.
+  private String schoolListTag;
+
+  /**
+   * Creates a user who acts until stopAtNanos and measures the requests that start at
+   * measureFromNanos or later. Both are values of System.nanoTime().
+   */
+  public VirtualUser(
+      LoadClient client,
+      String cookie,
+      Corpus corpus,
+      LoadTestConfig config,
+      Random random,
+      long measureFromNanos,
+      long stopAtNanos) {
+    this.client = client;
+    this.cookie = cookie;
+    this.corpus = corpus;
+    this.config = config;
+    this.random = random;
+    this.measureFromNanos = measureFromNanos;
+    this.stopAtNanos = stopAtNanos;
+    for (Endpoint endpoint : Endpoint.values()) {
+      stats.put(endpoint, new EndpointStats());
+    }
+  }
+
+  @Override
+  public void run() {
+    while (System.nanoTime() < stopAtNanos) {
+      switch (config.getMix().pick(random)) {
+        case FEED:
+          loadFeed();
+          break;
+        case UPVOTE:
+          upvote();
+          break;
+        case REACT:
+          react();
+          break;
+        case SEARCH:
+          search();
+          break;
+        case SCHOOLS:
+          loadSchools();
+          break;
+      }
+
+      if (config.getThinkMillis() > 0) {
+        try {
+          Thread.sleep(config.getThinkMillis());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /** Returns the requests this user sent to each endpoint during the measured part of the stage. */
+  public Map<Endpoint, EndpointStats> getStats() {
+    return stats;
+  }
+
+  private void loadFeed() {
+    int pages = 1 + random.nextInt(MAX_FEED_PAGES);
+    Optional<String> cursor = Optional.empty();
+    for (int page = 0; page < pages && System.nanoTime() < stopAtNanos; page++) {
+      Map<String, String> parameters = new LinkedHashMap<>();
+      parameters.put("page-size", String.valueOf(FEED_PAGE_SIZE));
+      cursor.ifPresent(value -> parameters.put("cursor", value));
+      String path = Endpoint.FEED.getPath() + "?" + LoadClient.toQuery(parameters);
+
+      Optional<LoadClient.Response> response =
+          send(Endpoint.FEED, () -> client.get(path, cookie, Collections.emptyMap()));
+      if (!response.isPresent()) {
+        return;
+      }
+      try {
+        cursor = corpus.addFeedPage(response.get().getText(), page == 0);
+      } catch (IOException | JsonParseException | IllegalStateException e) {
+        return;
+      }
+      if (!cursor.isPresent()) {
+        return;
+      }
+    }
+  }
+
+  private void upvote() {
+    OptionalLong post = corpus.pickPost(random);
+    if (!post.isPresent()) {
+      loadFeed();
+      return;
+    }
+
+    Map<String, String> parameters =
+        Collections.singletonMap("id", String.valueOf(post.getAsLong()));
+    for (int i = 0; i < config.getBurst() && System.nanoTime() < stopAtNanos; i++) {
+      send(Endpoint.UPVOTE, () -> client.postForm(Endpoint.UPVOTE.getPath(), cookie, parameters));
+    }
+  }
+
+  private void react() {
+    OptionalLong post = corpus.pickPost(random);
+    if (!post.isPresent()) {
+      loadFeed();
+      return;
+    }
+
+    for (int i = 0; i < config.getBurst() && System.nanoTime() < stopAtNanos; i++) {
+      Map<String, String> parameters = new LinkedHashMap<>();
+      parameters.put("post-id", String.valueOf(post.getAsLong()));
+      parameters.put("reaction", REACTIONS[random.nextInt(REACTIONS.length)]);
+      send(Endpoint.REACT, () -> client.postForm(Endpoint.REACT.getPath(), cookie, parameters));
+    }
+  }
+
+  private void search() {
+    Optional<String> term = corpus.pickSearchTerm(random);
+    if (!term.isPresent()) {
+      loadFeed();
+      return;
+    }
+
+    String path =
+        Endpoint.SEARCH.getPath()
+            + "?"
+            + LoadClient.toQuery(Collections.singletonMap("search", term.get()));
+    send(Endpoint.SEARCH, () -> client.get(path, cookie, Collections.emptyMap()));
+  }
+
+  /**
+   * Loads the school list as the post form does, revalidating the copy the browser cached, or the
+   * schools of a map viewport around a school as the map does while it is moved.
+   */
+  private void loadSchools() {
+    Optional<double[]> school = corpus.pickSchoolLocation(random);
+    if (school.isPresent() && random.nextDouble() < VIEWPORT_SHARE) {
+      String path =
+          Endpoint.SCHOOLS.getPath() + "?" + LoadClient.toQuery(getViewport(school.get()));
+      send(Endpoint.SCHOOLS, () -> client.get(path, cookie, Collections.emptyMap()));
+      return;
+    }
+
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Accept-Encoding", "gzip");
+    if (schoolListTag != null) {
+      headers.put("If-None-Match", schoolListTag);
+    }
+    Optional<LoadClient.Response> response =
+        send(Endpoint.SCHOOLS, () -> client.get(Endpoint.SCHOOLS.getPath(), cookie, headers));
+    if (response.isPresent() && response.get().getHeader("ETag") != null) {
+      schoolListTag = response.get().getHeader("ETag");
+    }
+  }
+
+  /** Returns the parameters of a viewport of a random zoom level centered on the location. */
+  private Map<String, String> getViewport(double[] center) {
+    int zoom = MIN_ZOOM + random.nextInt(MAX_ZOOM - MIN_ZOOM + 1);
+    // A map about a thousand pixels wide shows four tiles of 360 / 2^zoom degrees across.
+    double width = Math.min(360, 4 * 360 / Math.pow(2, zoom));
+    double height = width / 2;
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    parameters.put("south", String.valueOf(Math.max(-85, center[0] - height / 2)));
+    parameters.put("west", String.valueOf(wrapLongitude(center[1] - width / 2)));
+    parameters.put("north", String.valueOf(Math.min(85, center[0] + height / 2)));
+    parameters.put("east", String.valueOf(wrapLongitude(center[1] + width / 2)));
+    parameters.put("zoom", String.valueOf(zoom));
+    return parameters;
+  }
+
+  private static double wrapLongitude(double longitude) {
+    if (longitude < -180) {
+      return longitude + 360;
+    }
+    if (longitude > 180) {
+      return longitude - 360;
+    }
+    return longitude;
+  }
+
+  /**
+   * Sends a request and records it if it started in the measured part of the stage. Returns the
+   * response if the request succeeded, or an empty Optional if it failed.
+   */
+  private Optional<LoadClient.Response> send(Endpoint endpoint, Request request) {
+    long start = System.nanoTime();
+    boolean measured = start >= measureFromNanos;
+    EndpointStats endpointStats = stats.get(endpoint);
+    try {
+      LoadClient.Response response = request.send();
+      long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      if (response.isSuccessful()) {
+        if (measured) {
+          endpointStats.recordSuccess(latency);
+        }
+        return Optional.of(response);
+      }
+      if (measured) {
+        endpointStats.recordError(latency, getErrorKind(response.getStatus()));
+      }
+    } catch (IOException e) {
+      if (measured) {
+        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        endpointStats.recordError(
+            latency, e instanceof SocketTimeoutException ? "timeout" : "connection error");
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static String getErrorKind(int status) {
+    if (status >= 300 && status < 400) {
+      // The servlets redirect to the login page when the login cookie is missing or expired.
+      return "redirect " + status;
+    }
+    return "status " + status;
+  }
+
+  /** A request to the app. */
+  private interface Request {
+    LoadClient.Response send() throws IOException;
+  }
+}
@@ -0,0 +1,354 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.apphosting.api.ApiProxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the results of the Natural Language API by the content of the analyzed text, so reposts
+ * and copied messages are analyzed once. Texts that only differ in case or whitespace share an
+ * entry, keyed by the SHA-256 hash of the normalized text. Entries expire after a fixed time.
+ *
+ * <p>The first tier is an in-memory LRU map of the instance. If a datastore is set, entries are
+ * also stored there, so they survive restarts and are shared between instances. Failures of the
+ * datastore tier, including timeouts and contention, are logged and treated as misses, so the cache
+ * never fails an analysis. Expired entries of the datastore tier are deleted by the hourly blob
+ * collection cron.
+ */
+public class AnalysisCache {
+  private static final Logger logger = Logger.getLogger(AnalysisCache.class.getName());
+  private static final String KIND = "AnalysisCache";
+  // Datastore calls take at most 500 keys at once.
+  private static final int BATCH_SIZE = 500;
+  private static AnalysisCache instance;
+
+  private final DatastoreService datastore;
+  private final Clock clock;
+  private final int maxEntries;
+  private final long ttlMillis;
+  // Entries by hash, from least to most recently used. Guarded by this.
+  private final LinkedHashMap<String, CachedEntry> entries;
+  private final LongAdder memoryHits;
+  private final LongAdder datastoreHits;
+  private final LongAdder misses;
+
+  public static class Builder {
+    private DatastoreService datastore;
+    private Clock clock = Clock.systemUTC();
+    private int maxEntries = 1000;
+    private long ttlMillis = TimeUnit.DAYS.toMillis(7);
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    /** Sets the datastore of the persistent tier. Without one, entries are only kept in memory. */
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Sets how many entries the in-memory tier keeps before it evicts the least recently used. */
+    public Builder maxEntries(int maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /** Sets how long an entry is used after the text was analyzed. */
+    public Builder ttlMillis(long ttlMillis) {
+      this.ttlMillis = ttlMillis;
+      return this;
+    }
+
+    public AnalysisCache build() {
+      return new AnalysisCache(this);
+    }
+  }
+
+  /** The results of the Natural Language API for one text. */
+  public static final class Result {
+    private final double sentimentScore;
+    private final List<String> categories;
+
+    public Result(double sentimentScore, List<String> categories) {
+      this.sentimentScore = sentimentScore;
+      this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+    }
+
+    public double getSentimentScore() {
+      return sentimentScore;
+    }
+
+    public List<String> getCategories() {
+      return categories;
+    }
+  }
+
+  private static final class CachedEntry {
+    private final Result result;
+    private final long expiresAtMillis;
+
+    CachedEntry(Result result, long expiresAtMillis) {
+      this.result = result;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  private AnalysisCache(Builder builder) {
+    this.datastore = builder.datastore;
+    this.clock = builder.clock;
+    this.maxEntries = builder.maxEntries;
+    this.ttlMillis = builder.ttlMillis;
+    entries =
+        new LinkedHashMap<String, CachedEntry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+            return size() > maxEntries;
+          }
+        };
+    memoryHits = new LongAdder();
+    datastoreHits = new LongAdder();
+    misses = new LongAdder();
+  }
+
+  /** Returns the cache shared by all requests of this instance, backed by datastore. */
+  public static synchronized AnalysisCache getInstance() {
+    if (instance == null) {
+      instance = Builder.builder().datastore(MeteredDatastore.getDatastoreService()).build();
+    }
+    return instance;
+  }
+
+  /** Returns the cached results for the text, if it was analyzed and the entry has not expired. */
+  public Optional<Result> get(String text) {
+    String hash = hash(text);
+    long now = clock.millis();
+    synchronized (this) {
+      CachedEntry entry = entries.get(hash);
+      if (entry != null && entry.expiresAtMillis > now) {
+        memoryHits.increment();
+        return Optional.of(entry.result);
+      }
+      if (entry != null) {
+        entries.remove(hash);
+      }
+    }
+
+    Optional<CachedEntry> stored = getStoredEntry(hash);
+    if (stored.isPresent() && stored.get().expiresAtMillis > now) {
+      datastoreHits.increment();
+      synchronized (this) {
+        entries.put(hash, stored.get());
+      }
+      return Optional.of(stored.get().result);
+    }
+    misses.increment();
+    return Optional.empty();
+  }
+
+  /** Caches the results of the analysis of the text in both tiers. */
+  public void put(String text, double sentimentScore, List<String> categories) {
+    String hash = hash(text);
+    CachedEntry entry =
+        new CachedEntry(new Result(sentimentScore, categories), clock.millis() + ttlMillis);
+    synchronized (this) {
+      entries.put(hash, entry);
+    }
+    if (datastore == null) {
+      return;
+    }
+
+    Entity stored = new Entity(KIND, hash);
+    stored.setUnindexedProperty("sentimentScore", sentimentScore);
+    stored.setUnindexedProperty("categories", new ArrayList<>(categories));
+    // Indexed, so expired entries can be found and deleted.
+    stored.setProperty("expiresAt", entry.expiresAtMillis);
+    try {
+      datastore.put(stored);
+    } catch (DatastoreFailureException
+        | DatastoreTimeoutException
+        | ConcurrentModificationException
+        | ApiProxy.ApiDeadlineExceededException e) {
+      logger.log(Level.WARNING, "Could not store analysis results " + hash, e);
+    }
+  }
+
+  /**
+   * Deletes the entries of the datastore tier that expired, in keys-only batches, until none are
+   * left or the deadline passes. Returns the number of entries deleted. Entries in memory are
+   * dropped when they are read after they expired, or evicted.
+   */
+  public int deleteExpiredEntries(long deadlineMillis) {
+    if (datastore == null) {
+      return 0;
+    }
+
+    Query query =
+        new Query(KIND)
+            .setKeysOnly()
+            .setFilter(
+                new FilterPredicate(
+                    "expiresAt", FilterOperator.LESS_THAN_OR_EQUAL, clock.millis()));
+    int deleted = 0;
+    while (clock.millis() < deadlineMillis) {
+      List<Key> keys = new ArrayList<>(BATCH_SIZE);
+      for (Entity entry :
+          datastore.prepare(query).asIterable(FetchOptions.Builder.withLimit(BATCH_SIZE))) {
+        keys.add(entry.getKey());
+      }
+      datastore.delete(keys);
+      deleted += keys.size();
+      if (keys.size() < BATCH_SIZE) {
+        break;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Indexes the expiry time of entries stored before it was indexed, so they can be deleted once
+   * they expire, and deletes the ones that expired already. Returns the number of entries updated
+   * or deleted.
+   */
+  public int indexStoredEntries() {
+    if (datastore == null) {
+      return 0;
+    }
+
+    long now = clock.millis();
+    List<Entity> indexed = new ArrayList<>(BATCH_SIZE);
+    List<Key> expired = new ArrayList<>(BATCH_SIZE);
+    int updated = 0;
+    for (Entity entry : datastore.prepare(new Query(KIND)).asIterable()) {
+      Object expiresAt = entry.getProperty("expiresAt");
+      if (expiresAt == null || (long) expiresAt <= now) {
+        expired.add(entry.getKey());
+      } else {
+        entry.setProperty("expiresAt", expiresAt);
+        indexed.add(entry);
+      }
+      if (indexed.size() + expired.size() == BATCH_SIZE) {
+        updated += writeIndexed(indexed, expired);
+      }
+    }
+    return updated + writeIndexed(indexed, expired);
+  }
+
+  /** Puts the indexed entries and deletes the expired ones, then clears both lists. */
+  private int writeIndexed(List<Entity> indexed, List<Key> expired) {
+    int written = indexed.size() + expired.size();
+    datastore.put(indexed);
+    datastore.delete(expired);
+    indexed.clear();
+    expired.clear();
+    return written;
+  }
+
+  /** Returns the number of lookups answered from memory. */
+  public long getMemoryHits() {
+    return memoryHits.sum();
+  }
+
+  /** Returns the number of lookups answered from datastore. */
+  public long getDatastoreHits() {
+    return datastoreHits.sum();
+  }
+
+  /** Returns the number of lookups that found no entry, so the text had to be analyzed. */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /** Returns the number of entries in memory. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the hex encoded SHA-256 hash of the text after it is lowercased and runs of whitespace
+   * are collapsed into single spaces.
+   */
+  public static String hash(String text) {
+    String normalized = text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Optional<CachedEntry> getStoredEntry(String hash) {
+    if (datastore == null) {
+      return Optional.empty();
+    }
+    try {
+      Entity stored = datastore.get(KeyFactory.createKey(KIND, hash));
+      List<String> categories = (List<String>) stored.getProperty("categories");
+      Result result =
+          new Result(
+              (double) stored.getProperty("sentimentScore"),
+              categories == null ? Collections.emptyList() : categories);
+      return Optional.of(new CachedEntry(result, (long) stored.getProperty("expiresAt")));
+    } catch (EntityNotFoundException e) {
+      return Optional.empty();
+    } catch (DatastoreFailureException
+        | DatastoreTimeoutException
+        | ConcurrentModificationException
+        | ApiProxy.ApiDeadlineExceededException e) {
+      logger.log(Level.WARNING, "Could not read analysis results " + hash, e);
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Analyzes posts outside the request that submits them. Submitting a post enqueues a task on the
+ * post-analysis queue, whose workers run the Natural Language API on the post and write the
+ * categories, sentiment score and suggested resources back onto it. The author's page polls for the
+ * result.
+ */
+public class AnalysisQueue {
+  public static final String PENDING = "pending";
+  public static final String DONE = "done";
+  public static final String FAILED = "failed";
+  private final DatastoreService datastore;
+  private final Queue queue;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private Queue queue;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    /** Sets the task queue analysis tasks are added to. Defaults to the post-analysis queue. */
+    public Builder queue(Queue queue) {
+      this.queue = queue;
+      return this;
+    }
+
+    public AnalysisQueue build() {
+      return new AnalysisQueue(this);
+    }
+  }
+
+  private AnalysisQueue(Builder builder) {
+    this.datastore = builder.datastore;
+    if (builder.queue != null) {
+      this.queue = builder.queue;
+    } else {
+      this.queue = QueueFactory.getQueue("post-analysis");
+    }
+  }
+
+  /**
+   * Schedules the analysis of the post. Tasks are named after the post, so a post is only analyzed
+   * once even if it is enqueued again.
+   */
+  public void enqueue(long postID) {
+    TaskOptions task =
+        TaskOptions.Builder.withUrl("/analyze-post")
+            .taskName("analyze-post-" + postID)
+            .param("id", Long.toString(postID));
+    try {
+      queue.add(task);
+    } catch (TaskAlreadyExistsException ok) {
+      // The post is already being analyzed.
+    }
+  }
+
+  /**
+   * Analyzes the text of the post with the given PostAnalysis and stores the results on the post.
+   * Does nothing if the post was deleted. The remote call happens outside of any transaction, so a
+   * retried task only repeats the call.
+   */
+  public void analyzePost(long postID, PostAnalysis analysis) {
+    Entity post;
+    try {
+      post = datastore.get(KeyFactory.createKey("Post", postID));
+    } catch (EntityNotFoundException e) {
+      return;
+    }
+
+    Text text = (Text) post.getProperty("text");
+    analysis.analyzeText(text.getValue());
+    storeResults(
+        postID,
+        DONE,
+        analysis.getCategories(),
+        analysis.getSentimentScore(),
+        analysis.getResources());
+  }
+
+  /** Marks the analysis of the post as failed, so its author stops waiting for it. */
+  public void markFailed(long postID) {
+    storeResults(postID, FAILED, Collections.emptyList(), 0, Collections.emptyList());
+  }
+
+  /**
+   * Returns the analysis of the post, or an empty Optional if the post does not exist. Posts that
+   * were submitted before analysis ran in the background count as done without resources.
+   */
+  @SuppressWarnings("unchecked")
+  public Optional<AnalysisResult> getAnalysis(long postID) {
+    Entity post;
+    try {
+      post = datastore.get(KeyFactory.createKey("Post", postID));
+    } catch (EntityNotFoundException e) {
+      return Optional.empty();
+    }
+
+    String status = (String) post.getProperty("analysisStatus");
+    List<String> categories = (List<String>) post.getProperty("categories");
+    Double sentimentScore = (Double) post.getProperty("sentimentScore");
+    List<String> resources = (List<String>) post.getProperty("resources");
+    return Optional.of(
+        new AnalysisResult(
+            status == null ? DONE : status,
+            categories == null ? Collections.emptyList() : categories,
+            sentimentScore == null ? 0 : sentimentScore,
+            resources == null ? Collections.emptyList() : resources));
+  }
+
+  private void storeResults(
+      long postID,
+      String status,
+      List<String> categories,
+      double sentimentScore,
+      List<String> resources) {
+    Key key = KeyFactory.createKey("Post", postID);
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity post = datastore.get(txn, key);
+      post.setUnindexedProperty("analysisStatus", status);
+      post.setUnindexedProperty("categories", new ArrayList<>(categories));
+      post.setUnindexedProperty("sentimentScore", sentimentScore);
+      post.setUnindexedProperty("resources", new ArrayList<>(resources));
+      datastore.put(txn, post);
+      txn.commit();
+    } catch (EntityNotFoundException ok) {
+      // The post was deleted, so there is nothing to update.
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/** The analysis of a post as shown to its author: its status and the suggested resources. */
+public class AnalysisResult {
+  private final String status;
+  private final List<String> categories;
+  private final double sentimentScore;
+  private final List<String> resources;
+
+  public AnalysisResult(
+      String status, List<String> categories, double sentimentScore, List<String> resources) {
+    this.status = status;
+    this.categories = categories;
+    this.sentimentScore = sentimentScore;
+    this.resources = resources;
+  }
+
+  /** Returns whether the analysis is pending, done or failed. */
+  public String getStatus() {
+    return status;
+  }
+
+  public List<String> getCategories() {
+    return Collections.unmodifiableList(categories);
+  }
+
+  public double getSentimentScore() {
+    return sentimentScore;
+  }
+
+  public List<String> getResources() {
+    return Collections.unmodifiableList(resources);
+  }
+}
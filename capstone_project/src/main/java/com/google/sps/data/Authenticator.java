@@ -21,4 +21,16 @@ public final class Authenticator {
     }
     return true;
   }
+
+  /**
+   * Determines whether the user is an admin of the app. Returns false and responds with 403 if the
+   * user is not logged in or not an admin. Otherwise, returns true.
+   */
+  public static boolean isAdmin(HttpServletResponse response) {
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.setStatus(403);
+      return false;
+    }
+    return true;
+  }
 }
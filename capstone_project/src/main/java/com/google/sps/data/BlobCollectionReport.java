@@ -0,0 +1,81 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/** Reports how many blobs one run of BlobCollector deleted, or would delete in a dry run. */
+public class BlobCollectionReport {
+  private final int orphanedBlobs;
+  private final int scannedBlobs;
+  private final int unownedBlobs;
+  private final long elapsedMillis;
+  private final boolean dryRun;
+  private final boolean complete;
+
+  public BlobCollectionReport(
+      int orphanedBlobs,
+      int scannedBlobs,
+      int unownedBlobs,
+      long elapsedMillis,
+      boolean dryRun,
+      boolean complete) {
+    this.orphanedBlobs = orphanedBlobs;
+    this.scannedBlobs = scannedBlobs;
+    this.unownedBlobs = unownedBlobs;
+    this.elapsedMillis = elapsedMillis;
+    this.dryRun = dryRun;
+    this.complete = complete;
+  }
+
+  /** Returns the number of blobs of expired posts that were collected. */
+  public int getOrphanedBlobs() {
+    return orphanedBlobs;
+  }
+
+  /** Returns the number of blobs uploaded since the last run that were checked for an owner. */
+  public int getScannedBlobs() {
+    return scannedBlobs;
+  }
+
+  /** Returns the number of blobs without an owner that were collected. */
+  public int getUnownedBlobs() {
+    return unownedBlobs;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  /** Returns true if the blobs were only counted. */
+  public boolean isDryRun() {
+    return dryRun;
+  }
+
+  /** Returns false if the run stopped early, leaving blobs for the next run. */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s %d blobs of expired posts and %d of %d blobs without an owner in %d ms%s",
+        dryRun ? "Would collect" : "Collected",
+        orphanedBlobs,
+        unownedBlobs,
+        scannedBlobs,
+        elapsedMillis,
+        complete ? "" : ", stopped early");
+  }
+}
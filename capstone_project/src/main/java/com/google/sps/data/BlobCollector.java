@@ -0,0 +1,317 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes uploaded files that no post refers to anymore. Every post with a file records the
+ * ownership of its blob in a BlobOwner entity keyed by the blob key. Two kinds of blobs are
+ * collected, in batches:
+ *
+ * <ul>
+ *   <li>Blobs of expired posts, which the DeletePosts cloud function records as OrphanedBlob
+ *       entities, since a cloud function cannot delete from blobstore.
+ *   <li>Blobs that have no owner some time after they were uploaded, because writing their post
+ *       failed. Blobs of posts written before owners were recorded are looked up by the fileBlobKey
+ *       of the post, and their owner is recorded then.
+ * </ul>
+ *
+ * <p>Blobs are checked for an owner once, in the order they were uploaded. A state entity records
+ * the upload time the last run got to, so each run only reads the blobs uploaded since, and a run
+ * that stops at its deadline is resumed by the next one. The thumbnails of a collected blob are
+ * deleted with it. In a dry run the blobs are only counted, and nothing is deleted or recorded.
+ */
+public class BlobCollector {
+  public static final String OWNER_KIND = "BlobOwner";
+  // Datastore calls take at most 500 keys at once, and every blob has its owner, its thumbnails and
+  // possibly an OrphanedBlob record deleted with it.
+  private static final int BATCH_SIZE = 100;
+  // Datastore accepts at most 30 values in an IN filter.
+  private static final int MAX_IN_VALUES = 30;
+  private static final String STATE_KIND = "BlobCollectorState";
+  private static final String STATE_NAME = "unowned-blobs";
+
+  private final DatastoreService datastore;
+  private final BlobstoreService blobstore;
+  private final Clock clock;
+  private final long gracePeriodMillis;
+  private final long maxRunMillis;
+  private final boolean dryRun;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private BlobstoreService blobstore = BlobstoreServiceFactory.getBlobstoreService();
+    private Clock clock = Clock.systemUTC();
+    private long gracePeriodMillis = TimeUnit.HOURS.toMillis(1);
+    // Leaves time of the 10 minute cron deadline for the rest of the request.
+    private long maxRunMillis = TimeUnit.MINUTES.toMillis(8);
+    private boolean dryRun = false;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    public Builder blobstore(BlobstoreService blobstore) {
+      this.blobstore = blobstore;
+      return this;
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Sets how long a blob may have no owner before it is collected. */
+    public Builder gracePeriodMillis(long gracePeriodMillis) {
+      this.gracePeriodMillis = gracePeriodMillis;
+      return this;
+    }
+
+    /** Sets how long a run may start new batches. */
+    public Builder maxRunMillis(long maxRunMillis) {
+      this.maxRunMillis = maxRunMillis;
+      return this;
+    }
+
+    /** Sets whether blobs are only counted instead of deleted. */
+    public Builder dryRun(boolean dryRun) {
+      this.dryRun = dryRun;
+      return this;
+    }
+
+    public BlobCollector build() {
+      return new BlobCollector(this);
+    }
+  }
+
+  private BlobCollector(Builder builder) {
+    this.datastore = builder.datastore;
+    this.blobstore = builder.blobstore;
+    this.clock = builder.clock;
+    this.gracePeriodMillis = builder.gracePeriodMillis;
+    this.maxRunMillis = builder.maxRunMillis;
+    this.dryRun = builder.dryRun;
+  }
+
+  /** Records that the post owns the blob, so the blob is not collected. */
+  public static void recordOwner(DatastoreService datastore, String blobKey, long postID) {
+    Entity owner = new Entity(OWNER_KIND, blobKey);
+    owner.setUnindexedProperty("postId", postID);
+    datastore.put(owner);
+  }
+
+  /**
+   * Collects the blobs of expired posts, then the blobs without an owner, without starting a new
+   * batch once the maximum run time has passed.
+   */
+  public BlobCollectionReport collect() {
+    long start = clock.millis();
+    long deadline = maxRunMillis > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + maxRunMillis;
+    Sweep orphaned = collectOrphanedBlobs(deadline);
+    Sweep unowned = collectUnownedBlobs(deadline);
+    return new BlobCollectionReport(
+        orphaned.collected,
+        unowned.scanned,
+        unowned.collected,
+        clock.millis() - start,
+        dryRun,
+        orphaned.complete && unowned.complete);
+  }
+
+  /**
+   * Deletes the blobs recorded as OrphanedBlob entities. Records are deleted with their blobs, so a
+   * run that stops early is resumed by the next one.
+   */
+  private Sweep collectOrphanedBlobs(long deadline) {
+    Query query = new Query(DeletePostService.ORPHANED_BLOB_KIND).setKeysOnly();
+    Iterator<Entity> records =
+        datastore.prepare(query).asIterator(FetchOptions.Builder.withChunkSize(BATCH_SIZE));
+    Sweep sweep = new Sweep();
+    while (records.hasNext()) {
+      if (clock.millis() >= deadline) {
+        sweep.complete = false;
+        break;
+      }
+      List<BlobKey> blobKeys = new ArrayList<>(BATCH_SIZE);
+      List<Key> keys = new ArrayList<>();
+      while (records.hasNext() && blobKeys.size() < BATCH_SIZE) {
+        Key record = records.next().getKey();
+        blobKeys.add(new BlobKey(record.getName()));
+        keys.add(record);
+        keys.add(KeyFactory.createKey(OWNER_KIND, record.getName()));
+        keys.addAll(ThumbnailService.getThumbnailKeys(record.getName()));
+      }
+      deleteBlobs(blobKeys);
+      if (!dryRun) {
+        datastore.delete(keys);
+      }
+      sweep.collected += blobKeys.size();
+    }
+    return sweep;
+  }
+
+  /**
+   * Deletes the blobs that were uploaded since the last run, before the grace period, and have no
+   * owner. Returns the number of blobs scanned and the number collected.
+   */
+  private Sweep collectUnownedBlobs(long deadline) {
+    Date scannedUntil = getScannedUntil();
+    Date uploadedBefore = new Date(clock.millis() - gracePeriodMillis);
+    // Blobs uploaded at the same time as the last one scanned are scanned again, in case the last
+    // run stopped between them. Checking a blob twice is harmless.
+    Query query =
+        new Query(BlobInfoFactory.KIND)
+            .setFilter(
+                CompositeFilterOperator.and(
+                    new FilterPredicate(
+                        BlobInfoFactory.CREATION,
+                        FilterOperator.GREATER_THAN_OR_EQUAL,
+                        scannedUntil),
+                    new FilterPredicate(
+                        BlobInfoFactory.CREATION, FilterOperator.LESS_THAN, uploadedBefore)))
+            .addSort(BlobInfoFactory.CREATION);
+    Iterator<Entity> blobs =
+        datastore.prepare(query).asIterator(FetchOptions.Builder.withChunkSize(BATCH_SIZE));
+    BlobInfoFactory blobInfoFactory = new BlobInfoFactory(datastore);
+    Sweep sweep = new Sweep();
+    while (blobs.hasNext()) {
+      if (clock.millis() >= deadline) {
+        sweep.complete = false;
+        break;
+      }
+      List<BlobKey> candidates = new ArrayList<>(BATCH_SIZE);
+      while (blobs.hasNext() && candidates.size() < BATCH_SIZE) {
+        BlobInfo blob = blobInfoFactory.createBlobInfo(blobs.next());
+        candidates.add(blob.getBlobKey());
+        scannedUntil = blob.getCreation();
+      }
+      sweep.scanned += candidates.size();
+
+      List<Key> ownerKeys = new ArrayList<>(candidates.size());
+      for (BlobKey blobKey : candidates) {
+        ownerKeys.add(KeyFactory.createKey(OWNER_KIND, blobKey.getKeyString()));
+      }
+      Map<Key, Entity> owners = datastore.get(ownerKeys);
+      List<BlobKey> withoutOwner = new ArrayList<>();
+      for (BlobKey blobKey : candidates) {
+        if (!owners.containsKey(KeyFactory.createKey(OWNER_KIND, blobKey.getKeyString()))) {
+          withoutOwner.add(blobKey);
+        }
+      }
+      List<BlobKey> unowned = recordOwnersFromPosts(withoutOwner);
+      deleteBlobs(unowned);
+      if (!dryRun && !unowned.isEmpty()) {
+        List<Key> thumbnailKeys = new ArrayList<>();
+        for (BlobKey blobKey : unowned) {
+          thumbnailKeys.addAll(ThumbnailService.getThumbnailKeys(blobKey.getKeyString()));
+        }
+        datastore.delete(thumbnailKeys);
+      }
+      sweep.collected += unowned.size();
+      if (!dryRun) {
+        Entity state = new Entity(STATE_KIND, STATE_NAME);
+        state.setUnindexedProperty("scannedUntil", scannedUntil);
+        datastore.put(state);
+      }
+    }
+    return sweep;
+  }
+
+  /** Returns the upload time the last run got to, or the epoch if no run got anywhere yet. */
+  private Date getScannedUntil() {
+    try {
+      return (Date)
+          datastore.get(KeyFactory.createKey(STATE_KIND, STATE_NAME)).getProperty("scannedUntil");
+    } catch (EntityNotFoundException e) {
+      return new Date(0);
+    }
+  }
+
+  /**
+   * Looks for posts that refer to the blobs, for posts written before owners were recorded, with
+   * one query per 30 blobs. Records the posts as the owners of their blobs and returns the blobs
+   * that have no post.
+   */
+  private List<BlobKey> recordOwnersFromPosts(List<BlobKey> blobKeys) {
+    List<BlobKey> unowned = new ArrayList<>();
+    for (int i = 0; i < blobKeys.size(); i += MAX_IN_VALUES) {
+      List<BlobKey> chunk = blobKeys.subList(i, Math.min(i + MAX_IN_VALUES, blobKeys.size()));
+      List<String> keyStrings = new ArrayList<>(chunk.size());
+      for (BlobKey blobKey : chunk) {
+        keyStrings.add(blobKey.getKeyString());
+      }
+      // A projection cannot read a property filtered by equality, so the posts are read whole.
+      Query query =
+          new Query("Post")
+              .setFilter(new FilterPredicate("fileBlobKey", FilterOperator.IN, keyStrings));
+      Map<String, Long> owners = new HashMap<>();
+      for (Entity post : datastore.prepare(query).asIterable()) {
+        owners.put((String) post.getProperty("fileBlobKey"), post.getKey().getId());
+      }
+      for (BlobKey blobKey : chunk) {
+        Long postID = owners.get(blobKey.getKeyString());
+        if (postID == null) {
+          unowned.add(blobKey);
+        } else if (!dryRun) {
+          recordOwner(datastore, blobKey.getKeyString(), postID);
+        }
+      }
+    }
+    return unowned;
+  }
+
+  /**
+   * The number of blobs one sweep scanned and collected, and whether it got through all of them.
+   */
+  private static class Sweep {
+    private int scanned;
+    private int collected;
+    private boolean complete = true;
+  }
+
+  private void deleteBlobs(List<BlobKey> blobKeys) {
+    if (!dryRun && !blobKeys.isEmpty()) {
+      blobstore.delete(blobKeys.toArray(new BlobKey[0]));
+    }
+  }
+}
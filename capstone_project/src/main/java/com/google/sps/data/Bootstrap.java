@@ -0,0 +1,263 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntSupplier;
+
+/**
+ * Seeds the reference data the app relies on, such as the hard-coded resources, once per version of
+ * that data. A marker entity records the version that was seeded, so later startups only read the
+ * marker. The missing data is written in the same cross-group transaction as the marker, so when
+ * two instances start at once only one of them seeds.
+ *
+ * <p>Migrations of existing posts and schools are tracked by markers the same way, but they touch
+ * too many entity groups for one transaction, so they must be safe to run twice.
+ */
+public class Bootstrap {
+  /** Increment whenever the seeded reference data changes, so it is seeded again. */
+  public static final long REFERENCE_DATA_VERSION = 1;
+  /** Increment whenever the summary properties of posts change, so they are added again. */
+  public static final long POST_SUMMARY_VERSION = 1;
+  /** Increment whenever the search tokens of posts change, so they are added again. */
+  public static final long POST_SEARCH_INDEX_VERSION = 1;
+  /** Increment whenever the trending score of posts changes, so it is added again. */
+  public static final long TRENDING_SCORE_VERSION = 1;
+  /** Increment whenever the upvote counters of posts change, so they are seeded again. */
+  public static final long UPVOTE_COUNTER_VERSION = 1;
+  /** Increment whenever the spatial index of schools changes, so it is added again. */
+  public static final long SCHOOL_INDEX_VERSION = 1;
+  /** Increment whenever the key names of schools change, so schools are moved again. */
+  public static final long SCHOOL_KEY_VERSION = 1;
+  /** Increment whenever the indexes of cached analyses change, so they are indexed again. */
+  public static final long ANALYSIS_CACHE_INDEX_VERSION = 1;
+
+  private static final String MARKER_KIND = "Bootstrap";
+  private static final String MARKER_NAME = "reference-data";
+  private static final String POST_SUMMARY_MARKER_NAME = "post-summaries";
+  private static final String POST_SEARCH_INDEX_MARKER_NAME = "post-search-index";
+  private static final String TRENDING_SCORE_MARKER_NAME = "trending-scores";
+  private static final String UPVOTE_COUNTER_MARKER_NAME = "upvote-counters";
+  private static final String SCHOOL_INDEX_MARKER_NAME = "school-index";
+  private static final String SCHOOL_KEY_MARKER_NAME = "school-keys";
+  private static final String ANALYSIS_CACHE_INDEX_MARKER_NAME = "analysis-cache-index";
+
+  private final DatastoreService datastore;
+  private final PostService postService;
+  private final SchoolService schoolService;
+  private final AnalysisCache analysisCache;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private PostService postService;
+    private SchoolService schoolService;
+    private AnalysisCache analysisCache;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    /** Sets the service that migrates posts. Defaults to one using the same datastore. */
+    public Builder postService(PostService postService) {
+      this.postService = postService;
+      return this;
+    }
+
+    /** Sets the service that migrates schools. Defaults to one using the same datastore. */
+    public Builder schoolService(SchoolService schoolService) {
+      this.schoolService = schoolService;
+      return this;
+    }
+
+    /** Sets the cache of analyses to migrate. Defaults to one using the same datastore. */
+    public Builder analysisCache(AnalysisCache analysisCache) {
+      this.analysisCache = analysisCache;
+      return this;
+    }
+
+    public Bootstrap build() {
+      if (postService == null) {
+        postService = PostService.Builder.builder().datastore(datastore).build();
+      }
+      if (schoolService == null) {
+        schoolService = SchoolService.Builder.builder().datastore(datastore).build();
+      }
+      if (analysisCache == null) {
+        analysisCache = AnalysisCache.Builder.builder().datastore(datastore).build();
+      }
+      return new Bootstrap(this);
+    }
+  }
+
+  private Bootstrap(Builder builder) {
+    this.datastore = builder.datastore;
+    this.postService = builder.postService;
+    this.schoolService = builder.schoolService;
+    this.analysisCache = builder.analysisCache;
+  }
+
+  /**
+   * Seeds the reference data unless the current version was seeded already. Returns true if this
+   * call seeded it. Throws a ConcurrentModificationException if another instance seeded it at the
+   * same time.
+   */
+  public boolean seedReferenceData() {
+    Key markerKey = KeyFactory.createKey(MARKER_KIND, MARKER_NAME);
+    if (getSeededVersion(null, markerKey) >= REFERENCE_DATA_VERSION) {
+      return false;
+    }
+
+    // Queries outside an entity group cannot run in a transaction, so the missing resources are
+    // found first. The marker read in the transaction detects a concurrent seed.
+    Map<String, String> missingResources = Resource.getMissingPreexistingResources(datastore);
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      if (getSeededVersion(txn, markerKey) >= REFERENCE_DATA_VERSION) {
+        return false;
+      }
+      for (Map.Entry<String, String> resource : missingResources.entrySet()) {
+        datastore.put(txn, Resource.createResourceEntity(resource.getKey(), resource.getValue()));
+      }
+      Entity marker = new Entity(markerKey);
+      marker.setUnindexedProperty("version", REFERENCE_DATA_VERSION);
+      datastore.put(txn, marker);
+      txn.commit();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+    ResourceCatalog.invalidate();
+    return true;
+  }
+
+  /**
+   * Adds the summary properties to posts written before the current version of them, unless that
+   * was done already. Returns the number of posts that were updated, or an empty Optional if there
+   * was nothing to do. Throws a ConcurrentModificationException if a post was modified at the same
+   * time, in which case the marker is not written and the next startup continues the migration.
+   */
+  public Optional<Integer> migratePostSummaries() {
+    return migrate(
+        POST_SUMMARY_MARKER_NAME, POST_SUMMARY_VERSION, postService::addMissingSummaries);
+  }
+
+  /**
+   * Adds the search tokens to posts written before posts were searched through an index, unless
+   * that was done already. Returns the number of posts that were updated, or an empty Optional if
+   * there was nothing to do. Throws a ConcurrentModificationException if a post was modified at the
+   * same time, in which case the marker is not written and the next startup continues.
+   */
+  public Optional<Integer> indexPostsForSearch() {
+    return migrate(
+        POST_SEARCH_INDEX_MARKER_NAME,
+        POST_SEARCH_INDEX_VERSION,
+        postService::addMissingSearchTokens);
+  }
+
+  /**
+   * Adds the trending score to posts written before the trending feed was read from a stored score,
+   * unless that was done already. Returns the number of posts that were updated, or an empty
+   * Optional if there was nothing to do. Throws a ConcurrentModificationException if a post was
+   * modified at the same time, in which case the marker is not written and the next startup
+   * continues.
+   */
+  public Optional<Integer> addTrendingScores() {
+    return migrate(
+        TRENDING_SCORE_MARKER_NAME, TRENDING_SCORE_VERSION, postService::addMissingTrendingScores);
+  }
+
+  /**
+   * Seeds the upvote counters of posts that were upvoted before upvotes were counted in shards,
+   * unless that was done already. Returns the number of counters that were seeded, or an empty
+   * Optional if there was nothing to do. Throws a ConcurrentModificationException if a counter was
+   * incremented at the same time too often, in which case the marker is not written and the next
+   * startup continues.
+   */
+  public Optional<Integer> seedUpvoteCounters() {
+    return migrate(
+        UPVOTE_COUNTER_MARKER_NAME, UPVOTE_COUNTER_VERSION, postService::seedUpvoteCounters);
+  }
+
+  /**
+   * Adds the geohash of the spatial index to schools written before the current version of it,
+   * unless that was done already. Returns the number of schools that were updated, or an empty
+   * Optional if there was nothing to do.
+   */
+  public Optional<Integer> indexSchools() {
+    return migrate(
+        SCHOOL_INDEX_MARKER_NAME, SCHOOL_INDEX_VERSION, schoolService::addMissingGeohashes);
+  }
+
+  /**
+   * Moves schools written before schools were keyed by name to the key of their name, unless that
+   * was done already. Returns the number of schools that were moved, or an empty Optional if there
+   * was nothing to do.
+   */
+  public Optional<Integer> rekeySchools() {
+    return migrate(SCHOOL_KEY_MARKER_NAME, SCHOOL_KEY_VERSION, schoolService::rekeyLegacySchools);
+  }
+
+  /**
+   * Indexes the expiry time of analyses cached before it was indexed, unless that was done already.
+   * Returns the number of cached analyses that were updated or deleted, or an empty Optional if
+   * there was nothing to do.
+   */
+  public Optional<Integer> indexAnalysisCache() {
+    return migrate(
+        ANALYSIS_CACHE_INDEX_MARKER_NAME,
+        ANALYSIS_CACHE_INDEX_VERSION,
+        analysisCache::indexStoredEntries);
+  }
+
+  /**
+   * Runs the migration unless the marker records the version already, then records it. Returns the
+   * number of entities the migration updated, or an empty Optional if it did not run.
+   */
+  private Optional<Integer> migrate(String markerName, long version, IntSupplier migration) {
+    Key markerKey = KeyFactory.createKey(MARKER_KIND, markerName);
+    if (getSeededVersion(null, markerKey) >= version) {
+      return Optional.empty();
+    }
+
+    int updated = migration.getAsInt();
+    Entity marker = new Entity(markerKey);
+    marker.setUnindexedProperty("version", version);
+    datastore.put(marker);
+    return Optional.of(updated);
+  }
+
+  /** Returns the version recorded by the marker, or 0 if nothing was seeded yet. */
+  private long getSeededVersion(Transaction txn, Key markerKey) {
+    try {
+      return (long) datastore.get(txn, markerKey).getProperty("version");
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+}
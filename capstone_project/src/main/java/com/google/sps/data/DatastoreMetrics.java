@@ -0,0 +1,286 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Collects the datastore calls that MeteredDatastore reports. The calls a request makes on its own
+ * thread are counted in a RequestMetrics, which is recorded into the histograms of the request's
+ * endpoint when the request ends. The latency of every call is also recorded per operation, and
+ * calls that take longer than the slow call threshold are logged with their query or keys.
+ */
+public class DatastoreMetrics {
+  /** The kinds of datastore calls that are counted. */
+  public enum Operation {
+    GET,
+    PUT,
+    DELETE,
+    QUERY
+  }
+
+  public static final long DEFAULT_SLOW_CALL_MILLIS = 100;
+
+  private static final Logger logger = Logger.getLogger(DatastoreMetrics.class.getName());
+  // Bounds the memory taken by endpoints, since every static file has a path of its own.
+  private static final int MAX_ENDPOINTS = 100;
+  private static final String OTHER_ENDPOINT = "other";
+  private static DatastoreMetrics instance;
+
+  private final long slowCallNanos;
+  private final ThreadLocal<RequestMetrics> currentRequest = new ThreadLocal<>();
+  private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+  private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+
+  public static class Builder {
+    private long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    /** Sets how long a call may take before it is logged as slow. */
+    public Builder slowCallMillis(long slowCallMillis) {
+      this.slowCallMillis = slowCallMillis;
+      return this;
+    }
+
+    public DatastoreMetrics build() {
+      return new DatastoreMetrics(this);
+    }
+  }
+
+  /**
+   * The datastore calls of one request. Only the thread of the request updates it, so its counts
+   * are plain fields.
+   */
+  public static final class RequestMetrics {
+    private final String endpoint;
+    private final Map<Operation, Long> calls = new EnumMap<>(Operation.class);
+    private long entitiesRead;
+    private long entitiesWritten;
+    private long datastoreNanos;
+
+    private RequestMetrics(String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+      return endpoint;
+    }
+
+    /** Returns the number of calls of the operation. */
+    public long getCalls(Operation operation) {
+      return calls.getOrDefault(operation, 0L);
+    }
+
+    /** Returns the number of calls of every operation. */
+    public long getCalls() {
+      long total = 0;
+      for (long count : calls.values()) {
+        total += count;
+      }
+      return total;
+    }
+
+    /** Returns the number of entities returned by gets and queries. */
+    public long getEntitiesRead() {
+      return entitiesRead;
+    }
+
+    /** Returns the number of entities put or deleted. */
+    public long getEntitiesWritten() {
+      return entitiesWritten;
+    }
+
+    /** Returns the time spent in datastore calls, including reading query results. */
+    public long getDatastoreNanos() {
+      return datastoreNanos;
+    }
+  }
+
+  /** The histograms of the requests of one endpoint, each with one value per request. */
+  public static final class EndpointMetrics {
+    private final Map<Operation, AtomicLong> calls = new EnumMap<>(Operation.class);
+    private final Histogram callsPerRequest = new Histogram();
+    private final Histogram entitiesRead = new Histogram();
+    private final Histogram entitiesWritten = new Histogram();
+    private final Histogram datastoreMillis = new Histogram();
+    private final Histogram requestMillis = new Histogram();
+
+    private EndpointMetrics() {
+      for (Operation operation : Operation.values()) {
+        calls.put(operation, new AtomicLong());
+      }
+    }
+
+    private void record(RequestMetrics request, long requestNanos) {
+      for (Operation operation : Operation.values()) {
+        calls.get(operation).addAndGet(request.getCalls(operation));
+      }
+      callsPerRequest.record(request.getCalls());
+      entitiesRead.record(request.getEntitiesRead());
+      entitiesWritten.record(request.getEntitiesWritten());
+      datastoreMillis.record(TimeUnit.NANOSECONDS.toMillis(request.getDatastoreNanos()));
+      requestMillis.record(TimeUnit.NANOSECONDS.toMillis(requestNanos));
+    }
+
+    public long getRequests() {
+      return requestMillis.getCount();
+    }
+
+    /** Returns the number of calls of the operation over all requests. */
+    public long getCalls(Operation operation) {
+      return calls.get(operation).get();
+    }
+
+    public Histogram getCallsPerRequest() {
+      return callsPerRequest;
+    }
+
+    public Histogram getEntitiesRead() {
+      return entitiesRead;
+    }
+
+    public Histogram getEntitiesWritten() {
+      return entitiesWritten;
+    }
+
+    public Histogram getDatastoreMillis() {
+      return datastoreMillis;
+    }
+
+    public Histogram getRequestMillis() {
+      return requestMillis;
+    }
+  }
+
+  private DatastoreMetrics(Builder builder) {
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(builder.slowCallMillis);
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, new Histogram());
+    }
+  }
+
+  /** Returns the metrics shared by all requests of this instance. */
+  public static synchronized DatastoreMetrics getInstance() {
+    if (instance == null) {
+      instance = Builder.builder().build();
+    }
+    return instance;
+  }
+
+  /** Starts counting the calls of the request that runs on this thread. */
+  public void beginRequest(String endpoint) {
+    currentRequest.set(new RequestMetrics(endpoint));
+  }
+
+  /**
+   * Stops counting the calls of the request on this thread and records them into the histograms of
+   * its endpoint. Returns the calls of the request, or an empty Optional if none was begun.
+   */
+  public Optional<RequestMetrics> endRequest(long requestNanos) {
+    RequestMetrics request = currentRequest.get();
+    if (request == null) {
+      return Optional.empty();
+    }
+    currentRequest.remove();
+
+    String endpoint = request.getEndpoint();
+    EndpointMetrics metrics = endpoints.get(endpoint);
+    if (metrics == null) {
+      if (endpoints.size() >= MAX_ENDPOINTS) {
+        endpoint = OTHER_ENDPOINT;
+      }
+      metrics = endpoints.computeIfAbsent(endpoint, key -> new EndpointMetrics());
+    }
+    metrics.record(request, requestNanos);
+    return Optional.of(request);
+  }
+
+  /** Returns the metrics of every endpoint that served a request, ordered by path. */
+  public Map<String, EndpointMetrics> getEndpoints() {
+    return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+  }
+
+  /** Returns the latencies in milliseconds of the calls of the operation. */
+  public Histogram getLatencyMillis(Operation operation) {
+    return latencies.get(operation);
+  }
+
+  /**
+   * Records a call that read or wrote the entities, and logs it if it was slow. The target is the
+   * query or keys of the call, described in the log.
+   */
+  void record(Operation operation, long nanos, int entities, Object target) {
+    RequestMetrics request = currentRequest.get();
+    if (request != null) {
+      request.calls.merge(operation, 1L, Long::sum);
+      if (operation == Operation.PUT || operation == Operation.DELETE) {
+        request.entitiesWritten += entities;
+      } else {
+        request.entitiesRead += entities;
+      }
+      request.datastoreNanos += nanos;
+    }
+    complete(operation, nanos, entities, target);
+  }
+
+  /** Records that a query started returning results, which are counted by recordRead. */
+  void recordQuery() {
+    RequestMetrics request = currentRequest.get();
+    if (request != null) {
+      request.calls.merge(Operation.QUERY, 1L, Long::sum);
+    }
+  }
+
+  /** Records time spent reading query results, and the number of entities read in it. */
+  void recordRead(long nanos, int entities) {
+    RequestMetrics request = currentRequest.get();
+    if (request != null) {
+      request.entitiesRead += entities;
+      request.datastoreNanos += nanos;
+    }
+  }
+
+  /**
+   * Records the latency of a call, or of reading all results of a query, and logs it if it was
+   * slow.
+   */
+  void complete(Operation operation, long nanos, int entities, Object target) {
+    latencies.get(operation).record(TimeUnit.NANOSECONDS.toMillis(nanos));
+    if (nanos >= slowCallNanos) {
+      RequestMetrics request = currentRequest.get();
+      logger.warning(
+          String.format(
+              "Slow datastore %s on %s took %d ms for %d entities: %s",
+              operation.name().toLowerCase(Locale.ROOT),
+              request == null ? "no request" : request.getEndpoint(),
+              TimeUnit.NANOSECONDS.toMillis(nanos),
+              entities,
+              target));
+    }
+  }
+}
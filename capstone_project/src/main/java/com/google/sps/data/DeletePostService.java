@@ -16,11 +16,18 @@
 
 package com.google.sps.data;
 
+import com.google.cloud.datastore.Cursor;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.KeyQuery;
+import com.google.cloud.datastore.ProjectionEntity;
+import com.google.cloud.datastore.ProjectionEntityQuery;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
 import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
 import java.time.Clock;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,10 +37,22 @@ import java.util.List;
  * cloud datastore since a cloud function does not have access to app engine datstore properties.
  * Cloud datastore uses the same database as app engine. The only differences are in API usages and
  * methods.
+ *
+ * <p>Expired posts are streamed with keys-only queries and deleted in batches, so the posts are
+ * never loaded. A run that stops early, because it ran out of time or the function timed out, is
+ * resumed by the next run, since only posts that are still there match the query. A cloud function
+ * cannot delete from blobstore, so the blobs of each batch of posts are recorded as OrphanedBlob
+ * entities right before that batch is deleted, and the app deletes them. The upvote shards of each
+ * batch are deleted together with it. Their cached counts are left to expire, since a cloud
+ * function cannot reach memcache either.
  */
 public class DeletePostService {
+  /** The kind of the entities that record blobs whose post was deleted. */
+  public static final String ORPHANED_BLOB_KIND = "OrphanedBlob";
   // Represents one day in milliseconds
   private final long ONE_DAY = 86400000;
+  // Datastore accepts at most 500 keys per delete and 500 entities per put.
+  private static final int BATCH_SIZE = 500;
   private Datastore datastore;
   private Clock clock;
 
@@ -42,44 +61,112 @@ public class DeletePostService {
     this.clock = clock;
   }
 
-  // Retrieves a query of all posts entities in ascending order based on timestamp. Returns a list
-  // of entities of all posts inside of datastore in sorted ascending order.
-  private List<Entity> retrieveAllPostsAscending() {
-    Query<Entity> query =
-        Query.newEntityQueryBuilder().setKind("Post").setOrderBy(OrderBy.asc("timestamp")).build();
-
-    QueryResults<Entity> queriedPosts = datastore.run(query);
-    List<Entity> posts = new ArrayList<>();
-    queriedPosts.forEachRemaining(posts::add);
-    return posts;
+  // Deletes all posts with an elapsed time equal to or older than 24 hours from its creation time.
+  public DeletionReport deleteOldPosts() {
+    return deleteOldPosts(Long.MAX_VALUE);
   }
 
-  // Calculates the elasped time since the post entity was uploaded. Returns true if more than 24
-  // hours have elapased since its creation time. Otherwise, returns false.
-  private boolean isOlderThan24Hours(Entity post) {
-    long creationTime = post.getLong("timestamp");
-    long currentTime = clock.millis();
-    long elapsedTime = currentTime - creationTime;
+  /**
+   * Deletes all posts with an elapsed time equal to or older than 24 hours from its creation time,
+   * without starting a new batch once maxRunMillis have passed. Returns how many posts were deleted
+   * and whether every expired post was.
+   */
+  public DeletionReport deleteOldPosts(long maxRunMillis) {
+    long start = clock.millis();
+    long deadline = maxRunMillis > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + maxRunMillis;
+    long cutoff = start - ONE_DAY;
 
-    return elapsedTime >= ONE_DAY;
-  }
+    // Posts store a null fileBlobKey when they have no blob, so this reads every post that was
+    // written with the summary properties, together with its blob key.
+    ProjectionEntityQuery.Builder postsWithBlobKeys =
+        Query.newProjectionEntityQueryBuilder()
+            .setKind("Post")
+            .setProjection("fileBlobKey")
+            .setFilter(PropertyFilter.le("timestamp", cutoff))
+            .setOrderBy(OrderBy.asc("timestamp"))
+            .setLimit(BATCH_SIZE);
+    KeyFactory orphanKeyFactory = datastore.newKeyFactory().setKind(ORPHANED_BLOB_KIND);
+    KeyFactory shardKeyFactory = datastore.newKeyFactory().setKind(PostService.UPVOTE_SHARD_KIND);
+    int deletedPosts = 0;
+    int orphanedBlobs = 0;
+    Cursor cursor = null;
+    boolean postsWithBlobKeysDone = false;
+    while (!postsWithBlobKeysDone && clock.millis() < deadline) {
+      QueryResults<ProjectionEntity> results =
+          datastore.run(postsWithBlobKeys.setStartCursor(cursor).build());
+      long now = clock.millis();
+      List<Key> keys = new ArrayList<>(BATCH_SIZE);
+      List<Entity> orphans = new ArrayList<>(BATCH_SIZE);
+      while (results.hasNext()) {
+        ProjectionEntity post = results.next();
+        keys.add(post.getKey());
+        if (!post.isNull("fileBlobKey")) {
+          // Recording a blob twice overwrites the same entity, so a resumed run can repeat it.
+          orphans.add(
+              Entity.newBuilder(orphanKeyFactory.newKey(post.getString("fileBlobKey")))
+                  .set("orphanedAt", now)
+                  .build());
+        }
+      }
+      // The blobs of the batch are recorded right before the batch is deleted, so no blob is
+      // recorded for a post that is still in the feed.
+      if (!orphans.isEmpty()) {
+        datastore.put(orphans.toArray(new Entity[0]));
+        orphanedBlobs += orphans.size();
+      }
+      deletedPosts += delete(keys, shardKeyFactory);
+      postsWithBlobKeysDone = keys.size() < BATCH_SIZE;
+      cursor = results.getCursorAfter();
+    }
+    if (!postsWithBlobKeysDone) {
+      return new DeletionReport(deletedPosts, orphanedBlobs, clock.millis() - start, false);
+    }
 
-  // Deletes all posts with an elapsed time equal to or older than 24 hours from its creation time.
-  public void deleteOldPosts() {
-    List<Entity> posts = retrieveAllPostsAscending();
-    if (posts.isEmpty()) {
-      return;
+    // Posts written before the summary properties that were not migrated have no fileBlobKey
+    // property, so the projection misses them, and they have no blob either.
+    KeyQuery.Builder remainingPosts =
+        Query.newKeyQueryBuilder()
+            .setKind("Post")
+            .setFilter(PropertyFilter.le("timestamp", cutoff))
+            .setOrderBy(OrderBy.asc("timestamp"))
+            .setLimit(BATCH_SIZE);
+    cursor = null;
+    while (clock.millis() < deadline) {
+      QueryResults<Key> results = datastore.run(remainingPosts.setStartCursor(cursor).build());
+      List<Key> keys = new ArrayList<>(BATCH_SIZE);
+      results.forEachRemaining(keys::add);
+      deletedPosts += delete(keys, shardKeyFactory);
+      if (keys.size() < BATCH_SIZE) {
+        return new DeletionReport(deletedPosts, orphanedBlobs, clock.millis() - start, true);
+      }
+      cursor = results.getCursorAfter();
     }
+    return new DeletionReport(deletedPosts, orphanedBlobs, clock.millis() - start, false);
+  }
 
-    for (Entity post : posts) {
-      if (isOlderThan24Hours(post)) {
-        datastore.delete(post.getKey());
-      } else {
-        // These are sorted in ascended order largest to smallest timestamp (larger timestamp means
-        // newer date), which means that as soon as one is not older than 24 hours, the remaining
-        // ones are also less than 24 hours.
-        break;
+  /**
+   * Deletes the posts with the given keys and the shards of their upvote counters, and returns how
+   * many posts there were. The shards go first, so a run that stops in between leaves the posts for
+   * the next run, which deletes their shards again.
+   */
+  private int delete(List<Key> keys, KeyFactory shardKeyFactory) {
+    List<Key> shardKeys = new ArrayList<>(BATCH_SIZE);
+    for (Key key : keys) {
+      // The shard names follow ShardedCounter: the post ID, a colon and the shard.
+      String counterName = Long.toString(key.getId());
+      for (int shard = 0; shard < ShardedCounter.DEFAULT_NUM_SHARDS; shard++) {
+        shardKeys.add(shardKeyFactory.newKey(counterName + ":" + shard));
       }
+      shardKeys.add(shardKeyFactory.newKey(counterName + ":" + ShardedCounter.BASE_SHARD));
+    }
+    for (int start = 0; start < shardKeys.size(); start += BATCH_SIZE) {
+      List<Key> chunk = shardKeys.subList(start, Math.min(start + BATCH_SIZE, shardKeys.size()));
+      datastore.delete(chunk.toArray(new Key[0]));
+    }
+
+    if (!keys.isEmpty()) {
+      datastore.delete(keys.toArray(new Key[0]));
     }
+    return keys.size();
   }
 }
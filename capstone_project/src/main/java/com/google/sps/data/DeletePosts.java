@@ -21,19 +21,25 @@ import com.google.cloud.datastore.DatastoreOptions;
 import com.google.cloud.functions.BackgroundFunction;
 import com.google.cloud.functions.Context;
 import java.time.Clock;
+import java.util.logging.Logger;
 
 /**
  * Cloud function that runs when triggered by a PubSubMessage. Deletes all posts that are older the
  * 24 hours. Note: This uses google cloud datastore since a cloud function does not have access to
  * app engine datastore properties. Cloud datastore uses the same database as app engine. The only
- * differences are in API usages and methods.
+ * differences are in API usages and methods. A run that stops before every expired post is deleted
+ * is picked up by the next trigger.
  */
 public class DeletePosts implements BackgroundFunction<PubSubMessage> {
+  private static final Logger logger = Logger.getLogger(DeletePosts.class.getName());
+  // Leaves time to finish the last batch before the default function timeout of 60 seconds.
+  private static final long MAX_RUN_MILLIS = 45000;
   private Datastore datastore = DatastoreOptions.getDefaultInstance().getService();
 
   @Override
   public void accept(PubSubMessage message, Context context) {
     DeletePostService deleteService = new DeletePostService(datastore, Clock.systemUTC());
-    deleteService.deleteOldPosts();
+    DeletionReport report = deleteService.deleteOldPosts(MAX_RUN_MILLIS);
+    logger.info(report.toString());
   }
 }
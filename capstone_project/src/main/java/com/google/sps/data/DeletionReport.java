@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+/**
+ * Reports how many posts and blobs one run of DeletePostService cleaned up, and how long it took.
+ */
+public class DeletionReport {
+  private final int deletedPosts;
+  private final int orphanedBlobs;
+  private final long elapsedMillis;
+  private final boolean complete;
+
+  public DeletionReport(int deletedPosts, int orphanedBlobs, long elapsedMillis, boolean complete) {
+    this.deletedPosts = deletedPosts;
+    this.orphanedBlobs = orphanedBlobs;
+    this.elapsedMillis = elapsedMillis;
+    this.complete = complete;
+  }
+
+  /** Returns the number of posts that were deleted. */
+  public int getDeletedPosts() {
+    return deletedPosts;
+  }
+
+  /** Returns the number of blobs of expired posts that were recorded for deletion. */
+  public int getOrphanedBlobs() {
+    return orphanedBlobs;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  /** Returns false if the run stopped early, leaving expired posts for the next run. */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "Deleted %d posts and recorded %d orphaned blobs in %d ms%s",
+        deletedPosts, orphanedBlobs, elapsedMillis, complete ? "" : ", stopped early");
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values in buckets whose upper bounds are 0 and the powers of two, so recording is a few
+ * atomic increments and the memory is fixed however many values are recorded. Percentiles are the
+ * upper bound of the bucket they fall in, so they are at most twice the exact value.
+ */
+public final class Histogram {
+  // Bucket 0 holds 0, bucket i holds values up to 2^(i - 1), and the last bucket everything above.
+  private static final int BUCKETS = 42;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /** Records the value. Negative values are recorded as 0. */
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(getBucket(value));
+    sum.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the upper bound of the bucket that holds the given percentile of the recorded values,
+   * capped at the largest value, or 0 if nothing was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getUpperBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  private static int getBucket(long value) {
+    if (value == 0) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 1 + 64 - Long.numberOfLeadingZeros(value - 1));
+  }
+
+  private static long getUpperBound(int bucket) {
+    return bucket == 0 ? 0 : bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << (bucket - 1);
+  }
+}
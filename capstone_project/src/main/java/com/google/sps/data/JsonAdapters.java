@@ -0,0 +1,296 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Text;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Type adapters that write the fields of the classes sent to the browser directly, instead of
+ * reading them by reflection on every call. Each adapter writes the same JSON as the reflective
+ * adapter Gson would use: the fields in declaration order, without the fields that are null.
+ */
+public final class JsonAdapters {
+  /**
+   * Writes the reaction counts of posts. It is not registered for Map<String, Object>, since that
+   * would also change how the property maps of entities are written.
+   */
+  public static final ReactionsAdapter REACTIONS_ADAPTER = new ReactionsAdapter();
+
+  private JsonAdapters() {}
+
+  /** Registers every adapter with the builder and returns it. */
+  public static GsonBuilder register(GsonBuilder builder) {
+    return builder
+        .registerTypeAdapter(Post.class, new PostAdapter())
+        .registerTypeAdapter(PostSummary.class, new PostSummaryAdapter())
+        .registerTypeAdapter(School.class, new SchoolAdapter());
+  }
+
+  /** Writes and reads a Post. */
+  public static final class PostAdapter extends TypeAdapter<Post> {
+    @Override
+    public void write(JsonWriter out, Post post) throws IOException {
+      if (post == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      writeString(out, "text", post.getText());
+      writeString(out, "fileType", post.getFileType());
+      writeString(out, "title", post.getTitle());
+      writeString(out, "schoolName", post.getSchoolName());
+      writeString(out, "fileBlobKey", post.getFileBlobKey());
+      if (post.getReactions() != null) {
+        out.name("reactions");
+        REACTIONS_ADAPTER.write(out, post.getReactions());
+      }
+      out.name("upvotes").value(post.getUpvotes());
+      out.name("postId").value(post.getPostId());
+      out.endObject();
+    }
+
+    @Override
+    public Post read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      Post.Builder post = Post.newBuilder();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "text":
+            post.setText(new Text(in.nextString()));
+            break;
+          case "fileType":
+            post.setFileType(in.nextString());
+            break;
+          case "title":
+            post.setTitle(in.nextString());
+            break;
+          case "schoolName":
+            post.setSchoolName(in.nextString());
+            break;
+          case "fileBlobKey":
+            post.setFileBlobKey(in.nextString());
+            break;
+          case "reactions":
+            post.setReactions(REACTIONS_ADAPTER.read(in));
+            break;
+          case "upvotes":
+            post.setUpvotes(in.nextLong());
+            break;
+          case "postId":
+            post.setPostId(in.nextLong());
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return post.build();
+    }
+  }
+
+  /** Writes and reads a PostSummary. */
+  public static final class PostSummaryAdapter extends TypeAdapter<PostSummary> {
+    @Override
+    public void write(JsonWriter out, PostSummary summary) throws IOException {
+      if (summary == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      writeString(out, "title", summary.getTitle());
+      writeString(out, "schoolName", summary.getSchoolName());
+      writeString(out, "fileType", summary.getFileType());
+      writeString(out, "fileBlobKey", summary.getFileBlobKey());
+      writeString(out, "preview", summary.getPreview());
+      out.name("truncated").value(summary.isTruncated());
+      out.name("upvotes").value(summary.getUpvotes());
+      out.name("postId").value(summary.getPostId());
+      out.endObject();
+    }
+
+    @Override
+    public PostSummary read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      PostSummary.Builder summary = PostSummary.newBuilder();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "title":
+            summary.setTitle(in.nextString());
+            break;
+          case "schoolName":
+            summary.setSchoolName(in.nextString());
+            break;
+          case "fileType":
+            summary.setFileType(in.nextString());
+            break;
+          case "fileBlobKey":
+            summary.setFileBlobKey(in.nextString());
+            break;
+          case "preview":
+            summary.setPreview(in.nextString());
+            break;
+          case "truncated":
+            summary.setTruncated(in.nextBoolean());
+            break;
+          case "upvotes":
+            summary.setUpvotes(in.nextLong());
+            break;
+          case "postId":
+            summary.setPostId(in.nextLong());
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return summary.build();
+    }
+  }
+
+  /** Writes and reads a School, such as the ones submitted from the map. */
+  public static final class SchoolAdapter extends TypeAdapter<School> {
+    @Override
+    public void write(JsonWriter out, School school) throws IOException {
+      if (school == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      writeString(out, "name", school.getName());
+      out.name("latitude").value(school.getLatitude());
+      out.name("longitude").value(school.getLongitude());
+      out.endObject();
+    }
+
+    @Override
+    public School read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      String name = null;
+      double latitude = 0;
+      double longitude = 0;
+      in.beginObject();
+      while (in.hasNext()) {
+        String field = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (field) {
+          case "name":
+            name = in.nextString();
+            break;
+          case "latitude":
+            latitude = in.nextDouble();
+            break;
+          case "longitude":
+            longitude = in.nextDouble();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new School(name, latitude, longitude);
+    }
+  }
+
+  /**
+   * Writes and reads the reaction counts of a post, by reaction name. Counts are read back as
+   * longs, the type they are stored with in datastore.
+   */
+  public static final class ReactionsAdapter extends TypeAdapter<Map<String, Object>> {
+    @Override
+    public void write(JsonWriter out, Map<String, Object> reactions) throws IOException {
+      if (reactions == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      for (Map.Entry<String, Object> reaction : reactions.entrySet()) {
+        Object count = reaction.getValue();
+        if (count instanceof Number) {
+          out.name(reaction.getKey()).value((Number) count);
+        } else if (count != null) {
+          out.name(reaction.getKey()).value(count.toString());
+        }
+      }
+      out.endObject();
+    }
+
+    @Override
+    public Map<String, Object> read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      Map<String, Object> reactions = new LinkedHashMap<>();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NUMBER) {
+          reactions.put(name, in.nextLong());
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      return reactions;
+    }
+  }
+
+  /** Writes the field unless its value is null, like the reflective adapter does. */
+  private static void writeString(JsonWriter out, String name, String value) throws IOException {
+    if (value != null) {
+      out.name(name).value(value);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes JSON responses straight to the response writer. Lists are written one element at a time
+ * through a JsonWriter, so a response never exists as a whole in memory next to the objects it was
+ * built from. Every response is written by the same thread-safe Gson instance, which writes posts,
+ * summaries, schools and reactions with the hand-written adapters of JsonAdapters.
+ */
+public final class JsonResponses {
+  private static final String CONTENT_TYPE = "application/json";
+  private static final Gson gson = JsonAdapters.register(new GsonBuilder()).create();
+  private static final TypeAdapter<Post> POST_ADAPTER = gson.getAdapter(Post.class);
+  private static final TypeAdapter<PostSummary> SUMMARY_ADAPTER =
+      gson.getAdapter(PostSummary.class);
+
+  private JsonResponses() {}
+
+  /** Returns the Gson instance shared by every request. */
+  public static Gson getGson() {
+    return gson;
+  }
+
+  /** Writes the page as an object with the posts array and the cursor, if there is one. */
+  public static void writePage(HttpServletResponse response, PostPage page) throws IOException {
+    JsonWriter writer = startResponse(response);
+    writer.beginObject();
+    writer.name("posts");
+    writeArray(writer, page.getPosts().iterator(), SUMMARY_ADAPTER);
+    if (page.getCursor().isPresent()) {
+      writer.name("cursor").value(page.getCursor().get());
+    }
+    writer.endObject();
+    writer.flush();
+  }
+
+  /**
+   * Writes the posts as an array. Every post is converted from its entity right before it is
+   * written, so only one converted post is in memory at a time.
+   */
+  public static void writePosts(HttpServletResponse response, Iterator<Entity> posts)
+      throws IOException {
+    JsonWriter writer = startResponse(response);
+    writer.beginArray();
+    while (posts.hasNext()) {
+      POST_ADAPTER.write(writer, PostService.convertEntityToPost(posts.next()));
+    }
+    writer.endArray();
+    writer.flush();
+  }
+
+  /**
+   * Writes the reaction counts of a post as the "propertyMap" object the page reads, the field Gson
+   * would write the reactions entity with.
+   */
+  public static void writeReactions(HttpServletResponse response, EmbeddedEntity reactions)
+      throws IOException {
+    JsonWriter writer = startResponse(response);
+    writer.beginObject();
+    writer.name("propertyMap");
+    JsonAdapters.REACTIONS_ADAPTER.write(writer, reactions.getProperties());
+    writer.endObject();
+    writer.flush();
+  }
+
+  private static <T> void writeArray(
+      JsonWriter writer, Iterator<T> elements, TypeAdapter<T> adapter) throws IOException {
+    writer.beginArray();
+    while (elements.hasNext()) {
+      adapter.write(writer, elements.next());
+    }
+    writer.endArray();
+  }
+
+  /** Sets the content type and returns a writer over the response body. */
+  private static JsonWriter startResponse(HttpServletResponse response) throws IOException {
+    response.setContentType(CONTENT_TYPE);
+    // The servlet container closes the response writer once the request is done.
+    return gson.newJsonWriter(response.getWriter());
+  }
+}
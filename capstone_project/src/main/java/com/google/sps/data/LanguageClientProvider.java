@@ -0,0 +1,199 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.ClassifyTextRequest;
+import com.google.cloud.language.v1.ClassifyTextResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares one LanguageServiceClient across every request of the instance. A client owns a gRPC
+ * channel, credentials and thread pools, so the shared client is created once when the app starts
+ * and shut down when it stops, see LanguageClientListener. Calls through the provider are bounded:
+ * once the maximum number of calls is in flight, further calls wait for a free slot and fail if
+ * none frees up in time. The calls in flight are counted for monitoring.
+ */
+public class LanguageClientProvider {
+  private static final Logger logger = Logger.getLogger(LanguageClientProvider.class.getName());
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+  private static LanguageClientProvider instance;
+
+  private final LanguageServiceClient client;
+  private final Semaphore permits;
+  private final long acquireTimeoutMillis;
+  private final AtomicInteger inFlightCalls;
+  private final AtomicInteger maxInFlightCalls;
+  private final AtomicLong completedCalls;
+  private final AtomicLong failedCalls;
+  private final AtomicLong rejectedCalls;
+
+  public static class Builder {
+    private LanguageServiceClient client;
+    private int maxConcurrentCalls = 8;
+    private long acquireTimeoutMillis = 30000;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder client(LanguageServiceClient client) {
+      this.client = client;
+      return this;
+    }
+
+    /** Sets how many calls may be waiting on the API at once. */
+    public Builder maxConcurrentCalls(int maxConcurrentCalls) {
+      this.maxConcurrentCalls = maxConcurrentCalls;
+      return this;
+    }
+
+    /** Sets how long a call waits for a free slot before it is rejected. */
+    public Builder acquireTimeoutMillis(long acquireTimeoutMillis) {
+      this.acquireTimeoutMillis = acquireTimeoutMillis;
+      return this;
+    }
+
+    /** Creates a new LanguageServiceClient if none was set. */
+    public LanguageClientProvider build() throws IOException {
+      if (client == null) {
+        client = LanguageServiceClient.create();
+      }
+      return new LanguageClientProvider(this);
+    }
+  }
+
+  private LanguageClientProvider(Builder builder) {
+    this.client = builder.client;
+    this.permits = new Semaphore(builder.maxConcurrentCalls, true);
+    this.acquireTimeoutMillis = builder.acquireTimeoutMillis;
+    inFlightCalls = new AtomicInteger();
+    maxInFlightCalls = new AtomicInteger();
+    completedCalls = new AtomicLong();
+    failedCalls = new AtomicLong();
+    rejectedCalls = new AtomicLong();
+  }
+
+  /**
+   * Returns the provider shared by all requests of this instance, creating it if the app has not
+   * created it at startup.
+   */
+  public static synchronized LanguageClientProvider getInstance() throws IOException {
+    if (instance == null) {
+      instance = Builder.builder().build();
+    }
+    return instance;
+  }
+
+  /** Returns the provider shared by all requests of this instance, if it was created already. */
+  public static synchronized Optional<LanguageClientProvider> getCreatedInstance() {
+    return Optional.ofNullable(instance);
+  }
+
+  /** Shuts down the shared provider, if there is one. The next getInstance creates a new one. */
+  public static synchronized void shutdownInstance() {
+    if (instance != null) {
+      instance.shutdown();
+      instance = null;
+    }
+  }
+
+  /** Classifies the document of the request into content categories. */
+  public ClassifyTextResponse classifyText(ClassifyTextRequest request) {
+    return call(() -> client.classifyText(request));
+  }
+
+  /** Analyzes the sentiment of the document. */
+  public AnalyzeSentimentResponse analyzeSentiment(Document document) {
+    return call(() -> client.analyzeSentiment(document));
+  }
+
+  /** Returns the number of calls currently waiting on the API. */
+  public int getInFlightCalls() {
+    return inFlightCalls.get();
+  }
+
+  /** Returns the highest number of calls that were waiting on the API at once. */
+  public int getMaxInFlightCalls() {
+    return maxInFlightCalls.get();
+  }
+
+  public long getCompletedCalls() {
+    return completedCalls.get();
+  }
+
+  public long getFailedCalls() {
+    return failedCalls.get();
+  }
+
+  /** Returns the number of calls that were rejected because no slot freed up in time. */
+  public long getRejectedCalls() {
+    return rejectedCalls.get();
+  }
+
+  /** Stops accepting calls and waits briefly for the calls in flight to finish. */
+  public void shutdown() {
+    client.shutdown();
+    try {
+      if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        client.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      client.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs the call once a slot is free. Throws a RejectedExecutionException if no slot frees up
+   * within the acquire timeout.
+   */
+  private <T> T call(Supplier<T> apiCall) {
+    try {
+      if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        rejectedCalls.incrementAndGet();
+        throw new RejectedExecutionException("Too many Natural Language API calls in flight");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting for a free slot", e);
+    }
+
+    maxInFlightCalls.accumulateAndGet(inFlightCalls.incrementAndGet(), Math::max);
+    try {
+      T response = apiCall.get();
+      completedCalls.incrementAndGet();
+      return response;
+    } catch (RuntimeException e) {
+      failedCalls.incrementAndGet();
+      logger.log(Level.WARNING, "Natural Language API call failed", e);
+      throw e;
+    } finally {
+      inFlightCalls.decrementAndGet();
+      permits.release();
+    }
+  }
+}
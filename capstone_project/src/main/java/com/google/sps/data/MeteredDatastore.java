@@ -0,0 +1,257 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.data.DatastoreMetrics.Operation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps a DatastoreService so every get, put, delete and query it makes is timed and reported to
+ * DatastoreMetrics, along with the number of entities it read or wrote. The wrappers are dynamic
+ * proxies, so every other method of the datastore passes through unchanged.
+ *
+ * <p>A query is counted when one of the as* methods of its PreparedQuery runs it. Lists are sized
+ * right away, which loads all their results. Iterables and iterators fetch their results while they
+ * are read, so the time spent in hasNext and next is added to the request as it is spent, and the
+ * latency of the query is recorded once its last result was read. A query whose results are not
+ * read to the end only counts towards the request. Results read through the default forEach methods
+ * bypass the wrappers and are not timed, so the app reads them with for loops.
+ */
+public final class MeteredDatastore {
+  private MeteredDatastore() {}
+
+  /** Returns the datastore of the app, reporting to the metrics shared by the instance. */
+  public static DatastoreService getDatastoreService() {
+    return wrap(DatastoreServiceFactory.getDatastoreService(), DatastoreMetrics.getInstance());
+  }
+
+  /** Returns a datastore that makes its calls through the given one and reports them. */
+  public static DatastoreService wrap(DatastoreService datastore, DatastoreMetrics metrics) {
+    return newProxy(DatastoreService.class, new DatastoreHandler(datastore, metrics));
+  }
+
+  private static <T> T newProxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+
+  /** Calls the method on the target, throwing what the method threw rather than a wrapper. */
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Returns the number of elements of an array, Iterable or Map, or 1 for anything else. */
+  private static int count(Object value) {
+    if (value instanceof Object[]) {
+      return ((Object[]) value).length;
+    }
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).size();
+    }
+    if (value instanceof Map) {
+      return ((Map<?, ?>) value).size();
+    }
+    if (value instanceof Iterable) {
+      int count = 0;
+      for (Object element : (Iterable<?>) value) {
+        count++;
+      }
+      return count;
+    }
+    return 1;
+  }
+
+  /** Returns the argument of the call that holds its keys, entities or query. */
+  private static Object getTarget(Object[] args) {
+    return args == null || args.length == 0 ? null : args[args.length - 1];
+  }
+
+  /** Describes the keys or entities of a call for the slow call log. */
+  private static String describe(Object target) {
+    if (target instanceof Iterable || target instanceof Object[]) {
+      return count(target) + " keys or entities";
+    }
+    return String.valueOf(target);
+  }
+
+  private static final class DatastoreHandler implements InvocationHandler {
+    private final DatastoreService datastore;
+    private final DatastoreMetrics metrics;
+
+    DatastoreHandler(DatastoreService datastore, DatastoreMetrics metrics) {
+      this.datastore = datastore;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Operation operation;
+      switch (method.getName()) {
+        case "get":
+          operation = Operation.GET;
+          break;
+        case "put":
+          operation = Operation.PUT;
+          break;
+        case "delete":
+          operation = Operation.DELETE;
+          break;
+        case "prepare":
+          PreparedQuery preparedQuery =
+              (PreparedQuery) MeteredDatastore.invoke(datastore, method, args);
+          return newProxy(
+              PreparedQuery.class,
+              new PreparedQueryHandler(preparedQuery, (Query) getTarget(args), metrics));
+        default:
+          return MeteredDatastore.invoke(datastore, method, args);
+      }
+
+      Object target = getTarget(args);
+      long start = System.nanoTime();
+      Object result = null;
+      try {
+        result = MeteredDatastore.invoke(datastore, method, args);
+        return result;
+      } finally {
+        // Reads count the entities found, writes the entities or keys given.
+        int entities =
+            operation == Operation.GET ? (result == null ? 0 : count(result)) : count(target);
+        metrics.record(operation, System.nanoTime() - start, entities, describe(target));
+      }
+    }
+  }
+
+  private static final class PreparedQueryHandler implements InvocationHandler {
+    private final PreparedQuery preparedQuery;
+    private final Query query;
+    private final DatastoreMetrics metrics;
+
+    PreparedQueryHandler(PreparedQuery preparedQuery, Query query, DatastoreMetrics metrics) {
+      this.preparedQuery = preparedQuery;
+      this.query = query;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.endsWith("Iterable")) {
+        metrics.recordQuery();
+        Object results = MeteredDatastore.invoke(preparedQuery, method, args);
+        return newProxy(method.getReturnType(), new IterableHandler(results, query, metrics));
+      }
+      if (name.endsWith("Iterator")) {
+        metrics.recordQuery();
+        Object results = MeteredDatastore.invoke(preparedQuery, method, args);
+        return newProxy(method.getReturnType(), new IteratorHandler(results, query, metrics));
+      }
+      if (!name.startsWith("as") && !name.equals("countEntities")) {
+        return MeteredDatastore.invoke(preparedQuery, method, args);
+      }
+
+      long start = System.nanoTime();
+      int entities = 0;
+      try {
+        Object result = MeteredDatastore.invoke(preparedQuery, method, args);
+        if (result instanceof List) {
+          entities = ((List<?>) result).size();
+        } else if (result instanceof Entity) {
+          entities = 1;
+        }
+        return result;
+      } finally {
+        metrics.record(Operation.QUERY, System.nanoTime() - start, entities, query);
+      }
+    }
+  }
+
+  /** Wraps each iterator of an iterable of query results, every one of which runs the query. */
+  private static final class IterableHandler implements InvocationHandler {
+    private final Object results;
+    private final Query query;
+    private final DatastoreMetrics metrics;
+    private boolean iterated;
+
+    IterableHandler(Object results, Query query, DatastoreMetrics metrics) {
+      this.results = results;
+      this.query = query;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (!method.getName().equals("iterator")) {
+        return MeteredDatastore.invoke(results, method, args);
+      }
+      // The first run was counted when the iterable was created.
+      if (iterated) {
+        metrics.recordQuery();
+      }
+      iterated = true;
+      Object iterator = MeteredDatastore.invoke(results, method, args);
+      return newProxy(method.getReturnType(), new IteratorHandler(iterator, query, metrics));
+    }
+  }
+
+  /** Times hasNext and next, and records the latency of the query once its results run out. */
+  private static final class IteratorHandler implements InvocationHandler {
+    private final Object iterator;
+    private final Query query;
+    private final DatastoreMetrics metrics;
+    private long nanos;
+    private int entities;
+    private boolean completed;
+
+    IteratorHandler(Object iterator, Query query, DatastoreMetrics metrics) {
+      this.iterator = iterator;
+      this.query = query;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      boolean isNext = method.getName().equals("next");
+      if (!isNext && !method.getName().equals("hasNext")) {
+        return MeteredDatastore.invoke(iterator, method, args);
+      }
+
+      long start = System.nanoTime();
+      Object result = MeteredDatastore.invoke(iterator, method, args);
+      long elapsed = System.nanoTime() - start;
+      nanos += elapsed;
+      entities += isNext ? 1 : 0;
+      metrics.recordRead(elapsed, isNext ? 1 : 0);
+      if (!isNext && !(Boolean) result && !completed) {
+        completed = true;
+        metrics.complete(Operation.QUERY, nanos, entities, query);
+      }
+      return result;
+    }
+  }
+}
@@ -14,13 +14,6 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.cloud.language.v1.ClassificationCategory;
 import com.google.cloud.language.v1.ClassifyTextRequest;
 import com.google.cloud.language.v1.ClassifyTextResponse;
@@ -32,6 +25,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.StringTokenizer;
 import javax.servlet.http.HttpServletRequest;
 
@@ -40,42 +34,70 @@ import javax.servlet.http.HttpServletRequest;
  * resources in response to the specific categories
  */
 public class PostAnalysis {
-  private final DatastoreService datastore;
-  private final LanguageServiceClient languageService;
+  private final LanguageClientProvider languageService;
+  private final AnalysisCache cache;
+  private final ResourceCatalog resourceCatalog;
   private double sentimentScore;
   private final List<String> categories;
   private final List<String> resources;
   public final int MIN_TOKENS = 20;
 
   /**
-   * Instantiates the LanguageServiceClient to reduce the number of calls to the API when run in the
-   * server
+   * Uses the LanguageServiceClient shared by the instance unless another one is set, so building a
+   * PostAnalysis does not set up a new client
    */
   public static class Builder {
-    private LanguageServiceClient languageService;
+    private LanguageClientProvider languageService;
+    private AnalysisCache cache;
+    private ResourceCatalog resourceCatalog;
 
     public static Builder builder() {
       return new Builder();
     }
 
     /** Sets LanguageServiceClient to the given argument */
-    public Builder setLanguageService(LanguageServiceClient languageService) {
+    public Builder setLanguageService(LanguageServiceClient languageService) throws IOException {
+      return setLanguageService(
+          LanguageClientProvider.Builder.builder().client(languageService).build());
+    }
+
+    /** Sets the provider whose LanguageServiceClient is used to the given argument */
+    public Builder setLanguageService(LanguageClientProvider languageService) {
       this.languageService = languageService;
       return this;
     }
 
-    /** Instantiates and sets LanguageServiceClient */
+    /** Sets the cache of analysis results to the given argument */
+    public Builder setCache(AnalysisCache cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /** Sets the catalog the resources are looked up in to the given argument */
+    public Builder setResourceCatalog(ResourceCatalog resourceCatalog) {
+      this.resourceCatalog = resourceCatalog;
+      return this;
+    }
+
+    /** Sets the shared LanguageServiceClient, cache and resource catalog if none were set */
     public PostAnalysis build() throws IOException {
       if (this.languageService == null) {
-        this.setLanguageService(LanguageServiceClient.create());
+        this.setLanguageService(LanguageClientProvider.getInstance());
+      }
+      if (this.cache == null) {
+        this.setCache(AnalysisCache.getInstance());
+      }
+      if (this.resourceCatalog == null) {
+        this.setResourceCatalog(ResourceCatalog.getInstance());
       }
       return new PostAnalysis(this);
     }
   }
 
   private PostAnalysis(Builder builder) throws IOException {
-    datastore = DatastoreServiceFactory.getDatastoreService();
     languageService = builder.languageService;
+    cache = builder.cache;
+    resourceCatalog = builder.resourceCatalog;
     categories = new ArrayList<>();
     resources = new ArrayList<>();
   }
@@ -114,14 +136,29 @@ public class PostAnalysis {
    * @param request the request from the webpage
    */
   public void analyzeText(HttpServletRequest request) {
-    String message = request.getParameter("text");
+    analyzeText(request.getParameter("text"));
+  }
 
-    // messages must be at least 20 tokens long. StringTokenizer uses the default delimiter set
-    StringTokenizer tokens = new StringTokenizer(message);
-    if (tokens.countTokens() >= MIN_TOKENS) {
-      classifyContent(message);
+  /**
+   * Analyzes the message to prodive either the sentiment score or the list of categories associated
+   * with it. Messages that were analyzed before are answered from the cache
+   *
+   * @param message the text of the user's post
+   */
+  public void analyzeText(String message) {
+    Optional<AnalysisCache.Result> cached = cache.get(message);
+    if (cached.isPresent()) {
+      sentimentScore = cached.get().getSentimentScore();
+      categories.addAll(cached.get().getCategories());
     } else {
-      calculateSentimentScore(message);
+      // messages must be at least 20 tokens long. StringTokenizer uses the default delimiter set
+      StringTokenizer tokens = new StringTokenizer(message);
+      if (tokens.countTokens() >= MIN_TOKENS) {
+        classifyContent(message);
+      } else {
+        calculateSentimentScore(message);
+      }
+      cache.put(message, sentimentScore, categories);
     }
     setResources();
   }
@@ -150,7 +187,6 @@ public class PostAnalysis {
         Document.newBuilder().setContent(message).setType(Document.Type.PLAIN_TEXT).build();
     Sentiment sentiment = languageService.analyzeSentiment(doc).getDocumentSentiment();
     sentimentScore = (double) sentiment.getScore();
-    languageService.close();
   }
 
   /**
@@ -173,28 +209,16 @@ public class PostAnalysis {
   }
 
   /**
-   * Retrieves resources from datastore that are associated with the categories that the message
-   * falls under
+   * Looks up the resources associated with the categories that the message falls under in the
+   * resource catalog, which keeps them in memory
    */
   private void setResources() {
     if (!categories.isEmpty()) {
       for (String category : categories) {
-        queryDatastoreForEntity(category);
+        resourceCatalog.getResource(category).ifPresent(resources::add);
       }
     } else if (sentimentScore < -0.5) {
-      queryDatastoreForEntity("General");
-    }
-  }
-
-  /** Creates filter for querying the datastore and and stores resources in the "resources" field */
-  private void queryDatastoreForEntity(String category) {
-    Filter categoryFilter = new FilterPredicate("category", FilterOperator.EQUAL, category);
-    Query query = new Query("Resource").setFilter(categoryFilter);
-    Entity resource = datastore.prepare(query).asSingleEntity();
-    if (resource != null) {
-      // add to resources for the message
-      String resourceUrl = (String) resource.getProperty("resource");
-      resources.add(resourceUrl);
+      resourceCatalog.getResource("General").ifPresent(resources::add);
     }
   }
 }
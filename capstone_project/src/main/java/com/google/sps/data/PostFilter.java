@@ -15,60 +15,109 @@
 package com.google.sps.data;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
-/** Filters and returns all posts that contain the search query. */
+/**
+ * Filters and returns all posts that contain the search query. Posts are looked up through the
+ * token index maintained by PostIndex instead of scanning every post. The lookup is a keys-only
+ * query that reads at most MAX_CANDIDATES index entries, so a short or common prefix cannot turn a
+ * search into a read of every post, and only the posts it found are read in batches by key. A
+ * search that reached the limit reports that its results are truncated.
+ */
 public class PostFilter {
-  public static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  public static final DatastoreService datastore = MeteredDatastore.getDatastoreService();
+  // Sorts after every character that can appear in a token, closing the range of a prefix.
+  private static final String PREFIX_END = "\ufffd";
+  // How many keys are read per round trip while a lookup is being read.
+  private static final int BATCH_SIZE = 500;
+  /** The most index entries one lookup reads. */
+  public static final int MAX_CANDIDATES = 4000;
+  // Batch gets are limited to 1000 keys.
+  private static final int MAX_KEYS_PER_GET = 1000;
 
   private PostFilter() {}
 
   /**
-   * Filters all posts that contain the searchQuery. Returns a list of all posts in priortized
-   * order: posts from the school first, posts with the search query in the title, and lastly text
-   * that contains the search query.
+   * Filters the posts that contain the searchQuery, reading at most MAX_CANDIDATES index entries.
+   * Returns the posts found in priortized order.
    */
   public static List<Entity> filterPosts(String searchQuery) {
-    String lowerQuery = searchQuery.toLowerCase();
-    Query query = new Query("Post");
-    List<Entity> posts = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
-
-    // Removes every post that does not contain the search query, meaning the post has no weight.
-    posts.removeIf(post -> !calculateWeight(post, lowerQuery).isPresent());
-    posts.sort((post1, post2) -> compare(post1, post2, lowerQuery));
-    return posts;
+    return search(searchQuery, MAX_CANDIDATES).getPosts();
   }
 
-  /** Returns an int comparison based on the weights of each post. */
-  private static int compare(Entity post1, Entity post2, String lowerQuery) {
-    Optional<Integer> post1Type = calculateWeight(post1, lowerQuery);
-    Optional<Integer> post2Type = calculateWeight(post2, lowerQuery);
-    // If one of the posts does not have a weight, the value defaults to 0.
-    return Integer.compare(post2Type.orElse(0), post1Type.orElse(0));
+  /**
+   * Filters the posts that contain the searchQuery, reading at most maxCandidates index entries.
+   * Returns the posts found in priortized order: posts from the school first, posts with the search
+   * query in the title, and lastly text that contains the search query.
+   *
+   * <p>The query is split into words like the indexed fields, and a field contains the query if
+   * every query word is the prefix of a word in that field. A post is ranked by the highest
+   * priority field that contains the query, and posts of the same rank are listed in the order the
+   * index returns them.
+   */
+  public static PostSearchResults search(String searchQuery, int maxCandidates) {
+    List<String> queryTokens = PostIndex.tokenize(searchQuery);
+    List<Entity> posts = new ArrayList<>();
+    if (queryTokens.isEmpty()) {
+      return new PostSearchResults(posts, false);
+    }
+
+    // The longest word usually matches the fewest index entries, so it is used for the lookup and
+    // every word is checked on the posts that were found.
+    String lookupToken = queryTokens.stream().max(Comparator.comparingInt(String::length)).get();
+    // One more entry than the limit tells whether the lookup found every match.
+    List<Key> indexEntries = queryPrefix(lookupToken, maxCandidates + 1);
+    boolean truncated = indexEntries.size() > maxCandidates;
+    if (truncated) {
+      indexEntries = indexEntries.subList(0, maxCandidates);
+    }
+    // Posts are listed once even if several of their tokens start with the prefix.
+    List<Key> keys = new ArrayList<>(new LinkedHashSet<>(indexEntries));
+    for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_GET) {
+      List<Key> batch = keys.subList(start, Math.min(start + MAX_KEYS_PER_GET, keys.size()));
+      Map<Key, Entity> found = datastore.get(batch);
+      for (Key key : batch) {
+        // A post deleted since the lookup is left out.
+        Entity post = found.get(key);
+        if (post != null) {
+          posts.add(post);
+        }
+      }
+    }
+    return new PostSearchResults(PostRanker.rank(posts, queryTokens), truncated);
   }
 
   /**
-   * Given a post and a lowercased search query, determines the weight of the post. Returns an empty
-   * Optional if the post does not contain the search query.
+   * Returns the keys of the index entries of tokens that start with the prefix, in the order of the
+   * index, reading at most limit entries.
    */
-  private static Optional<Integer> calculateWeight(Entity post, String lowerQuery) {
-    String postSchool = ((String) post.getProperty("schoolName")).toLowerCase();
-    String postTitle = ((String) post.getProperty("title")).toLowerCase();
-    String postText = ((Text) post.getProperty("text")).getValue().toLowerCase();
-
-    if (postSchool.contains(lowerQuery)) {
-      return Optional.of(1);
-    } else if (postTitle.contains(lowerQuery)) {
-      return Optional.of(0);
-    } else if (postText.contains(lowerQuery)) {
-      return Optional.of(-1);
+  private static List<Key> queryPrefix(String prefix, int limit) {
+    String field = PostIndex.SEARCH_TOKENS;
+    Query query =
+        new Query("Post")
+            .setFilter(
+                CompositeFilterOperator.and(
+                    new FilterPredicate(field, FilterOperator.GREATER_THAN_OR_EQUAL, prefix),
+                    new FilterPredicate(field, FilterOperator.LESS_THAN, prefix + PREFIX_END)))
+            .setKeysOnly();
+    // Reads large batches instead of one round trip per 20 entities.
+    FetchOptions options =
+        FetchOptions.Builder.withLimit(limit).prefetchSize(BATCH_SIZE).chunkSize(BATCH_SIZE);
+    List<Key> keys = new ArrayList<>();
+    for (Entity post : datastore.prepare(query).asIterable(options)) {
+      keys.add(post.getKey());
     }
-    return Optional.empty();
+    return keys;
   }
 }
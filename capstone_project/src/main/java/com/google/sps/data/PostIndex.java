@@ -0,0 +1,118 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Maintains the search index of posts. The school name, title and text of a post are split into
+ * lowercase tokens. The distinct tokens of all three fields are stored on the post as an indexed
+ * list property, and Datastore keeps an index entry for every value of a list property, so that
+ * index is a posting list from token to posts. It is updated whenever a post is written and removed
+ * when it is deleted. The tokens of each field are also stored separately, unindexed, to rank the
+ * posts a lookup finds without reading their text.
+ */
+public final class PostIndex {
+  public static final String SEARCH_TOKENS = "searchTokens";
+  public static final String SCHOOL_TOKENS = "schoolTokens";
+  public static final String TITLE_TOKENS = "titleTokens";
+  public static final String TEXT_TOKENS = "textTokens";
+  /** The token lists of the fields, ordered from the highest to the lowest search weight. */
+  public static final List<String> FIELDS = Arrays.asList(SCHOOL_TOKENS, TITLE_TOKENS, TEXT_TOKENS);
+
+  // Bounds the number of index entries a single long post can add.
+  private static final int MAX_TOKENS_PER_FIELD = 2000;
+  // Indexed strings are limited to 1500 bytes, so longer tokens are cut.
+  private static final int MAX_TOKEN_LENGTH = 100;
+
+  private PostIndex() {}
+
+  /** Sets the token lists of the post from its school name, title and text. */
+  public static void indexPost(Entity post) {
+    Text text = (Text) post.getProperty("text");
+    List<String> schoolTokens = tokenize((String) post.getProperty("schoolName"));
+    List<String> titleTokens = tokenize((String) post.getProperty("title"));
+    List<String> textTokens = tokenize(text == null ? null : text.getValue());
+
+    Set<String> searchTokens = new LinkedHashSet<>(schoolTokens);
+    searchTokens.addAll(titleTokens);
+    searchTokens.addAll(textTokens);
+    post.setProperty(SEARCH_TOKENS, new ArrayList<>(searchTokens));
+    post.setUnindexedProperty(SCHOOL_TOKENS, schoolTokens);
+    post.setUnindexedProperty(TITLE_TOKENS, titleTokens);
+    post.setUnindexedProperty(TEXT_TOKENS, textTokens);
+  }
+
+  /**
+   * Splits the text into its distinct lowercase words, in order of first appearance. Anything that
+   * is not a letter or digit separates words. Returns an empty list for null text.
+   */
+  public static List<String> tokenize(String text) {
+    if (text == null) {
+      return Collections.emptyList();
+    }
+
+    Set<String> tokens = new LinkedHashSet<>();
+    for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (token.isEmpty()) {
+        continue;
+      }
+      tokens.add(token.length() > MAX_TOKEN_LENGTH ? token.substring(0, MAX_TOKEN_LENGTH) : token);
+      if (tokens.size() == MAX_TOKENS_PER_FIELD) {
+        break;
+      }
+    }
+    return new ArrayList<>(tokens);
+  }
+
+  /**
+   * Returns the tokens stored in the given field of the post. Returns an empty collection if the
+   * field is empty or the post was never indexed.
+   */
+  @SuppressWarnings("unchecked")
+  public static Collection<String> getTokens(Entity post, String field) {
+    Object tokens = post.getProperty(field);
+    if (tokens == null) {
+      return Collections.emptyList();
+    }
+    return (Collection<String>) tokens;
+  }
+
+  /** Returns true if every query token is the prefix of at least one of the tokens. */
+  public static boolean matchesAll(Collection<String> tokens, List<String> queryTokens) {
+    for (String queryToken : queryTokens) {
+      boolean found = false;
+      for (String token : tokens) {
+        if (token.startsWith(queryToken)) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
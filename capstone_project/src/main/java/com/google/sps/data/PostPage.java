@@ -0,0 +1,63 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A single page of post summaries along with the cursor to the next page. The cursor is an opaque,
+ * web-safe Datastore cursor string and is null once there are no more posts to load.
+ */
+public class PostPage {
+  public static final int DEFAULT_PAGE_SIZE = 20;
+  public static final int MAX_PAGE_SIZE = 100;
+
+  private final List<PostSummary> posts;
+  private final String cursor;
+
+  public PostPage(List<PostSummary> posts, Optional<String> cursor) {
+    this.posts = posts;
+    this.cursor = cursor.orElse(null);
+  }
+
+  /** Returns the summaries of the posts on this page. */
+  public List<PostSummary> getPosts() {
+    return Collections.unmodifiableList(posts);
+  }
+
+  /** Returns the cursor of the next page, or an empty Optional if this is the last page. */
+  public Optional<String> getCursor() {
+    return Optional.ofNullable(cursor);
+  }
+
+  /**
+   * Parses the requested page size. Falls back to DEFAULT_PAGE_SIZE if the parameter is missing or
+   * not a number, and clamps the value between 1 and MAX_PAGE_SIZE.
+   */
+  public static int parsePageSize(String pageSizeParam) {
+    if (pageSizeParam == null || pageSizeParam.isEmpty()) {
+      return DEFAULT_PAGE_SIZE;
+    }
+
+    try {
+      int pageSize = Integer.parseInt(pageSizeParam);
+      return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    } catch (NumberFormatException e) {
+      return DEFAULT_PAGE_SIZE;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Orders search results by the highest priority field that contains the query: school, then title,
+ * then text. Every post is scored exactly once into an array of ranks, and the posts are then
+ * placed by a stable counting sort, since there are only as many ranks as indexed fields. Large
+ * result sets are scored in parallel on the common fork-join pool.
+ */
+public final class PostRanker {
+  /** The rank of a post that contains the query in none of its fields. */
+  public static final int NO_MATCH = -1;
+  // Below this many posts, splitting the scoring costs more than it saves. Searches read at most
+  // PostFilter.MAX_CANDIDATES posts, so this is well below that.
+  private static final int PARALLEL_THRESHOLD = 1024;
+
+  private PostRanker() {}
+
+  /**
+   * Returns the posts that contain every query token, ordered by rank. Posts of the same rank keep
+   * their order from the given list.
+   */
+  public static List<Entity> rank(List<Entity> posts, List<String> queryTokens) {
+    Entity[] postArray = posts.toArray(new Entity[0]);
+    int[] ranks = new int[postArray.length];
+    ScoreTask task = new ScoreTask(postArray, ranks, queryTokens, 0, postArray.length);
+    if (postArray.length < PARALLEL_THRESHOLD) {
+      task.compute();
+    } else {
+      ForkJoinPool.commonPool().invoke(task);
+    }
+    return countingSort(postArray, ranks);
+  }
+
+  /**
+   * Returns the index in PostIndex.FIELDS of the first field of the post whose tokens start with
+   * every query token, or NO_MATCH if there is none.
+   */
+  public static int score(Entity post, List<String> queryTokens) {
+    for (int rank = 0; rank < PostIndex.FIELDS.size(); rank++) {
+      if (PostIndex.matchesAll(
+          PostIndex.getTokens(post, PostIndex.FIELDS.get(rank)), queryTokens)) {
+        return rank;
+      }
+    }
+    return NO_MATCH;
+  }
+
+  /** Places every matching post at the offset of its rank, keeping the order within a rank. */
+  private static List<Entity> countingSort(Entity[] posts, int[] ranks) {
+    int[] offsets = new int[PostIndex.FIELDS.size() + 1];
+    for (int rank : ranks) {
+      if (rank != NO_MATCH) {
+        offsets[rank + 1]++;
+      }
+    }
+    for (int rank = 1; rank < offsets.length; rank++) {
+      offsets[rank] += offsets[rank - 1];
+    }
+
+    Entity[] sorted = new Entity[offsets[offsets.length - 1]];
+    for (int i = 0; i < posts.length; i++) {
+      if (ranks[i] != NO_MATCH) {
+        sorted[offsets[ranks[i]]++] = posts[i];
+      }
+    }
+    return new ArrayList<>(Arrays.asList(sorted));
+  }
+
+  /** Scores a range of posts, splitting it in halves while it is larger than the threshold. */
+  private static class ScoreTask extends RecursiveAction {
+    private final Entity[] posts;
+    private final int[] ranks;
+    private final List<String> queryTokens;
+    private final int start;
+    private final int end;
+
+    ScoreTask(Entity[] posts, int[] ranks, List<String> queryTokens, int start, int end) {
+      this.posts = posts;
+      this.ranks = ranks;
+      this.queryTokens = queryTokens;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= PARALLEL_THRESHOLD) {
+        for (int i = start; i < end; i++) {
+          ranks[i] = score(posts[i], queryTokens);
+        }
+        return;
+      }
+
+      int middle = (start + end) >>> 1;
+      invokeAll(
+          new ScoreTask(posts, ranks, queryTokens, start, middle),
+          new ScoreTask(posts, ranks, queryTokens, middle, end));
+    }
+  }
+}
@@ -0,0 +1,42 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The posts a search found, in ranked order, and whether the lookup stopped at its limit before it
+ * found every post that starts with the query.
+ */
+public class PostSearchResults {
+  private final List<Entity> posts;
+  private final boolean truncated;
+
+  public PostSearchResults(List<Entity> posts, boolean truncated) {
+    this.posts = posts;
+    this.truncated = truncated;
+  }
+
+  public List<Entity> getPosts() {
+    return Collections.unmodifiableList(posts);
+  }
+
+  /** Returns true if more posts match the query than the lookup read. */
+  public boolean isTruncated() {
+    return truncated;
+  }
+}
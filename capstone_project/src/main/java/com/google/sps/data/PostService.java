@@ -17,27 +17,41 @@ package com.google.sps.data;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Query.SortPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 
 /**
@@ -45,15 +59,34 @@ import javax.servlet.http.HttpServletRequest;
  * into datastore, and upvoting posts.
  */
 public class PostService {
+  /** The kind of the shards that count the upvotes of each post, keyed by post ID. */
+  public static final String UPVOTE_SHARD_KIND = "UpvoteShard";
+
+  private static final Logger logger = Logger.getLogger(PostService.class.getName());
+  // Upvotes are copied onto the post entity at most once per interval, per post.
+  private static final long UPVOTE_SNAPSHOT_INTERVAL_MS = 1000;
+  // Posts older than this are no longer trending, whatever their upvotes.
+  private static final long TRENDING_WINDOW_MS = 7L * 24 * 60 * 60 * 1000;
+  // Cross-group transactions may touch at most 25 entity groups.
+  private static final int MAX_POSTS_PER_TRANSACTION = 25;
   private final BlobstoreService blobstore;
   private final DatastoreService datastore;
   private final Clock clock;
-  private Map<String, Comparator<Entity>> postSorters;
+  private final ShardedCounter upvoteCounter;
+  private final ReactionAggregator reactionAggregator;
+  private final SchoolFeedCache schoolFeedCache;
+  private final Queue queue;
+  // Datastore sort orders by sort type, each backed by an index in datastore-indexes.xml.
+  private Map<String, List<SortPredicate>> postSortOrders;
 
   public static class Builder {
     private BlobstoreService blobstore = BlobstoreServiceFactory.getBlobstoreService();
-    private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
     private Clock clock = Clock.systemUTC();
+    private ShardedCounter upvoteCounter;
+    private ReactionAggregator reactionAggregator;
+    private SchoolFeedCache schoolFeedCache;
+    private Queue queue = QueueFactory.getDefaultQueue();
 
     public static Builder builder() {
       return new Builder();
@@ -74,6 +107,30 @@ public class PostService {
       return this;
     }
 
+    /** Sets the counter that upvotes are counted with. Defaults to one backed by the datastore. */
+    public Builder upvoteCounter(ShardedCounter upvoteCounter) {
+      this.upvoteCounter = upvoteCounter;
+      return this;
+    }
+
+    /** Sets the buffer that reactions are collected in. Defaults to the one shared per instance. */
+    public Builder reactionAggregator(ReactionAggregator reactionAggregator) {
+      this.reactionAggregator = reactionAggregator;
+      return this;
+    }
+
+    /** Sets the cache of school feeds. Defaults to the one shared per instance. */
+    public Builder schoolFeedCache(SchoolFeedCache schoolFeedCache) {
+      this.schoolFeedCache = schoolFeedCache;
+      return this;
+    }
+
+    /** Sets the task queue used to schedule upvote snapshots. */
+    public Builder queue(Queue queue) {
+      this.queue = queue;
+      return this;
+    }
+
     public PostService build() {
       return new PostService(this);
     }
@@ -83,7 +140,24 @@ public class PostService {
     this.blobstore = builder.blobstore;
     this.datastore = builder.datastore;
     this.clock = builder.clock;
-    postSorters = new HashMap<>();
+    this.queue = builder.queue;
+    if (builder.upvoteCounter != null) {
+      this.upvoteCounter = builder.upvoteCounter;
+    } else {
+      this.upvoteCounter =
+          ShardedCounter.Builder.builder().kind(UPVOTE_SHARD_KIND).datastore(datastore).build();
+    }
+    if (builder.reactionAggregator != null) {
+      this.reactionAggregator = builder.reactionAggregator;
+    } else {
+      this.reactionAggregator = ReactionAggregator.getInstance();
+    }
+    if (builder.schoolFeedCache != null) {
+      this.schoolFeedCache = builder.schoolFeedCache;
+    } else {
+      this.schoolFeedCache = SchoolFeedCache.getInstance();
+    }
+    postSortOrders = new HashMap<>();
     initializeSorters();
   }
 
@@ -103,9 +177,10 @@ public class PostService {
   }
 
   /**
-   * Stores the post text and file blobkey into datastore. 'request' must have the parameter 'text'.
+   * Stores the post text and file blobkey into datastore and returns the id of the new post.
+   * 'request' must have the parameter 'text'.
    */
-  public void storePost(HttpServletRequest request) {
+  public long storePost(HttpServletRequest request) {
     Entity postEntity = new Entity("Post");
     Text message = new Text(request.getParameter("text"));
     String fileType = request.getParameter("file-type");
@@ -117,8 +192,8 @@ public class PostService {
       fileType = "none";
     }
 
-    // Only set the fileBlobKey if there is one. There is no need to store a blobKey if there isn't
-    // one.
+    // Only set the fileBlobKey if there is one. Posts without a file get a null key from
+    // addSummaryProperties, so feeds can project it.
     if (fileBlobKey.isPresent()) {
       postEntity.setProperty("fileBlobKey", fileBlobKey.get());
     }
@@ -132,13 +207,30 @@ public class PostService {
     // current milliseconds since the unix epoch.
     postEntity.setProperty("timestamp", clock.millis());
     postEntity.setProperty("title", title);
+    postEntity.setProperty("trendingScore", 0.0);
+    // The analysis is filled in later by the post-analysis queue.
+    postEntity.setUnindexedProperty("analysisStatus", AnalysisQueue.PENDING);
+    PostIndex.indexPost(postEntity);
+    PostSummary.addSummaryProperties(postEntity);
     datastore.put(postEntity);
+    long postID = postEntity.getKey().getId();
+    if (fileBlobKey.isPresent()) {
+      BlobCollector.recordOwner(datastore, fileBlobKey.get(), postID);
+    }
+    if (schoolName != null) {
+      schoolFeedCache.invalidate(schoolName);
+    }
+    return postID;
   }
 
   /**
    * Increases the upvote count of a post by one. 'request' must have the parameter 'id'. Returns
    * the new upvote count after increase. If post does not exist, returns an empty Optional
    * instance.
+   *
+   * <p>The vote is counted by a sharded counter instead of the post entity, so bursts of votes on
+   * one post neither lose writes nor exceed the write rate of the post's entity group. The
+   * "upvotes" property of the post is a snapshot of the counter that is updated shortly after.
    */
   public Optional<Long> upvotePost(HttpServletRequest request) {
     long postID = Long.parseLong(request.getParameter("id"));
@@ -147,70 +239,163 @@ public class PostService {
       return Optional.empty();
     }
 
-    Entity postToUpvote = post.get();
-    long currentUpvotes = (long) postToUpvote.getProperty("upvotes");
-    postToUpvote.setProperty("upvotes", ++currentUpvotes);
-    datastore.put(postToUpvote);
-    return Optional.of(currentUpvotes);
+    long upvotes = upvoteCounter.increment(Long.toString(postID));
+    scheduleUpvoteSnapshot(postID);
+    return Optional.of(upvotes);
   }
 
   /**
-   * Sorts a list of entities based on the sort type passed in and returns the sorted list. If the
-   * sort type does not exist, an empty list is returned.
+   * Schedules a task that copies the upvote count onto the post. Tasks are named after the post and
+   * the current snapshot interval, so all votes within one interval share a single task.
    */
-  public List<Entity> sortEntities(String sortType, List<Entity> entities) {
-    Comparator<Entity> sortMethod = postSorters.get(sortType);
-    if (sortMethod == null) {
-      return Arrays.asList();
+  private void scheduleUpvoteSnapshot(long postID) {
+    long interval = clock.millis() / UPVOTE_SNAPSHOT_INTERVAL_MS;
+    TaskOptions task =
+        TaskOptions.Builder.withUrl("/upvote-snapshot")
+            .taskName("upvote-snapshot-" + postID + "-" + interval)
+            .param("id", Long.toString(postID))
+            .countdownMillis(UPVOTE_SNAPSHOT_INTERVAL_MS);
+    try {
+      queue.add(task);
+    } catch (TaskAlreadyExistsException ok) {
+      // Another vote in this interval already scheduled the snapshot.
     }
-
-    Collections.sort(entities, sortMethod);
-    return entities;
   }
 
-  /** Initializes postSorters with method references to the sorting methods. */
-  private void initializeSorters() {
-    postSorters.put("new", this::sortByNew);
-    postSorters.put("top", this::sortByTop);
-    postSorters.put("trending", this::sortByTrending);
+  /**
+   * Copies the exact upvote count of the post from its counter onto the post entity and refreshes
+   * its trending score. Does nothing if the post was deleted. Throws a
+   * ConcurrentModificationException if the post was modified concurrently, in which case the
+   * snapshot should be retried.
+   */
+  public void snapshotUpvotes(long postID) {
+    long upvotes = upvoteCounter.countShards(Long.toString(postID));
+    Key key = KeyFactory.createKey("Post", postID);
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity post = datastore.get(txn, key);
+      post.setProperty("upvotes", upvotes);
+      post.setProperty("trendingScore", calculateTrendingScore(post, clock.millis()));
+      datastore.put(txn, post);
+      txn.commit();
+    } catch (EntityNotFoundException ok) {
+      // The post was deleted, so there is nothing to update.
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
   }
 
-  /** Returns an int for comparison of the entities. Should be used within comparing only. */
-  private int sortByNew(Entity first, Entity second) {
-    long firstTime = (long) first.getProperty("timestamp");
-    long secondTime = (long) second.getProperty("timestamp");
-    return Long.compare(secondTime, firstTime);
-  }
+  /**
+   * Recomputes the trending score of every post that has one, since the score of a post drops as it
+   * ages. Posts older than the trending window get a score of zero and are not refreshed again
+   * until they are upvoted. Returns the number of posts that were refreshed. Posts that are
+   * modified concurrently keep their score until the next refresh.
+   */
+  public int refreshTrendingScores() {
+    long now = clock.millis();
+    Query query =
+        new Query("Post")
+            .setFilter(new FilterPredicate("trendingScore", FilterOperator.GREATER_THAN, 0.0))
+            .setKeysOnly();
+    // The keys are read up front, since refreshing a score moves the post within the query.
+    List<Key> keys = new ArrayList<>();
+    for (Entity post :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      keys.add(post.getKey());
+    }
 
-  /** Returns an int for comparison of the entities. Should be used within comparing only. */
-  private int sortByTop(Entity first, Entity second) {
-    long firstUpvotes = (long) first.getProperty("upvotes");
-    long secondUpvotes = (long) second.getProperty("upvotes");
-    return Long.compare(secondUpvotes, firstUpvotes);
+    int refreshed = 0;
+    for (int start = 0; start < keys.size(); start += MAX_POSTS_PER_TRANSACTION) {
+      List<Key> batch =
+          keys.subList(start, Math.min(start + MAX_POSTS_PER_TRANSACTION, keys.size()));
+      try {
+        refreshed += refreshTrendingScores(batch, now);
+      } catch (ConcurrentModificationException e) {
+        logger.log(Level.WARNING, "Trending refresh of a batch failed, retrying next time.", e);
+      }
+    }
+    return refreshed;
   }
 
-  /** Returns an int for comparison of the entities. Should be used within comparing only. */
-  private int sortByTrending(Entity first, Entity second) {
-    float firstRatio = getUpvoteRatio(first);
-    float secondRatio = getUpvoteRatio(second);
-
-    return Float.compare(secondRatio, firstRatio);
+  /** Recomputes the trending scores of the given posts in one cross-group transaction. */
+  private int refreshTrendingScores(List<Key> keys, long now) {
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      // Posts that were deleted in the meantime are missing from the result and skipped.
+      Map<Key, Entity> posts = datastore.get(txn, keys);
+      for (Entity post : posts.values()) {
+        post.setProperty("trendingScore", calculateTrendingScore(post, now));
+      }
+      datastore.put(txn, posts.values());
+      txn.commit();
+      return posts.size();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
   }
 
-  /** Gets the amount of upvotes a post earned per minute since the time of upload. */
-  private float getUpvoteRatio(Entity post) {
+  /**
+   * Returns the upvotes the post earned per minute since the time of upload, or zero if the post is
+   * older than the trending window.
+   */
+  public static double calculateTrendingScore(Entity post, long now) {
     long upvotes = (long) post.getProperty("upvotes");
     long postTime = (long) post.getProperty("timestamp");
-    long currentTime = clock.millis();
-    long msDifference = currentTime - postTime;
-    float minDifference = msDifference / 60f / 1000f;
+    long msDifference = now - postTime;
+    if (msDifference > TRENDING_WINDOW_MS) {
+      return 0;
+    }
 
+    // A post is at least a millisecond old, so the score stays finite.
+    double minDifference = Math.max(msDifference, 1) / 60d / 1000d;
     return upvotes / minDifference;
   }
 
+  /**
+   * Returns a page of at most 'pageSize' post summaries in the order of the given sort type. The
+   * summaries are read in order from a datastore index, so only the requested page is read. If a
+   * cursor is given, the page starts where the page that returned that cursor ended. Returns an
+   * empty Optional if the sort type does not exist. Throws an IllegalArgumentException if the
+   * cursor is not a valid cursor string.
+   *
+   * <p>Trending posts are ordered by their stored trending score, which is refreshed whenever the
+   * post is upvoted and periodically by refreshTrendingScores.
+   */
+  public Optional<PostPage> getSortedPostsPage(
+      String sortType, int pageSize, Optional<String> cursor) {
+    List<SortPredicate> sortOrder = postSortOrders.get(sortType);
+    if (sortOrder == null) {
+      return Optional.empty();
+    }
+
+    Query query = new Query("Post");
+    for (SortPredicate sort : sortOrder) {
+      query.addSort(sort.getPropertyName(), sort.getDirection());
+    }
+    return Optional.of(getPage(projectSummary(query), pageSize, cursor, Optional.empty()));
+  }
+
+  /** Initializes postSortOrders for every sort type. */
+  private void initializeSorters() {
+    SortPredicate newestFirst = new SortPredicate("timestamp", SortDirection.DESCENDING);
+    postSortOrders.put("new", Arrays.asList(newestFirst));
+    postSortOrders.put(
+        "top", Arrays.asList(new SortPredicate("upvotes", SortDirection.DESCENDING), newestFirst));
+    postSortOrders.put(
+        "trending",
+        Arrays.asList(new SortPredicate("trendingScore", SortDirection.DESCENDING), newestFirst));
+  }
+
   /**
    * Increases the reaction count of the submitted reaction by one. Returns the new reaction count
    * after increase. If the post or reaction does not exist, returns an empty Optional instance.
+   *
+   * <p>The reaction is buffered by the ReactionAggregator and written to the post with the other
+   * reactions of the same flush, so the post entity is not rewritten on every click.
    */
   public Optional<Long> reactToPost(HttpServletRequest request) {
     String reaction = request.getParameter("reaction");
@@ -224,15 +409,31 @@ public class PostService {
       return Optional.empty();
     }
 
-    Entity postToReact = post.get();
-    EmbeddedEntity reactions = (EmbeddedEntity) postToReact.getProperty("reactions");
-    long reactionCount = (long) reactions.getProperty(reaction);
+    EmbeddedEntity reactions = (EmbeddedEntity) post.get().getProperty("reactions");
+    if (!reactions.hasProperty(reaction)) {
+      return Optional.empty();
+    }
 
-    // Update the reaction count, then update the Reactions Entity of the post.
-    reactions.setProperty(reaction, ++reactionCount);
-    postToReact.setProperty("reactions", reactions);
-    datastore.put(postToReact);
-    return Optional.of(reactionCount);
+    long persistedCount = (long) reactions.getProperty(reaction);
+    long unflushedCount = reactionAggregator.addReaction(postID, reaction);
+    return Optional.of(persistedCount + unflushedCount);
+  }
+
+  /**
+   * Returns the reaction counts of the post, including reactions that are not written to datastore
+   * yet. If the post does not exist, returns an empty Optional instance.
+   */
+  public Optional<EmbeddedEntity> getReactions(long postID) {
+    Optional<Entity> post = getEntityFromId(postID);
+    if (!post.isPresent()) {
+      return Optional.empty();
+    }
+
+    EmbeddedEntity reactions = (EmbeddedEntity) post.get().getProperty("reactions");
+    reactionAggregator.addUnflushedReactions(postID, reactions);
+    // Feeds read reactions far more often than they are added, so reads also flush the buffer.
+    reactionAggregator.flushIfDue();
+    return Optional.of(reactions);
   }
 
   /** Returns an EmbeddedEntity with all possible reactions set to 0. */
@@ -272,6 +473,198 @@ public class PostService {
     return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
   }
 
+  /**
+   * Returns a page of at most 'pageSize' post summaries, newest first. If a cursor is given, the
+   * page starts where the page that returned that cursor ended. Only the summaries on the requested
+   * page are read from datastore. Throws an IllegalArgumentException if the cursor is not a valid
+   * cursor string.
+   */
+  public PostPage getPostsPage(int pageSize, Optional<String> cursor) {
+    Query query = new Query("Post").addSort("timestamp", SortDirection.DESCENDING);
+    return getPage(projectSummary(query), pageSize, cursor, Optional.empty());
+  }
+
+  /**
+   * Returns a page of at most 'pageSize' summaries of the posts with the given school name, newest
+   * first. If a cursor is given, the page starts where the page that returned that cursor ended.
+   * The first page is served from the school feed cache while it is fresh. Throws an
+   * IllegalArgumentException if the cursor is not a valid cursor string.
+   */
+  public PostPage getSchoolPostsPage(String schoolName, int pageSize, Optional<String> cursor) {
+    Filter nameFilter = new FilterPredicate("schoolName", FilterOperator.EQUAL, schoolName);
+    // A property in an equality filter cannot be projected, and is the same for every post anyway.
+    Query query =
+        projectSummary(
+            new Query("Post").setFilter(nameFilter).addSort("timestamp", SortDirection.DESCENDING),
+            "schoolName");
+    if (cursor.isPresent()) {
+      return getPage(query, pageSize, cursor, Optional.of(schoolName));
+    }
+    return schoolFeedCache.getFirstPage(
+        schoolName,
+        pageSize,
+        () -> getPage(query, pageSize, Optional.empty(), Optional.of(schoolName)));
+  }
+
+  /**
+   * Runs the summary projection query for one page, starting at the cursor if one is given. The
+   * school name of the summaries is read from the results unless it is given.
+   */
+  private PostPage getPage(
+      Query query, int pageSize, Optional<String> cursor, Optional<String> schoolName) {
+    FetchOptions options = FetchOptions.Builder.withLimit(pageSize);
+    if (cursor.isPresent()) {
+      options.startCursor(Cursor.fromWebSafeString(cursor.get()));
+    }
+
+    QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(options);
+    List<PostSummary> posts =
+        results.stream()
+            .map(
+                post ->
+                    convertEntityToSummary(
+                        post, schoolName.orElse((String) post.getProperty("schoolName"))))
+            .collect(Collectors.toList());
+
+    // A short page means the end of the feed was reached, so there is no next page.
+    Optional<String> nextCursor = Optional.empty();
+    if (results.size() == pageSize && results.getCursor() != null) {
+      nextCursor = Optional.of(results.getCursor().toWebSafeString());
+    }
+    return new PostPage(posts, nextCursor);
+  }
+
+  /**
+   * Adds a projection of every summary property to the query, except for the given properties.
+   * Every combination of the projection with the filters and sort orders of the query needs a
+   * composite index in datastore-indexes.xml.
+   */
+  private static Query projectSummary(Query query, String... excludedProperties) {
+    List<String> excluded = Arrays.asList(excludedProperties);
+    for (Map.Entry<String, Class<?>> property : PostSummary.PROPERTIES.entrySet()) {
+      if (!excluded.contains(property.getKey())) {
+        query.addProjection(new PropertyProjection(property.getKey(), property.getValue()));
+      }
+    }
+    return query;
+  }
+
+  /**
+   * Converts an Entity returned by a summary projection into a PostSummary. The school name is
+   * passed separately, since it is not projected when the query filters on it.
+   */
+  public static PostSummary convertEntityToSummary(Entity post, String schoolName) {
+    Long upvotes = (Long) post.getProperty("upvotes");
+    Boolean truncated = (Boolean) post.getProperty(PostSummary.PREVIEW_TRUNCATED);
+
+    return PostSummary.newBuilder()
+        .setTitle((String) post.getProperty("title"))
+        .setSchoolName(schoolName)
+        .setFileType((String) post.getProperty("fileType"))
+        .setFileBlobKey((String) post.getProperty("fileBlobKey"))
+        .setPreview((String) post.getProperty(PostSummary.PREVIEW))
+        .setTruncated(truncated != null && truncated)
+        .setUpvotes(upvotes == null ? 0 : upvotes)
+        .setPostId(post.getKey().getId())
+        .build();
+  }
+
+  /**
+   * Adds the summary properties to every post written before feeds read summaries, since feed
+   * queries do not return those posts otherwise. Returns the number of posts that were updated.
+   * Throws a ConcurrentModificationException if a post is modified concurrently. Posts that were
+   * updated already are skipped when this runs again.
+   */
+  public int addMissingSummaries() {
+    return updatePostsWithout(PostSummary.PREVIEW, PostSummary::addSummaryProperties);
+  }
+
+  /**
+   * Adds the search tokens to every post written before posts were searched through PostIndex,
+   * since searches do not find those posts otherwise. Returns the number of posts that were
+   * updated. Throws a ConcurrentModificationException if a post is modified concurrently. Posts
+   * that were updated already are skipped when this runs again.
+   */
+  public int addMissingSearchTokens() {
+    return updatePostsWithout(PostIndex.SEARCH_TOKENS, PostIndex::indexPost);
+  }
+
+  /**
+   * Adds the trending score to every post written before trending feeds were read from the stored
+   * score, since the trending feed does not return those posts otherwise. Returns the number of
+   * posts that were updated. Throws a ConcurrentModificationException if a post is modified
+   * concurrently. Posts that were updated already are skipped when this runs again.
+   */
+  public int addMissingTrendingScores() {
+    long now = clock.millis();
+    return updatePostsWithout(
+        "trendingScore",
+        post -> post.setProperty("trendingScore", calculateTrendingScore(post, now)));
+  }
+
+  /**
+   * Seeds the upvote counter of every post that was upvoted before upvotes were counted in shards,
+   * so that the next snapshot does not replace its upvotes with the votes cast since. Returns the
+   * number of counters that were seeded. Counters that have a shard already are skipped, so this
+   * can run again.
+   */
+  public int seedUpvoteCounters() {
+    Query query =
+        new Query("Post")
+            .setFilter(new FilterPredicate("upvotes", FilterOperator.GREATER_THAN, 0L))
+            .addProjection(new PropertyProjection("upvotes", Long.class));
+
+    int seeded = 0;
+    for (Entity post :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      String counterName = Long.toString(post.getKey().getId());
+      if (upvoteCounter.seed(counterName, (long) post.getProperty("upvotes"))) {
+        seeded++;
+      }
+    }
+    return seeded;
+  }
+
+  /**
+   * Applies the update to every post that does not have the property, in cross-group transactions
+   * of up to 25 posts. Returns the number of posts that were updated.
+   */
+  private int updatePostsWithout(String property, Consumer<Entity> update) {
+    List<Key> keys = new ArrayList<>();
+    for (Entity post :
+        datastore.prepare(new Query("Post")).asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      if (!post.hasProperty(property)) {
+        keys.add(post.getKey());
+      }
+    }
+
+    int updated = 0;
+    for (int start = 0; start < keys.size(); start += MAX_POSTS_PER_TRANSACTION) {
+      List<Key> batch =
+          keys.subList(start, Math.min(start + MAX_POSTS_PER_TRANSACTION, keys.size()));
+      updated += updatePosts(batch, update);
+    }
+    return updated;
+  }
+
+  /** Applies the update to the given posts in one cross-group transaction. */
+  private int updatePosts(List<Key> keys, Consumer<Entity> update) {
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Map<Key, Entity> posts = datastore.get(txn, keys);
+      for (Entity post : posts.values()) {
+        update.accept(post);
+      }
+      datastore.put(txn, posts.values());
+      txn.commit();
+      return posts.size();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
   /** Converts an Entity into a Post. Entity 'post' must be of kind 'Post' */
   public static Post convertEntityToPost(Entity post) {
     Text text = (Text) post.getProperty("text");
@@ -0,0 +1,204 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The part of a post that a feed card shows: its title, school, file and upvotes, and a preview of
+ * its text. Feeds read summaries through projection queries, which return these properties from the
+ * index without reading the text or reactions of the post. The full post is loaded from /serve-post
+ * when a truncated preview is expanded.
+ */
+public class PostSummary {
+  public static final String PREVIEW = "preview";
+  public static final String PREVIEW_TRUNCATED = "previewTruncated";
+  /** The number of characters of the text that are stored in the preview. */
+  public static final int PREVIEW_LENGTH = 280;
+  /** The properties read by the projection queries of feeds, with the type of their values. */
+  public static final Map<String, Class<?>> PROPERTIES;
+
+  static {
+    Map<String, Class<?>> properties = new LinkedHashMap<>();
+    properties.put("title", String.class);
+    properties.put("schoolName", String.class);
+    properties.put("fileType", String.class);
+    properties.put("fileBlobKey", String.class);
+    properties.put("upvotes", Long.class);
+    properties.put(PREVIEW, String.class);
+    properties.put(PREVIEW_TRUNCATED, Boolean.class);
+    PROPERTIES = Collections.unmodifiableMap(properties);
+  }
+
+  private String title;
+  private String schoolName;
+  private String fileType;
+  private String fileBlobKey;
+  private String preview;
+  private boolean truncated;
+  private long upvotes;
+  private long postId;
+
+  /**
+   * Builder class for post summaries. Creates a PostSummary object with properties: title,
+   * schoolName, fileType, fileBlobKey, preview, truncated, upvotes, and post id.
+   */
+  public static class Builder {
+    private String title;
+    private String schoolName;
+    private String fileType;
+    private String fileBlobKey;
+    private String preview;
+    private boolean truncated;
+    private long upvotes;
+    private long postId;
+
+    /** Sets the title of the post. */
+    public Builder setTitle(String title) {
+      this.title = title;
+      return this;
+    }
+
+    /** Sets the school name of the post. */
+    public Builder setSchoolName(String schoolName) {
+      this.schoolName = schoolName;
+      return this;
+    }
+
+    /** Sets the fileType of the post. */
+    public Builder setFileType(String fileType) {
+      this.fileType = fileType;
+      return this;
+    }
+
+    /** Sets the file blob key string of the post. */
+    public Builder setFileBlobKey(String fileBlobKey) {
+      this.fileBlobKey = fileBlobKey;
+      return this;
+    }
+
+    /** Sets the preview of the post's text. */
+    public Builder setPreview(String preview) {
+      this.preview = preview;
+      return this;
+    }
+
+    /** Sets whether the preview is shorter than the post's text. */
+    public Builder setTruncated(boolean truncated) {
+      this.truncated = truncated;
+      return this;
+    }
+
+    /** Sets the amount of upvotes a post has. */
+    public Builder setUpvotes(long upvotes) {
+      this.upvotes = upvotes;
+      return this;
+    }
+
+    /** Sets the post id of the post. */
+    public Builder setPostId(long postId) {
+      this.postId = postId;
+      return this;
+    }
+
+    /** Returns a PostSummary instance with all the properties of this builder. */
+    public PostSummary build() {
+      return new PostSummary(this);
+    }
+  }
+
+  private PostSummary(Builder builder) {
+    this.title = builder.title;
+    this.schoolName = builder.schoolName;
+    this.fileType = builder.fileType;
+    this.fileBlobKey = builder.fileBlobKey;
+    this.preview = builder.preview;
+    this.truncated = builder.truncated;
+    this.upvotes = builder.upvotes;
+    this.postId = builder.postId;
+  }
+
+  /** Returns a Builder object for the summary. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Sets the preview of the post from its text, and sets every other projected property the post
+   * does not have to null. Projection queries skip entities that lack a projected property, so a
+   * post without a file would otherwise be missing from every feed.
+   */
+  public static void addSummaryProperties(Entity post) {
+    Text text = (Text) post.getProperty("text");
+    String value = text == null || text.getValue() == null ? "" : text.getValue();
+    boolean truncated = value.codePointCount(0, value.length()) > PREVIEW_LENGTH;
+    if (truncated) {
+      // Cut at a code point, so a surrogate pair is never split.
+      value = value.substring(0, value.offsetByCodePoints(0, PREVIEW_LENGTH));
+    }
+    // Both are indexed, since only indexed properties can be projected.
+    post.setProperty(PREVIEW, value);
+    post.setProperty(PREVIEW_TRUNCATED, truncated);
+    for (String property : PROPERTIES.keySet()) {
+      if (!post.hasProperty(property)) {
+        post.setProperty(property, null);
+      }
+    }
+  }
+
+  /** Returns the title of the post. */
+  public String getTitle() {
+    return this.title;
+  }
+
+  /** Returns the school name of the post. */
+  public String getSchoolName() {
+    return this.schoolName;
+  }
+
+  /** Returns the file type of the post. */
+  public String getFileType() {
+    return this.fileType;
+  }
+
+  /** Returns the file blob key string of the post. */
+  public String getFileBlobKey() {
+    return this.fileBlobKey;
+  }
+
+  /** Returns the first PREVIEW_LENGTH characters of the post's text. */
+  public String getPreview() {
+    return this.preview;
+  }
+
+  /** Returns true if the post's text is longer than its preview. */
+  public boolean isTruncated() {
+    return this.truncated;
+  }
+
+  /** Returns the amount of upvotes a post has. */
+  public long getUpvotes() {
+    return this.upvotes;
+  }
+
+  /** Returns the post id of the post. */
+  public long getPostId() {
+    return this.postId;
+  }
+}
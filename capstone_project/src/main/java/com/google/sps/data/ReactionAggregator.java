@@ -0,0 +1,348 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers reactions in memory and writes them to datastore in batches. Instead of rewriting a post
+ * on every click, the reactions of each post are added up and written once per flush. A flush runs
+ * on the thread of the request that finds the buffer older than the flush interval or larger than
+ * the size threshold, since App Engine does not keep background threads alive between requests.
+ *
+ * <p>Requests stop arriving at an idle instance, so the first reaction buffered after a flush also
+ * schedules a named flush task for the end of the flush interval. The task queue may deliver the
+ * task to any instance. Every instance that receives it flushes its own buffer, and the task is
+ * retried until it reaches the instance that scheduled it.
+ *
+ * <p>Reactions that are still buffered are added to the counts read through this instance, so a
+ * user always sees their own reactions. Reactions buffered on an instance that is shut down before
+ * its next flush are lost.
+ */
+public class ReactionAggregator {
+  /** The task queue that flush tasks are scheduled on. */
+  public static final String FLUSH_QUEUE = "reaction-flush";
+
+  private static final Logger logger = Logger.getLogger(ReactionAggregator.class.getName());
+  // Cross-group transactions may touch at most 25 entity groups.
+  private static final int MAX_POSTS_PER_TRANSACTION = 25;
+  private static ReactionAggregator instance;
+
+  private final DatastoreService datastore;
+  private final Clock clock;
+  private final Queue queue;
+  // Names the flush tasks of this aggregator, so a task can tell whether it reached it.
+  private final String name;
+  private final long flushIntervalMillis;
+  private final long maxPendingReactions;
+  // Reactions that have not been flushed yet, by post id and reaction name.
+  private final ConcurrentHashMap<Long, Map<String, LongAdder>> pending;
+  // Reactions that are being written by the current flush, by post id and reaction name.
+  private final ConcurrentHashMap<Long, Map<String, Long>> flushing;
+  private final AtomicLong pendingReactions;
+  private final AtomicLong lastFlushMillis;
+  private final AtomicBoolean flushScheduled;
+  private final ReentrantLock flushLock;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private Clock clock = Clock.systemUTC();
+    private Queue queue = QueueFactory.getQueue(FLUSH_QUEUE);
+    private long flushIntervalMillis = 250;
+    private long maxPendingReactions = 500;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Sets the task queue used to schedule flushes. */
+    public Builder queue(Queue queue) {
+      this.queue = queue;
+      return this;
+    }
+
+    /** Sets how long reactions may stay buffered before the next request flushes them. */
+    public Builder flushIntervalMillis(long flushIntervalMillis) {
+      this.flushIntervalMillis = flushIntervalMillis;
+      return this;
+    }
+
+    /** Sets how many reactions may be buffered before they are flushed regardless of time. */
+    public Builder maxPendingReactions(long maxPendingReactions) {
+      this.maxPendingReactions = maxPendingReactions;
+      return this;
+    }
+
+    public ReactionAggregator build() {
+      return new ReactionAggregator(this);
+    }
+  }
+
+  private ReactionAggregator(Builder builder) {
+    this.datastore = builder.datastore;
+    this.clock = builder.clock;
+    this.queue = builder.queue;
+    this.name = UUID.randomUUID().toString();
+    this.flushIntervalMillis = builder.flushIntervalMillis;
+    this.maxPendingReactions = builder.maxPendingReactions;
+    pending = new ConcurrentHashMap<>();
+    flushing = new ConcurrentHashMap<>();
+    pendingReactions = new AtomicLong();
+    lastFlushMillis = new AtomicLong(clock.millis());
+    flushScheduled = new AtomicBoolean();
+    flushLock = new ReentrantLock();
+  }
+
+  /** Returns the aggregator shared by all requests of this instance. */
+  public static synchronized ReactionAggregator getInstance() {
+    if (instance == null) {
+      instance = Builder.builder().build();
+    }
+    return instance;
+  }
+
+  /**
+   * Buffers one reaction to the post and returns how many reactions of that kind the post has that
+   * are not in datastore yet, including this one. Flushes the buffer if it is due.
+   */
+  public long addReaction(long postID, String reaction) {
+    // compute locks the post's entry, so a flush never drains it halfway through an update.
+    pending.compute(
+        postID,
+        (id, reactions) -> {
+          if (reactions == null) {
+            reactions = new ConcurrentHashMap<>();
+          }
+          reactions.computeIfAbsent(reaction, name -> new LongAdder()).increment();
+          return reactions;
+        });
+    pendingReactions.incrementAndGet();
+    if (flushScheduled.compareAndSet(false, true)) {
+      scheduleFlush();
+    }
+
+    long unflushed = getUnflushedCount(postID, reaction);
+    flushIfDue();
+    return unflushed;
+  }
+
+  /** Adds the reactions to the post that are not in datastore yet to the given reaction counts. */
+  public void addUnflushedReactions(long postID, EmbeddedEntity reactions) {
+    for (String reaction : reactions.getProperties().keySet()) {
+      long persisted = (long) reactions.getProperty(reaction);
+      reactions.setProperty(reaction, persisted + getUnflushedCount(postID, reaction));
+    }
+  }
+
+  /** Returns how many reactions of the given kind the post has that are not in datastore yet. */
+  public long getUnflushedCount(long postID, String reaction) {
+    long count = 0;
+    Map<String, LongAdder> pendingCounts = pending.get(postID);
+    if (pendingCounts != null && pendingCounts.containsKey(reaction)) {
+      count += pendingCounts.get(reaction).sum();
+    }
+    Map<String, Long> flushingCounts = flushing.get(postID);
+    if (flushingCounts != null && flushingCounts.containsKey(reaction)) {
+      count += flushingCounts.get(reaction);
+    }
+    return count;
+  }
+
+  /** Flushes the buffer if the flush interval passed or the size threshold was reached. */
+  public void flushIfDue() {
+    boolean due =
+        pendingReactions.get() >= maxPendingReactions
+            || clock.millis() - lastFlushMillis.get() >= flushIntervalMillis;
+    // Only one request flushes at a time, the others keep buffering.
+    if (due && flushLock.tryLock()) {
+      try {
+        flushLocked();
+      } finally {
+        flushLock.unlock();
+      }
+    }
+  }
+
+  /** Writes every buffered reaction to datastore, waiting for a running flush to finish first. */
+  public void flush() {
+    flushLock.lock();
+    try {
+      flushLocked();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * Handles a flush task scheduled by the aggregator with the given name. Flushes the buffer of
+   * this aggregator either way, and returns false if the task was scheduled by another aggregator,
+   * in which case it has to be retried until it reaches that one.
+   */
+  public boolean flushForTask(String aggregatorName) {
+    flush();
+    return name.equals(aggregatorName);
+  }
+
+  /**
+   * Schedules a task that flushes this aggregator at the end of the flush interval. Tasks are named
+   * after the aggregator and the current interval, so a buffer is never flushed twice by tasks.
+   */
+  private void scheduleFlush() {
+    long interval = clock.millis() / flushIntervalMillis;
+    TaskOptions task =
+        TaskOptions.Builder.withUrl("/reaction-flush")
+            .taskName("reaction-flush-" + name + "-" + interval)
+            .param("aggregator", name)
+            .countdownMillis(flushIntervalMillis);
+    try {
+      queue.add(task);
+    } catch (TaskAlreadyExistsException ok) {
+      // The task of this interval has not run yet, so it flushes the new reaction too.
+    } catch (RuntimeException e) {
+      // The next buffered reaction tries again, and requests keep flushing when it is due.
+      flushScheduled.set(false);
+      logger.log(Level.WARNING, "Could not schedule a reaction flush.", e);
+    }
+  }
+
+  private void flushLocked() {
+    // Reactions buffered from here on are not drained for sure, so they schedule another task.
+    flushScheduled.set(false);
+    lastFlushMillis.set(clock.millis());
+    List<Long> postIDs = new ArrayList<>(pending.keySet());
+    for (int start = 0; start < postIDs.size(); start += MAX_POSTS_PER_TRANSACTION) {
+      int end = Math.min(start + MAX_POSTS_PER_TRANSACTION, postIDs.size());
+      Map<Long, Map<String, Long>> batch = drain(postIDs.subList(start, end));
+      try {
+        writeBatch(batch);
+      } catch (RuntimeException e) {
+        // Any failure, including timeouts, keeps the reactions for the next flush. The flush runs
+        // inside an unrelated user request, so the failure is not passed on to it.
+        logger.log(Level.WARNING, "Reaction flush failed, retrying with the next flush.", e);
+        requeue(batch);
+        if (flushScheduled.compareAndSet(false, true)) {
+          scheduleFlush();
+        }
+      } finally {
+        flushing.keySet().removeAll(batch.keySet());
+      }
+    }
+  }
+
+  /** Moves the buffered reactions of the given posts from the pending to the flushing map. */
+  private Map<Long, Map<String, Long>> drain(List<Long> postIDs) {
+    Map<Long, Map<String, Long>> batch = new HashMap<>();
+    for (long postID : postIDs) {
+      // Updates only happen inside compute, so the drained map is no longer updated. The deltas are
+      // added to the flushing map before they leave the pending map, so reads never miss them.
+      pending.computeIfPresent(
+          postID,
+          (id, reactions) -> {
+            Map<String, Long> deltas = new HashMap<>();
+            for (Map.Entry<String, LongAdder> reaction : reactions.entrySet()) {
+              long delta = reaction.getValue().sum();
+              deltas.put(reaction.getKey(), delta);
+              pendingReactions.addAndGet(-delta);
+            }
+            flushing.put(id, deltas);
+            batch.put(id, deltas);
+            return null;
+          });
+    }
+    return batch;
+  }
+
+  /** Adds the reactions of each post in the batch to the post in one cross-group transaction. */
+  private void writeBatch(Map<Long, Map<String, Long>> batch) {
+    List<Key> keys = new ArrayList<>();
+    for (long postID : batch.keySet()) {
+      keys.add(KeyFactory.createKey("Post", postID));
+    }
+
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      // Posts that were deleted in the meantime are missing from the result and skipped.
+      Map<Key, Entity> posts = datastore.get(txn, keys);
+      for (Entity post : posts.values()) {
+        EmbeddedEntity reactions = (EmbeddedEntity) post.getProperty("reactions");
+        for (Map.Entry<String, Long> delta : batch.get(post.getKey().getId()).entrySet()) {
+          Object persisted = reactions.getProperty(delta.getKey());
+          long count = persisted == null ? 0 : (long) persisted;
+          reactions.setProperty(delta.getKey(), count + delta.getValue());
+        }
+        post.setProperty("reactions", reactions);
+      }
+      datastore.put(txn, posts.values());
+      txn.commit();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /** Puts the reactions of a failed batch back into the buffer. */
+  private void requeue(Map<Long, Map<String, Long>> batch) {
+    for (Map.Entry<Long, Map<String, Long>> post : batch.entrySet()) {
+      pending.compute(
+          post.getKey(),
+          (id, reactions) -> {
+            if (reactions == null) {
+              reactions = new ConcurrentHashMap<>();
+            }
+            for (Map.Entry<String, Long> delta : post.getValue().entrySet()) {
+              reactions
+                  .computeIfAbsent(delta.getKey(), name -> new LongAdder())
+                  .add(delta.getValue());
+              pendingReactions.addAndGet(delta.getValue());
+            }
+            return reactions;
+          });
+    }
+  }
+}
@@ -22,34 +22,58 @@ import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /** Associates a category, from the Natural Language API taxonomy, to a link to a resource */
 public class Resource {
+  /** The hard-coded resources by category, which are seeded when the app starts */
+  public static final Map<String, String> PREEXISTING_RESOURCES = createPreexistingResources();
+
   /** Creates a Resource Entity with category and resource properties and stores it in Datastore */
   public static void storeResource(DatastoreService datastore, String category, String resource) {
+    datastore.put(createResourceEntity(category, resource));
+    ResourceCatalog.invalidate();
+  }
+
+  /** Creates a Resource Entity with category and resource properties */
+  public static Entity createResourceEntity(String category, String resource) {
     Entity resourceEntity = new Entity("Resource");
     resourceEntity.setProperty("category", category);
     resourceEntity.setProperty("resource", resource);
-    datastore.put(resourceEntity);
+    return resourceEntity;
+  }
+
+  /** Returns the hard-coded Resources whose category has no Resource in Datastore yet */
+  public static Map<String, String> getMissingPreexistingResources(DatastoreService datastore) {
+    Map<String, String> missing = new LinkedHashMap<>();
+    for (Map.Entry<String, String> resource : PREEXISTING_RESOURCES.entrySet()) {
+      Filter categoryFilter =
+          new FilterPredicate("category", FilterOperator.EQUAL, resource.getKey());
+      Query query = new Query("Resource").setFilter(categoryFilter);
+      PreparedQuery results = datastore.prepare(query);
+      if (results.countEntities(FetchOptions.Builder.withLimit(1)) == 0) {
+        missing.put(resource.getKey(), resource.getValue());
+      }
+    }
+    return missing;
   }
 
   /** Adds hard-coded Resources to Datastore */
   public static void addPreexistingResources(DatastoreService datastore) {
-    Map<String, String> resourceMap = new HashMap<>();
+    for (Map.Entry<String, String> resource :
+        getMissingPreexistingResources(datastore).entrySet()) {
+      storeResource(datastore, resource.getKey(), resource.getValue());
+    }
+  }
+
+  private static Map<String, String> createPreexistingResources() {
+    Map<String, String> resourceMap = new LinkedHashMap<>();
     resourceMap.put("Depression", "Crisis Textline");
     resourceMap.put("Troubled Relationships", "Love is Respect");
     resourceMap.put("Anxiety & Stress", "National Alliance on Mnetal Illness");
     resourceMap.put("General", "Happify");
-
-    for (String category : resourceMap.keySet()) {
-      Filter categoryFilter = new FilterPredicate("category", FilterOperator.EQUAL, category);
-      Query query = new Query("Resource").setFilter(categoryFilter);
-      PreparedQuery results = datastore.prepare(query);
-      if (results.countEntities(FetchOptions.Builder.withDefaults()) == 0) {
-        storeResource(datastore, category, resourceMap.get(category));
-      }
-    }
+    return Collections.unmodifiableMap(resourceMap);
   }
 }
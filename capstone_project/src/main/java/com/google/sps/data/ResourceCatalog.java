@@ -0,0 +1,147 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the resource of every category in memory, so suggesting resources for a post needs no
+ * datastore reads. All Resource entities are read with one query the first time a resource is
+ * needed. Storing a resource through Resource.storeResource invalidates the catalogs of this
+ * instance, and every catalog reloads after the refresh interval to see the resources that other
+ * instances stored.
+ */
+public class ResourceCatalog {
+  // Incremented on every write, so catalogs loaded before it know they are stale.
+  private static final AtomicLong generation = new AtomicLong();
+  private static ResourceCatalog instance;
+
+  private final DatastoreService datastore;
+  private final Clock clock;
+  private final long refreshIntervalMillis;
+  private volatile Snapshot snapshot;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private Clock clock = Clock.systemUTC();
+    private long refreshIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Sets how long the loaded resources are used before they are read again. */
+    public Builder refreshIntervalMillis(long refreshIntervalMillis) {
+      this.refreshIntervalMillis = refreshIntervalMillis;
+      return this;
+    }
+
+    public ResourceCatalog build() {
+      return new ResourceCatalog(this);
+    }
+  }
+
+  private static final class Snapshot {
+    private final Map<String, String> resources;
+    private final long generation;
+    private final long loadedAtMillis;
+
+    Snapshot(Map<String, String> resources, long generation, long loadedAtMillis) {
+      this.resources = resources;
+      this.generation = generation;
+      this.loadedAtMillis = loadedAtMillis;
+    }
+  }
+
+  private ResourceCatalog(Builder builder) {
+    this.datastore = builder.datastore;
+    this.clock = builder.clock;
+    this.refreshIntervalMillis = builder.refreshIntervalMillis;
+  }
+
+  /** Returns the catalog shared by all requests of this instance. */
+  public static synchronized ResourceCatalog getInstance() {
+    if (instance == null) {
+      instance = Builder.builder().build();
+    }
+    return instance;
+  }
+
+  /** Marks every catalog of this instance as stale, so the next lookup reloads the resources. */
+  public static void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  /** Returns the resource of the category, if there is one. */
+  public Optional<String> getResource(String category) {
+    return Optional.ofNullable(getResources().get(category));
+  }
+
+  /** Returns the resources by category, loading them first if they are missing or stale. */
+  public Map<String, String> getResources() {
+    Snapshot current = snapshot;
+    if (isStale(current)) {
+      current = load();
+    }
+    return current.resources;
+  }
+
+  private boolean isStale(Snapshot current) {
+    return current == null
+        || current.generation != generation.get()
+        || clock.millis() - current.loadedAtMillis >= refreshIntervalMillis;
+  }
+
+  /** Reads every resource with one query. Only one request of the instance loads at a time. */
+  private synchronized Snapshot load() {
+    Snapshot current = snapshot;
+    if (!isStale(current)) {
+      return current;
+    }
+
+    // Read the generation first, so a write during the query leaves the new snapshot stale.
+    long loadedGeneration = generation.get();
+    long loadedAtMillis = clock.millis();
+    Map<String, String> resources = new HashMap<>();
+    for (Entity resource : datastore.prepare(new Query("Resource")).asIterable()) {
+      // The first resource of a category wins, should a category have been stored twice.
+      resources.putIfAbsent(
+          (String) resource.getProperty("category"), (String) resource.getProperty("resource"));
+    }
+    current =
+        new Snapshot(Collections.unmodifiableMap(resources), loadedGeneration, loadedAtMillis);
+    snapshot = current;
+    return current;
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.sps.data;
 
+import java.util.Objects;
+
 /** Class representing a school that corresponds to a pin on the map. */
 public class School {
 
@@ -41,7 +43,7 @@ public class School {
 
   @Override
   public int hashCode() {
-    return name.hashCode();
+    return Objects.hash(name, latitude, longitude);
   }
 
   @Override
@@ -58,9 +60,9 @@ public class School {
     // typecast o to School so that data members can be compared
     School s = (School) o;
 
-    // Compare the data members and return the result
-    return ((s.getName()).equals(this.name))
-        && (s.getLatitude() == this.latitude)
-        && (s.getLongitude() == this.longitude);
+    // Compare the data members the same way as hashCode and return the result
+    return Objects.equals(s.getName(), this.name)
+        && Double.compare(s.getLatitude(), this.latitude) == 0
+        && Double.compare(s.getLongitude(), this.longitude) == 0;
   }
 }
@@ -0,0 +1,275 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps every school in memory as an immutable snapshot, along with the gzip-compressed JSON array
+ * of them and its ETag, so the full school list is served without datastore reads or serializing.
+ * All School entities are read with one query when the snapshot is first needed.
+ *
+ * <p>Every write of schools goes through recordChange, which stores a new random value in a version
+ * entity and invalidates the catalogs of this instance, so the next request of this instance loads
+ * a new snapshot. Other instances read the version entity, a single get by key, at most once per
+ * poll interval, and load a new snapshot when it changed. A new snapshot replaces the old one with
+ * a single volatile write, so a request reads either one or the other, never a mix.
+ */
+public class SchoolCatalog {
+  private static final Logger logger = Logger.getLogger(SchoolCatalog.class.getName());
+  private static final String VERSION_KIND = "CatalogVersion";
+  private static final String VERSION_NAME = "schools";
+  private static final TypeAdapter<School> SCHOOL_ADAPTER =
+      JsonResponses.getGson().getAdapter(School.class);
+  // Incremented on every write of this instance, so catalogs loaded before it know they are stale.
+  private static final AtomicLong generation = new AtomicLong();
+  private static SchoolCatalog instance;
+
+  private final DatastoreService datastore;
+  private final Clock clock;
+  private final long pollIntervalMillis;
+  private volatile Snapshot snapshot;
+  private volatile long polledAtMillis;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private Clock clock = Clock.systemUTC();
+    private long pollIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Sets how often the version entity is read to notice schools written by other instances. */
+    public Builder pollIntervalMillis(long pollIntervalMillis) {
+      this.pollIntervalMillis = pollIntervalMillis;
+      return this;
+    }
+
+    public SchoolCatalog build() {
+      return new SchoolCatalog(this);
+    }
+  }
+
+  /** An immutable list of schools and its serialized form. */
+  public static final class Snapshot {
+    private final List<School> schools;
+    private final byte[] gzippedJson;
+    private final String etag;
+    private final long version;
+    private final long generation;
+
+    private Snapshot(
+        List<School> schools, byte[] gzippedJson, String etag, long version, long generation) {
+      this.schools = schools;
+      this.gzippedJson = gzippedJson;
+      this.etag = etag;
+      this.version = version;
+      this.generation = generation;
+    }
+
+    /** Returns every school, ordered by name. */
+    public List<School> getSchools() {
+      return schools;
+    }
+
+    /** Returns the JSON array of the schools, compressed with gzip. Must not be modified. */
+    public byte[] getGzippedJson() {
+      return gzippedJson;
+    }
+
+    /**
+     * Returns the quoted strong ETag of the JSON, a hash of its bytes, so every instance that
+     * loaded the same schools has the same ETag.
+     */
+    public String getEtag() {
+      return etag;
+    }
+  }
+
+  private SchoolCatalog(Builder builder) {
+    this.datastore = builder.datastore;
+    this.clock = builder.clock;
+    this.pollIntervalMillis = builder.pollIntervalMillis;
+  }
+
+  /** Returns the catalog shared by all requests of this instance. */
+  public static synchronized SchoolCatalog getInstance() {
+    if (instance == null) {
+      instance = Builder.builder().build();
+    }
+    return instance;
+  }
+
+  /** Marks every catalog of this instance as stale, so the next request loads the schools. */
+  public static void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  /**
+   * Records that schools were written, so the catalogs of this instance load them on the next
+   * request and those of other instances on their next poll. Must be called after the write.
+   */
+  public static void recordChange(DatastoreService datastore) {
+    // A random version needs no read, so concurrent writers cannot lose each other's change.
+    Entity version = new Entity(getVersionKey());
+    version.setUnindexedProperty("version", ThreadLocalRandom.current().nextLong());
+    datastore.put(version);
+    invalidate();
+  }
+
+  /**
+   * Returns the current snapshot. Loads it first if there is none yet, a write of this instance
+   * made it stale, or the poll interval passed and the version entity changed.
+   */
+  public Snapshot getSnapshot() {
+    Snapshot current = snapshot;
+    if (current == null
+        || current.generation != generation.get()
+        || clock.millis() - polledAtMillis >= pollIntervalMillis) {
+      current = refresh();
+    }
+    return current;
+  }
+
+  /** Returns every school, ordered by name. */
+  public List<School> getSchools() {
+    return getSnapshot().getSchools();
+  }
+
+  /** Polls the version and loads the schools if needed. Only one request polls at a time. */
+  private synchronized Snapshot refresh() {
+    Snapshot current = snapshot;
+    long now = clock.millis();
+    if (current != null
+        && current.generation == generation.get()
+        && now - polledAtMillis < pollIntervalMillis) {
+      return current;
+    }
+
+    // Read the generation and version first, so a write during the query leaves the snapshot stale.
+    long loadedGeneration = generation.get();
+    long version = readVersion();
+    polledAtMillis = now;
+    if (current != null && current.generation == loadedGeneration && current.version == version) {
+      return current;
+    }
+
+    current = load(version, loadedGeneration);
+    snapshot = current;
+    return current;
+  }
+
+  /** Reads every school with one query and serializes them. */
+  private Snapshot load(long version, long loadedGeneration) {
+    List<School> schools = new ArrayList<>();
+    for (Entity school :
+        datastore
+            .prepare(new Query("School"))
+            .asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      try {
+        schools.add(SchoolService.convertEntityToSchool(school));
+      } catch (IllegalArgumentException e) {
+        // Schools written before they were validated may have no name or location.
+        logger.warning("Skipping invalid school " + school.getKey() + ": " + e.getMessage());
+      }
+    }
+    schools.sort(Comparator.comparing(School::getName));
+    byte[] gzippedJson = serialize(schools);
+    return new Snapshot(
+        Collections.unmodifiableList(schools),
+        gzippedJson,
+        computeEtag(gzippedJson),
+        version,
+        loadedGeneration);
+  }
+
+  /** Returns the version stored by the last change, or 0 if no change was recorded yet. */
+  private long readVersion() {
+    try {
+      return (long) datastore.get(getVersionKey()).getProperty("version");
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+
+  private static Key getVersionKey() {
+    return KeyFactory.createKey(VERSION_KIND, VERSION_NAME);
+  }
+
+  /** Writes the schools as a JSON array of name, latitude and longitude, compressed with gzip. */
+  private static byte[] serialize(List<School> schools) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonWriter writer =
+        new JsonWriter(
+            new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8))) {
+      writer.beginArray();
+      for (School school : schools) {
+        SCHOOL_ADAPTER.write(writer, school);
+      }
+      writer.endArray();
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String computeEtag(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+      return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+}
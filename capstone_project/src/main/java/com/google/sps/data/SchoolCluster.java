@@ -0,0 +1,42 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/** A group of nearby schools that is shown on the map as a single marker with their count. */
+public class SchoolCluster {
+  private final double latitude;
+  private final double longitude;
+  private final int count;
+
+  public SchoolCluster(double latitude, double longitude, int count) {
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.count = count;
+  }
+
+  /** Returns the mean latitude of the schools. */
+  public double getLatitude() {
+    return latitude;
+  }
+
+  /** Returns the mean longitude of the schools. */
+  public double getLongitude() {
+    return longitude;
+  }
+
+  public int getCount() {
+    return count;
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses schools from CSV, as described in RFC 4180. The first row is a header that names the name,
+ * latitude and longitude columns, in any order, and other columns are ignored. Fields may be
+ * quoted, so names can contain commas, quotes and line breaks. Blank rows are skipped.
+ */
+public final class SchoolCsv {
+  /** The most schools one file may hold, so an import finishes within the request deadline. */
+  public static final int MAX_SCHOOLS = 10000;
+
+  private SchoolCsv() {}
+
+  /**
+   * Returns the schools of the CSV in order. Throws an IllegalArgumentException that names the row
+   * if a column is missing, a row has too few fields, a location is not a number or out of range, a
+   * name is empty, or there are more than MAX_SCHOOLS schools.
+   */
+  public static List<School> parse(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    List<String> header = readRecord(in, 1);
+    if (header == null) {
+      return Collections.emptyList();
+    }
+    // Spreadsheets often start UTF-8 files with a byte order mark.
+    header.set(0, header.get(0).replace("\uFEFF", ""));
+    int nameColumn = findColumn(header, "name");
+    int latitudeColumn = findColumn(header, "latitude");
+    int longitudeColumn = findColumn(header, "longitude");
+    int columns = Math.max(nameColumn, Math.max(latitudeColumn, longitudeColumn)) + 1;
+
+    List<School> schools = new ArrayList<>();
+    int row = 1;
+    for (List<String> record = readRecord(in, ++row);
+        record != null;
+        record = readRecord(in, ++row)) {
+      if (record.size() == 1 && record.get(0).trim().isEmpty()) {
+        continue;
+      }
+      if (schools.size() == MAX_SCHOOLS) {
+        throw new IllegalArgumentException("More than " + MAX_SCHOOLS + " schools");
+      }
+      if (record.size() < columns) {
+        throw new IllegalArgumentException("Row " + row + " has too few fields");
+      }
+
+      String name = record.get(nameColumn).trim();
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException("Row " + row + " has no name");
+      }
+      double latitude = parseCoordinate(record.get(latitudeColumn), 90, row);
+      double longitude = parseCoordinate(record.get(longitudeColumn), 180, row);
+      schools.add(new School(name, latitude, longitude));
+    }
+    return schools;
+  }
+
+  /** Returns the index of the column, ignoring case and surrounding whitespace. */
+  private static int findColumn(List<String> header, String column) {
+    for (int i = 0; i < header.size(); i++) {
+      if (header.get(i).trim().toLowerCase(Locale.ROOT).equals(column)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Missing column: " + column);
+  }
+
+  /** Parses a latitude or longitude, whose absolute value must be at most the limit. */
+  private static double parseCoordinate(String field, double limit, int row) {
+    double coordinate;
+    try {
+      coordinate = Double.parseDouble(field.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Row " + row + " has an invalid location: " + field);
+    }
+    if (!(Math.abs(coordinate) <= limit)) {
+      throw new IllegalArgumentException("Row " + row + " has an invalid location: " + field);
+    }
+    return coordinate;
+  }
+
+  /**
+   * Reads the fields of the next record, or returns null at the end of the input. Quoted fields may
+   * span lines and escape a quote by doubling it.
+   */
+  private static List<String> readRecord(BufferedReader in, int row) throws IOException {
+    int c = in.read();
+    if (c == -1) {
+      return null;
+    }
+
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c == -1) {
+          throw new IllegalArgumentException("Row " + row + " has an unterminated quote");
+        }
+        if (c == '"') {
+          c = in.read();
+          if (c != '"') {
+            // The closing quote, so the character after it is read outside the quotes.
+            quoted = false;
+            continue;
+          }
+        }
+        field.append((char) c);
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n' || c == -1) {
+        fields.add(field.toString());
+        return fields;
+      } else if (c != '\r') {
+        field.append((char) c);
+      }
+      c = in.read();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the first page of the feed of recently viewed schools in memory, since the map loads it
+ * every time a marker is opened. Storing a post through PostService invalidates the page of its
+ * school on this instance, and pages expire after a short time to show the posts and upvotes that
+ * other instances wrote.
+ */
+public class SchoolFeedCache {
+  private static SchoolFeedCache instance;
+
+  private final Clock clock;
+  private final int maxSchools;
+  private final long ttlMillis;
+  // Pages by school name and page size, from least to most recently used. Guarded by this.
+  private final LinkedHashMap<String, CachedPage> pages;
+  // Incremented on every invalidation, so a page loaded before it is not cached.
+  private final AtomicLong generation;
+  private final LongAdder hits;
+  private final LongAdder misses;
+
+  public static class Builder {
+    private Clock clock = Clock.systemUTC();
+    private int maxSchools = 500;
+    private long ttlMillis = TimeUnit.SECONDS.toMillis(30);
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Sets how many pages are kept before the least recently used one is evicted. */
+    public Builder maxSchools(int maxSchools) {
+      this.maxSchools = maxSchools;
+      return this;
+    }
+
+    /** Sets how long a page is used after it was read. */
+    public Builder ttlMillis(long ttlMillis) {
+      this.ttlMillis = ttlMillis;
+      return this;
+    }
+
+    public SchoolFeedCache build() {
+      return new SchoolFeedCache(this);
+    }
+  }
+
+  private static final class CachedPage {
+    private final PostPage page;
+    private final long expiresAtMillis;
+
+    CachedPage(PostPage page, long expiresAtMillis) {
+      this.page = page;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  private SchoolFeedCache(Builder builder) {
+    this.clock = builder.clock;
+    this.maxSchools = builder.maxSchools;
+    this.ttlMillis = builder.ttlMillis;
+    pages =
+        new LinkedHashMap<String, CachedPage>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+            return size() > maxSchools;
+          }
+        };
+    generation = new AtomicLong();
+    hits = new LongAdder();
+    misses = new LongAdder();
+  }
+
+  /** Returns the cache shared by all requests of this instance. */
+  public static synchronized SchoolFeedCache getInstance() {
+    if (instance == null) {
+      instance = Builder.builder().build();
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the cached first page of the school's feed, or loads, caches and returns it if it is
+   * missing or expired. Pages of different sizes are cached separately.
+   */
+  public PostPage getFirstPage(String schoolName, int pageSize, Supplier<PostPage> loader) {
+    String key = pageSize + ":" + schoolName;
+    synchronized (this) {
+      CachedPage cached = pages.get(key);
+      if (cached != null && cached.expiresAtMillis > clock.millis()) {
+        hits.increment();
+        return cached.page;
+      }
+    }
+
+    misses.increment();
+    long loadedGeneration = generation.get();
+    PostPage page = loader.get();
+    synchronized (this) {
+      // A post stored while the page was read may be missing from it.
+      if (generation.get() == loadedGeneration) {
+        pages.put(key, new CachedPage(page, clock.millis() + ttlMillis));
+      }
+    }
+    return page;
+  }
+
+  /** Drops the cached pages of the school, of every size. */
+  public synchronized void invalidate(String schoolName) {
+    generation.incrementAndGet();
+    pages.keySet().removeIf(key -> key.substring(key.indexOf(':') + 1).equals(schoolName));
+  }
+
+  /** Returns how many pages were served from memory. */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /** Returns how many pages were read from datastore. */
+  public long getMisses() {
+    return misses.sum();
+  }
+}
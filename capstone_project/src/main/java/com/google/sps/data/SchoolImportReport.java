@@ -0,0 +1,44 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/** Reports how many schools one bulk import registered, and how many were registered already. */
+public class SchoolImportReport {
+  private final int created;
+  private final int existing;
+
+  public SchoolImportReport(int created, int existing) {
+    this.created = created;
+    this.existing = existing;
+  }
+
+  /** Returns the number of schools that were registered by the import. */
+  public int getCreated() {
+    return created;
+  }
+
+  /**
+   * Returns the number of imported schools whose name was registered already, before or earlier in
+   * the same import.
+   */
+  public int getExisting() {
+    return existing;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Imported %d schools, %d were registered already", created, existing);
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maintains the spatial index of schools. The location of a school is stored on it as a geohash, a
+ * string in which every character halves the cell of the one before it five times, alternating
+ * between longitude and latitude. A cell is therefore a prefix of the geohashes of all schools in
+ * it, and the schools in a cell are found by a range query on the single-property index of the
+ * geohash, without a composite index.
+ */
+public final class SchoolIndex {
+  public static final String GEOHASH = "geohash";
+  /** The precision of stored geohashes, which places a school to within a few meters. */
+  public static final int MAX_PRECISION = 9;
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+  // Sorts after every geohash that starts with the same prefix.
+  private static final String PREFIX_END = "~";
+
+  private SchoolIndex() {}
+
+  /** Sets the geohash of the school from its latitude and longitude. */
+  public static void indexSchool(Entity school) {
+    school.setProperty(
+        GEOHASH,
+        encode(
+            ((Number) school.getProperty("latitude")).doubleValue(),
+            ((Number) school.getProperty("longitude")).doubleValue(),
+            MAX_PRECISION));
+  }
+
+  /** Returns the geohash of the given precision of the cell that contains the location. */
+  public static String encode(double latitude, double longitude, int precision) {
+    double minLatitude = -90;
+    double maxLatitude = 90;
+    double minLongitude = -180;
+    double maxLongitude = 180;
+    boolean isLongitudeBit = true;
+    StringBuilder geohash = new StringBuilder(precision);
+    for (int i = 0; i < precision; i++) {
+      int index = 0;
+      for (int bit = 0; bit < 5; bit++) {
+        index <<= 1;
+        if (isLongitudeBit) {
+          double middle = (minLongitude + maxLongitude) / 2;
+          if (longitude >= middle) {
+            index |= 1;
+            minLongitude = middle;
+          } else {
+            maxLongitude = middle;
+          }
+        } else {
+          double middle = (minLatitude + maxLatitude) / 2;
+          if (latitude >= middle) {
+            index |= 1;
+            minLatitude = middle;
+          } else {
+            maxLatitude = middle;
+          }
+        }
+        isLongitudeBit = !isLongitudeBit;
+      }
+      geohash.append(BASE32.charAt(index));
+    }
+    return geohash.toString();
+  }
+
+  /**
+   * Returns the latitude and longitude of the center of the cell of the geohash. Throws an
+   * IllegalArgumentException if the geohash has a character outside the geohash alphabet.
+   */
+  public static double[] decode(String geohash) {
+    double minLatitude = -90;
+    double maxLatitude = 90;
+    double minLongitude = -180;
+    double maxLongitude = 180;
+    boolean isLongitudeBit = true;
+    for (int i = 0; i < geohash.length(); i++) {
+      int index = BASE32.indexOf(geohash.charAt(i));
+      if (index < 0) {
+        throw new IllegalArgumentException("Not a geohash: " + geohash);
+      }
+      for (int bit = 4; bit >= 0; bit--) {
+        boolean isSet = ((index >> bit) & 1) == 1;
+        if (isLongitudeBit) {
+          double middle = (minLongitude + maxLongitude) / 2;
+          if (isSet) {
+            minLongitude = middle;
+          } else {
+            maxLongitude = middle;
+          }
+        } else {
+          double middle = (minLatitude + maxLatitude) / 2;
+          if (isSet) {
+            minLatitude = middle;
+          } else {
+            maxLatitude = middle;
+          }
+        }
+        isLongitudeBit = !isLongitudeBit;
+      }
+    }
+    return new double[] {(minLatitude + maxLatitude) / 2, (minLongitude + maxLongitude) / 2};
+  }
+
+  /**
+   * Returns the cells of a single precision that together cover the box, at the longest precision
+   * for which there are at most maxCells of them. Returns a list holding only the empty prefix,
+   * which every geohash starts with, if even the cells of one character are too many. The box must
+   * not cross the antimeridian.
+   */
+  public static List<String> cover(
+      double south, double west, double north, double east, int maxCells) {
+    List<String> cells = Collections.singletonList("");
+    for (int precision = 1; precision <= MAX_PRECISION; precision++) {
+      double cellWidth = 360 / Math.pow(2, (5 * precision + 1) / 2);
+      double cellHeight = 180 / Math.pow(2, 5 * precision / 2);
+      long firstColumn = (long) Math.floor((west + 180) / cellWidth);
+      long lastColumn = (long) Math.floor((Math.min(east, 180 - 1e-9) + 180) / cellWidth);
+      long firstRow = (long) Math.floor((south + 90) / cellHeight);
+      long lastRow = (long) Math.floor((Math.min(north, 90 - 1e-9) + 90) / cellHeight);
+      if ((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > maxCells) {
+        break;
+      }
+
+      List<String> preciseCells = new ArrayList<>();
+      for (long row = firstRow; row <= lastRow; row++) {
+        for (long column = firstColumn; column <= lastColumn; column++) {
+          preciseCells.add(
+              encode(-90 + (row + 0.5) * cellHeight, -180 + (column + 0.5) * cellWidth, precision));
+        }
+      }
+      cells = preciseCells;
+    }
+    return cells;
+  }
+
+  /** Returns the first geohash after every geohash that starts with the prefix. */
+  public static String prefixEnd(String prefix) {
+    return prefix + PREFIX_END;
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The schools in a viewport. Either the schools are listed one by one, or, when there are too many
+ * of them to show, they are grouped into clusters and the list of schools is empty.
+ */
+public class SchoolMapView {
+  private final List<School> schools;
+  private final List<SchoolCluster> clusters;
+
+  public SchoolMapView(List<School> schools, List<SchoolCluster> clusters) {
+    this.schools = schools;
+    this.clusters = clusters;
+  }
+
+  public List<School> getSchools() {
+    return Collections.unmodifiableList(schools);
+  }
+
+  public List<SchoolCluster> getClusters() {
+    return Collections.unmodifiableList(clusters);
+  }
+}
@@ -0,0 +1,459 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Registers schools and finds the ones to show on the map. A school is keyed by its normalized
+ * name, so registering it is a transactional get-or-create of that key, and submissions that differ
+ * only in case or spacing refer to the same school.
+ *
+ * <p>The schools in a viewport are found through the geohash index of SchoolIndex: a projection
+ * query per covering cell reads only the keys and geohashes of the schools from the index. If there
+ * are few enough of them, the schools themselves are read by key. Otherwise they are grouped into
+ * clusters by a geohash prefix whose cells are about a quarter of a map tile wide at the zoom of
+ * the viewport, so the number of clusters is bounded by the size of the map on screen rather than
+ * by the number of schools.
+ *
+ * <p>A zoomed out viewport covers most schools, so the index is read only up to a few times the
+ * maximum number of schools. Once that many entries were read, the schools in the viewport are
+ * taken from the in-memory SchoolCatalog of the instance instead, and every pan costs no reads
+ * beyond that cap, however many schools there are.
+ */
+public class SchoolService {
+  /** The most schools that are listed one by one before they are clustered. */
+  public static final int DEFAULT_MAX_SCHOOLS = 200;
+
+  // Each covering cell costs a query, while coarser cells read more schools outside the viewport.
+  private static final int MAX_CELLS_PER_VIEWPORT = 8;
+  // Covering cells usually hold more schools outside the viewport than in it.
+  private static final int INDEX_READS_PER_SCHOOL = 4;
+  // Batch gets are limited to 1000 keys and batch puts to 500 entities.
+  private static final int MAX_SCHOOLS_PER_BATCH = 500;
+  // Key names are limited to 1500 bytes.
+  private static final int MAX_NAME_LENGTH = 500;
+  private static final int MAX_REGISTER_ATTEMPTS = 3;
+
+  private static final Logger logger = Logger.getLogger(SchoolService.class.getName());
+
+  private final DatastoreService datastore;
+  private final int maxSchools;
+  private final SchoolCatalog catalog;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private int maxSchools = DEFAULT_MAX_SCHOOLS;
+    private SchoolCatalog catalog;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    /** Sets the most schools that are listed one by one before they are clustered. */
+    public Builder maxSchools(int maxSchools) {
+      this.maxSchools = maxSchools;
+      return this;
+    }
+
+    /**
+     * Sets the catalog that zoomed out viewports are answered from. Defaults to the catalog shared
+     * by the instance.
+     */
+    public Builder catalog(SchoolCatalog catalog) {
+      this.catalog = catalog;
+      return this;
+    }
+
+    public SchoolService build() {
+      if (catalog == null) {
+        catalog = SchoolCatalog.getInstance();
+      }
+      return new SchoolService(this);
+    }
+  }
+
+  private SchoolService(Builder builder) {
+    this.datastore = builder.datastore;
+    this.maxSchools = builder.maxSchools;
+    this.catalog = builder.catalog;
+  }
+
+  /**
+   * Registers the school unless a school with the same normalized name exists. The lookup and the
+   * write are one transaction on the key of the name, so concurrent submissions of a school create
+   * it once. Returns true if the school was created. Throws an IllegalArgumentException if the
+   * school has no name or its location is out of range, and a ConcurrentModificationException if
+   * the key stays contended after a few attempts.
+   */
+  public boolean registerSchool(School school) {
+    validate(school);
+    Key key = getKey(school.getName());
+    for (int attempt = 1; ; attempt++) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        try {
+          datastore.get(txn, key);
+          return false;
+        } catch (EntityNotFoundException e) {
+          datastore.put(txn, createSchoolEntity(key, school));
+        }
+        txn.commit();
+        SchoolCatalog.recordChange(datastore);
+        return true;
+      } catch (ConcurrentModificationException e) {
+        // Another submission of the school committed first, so the next attempt finds it.
+        if (attempt == MAX_REGISTER_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Registers every school whose normalized name is not registered yet, with a batch get and a
+   * batch put per 500 schools. Of several schools with the same normalized name, the first is
+   * registered. Throws an IllegalArgumentException before anything is written if a school has no
+   * name or its location is out of range.
+   *
+   * <p>The batches are not transactional, since a transaction is limited to 25 entity groups. A
+   * school submitted from the map between the get and the put of its batch is overwritten, which
+   * only moves its marker to the imported location.
+   */
+  public SchoolImportReport importSchools(List<School> schools) {
+    Map<Key, School> unique = new LinkedHashMap<>();
+    for (School school : schools) {
+      validate(school);
+      unique.putIfAbsent(getKey(school.getName()), school);
+    }
+
+    List<Key> keys = new ArrayList<>(unique.keySet());
+    int created = 0;
+    for (int start = 0; start < keys.size(); start += MAX_SCHOOLS_PER_BATCH) {
+      List<Key> batch = keys.subList(start, Math.min(start + MAX_SCHOOLS_PER_BATCH, keys.size()));
+      Map<Key, Entity> existing = datastore.get(batch);
+      List<Entity> missing = new ArrayList<>();
+      for (Key key : batch) {
+        if (!existing.containsKey(key)) {
+          missing.add(createSchoolEntity(key, unique.get(key)));
+        }
+      }
+      datastore.put(missing);
+      created += missing.size();
+    }
+    if (created > 0) {
+      SchoolCatalog.recordChange(datastore);
+    }
+    return new SchoolImportReport(created, schools.size() - created);
+  }
+
+  /**
+   * Returns the key name of the school name: its NFKC normal form in lowercase, with runs of
+   * whitespace replaced by a single space and leading and trailing whitespace removed. Throws an
+   * IllegalArgumentException if nothing remains or the name is too long for a key.
+   */
+  public static String getKeyName(String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("A school needs a name");
+    }
+    String keyName =
+        Normalizer.normalize(name, Normalizer.Form.NFKC)
+            .toLowerCase(Locale.ROOT)
+            .replaceAll("\\s+", " ")
+            .trim();
+    if (keyName.isEmpty()) {
+      throw new IllegalArgumentException("A school needs a name");
+    }
+    if (keyName.length() > MAX_NAME_LENGTH) {
+      throw new IllegalArgumentException("School name is too long: " + name);
+    }
+    return keyName;
+  }
+
+  /** Returns the key of the school with the name. */
+  public static Key getKey(String name) {
+    return KeyFactory.createKey("School", getKeyName(name));
+  }
+
+  /** Throws an IllegalArgumentException if the school has no name or is not on the globe. */
+  private static void validate(School school) {
+    getKeyName(school.getName());
+    if (!(school.getLatitude() >= -90 && school.getLatitude() <= 90)
+        || !(school.getLongitude() >= -180 && school.getLongitude() <= 180)) {
+      throw new IllegalArgumentException("Invalid location of " + school.getName());
+    }
+  }
+
+  /** Creates the entity of the school, along with its spatial index. */
+  private static Entity createSchoolEntity(Key key, School school) {
+    Entity entity = new Entity(key);
+    entity.setProperty("name", school.getName());
+    entity.setProperty("latitude", school.getLatitude());
+    entity.setProperty("longitude", school.getLongitude());
+    SchoolIndex.indexSchool(entity);
+    return entity;
+  }
+
+  /**
+   * Returns the schools in the viewport, or clusters of them if there are more than the maximum
+   * number of schools. Schools written before the geohash index are not found through the index
+   * until it is added to them.
+   */
+  public SchoolMapView getSchoolsInView(Viewport viewport) {
+    int maxIndexReads = INDEX_READS_PER_SCHOOL * maxSchools;
+    int indexReads = 0;
+    Map<Key, double[]> locations = new LinkedHashMap<>();
+    for (String cell : viewport.cover(MAX_CELLS_PER_VIEWPORT)) {
+      Query query =
+          new Query("School")
+              .addProjection(new PropertyProjection(SchoolIndex.GEOHASH, String.class));
+      if (!cell.isEmpty()) {
+        query.setFilter(
+            CompositeFilterOperator.and(
+                new FilterPredicate(
+                    SchoolIndex.GEOHASH, FilterOperator.GREATER_THAN_OR_EQUAL, cell),
+                new FilterPredicate(
+                    SchoolIndex.GEOHASH, FilterOperator.LESS_THAN, SchoolIndex.prefixEnd(cell))));
+      }
+
+      // One more entry than the cap tells whether the cap was reached.
+      FetchOptions options =
+          FetchOptions.Builder.withLimit(maxIndexReads - indexReads + 1).chunkSize(500);
+      for (Entity school : datastore.prepare(query).asIterable(options)) {
+        if (++indexReads > maxIndexReads) {
+          return getSchoolsInView(viewport, catalog.getSchools());
+        }
+        double[] location = SchoolIndex.decode((String) school.getProperty(SchoolIndex.GEOHASH));
+        if (viewport.contains(location[0], location[1])) {
+          locations.put(school.getKey(), location);
+        }
+      }
+    }
+
+    if (locations.size() <= maxSchools) {
+      return new SchoolMapView(getSchools(locations.keySet()), Collections.emptyList());
+    }
+    return new SchoolMapView(
+        Collections.emptyList(),
+        cluster(locations.values(), getClusterPrecision(viewport.getZoom())));
+  }
+
+  /** Returns the schools of the catalog in the viewport, or clusters of them, without reads. */
+  private SchoolMapView getSchoolsInView(Viewport viewport, List<School> catalogSchools) {
+    List<School> schools = new ArrayList<>();
+    List<double[]> locations = new ArrayList<>();
+    for (School school : catalogSchools) {
+      if (viewport.contains(school.getLatitude(), school.getLongitude())) {
+        schools.add(school);
+        locations.add(new double[] {school.getLatitude(), school.getLongitude()});
+      }
+    }
+    if (schools.size() <= maxSchools) {
+      return new SchoolMapView(schools, Collections.emptyList());
+    }
+    return new SchoolMapView(
+        Collections.emptyList(), cluster(locations, getClusterPrecision(viewport.getZoom())));
+  }
+
+  /**
+   * Returns the length of the geohash prefix that schools are clustered by at the zoom. A map tile
+   * spans 1 / 2^zoom of the world's width, and a geohash of that length has about zoom + 2
+   * longitude bits, so about four cluster cells fit across a tile.
+   */
+  public static int getClusterPrecision(int zoom) {
+    int precision = (int) Math.round(2 * (zoom + 2) / 5.0);
+    return Math.max(1, Math.min(precision, SchoolIndex.MAX_PRECISION));
+  }
+
+  /** Groups the locations by their cell of the precision, placing each group at their mean. */
+  private static List<SchoolCluster> cluster(Iterable<double[]> locations, int precision) {
+    Map<String, double[]> sums = new LinkedHashMap<>();
+    for (double[] location : locations) {
+      double[] sum =
+          sums.computeIfAbsent(
+              SchoolIndex.encode(location[0], location[1], precision), cell -> new double[3]);
+      sum[0] += location[0];
+      sum[1] += location[1];
+      sum[2]++;
+    }
+
+    List<SchoolCluster> clusters = new ArrayList<>(sums.size());
+    for (double[] sum : sums.values()) {
+      clusters.add(new SchoolCluster(sum[0] / sum[2], sum[1] / sum[2], (int) sum[2]));
+    }
+    return clusters;
+  }
+
+  /** Reads the schools with the given keys in one batch, in the order of the keys. */
+  private List<School> getSchools(Iterable<Key> keys) {
+    Map<Key, Entity> entities = datastore.get(keys);
+    List<School> schools = new ArrayList<>(entities.size());
+    for (Key key : keys) {
+      Entity entity = entities.get(key);
+      if (entity != null) {
+        schools.add(convertEntityToSchool(entity));
+      }
+    }
+    return schools;
+  }
+
+  /**
+   * Adds the geohash to every school written before the spatial index, since viewport queries do
+   * not find those schools otherwise. Schools without a name or a valid location are logged and
+   * left as they are. Returns the number of schools that were updated. Schools are never modified
+   * once written, so they are updated without a transaction.
+   */
+  public int addMissingGeohashes() {
+    List<Entity> missing = new ArrayList<>();
+    int updated = 0;
+    for (Entity school :
+        datastore
+            .prepare(new Query("School"))
+            .asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      if (school.hasProperty(SchoolIndex.GEOHASH) || !isValidLegacySchool(school)) {
+        continue;
+      }
+      SchoolIndex.indexSchool(school);
+      missing.add(school);
+      if (missing.size() == MAX_SCHOOLS_PER_BATCH) {
+        datastore.put(missing);
+        updated += missing.size();
+        missing.clear();
+      }
+    }
+    if (!missing.isEmpty()) {
+      datastore.put(missing);
+      updated += missing.size();
+    }
+    return updated;
+  }
+
+  /**
+   * Moves every school written before schools were keyed by name to the key of its name, since
+   * registering would not find those schools otherwise. Of several schools with the same normalized
+   * name, the first one found is kept. Schools without a name or a valid location are logged and
+   * left as they are. Returns the number of schools that were moved or dropped as duplicates. A
+   * school is deleted only after its key is written, so this is safe to run again after it fails.
+   */
+  public int rekeyLegacySchools() {
+    List<Entity> legacy = new ArrayList<>();
+    for (Entity school :
+        datastore
+            .prepare(new Query("School"))
+            .asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      if (school.getKey().getName() == null && isValidLegacySchool(school)) {
+        legacy.add(school);
+      }
+    }
+
+    Set<Key> written = new HashSet<>();
+    for (int start = 0; start < legacy.size(); start += MAX_SCHOOLS_PER_BATCH) {
+      List<Entity> batch =
+          legacy.subList(start, Math.min(start + MAX_SCHOOLS_PER_BATCH, legacy.size()));
+      Map<Key, School> schools = new LinkedHashMap<>();
+      for (Entity school : batch) {
+        School converted = convertEntityToSchool(school);
+        Key key = getKey(converted.getName());
+        if (!written.contains(key)) {
+          schools.putIfAbsent(key, converted);
+        }
+      }
+
+      Map<Key, Entity> existing = datastore.get(schools.keySet());
+      List<Entity> missing = new ArrayList<>();
+      for (Map.Entry<Key, School> school : schools.entrySet()) {
+        if (!existing.containsKey(school.getKey())) {
+          missing.add(createSchoolEntity(school.getKey(), school.getValue()));
+        }
+      }
+      datastore.put(missing);
+      written.addAll(schools.keySet());
+
+      List<Key> legacyKeys = new ArrayList<>();
+      for (Entity school : batch) {
+        legacyKeys.add(school.getKey());
+      }
+      datastore.delete(legacyKeys);
+    }
+    if (!legacy.isEmpty()) {
+      SchoolCatalog.recordChange(datastore);
+    }
+    return legacy.size();
+  }
+
+  /**
+   * Returns true if the school written before schools were validated has a name that can be a key
+   * and a location on the globe. Logs the school otherwise.
+   */
+  private static boolean isValidLegacySchool(Entity school) {
+    try {
+      validate(convertEntityToSchool(school));
+      return true;
+    } catch (IllegalArgumentException e) {
+      logger.warning("Skipping invalid school " + school.getKey() + ": " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Converts an Entity of kind 'School' into a School. Throws an IllegalArgumentException if the
+   * entity has no name or no location.
+   */
+  public static School convertEntityToSchool(Entity school) {
+    Object name = school.getProperty("name");
+    Object latitude = school.getProperty("latitude");
+    Object longitude = school.getProperty("longitude");
+    if (!(name instanceof String)) {
+      throw new IllegalArgumentException("A school needs a name");
+    }
+    // Datastore reads whole numbers back as longs.
+    if (!(latitude instanceof Number) || !(longitude instanceof Number)) {
+      throw new IllegalArgumentException("A school needs a location");
+    }
+    return new School(
+        (String) name, ((Number) latitude).doubleValue(), ((Number) longitude).doubleValue());
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A counter that is split across several shard entities. Every increment updates one randomly
+ * chosen shard in its own transaction, so concurrent increments of the same counter rarely touch
+ * the same entity group. The count is the sum of all shards and is cached in memcache.
+ *
+ * <p>A counter can be seeded with a count that was kept elsewhere before it existed. The seed is
+ * stored in an extra base shard, which increments never pick.
+ */
+public class ShardedCounter {
+  /** The number of shards a counter is split into unless the builder sets another. */
+  public static final int DEFAULT_NUM_SHARDS = 20;
+  /** The shard name of the base shard, which holds the count the counter was seeded with. */
+  public static final String BASE_SHARD = "base";
+
+  // How long a summed count may be served from memcache before the shards are read again.
+  private static final int CACHE_SECONDS = 60;
+  private static final int MAX_RETRIES = 10;
+  private final DatastoreService datastore;
+  private final MemcacheService memcache;
+  private final String kind;
+  private final int numShards;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    private String kind = "CounterShard";
+    private int numShards = DEFAULT_NUM_SHARDS;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    public Builder memcache(MemcacheService memcache) {
+      this.memcache = memcache;
+      return this;
+    }
+
+    /** Sets the datastore kind of the shard entities. Counters of different kinds never mix. */
+    public Builder kind(String kind) {
+      this.kind = kind;
+      return this;
+    }
+
+    /**
+     * Sets how many shards each counter is split into. More shards allow more writes per second.
+     * Seeding reads every shard in one cross-group transaction, so there may be at most 24.
+     */
+    public Builder numShards(int numShards) {
+      this.numShards = numShards;
+      return this;
+    }
+
+    public ShardedCounter build() {
+      return new ShardedCounter(this);
+    }
+  }
+
+  private ShardedCounter(Builder builder) {
+    this.datastore = builder.datastore;
+    this.memcache = builder.memcache;
+    this.kind = builder.kind;
+    this.numShards = builder.numShards;
+  }
+
+  /**
+   * Increases the counter with the given name by one and returns the new count. If a shard is
+   * modified concurrently, the increment is retried on another random shard.
+   */
+  public long increment(String counterName) {
+    for (int attempt = 0; ; attempt++) {
+      int shard = ThreadLocalRandom.current().nextInt(numShards);
+      try {
+        incrementShard(counterName, shard);
+        break;
+      } catch (ConcurrentModificationException e) {
+        if (attempt >= MAX_RETRIES) {
+          throw e;
+        }
+      }
+    }
+
+    // memcache.increment returns null when the count is not cached yet.
+    Long cachedCount = memcache.increment(getCacheKey(counterName), 1);
+    if (cachedCount != null) {
+      return cachedCount;
+    }
+    return countShards(counterName);
+  }
+
+  /**
+   * Stores the count as the base of the counter with the given name, unless the counter has a shard
+   * already. Returns true if the counter was seeded. The shards are checked and the base is written
+   * in one cross-group transaction, so a concurrent increment is never overwritten.
+   */
+  public boolean seed(String counterName, long count) {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        boolean seeded = seedBaseShard(counterName, count);
+        memcache.delete(getCacheKey(counterName));
+        return seeded;
+      } catch (ConcurrentModificationException e) {
+        if (attempt >= MAX_RETRIES) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads every shard of the counter, bypassing the cache, and returns the exact count. The cache
+   * is replaced with the result.
+   */
+  public long countShards(String counterName) {
+    long count = sumShards(counterName);
+    memcache.put(getCacheKey(counterName), count, Expiration.byDeltaSeconds(CACHE_SECONDS));
+    return count;
+  }
+
+  private boolean seedBaseShard(String counterName, long count) {
+    List<Key> shardKeys = getShardKeys(counterName);
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      if (!datastore.get(txn, shardKeys).isEmpty()) {
+        return false;
+      }
+      Entity base = new Entity(getShardKey(counterName, BASE_SHARD));
+      base.setProperty("counter", counterName);
+      base.setProperty("count", count);
+      datastore.put(txn, base);
+      txn.commit();
+      return true;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  private void incrementShard(String counterName, int shard) {
+    Key shardKey = getShardKey(counterName, Integer.toString(shard));
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity shardEntity;
+      try {
+        shardEntity = datastore.get(txn, shardKey);
+      } catch (EntityNotFoundException e) {
+        // Shards are created lazily the first time they are picked.
+        shardEntity = new Entity(shardKey);
+        shardEntity.setProperty("counter", counterName);
+        shardEntity.setProperty("count", 0L);
+      }
+
+      long count = (long) shardEntity.getProperty("count");
+      shardEntity.setProperty("count", count + 1);
+      datastore.put(txn, shardEntity);
+      txn.commit();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  private long sumShards(String counterName) {
+    long count = 0;
+    for (Entity shardEntity : datastore.get(getShardKeys(counterName)).values()) {
+      count += (long) shardEntity.getProperty("count");
+    }
+    return count;
+  }
+
+  /** Returns the keys of every shard of the counter, including its base shard. */
+  private List<Key> getShardKeys(String counterName) {
+    List<Key> shardKeys = new ArrayList<>();
+    for (int shard = 0; shard < numShards; shard++) {
+      shardKeys.add(getShardKey(counterName, Integer.toString(shard)));
+    }
+    shardKeys.add(getShardKey(counterName, BASE_SHARD));
+    return shardKeys;
+  }
+
+  private Key getShardKey(String counterName, String shard) {
+    return KeyFactory.createKey(kind, counterName + ":" + shard);
+  }
+
+  private String getCacheKey(String counterName) {
+    return kind + ":" + counterName;
+  }
+}
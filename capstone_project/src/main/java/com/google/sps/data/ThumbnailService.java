@@ -0,0 +1,289 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Generates smaller versions of uploaded images, so the feed does not download every image at full
+ * resolution. Submitting a post with an image enqueues a task on the attachment-variants queue,
+ * whose workers scale the image to every thumbnail size with java.awt and store each thumbnail as a
+ * JPEG in a Thumbnail entity keyed by the blob key and size. The blobstore API cannot write new
+ * blobs, and thumbnails are small enough for an entity. The sizes that were generated are recorded
+ * on the post.
+ *
+ * <p>A small compressed file can hold a huge image, so the dimensions are read from the header
+ * first. Images with more pixels than an instance should hold are decoded with only every nth pixel
+ * of every nth row, which still leaves more pixels than the largest thumbnail needs, and images
+ * that would need to skip even more pixels are not decoded at all.
+ */
+public class ThumbnailService {
+  public static final String KIND = "Thumbnail";
+  /** The longest side of each thumbnail size, in pixels. */
+  public static final Map<String, Integer> SIZES = createSizes();
+
+  public static final String CONTENT_TYPE = "image/jpeg";
+  // Larger files would take too long to read.
+  private static final long MAX_IMAGE_BYTES = 10 * 1024 * 1024;
+  // Larger images would take too long to decode even when most of their pixels are skipped.
+  private static final int MAX_SUBSAMPLING = 8;
+
+  private final DatastoreService datastore;
+  private final Queue queue;
+  private final long maxDecodedPixels;
+
+  public static class Builder {
+    private DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    private Queue queue;
+    // 4 bytes each, so a decoded image takes at most 16 MB of memory.
+    private long maxDecodedPixels = 4_000_000;
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public Builder datastore(DatastoreService datastore) {
+      this.datastore = datastore;
+      return this;
+    }
+
+    /**
+     * Sets the task queue thumbnail tasks are added to. Defaults to the attachment-variants queue.
+     */
+    public Builder queue(Queue queue) {
+      this.queue = queue;
+      return this;
+    }
+
+    /** Sets the number of pixels above which images are decoded with pixels skipped. */
+    public Builder maxDecodedPixels(long maxDecodedPixels) {
+      this.maxDecodedPixels = maxDecodedPixels;
+      return this;
+    }
+
+    public ThumbnailService build() {
+      return new ThumbnailService(this);
+    }
+  }
+
+  private ThumbnailService(Builder builder) {
+    this.datastore = builder.datastore;
+    this.maxDecodedPixels = builder.maxDecodedPixels;
+    if (builder.queue != null) {
+      this.queue = builder.queue;
+    } else {
+      this.queue = QueueFactory.getQueue("attachment-variants");
+    }
+  }
+
+  /**
+   * Schedules the generation of the thumbnails of the post. Tasks are named after the post, so the
+   * thumbnails are only generated once even if the post is enqueued again.
+   */
+  public void enqueue(long postID) {
+    TaskOptions task =
+        TaskOptions.Builder.withUrl("/generate-thumbnails")
+            .taskName("generate-thumbnails-" + postID)
+            .param("id", Long.toString(postID));
+    try {
+      queue.add(task);
+    } catch (TaskAlreadyExistsException ok) {
+      // The thumbnails are already being generated.
+    }
+  }
+
+  /**
+   * Generates every thumbnail size of the post's image and records the sizes on the post. Does
+   * nothing if the post was deleted, has no image, or its image cannot be decoded or is too large.
+   * Returns the sizes that were generated.
+   */
+  public List<String> generateThumbnails(long postID) throws IOException {
+    Entity post;
+    try {
+      post = datastore.get(KeyFactory.createKey("Post", postID));
+    } catch (EntityNotFoundException e) {
+      return Collections.emptyList();
+    }
+    String blobKeyString = (String) post.getProperty("fileBlobKey");
+    if (blobKeyString == null || !"image".equals(post.getProperty("fileType"))) {
+      return Collections.emptyList();
+    }
+
+    BlobKey blobKey = new BlobKey(blobKeyString);
+    BlobInfo blobInfo = new BlobInfoFactory(datastore).loadBlobInfo(blobKey);
+    if (blobInfo == null || blobInfo.getSize() > MAX_IMAGE_BYTES) {
+      return Collections.emptyList();
+    }
+    Optional<BufferedImage> image;
+    try (InputStream in = new BlobstoreInputStream(blobKey)) {
+      image = decode(in);
+    }
+    if (!image.isPresent()) {
+      return Collections.emptyList();
+    }
+
+    List<Entity> thumbnails = new ArrayList<>();
+    for (Map.Entry<String, Integer> size : SIZES.entrySet()) {
+      Entity thumbnail = new Entity(getThumbnailKey(blobKeyString, size.getKey()));
+      thumbnail.setUnindexedProperty("data", new Blob(encode(scale(image.get(), size.getValue()))));
+      thumbnails.add(thumbnail);
+    }
+    datastore.put(thumbnails);
+    List<String> sizes = new ArrayList<>(SIZES.keySet());
+    recordSizes(postID, sizes);
+    return sizes;
+  }
+
+  /** Returns the JPEG bytes of the thumbnail of the blob in the given size, if it was generated. */
+  public Optional<byte[]> getThumbnail(String blobKey, String size) {
+    try {
+      Blob data = (Blob) datastore.get(getThumbnailKey(blobKey, size)).getProperty("data");
+      return Optional.of(data.getBytes());
+    } catch (EntityNotFoundException e) {
+      return Optional.empty();
+    }
+  }
+
+  /** Returns the keys of every thumbnail size of the blob, generated or not. */
+  public static List<Key> getThumbnailKeys(String blobKey) {
+    List<Key> keys = new ArrayList<>();
+    for (String size : SIZES.keySet()) {
+      keys.add(getThumbnailKey(blobKey, size));
+    }
+    return keys;
+  }
+
+  private static Key getThumbnailKey(String blobKey, String size) {
+    return KeyFactory.createKey(KIND, blobKey + "/" + size);
+  }
+
+  /**
+   * Decodes the image, skipping pixels if it has more than maxDecodedPixels. Returns an empty
+   * Optional if ImageIO has no reader for the format or the image is too large.
+   */
+  private Optional<BufferedImage> decode(InputStream in) throws IOException {
+    try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        return Optional.empty();
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, true);
+        long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+        int subsampling = (int) Math.ceil(Math.sqrt((double) pixels / maxDecodedPixels));
+        if (subsampling > MAX_SUBSAMPLING) {
+          return Optional.empty();
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+          param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return Optional.of(reader.read(0, param));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Scales the image down so that its longest side is at most maxSide pixels, keeping its aspect
+   * ratio. Large reductions are done in halving steps, since a single bilinear step skips pixels
+   * and makes the result look jagged.
+   */
+  private static BufferedImage scale(BufferedImage image, int maxSide) {
+    double factor = Math.min(1.0, (double) maxSide / Math.max(image.getWidth(), image.getHeight()));
+    int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+    int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+    BufferedImage scaled = image;
+    int width = image.getWidth();
+    int height = image.getHeight();
+    do {
+      width = Math.max(targetWidth, width / 2);
+      height = Math.max(targetHeight, height / 2);
+      // JPEG has no alpha channel, so every step draws onto an opaque RGB image.
+      BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = step.createGraphics();
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(scaled, 0, 0, width, height, Color.WHITE, null);
+      graphics.dispose();
+      scaled = step;
+    } while (width != targetWidth || height != targetHeight);
+    return scaled;
+  }
+
+  private static byte[] encode(BufferedImage image) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", out);
+    return out.toByteArray();
+  }
+
+  private void recordSizes(long postID, List<String> sizes) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity post = datastore.get(txn, KeyFactory.createKey("Post", postID));
+      post.setUnindexedProperty("thumbnails", sizes);
+      datastore.put(txn, post);
+      txn.commit();
+    } catch (EntityNotFoundException ok) {
+      // The post was deleted, so there is nothing to update.
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  private static Map<String, Integer> createSizes() {
+    Map<String, Integer> sizes = new LinkedHashMap<>();
+    sizes.put("small", 240);
+    sizes.put("medium", 640);
+    return Collections.unmodifiableMap(sizes);
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The part of the map that is visible: a box of latitudes and longitudes, and the zoom level of the
+ * map. The box crosses the antimeridian when its west edge is east of its east edge.
+ */
+public class Viewport {
+  /** The zoom of the whole world on a single map tile. */
+  public static final int MIN_ZOOM = 0;
+  /** The zoom of single buildings, the closest the map shows. */
+  public static final int MAX_ZOOM = 22;
+
+  private final double south;
+  private final double west;
+  private final double north;
+  private final double east;
+  private final int zoom;
+
+  /**
+   * Creates the viewport. Throws an IllegalArgumentException if a latitude or longitude is out of
+   * range, the south edge is north of the north edge, or the zoom is out of range.
+   */
+  public Viewport(double south, double west, double north, double east, int zoom) {
+    if (!(south >= -90 && north <= 90 && south <= north)) {
+      throw new IllegalArgumentException("Invalid latitudes: " + south + ", " + north);
+    }
+    if (!(west >= -180 && west <= 180 && east >= -180 && east <= 180)) {
+      throw new IllegalArgumentException("Invalid longitudes: " + west + ", " + east);
+    }
+    if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+      throw new IllegalArgumentException("Invalid zoom: " + zoom);
+    }
+    this.south = south;
+    this.west = west;
+    this.north = north;
+    this.east = east;
+    this.zoom = zoom;
+  }
+
+  /**
+   * Parses the viewport from the request parameters. Returns an empty Optional if none of them was
+   * given. Throws an IllegalArgumentException if only some of them were given, or one of them is
+   * not a number or out of range.
+   */
+  public static Optional<Viewport> parse(
+      String southParam, String westParam, String northParam, String eastParam, String zoomParam) {
+    if (southParam == null
+        && westParam == null
+        && northParam == null
+        && eastParam == null
+        && zoomParam == null) {
+      return Optional.empty();
+    }
+    if (southParam == null
+        || westParam == null
+        || northParam == null
+        || eastParam == null
+        || zoomParam == null) {
+      throw new IllegalArgumentException("A viewport needs south, west, north, east and zoom");
+    }
+
+    // NumberFormatException is an IllegalArgumentException.
+    return Optional.of(
+        new Viewport(
+            Double.parseDouble(southParam),
+            Double.parseDouble(westParam),
+            Double.parseDouble(northParam),
+            Double.parseDouble(eastParam),
+            Integer.parseInt(zoomParam)));
+  }
+
+  public int getZoom() {
+    return zoom;
+  }
+
+  /** Returns true if the location is inside the viewport or on its edge. */
+  public boolean contains(double latitude, double longitude) {
+    if (latitude < south || latitude > north) {
+      return false;
+    }
+    if (west <= east) {
+      return longitude >= west && longitude <= east;
+    }
+    return longitude >= west || longitude <= east;
+  }
+
+  /**
+   * Returns the geohash cells that cover the viewport, at most maxCells of them on each side of the
+   * antimeridian.
+   */
+  public List<String> cover(int maxCells) {
+    if (west <= east) {
+      return SchoolIndex.cover(south, west, north, east, maxCells);
+    }
+    List<String> cells = new ArrayList<>(SchoolIndex.cover(south, west, north, 180, maxCells));
+    cells.addAll(SchoolIndex.cover(south, -180, north, east, maxCells));
+    return cells;
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.AnalysisQueue;
+import com.google.sps.data.PostAnalysis;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task queue handler that analyzes a post and stores the results on it. Tasks are scheduled by
+ * AnalysisQueue.enqueue when a post is submitted. POST request must have an id attribute.
+ */
+@WebServlet("/analyze-post")
+public class AnalyzePostServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(AnalyzePostServlet.class.getName());
+  // After this many retries the analysis is marked as failed instead of retried again.
+  private static final int MAX_RETRIES = 5;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.setStatus(403);
+      return;
+    }
+
+    long postID = Long.parseLong(request.getParameter("id"));
+    AnalysisQueue analysisQueue = AnalysisQueue.Builder.builder().build();
+    try {
+      analysisQueue.analyzePost(postID, PostAnalysis.Builder.builder().build());
+    } catch (IOException | RuntimeException e) {
+      // Every failure counts towards the retries, so a post whose analysis keeps failing for any
+      // reason, such as a Datastore timeout, leaves the pending state.
+      String retryCount = request.getHeader("X-AppEngine-TaskRetryCount");
+      if (retryCount != null && Integer.parseInt(retryCount) >= MAX_RETRIES) {
+        logger.log(Level.WARNING, "Giving up on the analysis of post " + postID, e);
+        analysisQueue.markFailed(postID);
+        return;
+      }
+      // A non-2xx status makes the task queue retry the task.
+      response.setStatus(503);
+    }
+  }
+}
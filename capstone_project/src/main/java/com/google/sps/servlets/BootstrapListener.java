@@ -0,0 +1,123 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.sps.data.Bootstrap;
+import com.google.sps.data.ResourceCatalog;
+import com.google.sps.data.SchoolCatalog;
+import java.util.ConcurrentModificationException;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Seeds the reference data and migrates existing posts and schools when the app starts, so requests
+ * never check for either, and loads the resource and school catalogs before the first request needs
+ * them.
+ */
+@WebListener
+public class BootstrapListener implements ServletContextListener {
+  private static final Logger logger = Logger.getLogger(BootstrapListener.class.getName());
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    try {
+      if (Bootstrap.Builder.builder().build().seedReferenceData()) {
+        logger.info("Seeded reference data version " + Bootstrap.REFERENCE_DATA_VERSION);
+      }
+      ResourceCatalog.getInstance().getResources();
+    } catch (ConcurrentModificationException e) {
+      // Another instance seeded the reference data at the same time.
+      logger.info("Reference data was seeded by another instance");
+    } catch (DatastoreFailureException e) {
+      // The next instance to start tries again.
+      logger.log(Level.WARNING, "Could not seed reference data", e);
+    }
+
+    try {
+      Optional<Integer> migrated = Bootstrap.Builder.builder().build().migratePostSummaries();
+      if (migrated.isPresent()) {
+        logger.info("Added summaries to " + migrated.get() + " posts");
+      }
+    } catch (ConcurrentModificationException | DatastoreFailureException e) {
+      // The posts that were not migrated yet are migrated by the next instance to start.
+      logger.log(Level.WARNING, "Could not add summaries to all posts", e);
+    }
+
+    try {
+      Optional<Integer> indexed = Bootstrap.Builder.builder().build().indexPostsForSearch();
+      if (indexed.isPresent()) {
+        logger.info("Added search tokens to " + indexed.get() + " posts");
+      }
+    } catch (ConcurrentModificationException | DatastoreFailureException e) {
+      // The posts that were not indexed yet are indexed by the next instance to start.
+      logger.log(Level.WARNING, "Could not add search tokens to all posts", e);
+    }
+
+    try {
+      Optional<Integer> scored = Bootstrap.Builder.builder().build().addTrendingScores();
+      if (scored.isPresent()) {
+        logger.info("Added trending scores to " + scored.get() + " posts");
+      }
+    } catch (ConcurrentModificationException | DatastoreFailureException e) {
+      // The posts that were not scored yet are scored by the next instance to start.
+      logger.log(Level.WARNING, "Could not add trending scores to all posts", e);
+    }
+
+    try {
+      Optional<Integer> seeded = Bootstrap.Builder.builder().build().seedUpvoteCounters();
+      if (seeded.isPresent()) {
+        logger.info("Seeded the upvote counters of " + seeded.get() + " posts");
+      }
+    } catch (ConcurrentModificationException | DatastoreFailureException e) {
+      // The counters that were not seeded yet are seeded by the next instance to start.
+      logger.log(Level.WARNING, "Could not seed the upvote counters of all posts", e);
+    }
+
+    try {
+      Optional<Integer> indexed = Bootstrap.Builder.builder().build().indexAnalysisCache();
+      if (indexed.isPresent()) {
+        logger.info("Indexed " + indexed.get() + " cached analyses");
+      }
+    } catch (DatastoreFailureException e) {
+      // The cached analyses that were not indexed yet are indexed by the next instance to start.
+      logger.log(Level.WARNING, "Could not index all cached analyses", e);
+    }
+
+    try {
+      Bootstrap bootstrap = Bootstrap.Builder.builder().build();
+      Optional<Integer> rekeyed = bootstrap.rekeySchools();
+      if (rekeyed.isPresent()) {
+        logger.info("Moved " + rekeyed.get() + " schools to the keys of their names");
+      }
+      Optional<Integer> indexed = bootstrap.indexSchools();
+      if (indexed.isPresent()) {
+        logger.info("Added geohashes to " + indexed.get() + " schools");
+      }
+      SchoolCatalog.getInstance().getSchools();
+    } catch (RuntimeException e) {
+      // The schools that were not migrated yet are migrated by the next instance to start. Any
+      // failure is caught, since the migrations read schools written before they were validated.
+      logger.log(Level.WARNING, "Could not migrate all schools", e);
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {}
+}
@@ -0,0 +1,61 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.AnalysisCache;
+import com.google.sps.data.BlobCollectionReport;
+import com.google.sps.data.BlobCollector;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cron handler that deletes uploaded files no post refers to anymore, then the cached analyses that
+ * expired. Scheduled in cron.xml. Pass dry-run=true to only count the files.
+ */
+@WebServlet("/collect-blobs")
+public class CollectBlobsServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(CollectBlobsServlet.class.getName());
+  // Expired analyses are few per hour, so this leaves most of the cron deadline to the blobs.
+  private static final long ANALYSIS_CACHE_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from external requests, so only cron can call this.
+    if (request.getHeader("X-Appengine-Cron") == null) {
+      response.setStatus(403);
+      return;
+    }
+
+    boolean dryRun = Boolean.parseBoolean(request.getParameter("dry-run"));
+    BlobCollectionReport report = BlobCollector.Builder.builder().dryRun(dryRun).build().collect();
+    logger.info(report.toString());
+    response.setContentType("text/plain");
+    response.getWriter().println(report);
+    if (dryRun) {
+      return;
+    }
+
+    int expiredAnalyses =
+        AnalysisCache.getInstance()
+            .deleteExpiredEntries(System.currentTimeMillis() + ANALYSIS_CACHE_BUDGET_MILLIS);
+    logger.info("Deleted " + expiredAnalyses + " expired cached analyses");
+    response.getWriter().println("Deleted " + expiredAnalyses + " expired cached analyses.");
+  }
+}
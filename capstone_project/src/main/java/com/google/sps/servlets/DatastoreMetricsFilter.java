@@ -0,0 +1,52 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.DatastoreMetrics;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Counts the datastore calls of every request, so DatastoreMetrics can record them by endpoint. The
+ * endpoint of a request is its servlet path, such as /school-data.
+ */
+@WebFilter("/*")
+public class DatastoreMetricsFilter implements Filter {
+  @Override
+  public void init(FilterConfig config) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    DatastoreMetrics metrics = DatastoreMetrics.getInstance();
+    long start = System.nanoTime();
+    metrics.beginRequest(((HttpServletRequest) request).getServletPath());
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      metrics.endRequest(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
@@ -14,20 +14,21 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.Entity;
-import com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
-import com.google.sps.data.Post;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.PostPage;
 import com.google.sps.data.PostService;
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Fetches all posts that belong to the school. GET request must have a school-name attribute. */
+/**
+ * Fetches one page of the summaries of the posts that belong to the school, newest first. GET
+ * request must have a school-name attribute, and accepts optional page-size and cursor attributes.
+ */
 @WebServlet("/fetch-school-posts")
 public class FetchSchoolPostsServlet extends HttpServlet {
   @Override
@@ -41,11 +42,19 @@ public class FetchSchoolPostsServlet extends HttpServlet {
       return;
     }
 
+    int pageSize = PostPage.parsePageSize(request.getParameter("page-size"));
+    Optional<String> cursor =
+        Optional.ofNullable(request.getParameter("cursor")).filter(value -> !value.isEmpty());
+
     PostService postService = new PostService.Builder().build();
-    List<Entity> postEntities = postService.getPostsBySchool(schoolName);
-    List<Post> posts =
-        postEntities.stream().map(PostService::convertEntityToPost).collect(Collectors.toList());
-    response.setContentType("application/json");
-    response.getWriter().println(new Gson().toJson(posts));
+    PostPage page;
+    try {
+      page = postService.getSchoolPostsPage(schoolName, pageSize, cursor);
+    } catch (IllegalArgumentException e) {
+      // The cursor was tampered with or came from a different query.
+      response.setStatus(400);
+      return;
+    }
+    JsonResponses.writePage(response, page);
   }
 }
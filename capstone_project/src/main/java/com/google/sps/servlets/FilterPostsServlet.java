@@ -14,15 +14,11 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.Entity;
-import com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
-import com.google.sps.data.Post;
+import com.google.sps.data.JsonResponses;
 import com.google.sps.data.PostFilter;
-import com.google.sps.data.PostService;
+import com.google.sps.data.PostSearchResults;
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -30,7 +26,8 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Filters and returns all posts that contain the search query. GET request must have a search
- * attribute.
+ * attribute. If the query matched more posts than one search reads, the response has the header
+ * X-Search-Truncated: true.
  */
 @WebServlet("/filter-posts")
 public class FilterPostsServlet extends HttpServlet {
@@ -45,11 +42,10 @@ public class FilterPostsServlet extends HttpServlet {
       return;
     }
 
-    List<Entity> postEntities = PostFilter.filterPosts(searchQuery);
-    List<Post> foundPosts =
-        postEntities.stream().map(PostService::convertEntityToPost).collect(Collectors.toList());
-
-    response.setContentType("application/json");
-    response.getWriter().println(new Gson().toJson(foundPosts));
+    PostSearchResults results = PostFilter.search(searchQuery, PostFilter.MAX_CANDIDATES);
+    if (results.isTruncated()) {
+      response.setHeader("X-Search-Truncated", "true");
+    }
+    JsonResponses.writePosts(response, results.getPosts().iterator());
   }
 }
@@ -0,0 +1,54 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.ThumbnailService;
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task queue handler that generates the thumbnails of a post's image. Tasks are scheduled by
+ * ThumbnailService.enqueue when a post with an image is submitted. POST request must have an id
+ * attribute. Failed tasks are retried a few times, see queue.xml, after which the feed keeps
+ * showing the full image.
+ */
+@WebServlet("/generate-thumbnails")
+public class GenerateThumbnailsServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(GenerateThumbnailsServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.setStatus(403);
+      return;
+    }
+
+    long postID = Long.parseLong(request.getParameter("id"));
+    try {
+      ThumbnailService.Builder.builder().build().generateThumbnails(postID);
+    } catch (ConcurrentModificationException | IOException e) {
+      logger.log(Level.WARNING, "Could not generate the thumbnails of post " + postID, e);
+      // A non-2xx status makes the task queue retry the task.
+      response.setStatus(503);
+    }
+  }
+}
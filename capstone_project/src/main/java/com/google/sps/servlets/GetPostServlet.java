@@ -15,8 +15,8 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.datastore.Entity;
-import com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
+import com.google.sps.data.JsonResponses;
 import com.google.sps.data.Post;
 import com.google.sps.data.PostService;
 import java.io.IOException;
@@ -42,9 +42,8 @@ public class GetPostServlet extends HttpServlet {
 
     if (optionalPost.isPresent()) {
       response.setContentType("application/json");
-      Gson gson = new Gson();
       Post post = PostService.convertEntityToPost(optionalPost.get());
-      response.getWriter().println(gson.toJson(post));
+      response.getWriter().println(JsonResponses.getGson().toJson(post));
     } else {
       response.setStatus(404);
     }
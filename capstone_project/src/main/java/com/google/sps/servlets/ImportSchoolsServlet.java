@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.Authenticator;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.School;
+import com.google.sps.data.SchoolCsv;
+import com.google.sps.data.SchoolImportReport;
+import com.google.sps.data.SchoolService;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Registers the schools of a CSV file in bulk, for admins only. POST request body is the CSV, with
+ * a header row naming the name, latitude and longitude columns. Responds with the number of schools
+ * that were created and that existed already, or with 400 and the problem if the file is invalid,
+ * in which case no school is registered.
+ */
+@WebServlet("/import-schools")
+public class ImportSchoolsServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(ImportSchoolsServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!Authenticator.isAdmin(response)) {
+      return;
+    }
+
+    List<School> schools;
+    try {
+      schools = SchoolCsv.parse(request.getReader());
+    } catch (IllegalArgumentException e) {
+      response.setStatus(400);
+      response.setContentType("text/plain");
+      response.getWriter().println(e.getMessage());
+      return;
+    }
+
+    SchoolImportReport report = SchoolService.Builder.builder().build().importSchools(schools);
+    logger.info(report.toString());
+    response.setContentType("application/json;");
+    response.getWriter().println(JsonResponses.getGson().toJson(report));
+  }
+}
@@ -0,0 +1,47 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.LanguageClientProvider;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Creates the shared LanguageServiceClient when the app starts, so no request pays for setting up
+ * its channel, and shuts it down when the app stops.
+ */
+@WebListener
+public class LanguageClientListener implements ServletContextListener {
+  private static final Logger logger = Logger.getLogger(LanguageClientListener.class.getName());
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    try {
+      LanguageClientProvider.getInstance();
+    } catch (IOException e) {
+      // The first analysis tries to create the client again.
+      logger.log(Level.WARNING, "Could not create the Natural Language API client", e);
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    LanguageClientProvider.shutdownInstance();
+  }
+}
@@ -14,52 +14,56 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.appengine.repackaged.com.google.gson.Gson;
+import com.google.sps.data.JsonResponses;
 import com.google.sps.data.School;
+import com.google.sps.data.SchoolCatalog;
+import com.google.sps.data.SchoolMapView;
+import com.google.sps.data.SchoolService;
+import com.google.sps.data.Viewport;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that handles loading school data for map markers. */
+/**
+ * Servlet that handles loading school data for map markers. GET request returns every school from
+ * the in-memory SchoolCatalog, or, given the south, west, north, east and zoom attributes of a
+ * viewport, only the schools or clusters of schools in it.
+ */
 @WebServlet("/school-data")
 public class MapServlet extends HttpServlet {
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Set<School> schoolsSet = new HashSet<School>();
-
-    // Load Schools from Datastore.
-    Query query = new Query("School");
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-
-    for (Entity entity : results.asIterable()) {
-      String schoolName = (String) entity.getProperty("name");
-      double schoolLatitude = (double) entity.getProperty("latitude");
-      double schoolLongitude = (double) entity.getProperty("longitude");
-      School retrievedSchool = new School(schoolName, schoolLatitude, schoolLongitude);
-      schoolsSet.add(retrievedSchool);
+    Optional<Viewport> viewport;
+    try {
+      viewport =
+          Viewport.parse(
+              request.getParameter("south"),
+              request.getParameter("west"),
+              request.getParameter("north"),
+              request.getParameter("east"),
+              request.getParameter("zoom"));
+    } catch (IllegalArgumentException e) {
+      response.setStatus(400);
+      return;
+    }
+    if (viewport.isPresent()) {
+      SchoolMapView view = SchoolService.Builder.builder().build().getSchoolsInView(viewport.get());
+      response.setContentType("application/json;");
+      response.getWriter().println(JsonResponses.getGson().toJson(view));
+      return;
     }
 
-    // Send the School objects retrieved from Datastore.
-    response.setContentType("application/json;");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(schoolsSet));
+    writeCatalog(request, response, SchoolCatalog.getInstance().getSnapshot());
   }
 
   @Override
@@ -73,35 +77,64 @@ public class MapServlet extends HttpServlet {
       return;
     }
 
-    School submission = new Gson().fromJson(request.getReader(), School.class);
-    addToDatastore(submission);
+    School submission = JsonResponses.getGson().fromJson(request.getReader(), School.class);
+    if (submission == null) {
+      response.setStatus(400);
+      return;
+    }
+    try {
+      addToDatastore(submission);
+    } catch (IllegalArgumentException e) {
+      // The submission has no name or an impossible location.
+      response.setStatus(400);
+      return;
+    }
 
     // Respond with the result.
     response.sendRedirect("/pages/maps.html");
   }
 
-  /** Adds the user's school submission to Datastore, if not already contained within Datastore. */
-  public void addToDatastore(School submission) throws IOException {
-    // Initialize datastore object.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    // Parse the submission.
-    String schoolName = submission.getName();
-    double schoolLatitude = submission.getLatitude();
-    double schoolLongitude = submission.getLongitude();
-
-    // Check if the School is already in Datastore.
-    Filter nameFilter = new FilterPredicate("name", FilterOperator.EQUAL, schoolName);
-    Query query = new Query("School").setFilter(nameFilter);
-    PreparedQuery results = datastore.prepare(query);
+  /**
+   * Writes the JSON array of every school from the catalog. Responds with 304 if the request has
+   * the ETag of the catalog, and sends the gzip-compressed bytes as they are if the client accepts
+   * them.
+   */
+  private static void writeCatalog(
+      HttpServletRequest request, HttpServletResponse response, SchoolCatalog.Snapshot catalog)
+      throws IOException {
+    response.setHeader("ETag", catalog.getEtag());
+    // Browsers may keep the list, but must check with the ETag that it is current.
+    response.setHeader("Cache-Control", "no-cache");
+    response.setHeader("Vary", "Accept-Encoding");
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && ifNoneMatch.contains(catalog.getEtag())) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
 
-    // If it is not, create a schoolEntity for the School and add it to Datastore.
-    if (results.countEntities(FetchOptions.Builder.withDefaults()) == 0) {
-      Entity schoolEntity = new Entity("School");
-      schoolEntity.setProperty("name", schoolName);
-      schoolEntity.setProperty("latitude", schoolLatitude);
-      schoolEntity.setProperty("longitude", schoolLongitude);
-      datastore.put(schoolEntity);
+    response.setContentType("application/json;");
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      response.setHeader("Content-Encoding", "gzip");
+      response.setContentLength(catalog.getGzippedJson().length);
+      response.getOutputStream().write(catalog.getGzippedJson());
+      return;
+    }
+    try (InputStream json =
+        new GZIPInputStream(new ByteArrayInputStream(catalog.getGzippedJson()))) {
+      OutputStream out = response.getOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int read = json.read(buffer); read != -1; read = json.read(buffer)) {
+        out.write(buffer, 0, read);
+      }
     }
   }
+
+  /**
+   * Adds the user's school submission to Datastore, if no school with the same normalized name is
+   * already contained within Datastore.
+   */
+  public void addToDatastore(School submission) throws IOException {
+    SchoolService.Builder.builder().build().registerSchool(submission);
+  }
 }
@@ -0,0 +1,124 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.AnalysisCache;
+import com.google.sps.data.Authenticator;
+import com.google.sps.data.DatastoreMetrics;
+import com.google.sps.data.DatastoreMetrics.EndpointMetrics;
+import com.google.sps.data.DatastoreMetrics.Operation;
+import com.google.sps.data.Histogram;
+import com.google.sps.data.LanguageClientProvider;
+import com.google.sps.data.SchoolFeedCache;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shows admins the datastore metrics of this instance as JSON: per endpoint the calls of every
+ * operation and histograms of the calls, entities and time of its requests, the latency of every
+ * operation, and the counters of the in-memory caches. The metrics are kept per instance and reset
+ * when the instance restarts.
+ */
+@WebServlet("/admin/metrics")
+public class MetricsServlet extends HttpServlet {
+  private static final double[] PERCENTILES = {50, 90, 99};
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!Authenticator.isAdmin(response)) {
+      return;
+    }
+
+    DatastoreMetrics metrics = DatastoreMetrics.getInstance();
+    response.setContentType("application/json;");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+    writer.beginObject();
+
+    writer.name("endpoints").beginObject();
+    for (Map.Entry<String, EndpointMetrics> endpoint : metrics.getEndpoints().entrySet()) {
+      EndpointMetrics endpointMetrics = endpoint.getValue();
+      writer.name(endpoint.getKey()).beginObject();
+      writer.name("requests").value(endpointMetrics.getRequests());
+      for (Operation operation : Operation.values()) {
+        writer.name(getName(operation) + "s").value(endpointMetrics.getCalls(operation));
+      }
+      writeHistogram(writer, "callsPerRequest", endpointMetrics.getCallsPerRequest());
+      writeHistogram(writer, "entitiesRead", endpointMetrics.getEntitiesRead());
+      writeHistogram(writer, "entitiesWritten", endpointMetrics.getEntitiesWritten());
+      writeHistogram(writer, "datastoreMillis", endpointMetrics.getDatastoreMillis());
+      writeHistogram(writer, "requestMillis", endpointMetrics.getRequestMillis());
+      writer.endObject();
+    }
+    writer.endObject();
+
+    writer.name("latencyMillis").beginObject();
+    for (Operation operation : Operation.values()) {
+      writeHistogram(writer, getName(operation), metrics.getLatencyMillis(operation));
+    }
+    writer.endObject();
+
+    writer.name("caches").beginObject();
+    SchoolFeedCache schoolFeedCache = SchoolFeedCache.getInstance();
+    writer.name("schoolFeed").beginObject();
+    writer.name("hits").value(schoolFeedCache.getHits());
+    writer.name("misses").value(schoolFeedCache.getMisses());
+    writer.endObject();
+    AnalysisCache analysisCache = AnalysisCache.getInstance();
+    writer.name("analysis").beginObject();
+    writer.name("memoryHits").value(analysisCache.getMemoryHits());
+    writer.name("datastoreHits").value(analysisCache.getDatastoreHits());
+    writer.name("misses").value(analysisCache.getMisses());
+    writer.endObject();
+    writer.endObject();
+
+    Optional<LanguageClientProvider> languageClientProvider =
+        LanguageClientProvider.getCreatedInstance();
+    if (languageClientProvider.isPresent()) {
+      LanguageClientProvider languageClient = languageClientProvider.get();
+      writer.name("languageClient").beginObject();
+      writer.name("inFlightCalls").value(languageClient.getInFlightCalls());
+      writer.name("completedCalls").value(languageClient.getCompletedCalls());
+      writer.name("failedCalls").value(languageClient.getFailedCalls());
+      writer.name("rejectedCalls").value(languageClient.getRejectedCalls());
+      writer.endObject();
+    }
+
+    writer.endObject();
+    writer.flush();
+  }
+
+  private static String getName(Operation operation) {
+    return operation.name().toLowerCase(Locale.ROOT);
+  }
+
+  private static void writeHistogram(JsonWriter writer, String name, Histogram histogram)
+      throws IOException {
+    writer.name(name).beginObject();
+    writer.name("count").value(histogram.getCount());
+    writer.name("sum").value(histogram.getSum());
+    for (double percentile : PERCENTILES) {
+      writer.name("p" + (int) percentile).value(histogram.getPercentile(percentile));
+    }
+    writer.name("max").value(histogram.getMax());
+    writer.endObject();
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.AnalysisQueue;
+import com.google.sps.data.AnalysisResult;
+import com.google.sps.data.Authenticator;
+import com.google.sps.data.JsonResponses;
+import java.io.IOException;
+import java.util.Optional;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Returns the analysis of the post the user submitted last, which the page polls for until it is no
+ * longer pending. GET request must have an id attribute. Only the author of the post, as recorded
+ * in their session, can see its analysis.
+ */
+@WebServlet("/post-analysis")
+public class PostAnalysisServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!Authenticator.isLoggedIn(response, "/pages/comments.jsp")) {
+      return;
+    }
+
+    HttpSession session = request.getSession();
+    Object pendingAnalysis = session.getAttribute("pendingAnalysis");
+    String postID = request.getParameter("id");
+    if (pendingAnalysis == null || !pendingAnalysis.toString().equals(postID)) {
+      response.setStatus(404);
+      return;
+    }
+
+    Optional<AnalysisResult> analysis =
+        AnalysisQueue.Builder.builder().build().getAnalysis((long) pendingAnalysis);
+    if (!analysis.isPresent()) {
+      session.removeAttribute("pendingAnalysis");
+      response.setStatus(404);
+      return;
+    }
+    // The resources are only suggested once.
+    if (!analysis.get().getStatus().equals(AnalysisQueue.PENDING)) {
+      session.removeAttribute("pendingAnalysis");
+    }
+
+    response.setContentType("application/json");
+    response.getWriter().println(JsonResponses.getGson().toJson(analysis.get()));
+  }
+}
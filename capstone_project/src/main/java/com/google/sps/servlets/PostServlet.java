@@ -15,25 +15,24 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.repackaged.com.google.gson.Gson;
+import com.google.sps.data.AnalysisQueue;
 import com.google.sps.data.Authenticator;
-import com.google.sps.data.Post;
-import com.google.sps.data.PostAnalysis;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.MeteredDatastore;
+import com.google.sps.data.PostPage;
 import com.google.sps.data.PostService;
-import com.google.sps.data.Resource;
+import com.google.sps.data.ThumbnailService;
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that handles loading and uploading posts. */
+/**
+ * Servlet that handles loading and uploading posts. GET requests return one page of the feed and
+ * accept optional page-size and cursor parameters.
+ */
 @WebServlet("/post-process")
 public class PostServlet extends HttpServlet {
   @Override
@@ -42,19 +41,22 @@ public class PostServlet extends HttpServlet {
       return;
     }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Resource.addPreexistingResources(datastore);
+    DatastoreService datastore = MeteredDatastore.getDatastoreService();
+    int pageSize = PostPage.parsePageSize(request.getParameter("page-size"));
+    Optional<String> cursor =
+        Optional.ofNullable(request.getParameter("cursor")).filter(value -> !value.isEmpty());
 
-    Query query = new Query("Post");
-
-    List<Entity> postEntities =
-        datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
-    List<Post> posts =
-        postEntities.stream().map(PostService::convertEntityToPost).collect(Collectors.toList());
+    PostService postService = PostService.Builder.builder().datastore(datastore).build();
+    PostPage page;
+    try {
+      page = postService.getPostsPage(pageSize, cursor);
+    } catch (IllegalArgumentException e) {
+      // The cursor was tampered with or came from a different query.
+      response.setStatus(400);
+      return;
+    }
 
-    Gson gson = new Gson();
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(posts));
+    JsonResponses.writePage(response, page);
   }
 
   @Override
@@ -64,11 +66,15 @@ public class PostServlet extends HttpServlet {
     }
 
     PostService postService = PostService.Builder.builder().build();
-    postService.storePost(request);
-    PostAnalysis postAnalysis = new PostAnalysis.Builder().build();
-    postAnalysis.analyzeText(request);
+    long postID = postService.storePost(request);
+    // The post is analyzed by the post-analysis queue, so the user does not wait for the Natural
+    // Language API. The page polls /post-analysis for the resources suggested to its author.
+    AnalysisQueue.Builder.builder().build().enqueue(postID);
+    if ("image".equals(request.getParameter("file-type"))) {
+      ThumbnailService.Builder.builder().build().enqueue(postID);
+    }
 
-    request.getSession().setAttribute("resources", postAnalysis.getResources());
+    request.getSession().setAttribute("pendingAnalysis", postID);
     response.sendRedirect("/pages/comments.jsp");
   }
 }
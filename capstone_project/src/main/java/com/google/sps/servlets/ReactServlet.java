@@ -15,10 +15,10 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.datastore.EmbeddedEntity;
-import com.google.appengine.api.datastore.Entity;
-import com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
+import com.google.sps.data.JsonResponses;
 import com.google.sps.data.PostService;
+import com.google.sps.data.ReactionAggregator;
 import java.io.IOException;
 import java.util.Optional;
 import javax.servlet.annotation.WebServlet;
@@ -26,25 +26,23 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Creates a blobstore url with a parameter for the file type. */
+/**
+ * Servlet that handles reacting to a post. GET requests return the reaction counts of a post and
+ * POST requests add one reaction. Both requests must have a post-id attribute.
+ */
 @WebServlet("/post-react")
 public class ReactServlet extends HttpServlet {
-  private static final Gson gson = new Gson();
-
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     PostService postService = PostService.Builder.builder().build();
     long postID = Long.parseLong(request.getParameter("post-id"));
 
-    Optional<Entity> optionalEntity = postService.getEntityFromId(postID);
-    if (!optionalEntity.isPresent()) {
+    Optional<EmbeddedEntity> reactions = postService.getReactions(postID);
+    if (!reactions.isPresent()) {
       return;
     }
 
-    Entity post = optionalEntity.get();
-    EmbeddedEntity reactions = (EmbeddedEntity) post.getProperty("reactions");
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(reactions));
+    JsonResponses.writeReactions(response, reactions.get());
   }
 
   @Override
@@ -56,9 +54,15 @@ public class ReactServlet extends HttpServlet {
     PostService postService = PostService.Builder.builder().build();
     Optional<Long> newReactCount = postService.reactToPost(request);
     if (newReactCount.isPresent()) {
-      response.getWriter().println(gson.toJson(newReactCount.get()));
+      response.getWriter().println(JsonResponses.getGson().toJson(newReactCount.get()));
     } else {
       response.getWriter().println("[]");
     }
   }
+
+  @Override
+  public void destroy() {
+    // Write the reactions that are still buffered before the instance shuts down.
+    ReactionAggregator.getInstance().flush();
+  }
 }
@@ -0,0 +1,44 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.ReactionAggregator;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task queue handler that writes the reactions buffered on this instance to datastore. Tasks are
+ * scheduled by ReactionAggregator. POST request must have an aggregator attribute.
+ */
+@WebServlet("/reaction-flush")
+public class ReactionFlushServlet extends HttpServlet {
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.setStatus(403);
+      return;
+    }
+
+    String aggregatorName = request.getParameter("aggregator");
+    if (!ReactionAggregator.getInstance().flushForTask(aggregatorName)) {
+      // A non-2xx status makes the task queue retry the task, on whichever instance is next.
+      response.setStatus(503);
+    }
+  }
+}
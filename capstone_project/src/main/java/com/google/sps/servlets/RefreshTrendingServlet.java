@@ -0,0 +1,42 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.PostService;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cron handler that recomputes the trending scores of posts, since a score drops as its post ages.
+ * Scheduled in cron.xml.
+ */
+@WebServlet("/refresh-trending")
+public class RefreshTrendingServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from external requests, so only cron can call this.
+    if (request.getHeader("X-Appengine-Cron") == null) {
+      response.setStatus(403);
+      return;
+    }
+
+    int refreshed = PostService.Builder.builder().build().refreshTrendingScores();
+    response.setContentType("text/plain");
+    response.getWriter().println("Refreshed " + refreshed + " posts.");
+  }
+}
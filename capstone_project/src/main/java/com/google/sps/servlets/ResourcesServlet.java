@@ -15,12 +15,12 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Query;
-import com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.MeteredDatastore;
 import java.io.IOException;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
@@ -40,12 +40,11 @@ public class ResourcesServlet extends HttpServlet {
 
     Query query = new Query("ResourceSubmission");
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    DatastoreService datastore = MeteredDatastore.getDatastoreService();
     List<Entity> resources = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
 
-    Gson gson = new Gson();
     response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(resources));
+    response.getWriter().println(JsonResponses.getGson().toJson(resources));
   }
 
   @Override
@@ -64,7 +63,7 @@ public class ResourcesServlet extends HttpServlet {
     resourceSubmission.setProperty("resourceName", resourceName);
     resourceSubmission.setProperty("resourceURL", resourceURL);
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    DatastoreService datastore = MeteredDatastore.getDatastoreService();
     datastore.put(resourceSubmission);
 
     // Redirect to refreshed page
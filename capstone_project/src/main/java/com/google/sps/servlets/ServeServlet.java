@@ -14,18 +14,38 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.blobstore.ByteRange;
+import com.google.appengine.api.blobstore.RangeFormatException;
+import com.google.sps.data.ThumbnailService;
 import java.io.IOException;
+import java.util.Optional;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Manually serves an image, using the blobkey to create a url and send that url as a response. */
+/**
+ * Manually serves an image, using the blobkey to create a url and send that url as a response.
+ *
+ * <p>Uploaded files never change, so responses carry a strong ETag made of the blob key and size
+ * and may be cached forever. A request whose If-None-Match header matches the ETag is answered with
+ * 304 and no body. A single byte range in the Range header is served on its own, so videos can seek
+ * without downloading the whole file.
+ *
+ * <p>An optional size parameter names a thumbnail size of ThumbnailService. The thumbnail is served
+ * if it was generated, and the whole file otherwise.
+ */
 @WebServlet("/serve-file")
 public class ServeServlet extends HttpServlet {
+  private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+  // The whole file stands in for a thumbnail that is still being generated, so it is not cached
+  // for long under the thumbnail's URL.
+  private static final String FALLBACK_CACHE_CONTROL = "public, max-age=60";
   private final BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
 
   @Override
@@ -36,7 +56,91 @@ public class ServeServlet extends HttpServlet {
       return;
     }
 
+    String size = request.getParameter("size");
+    if (size != null && ThumbnailService.SIZES.containsKey(size)) {
+      Optional<byte[]> thumbnail =
+          ThumbnailService.Builder.builder().build().getThumbnail(blobKeyString, size);
+      if (thumbnail.isPresent()) {
+        serveThumbnail(request, response, blobKeyString, size, thumbnail.get());
+        return;
+      }
+    }
+
     BlobKey blobKey = new BlobKey(blobKeyString);
-    blobstoreService.serve(blobKey, response);
+    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+    if (blobInfo == null) {
+      response.setStatus(404);
+      return;
+    }
+
+    String etag = "\"" + blobKeyString + "-" + blobInfo.getSize() + "\"";
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", size == null ? CACHE_CONTROL : FALLBACK_CACHE_CONTROL);
+    response.setHeader("Accept-Ranges", "bytes");
+    if (matchesAny(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(304);
+      return;
+    }
+
+    String range = request.getHeader("Range");
+    String ifRange = request.getHeader("If-Range");
+    // A range is only valid for the version of the file named by If-Range, if there is one.
+    if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+      blobstoreService.serve(blobKey, response);
+      return;
+    }
+
+    ByteRange byteRange;
+    try {
+      byteRange = ByteRange.parse(range);
+    } catch (RangeFormatException e) {
+      // Ranges that cannot be parsed, including several ranges at once, are ignored.
+      blobstoreService.serve(blobKey, response);
+      return;
+    }
+    if (byteRange.getStart() >= blobInfo.getSize()) {
+      response.setStatus(416);
+      response.setHeader("Content-Range", "bytes */" + blobInfo.getSize());
+      return;
+    }
+    // Blobstore answers with 206 and the Content-Range of the served bytes.
+    blobstoreService.serve(blobKey, byteRange, response);
+  }
+
+  private void serveThumbnail(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      String blobKeyString,
+      String size,
+      byte[] thumbnail)
+      throws IOException {
+    String etag = "\"" + blobKeyString + "-" + size + "-" + thumbnail.length + "\"";
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", CACHE_CONTROL);
+    if (matchesAny(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(304);
+      return;
+    }
+    response.setContentType(ThumbnailService.CONTENT_TYPE);
+    response.setContentLength(thumbnail.length);
+    response.getOutputStream().write(thumbnail);
+  }
+
+  /** Returns true if the If-None-Match header lists the ETag or is a wildcard. */
+  private static boolean matchesAny(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      // If-None-Match uses the weak comparison, which ignores the weak prefix.
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
   }
 }
@@ -14,24 +14,22 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.repackaged.com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
-import com.google.sps.data.Post;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.PostPage;
 import com.google.sps.data.PostService;
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.Optional;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that handles loading and uploading posts. */
+/**
+ * Servlet that returns one page of posts in sorted order. POST request must have a sort-type
+ * attribute of 'new', 'top' or 'trending', and accepts optional page-size and cursor attributes.
+ */
 @WebServlet("/sort-posts")
 public class SortServlet extends HttpServlet {
   @Override
@@ -46,19 +44,24 @@ public class SortServlet extends HttpServlet {
       return;
     }
 
-    Query query = new Query("Post");
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    List<Entity> postEntities =
-        datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+    int pageSize = PostPage.parsePageSize(request.getParameter("page-size"));
+    Optional<String> cursor =
+        Optional.ofNullable(request.getParameter("cursor")).filter(value -> !value.isEmpty());
 
     PostService postService = PostService.Builder.builder().build();
-    postService.sortEntities(sortType, postEntities);
-
-    List<Post> posts =
-        postEntities.stream().map(PostService::convertEntityToPost).collect(Collectors.toList());
+    PostPage page;
+    try {
+      // An unknown sort type has no posts.
+      page =
+          postService
+              .getSortedPostsPage(sortType, pageSize, cursor)
+              .orElse(new PostPage(Collections.emptyList(), Optional.empty()));
+    } catch (IllegalArgumentException e) {
+      // The cursor was tampered with or came from a different query.
+      response.setStatus(400);
+      return;
+    }
 
-    response.setContentType("application/json");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(posts));
+    JsonResponses.writePage(response, page);
   }
 }
@@ -14,8 +14,8 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.repackaged.com.google.gson.Gson;
 import com.google.sps.data.Authenticator;
+import com.google.sps.data.JsonResponses;
 import com.google.sps.data.PostService;
 import java.io.IOException;
 import java.util.Optional;
@@ -38,11 +38,10 @@ public class UpvoteServlet extends HttpServlet {
 
     response.setContentType("application/json;");
 
-    Gson gson = new Gson();
     Optional<Long> newCount = PostService.Builder.builder().build().upvotePost(request);
 
     if (newCount.isPresent()) {
-      response.getWriter().println(gson.toJson(newCount.get()));
+      response.getWriter().println(JsonResponses.getGson().toJson(newCount.get()));
     } else {
       response.getWriter().println("[]");
     }
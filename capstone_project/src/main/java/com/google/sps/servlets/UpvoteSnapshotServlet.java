@@ -0,0 +1,47 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.PostService;
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task queue handler that copies the sharded upvote count of a post onto the post entity. Tasks are
+ * scheduled by PostService.upvotePost. POST request must have an id attribute.
+ */
+@WebServlet("/upvote-snapshot")
+public class UpvoteSnapshotServlet extends HttpServlet {
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.setStatus(403);
+      return;
+    }
+
+    long postID = Long.parseLong(request.getParameter("id"));
+    try {
+      PostService.Builder.builder().build().snapshotUpvotes(postID);
+    } catch (ConcurrentModificationException e) {
+      // A non-2xx status makes the task queue retry the task.
+      response.setStatus(503);
+    }
+  }
+}
@@ -51,6 +51,7 @@ limitations under the License.
         <button class="btn" onclick="sortPosts('trending')">Trending</button>
       </div>
       <div id="user-posts" data-sort="default"></div>
+      <div id="feed-end"></div>
     </div>
     <div class="col s3" id="post-upload-container">
       <form action="<%= blobstoreService.createUploadUrl("/post-process?file-type=none") %>"
@@ -105,11 +106,9 @@ limitations under the License.
       </div>
     </div>
   </div>
-  <c:if test="${not empty resources}">
-    <c:forEach items="${resources}" var="resource">
-      <script>
-        loadResources("${resource}");
-      </script>
-    </c:forEach>
-  </c:if> 
+  <c:if test="${not empty pendingAnalysis}">
+    <script>
+      pollAnalysis(${pendingAnalysis});
+    </script>
+  </c:if>
 </body>
@@ -22,3 +22,32 @@ function loadResources(resource) { // eslint-disable-line no-unused-vars
   textContainer.innerText = resource;
   M.Modal.init(modal).open();
 }
+
+/** How long, in milliseconds, to wait between checks for the analysis. */
+const ANALYSIS_POLL_INTERVAL = 1000;
+
+/** How many times the analysis is checked before giving up on it. */
+const MAX_ANALYSIS_POLLS = 60;
+
+/**
+ * Polls the server until the analysis of the post the user just submitted is
+ * done, then recommends the resources that were found for it.
+ * @param {number} postId - the id of the submitted post.
+ */
+async function pollAnalysis(postId) { // eslint-disable-line no-unused-vars
+  for (let poll = 0; poll < MAX_ANALYSIS_POLLS; poll++) {
+    const response = await fetch(`/post-analysis?id=${postId}`);
+    if (!response.ok) {
+      return;
+    }
+
+    const analysis = await response.json();
+    if (analysis.status !== 'pending') {
+      for (const resource of analysis.resources) {
+        loadResources(resource);
+      }
+      return;
+    }
+    await new Promise((resolve) => setTimeout(resolve, ANALYSIS_POLL_INTERVAL));
+  }
+}
@@ -57,17 +57,124 @@ function fetchBlobstoreURL(fileType) {
       });
 }
 
+/** The number of posts requested per page of the feed. */
+const FEED_PAGE_SIZE = 20;
+
+/** How close, in pixels, the end of the feed gets before a page is loaded. */
+const FEED_END_MARGIN = 400;
+
 /**
- * Retrieves all posts from the server and adds them to the DOM.
+ * Counts how often the feed was restarted, so a page that arrives after the
+ * user sorted the posts again is dropped.
+ */
+let feedGeneration = 0;
+
+/**
+ * Loads the first page of the feed and adds it to the DOM. Further pages are
+ * loaded as the user scrolls towards the end of the feed.
  * @param {Array<Post>} posts - Optional. If passed in, loads the given list of
- *                              posts.
+ *                              posts instead of the feed.
  */
 async function loadPosts(posts) { // eslint-disable-line no-unused-vars
-  posts = posts || await fetch('/post-process')
-      .then((response) => response.json())
-      .then((json) => json);
+  if (posts) {
+    await renderPosts(posts);
+    return;
+  }
 
-  await renderPosts(posts);
+  const postContainer = document.getElementById('user-posts');
+  postContainer.dataset.cursor = '';
+  await loadNextPage();
+  observeFeedEnd();
+}
+
+/**
+ * Fetches the next page of the feed, or of the sorted posts if the user sorted
+ * them, and appends it to the DOM. Does nothing if a page is already loading,
+ * the feed is searched, or the last page was already loaded.
+ */
+async function loadNextPage() {
+  const postContainer = document.getElementById('user-posts');
+  const cursor = postContainer.dataset.cursor;
+  const sortType = postContainer.dataset.sort;
+  if (postContainer.dataset.loading === 'true' || sortType === 'search' ||
+      cursor === undefined) {
+    return;
+  }
+
+  postContainer.dataset.loading = 'true';
+  const generation = feedGeneration;
+  const page = await fetchPage(sortType, cursor);
+
+  // The user may have sorted or searched while the page was loading.
+  if (generation !== feedGeneration ||
+      postContainer.dataset.sort !== sortType) {
+    return;
+  }
+  if (cursor === '') {
+    postContainer.innerHTML = '';
+  }
+  await renderPosts(page.posts);
+  if (page.cursor) {
+    postContainer.dataset.cursor = page.cursor;
+  } else {
+    delete postContainer.dataset.cursor;
+  }
+  postContainer.dataset.loading = 'false';
+
+  // Keep loading while the end of the feed is still on screen.
+  if (isFeedEndVisible()) {
+    loadNextPage();
+  }
+}
+
+/**
+ * Fetches one page of posts, newest first for the default feed or in the
+ * order of the given sort type otherwise.
+ * @param {String} sortType - 'default' or the name of the sorting method.
+ * @param {String} cursor - the cursor of the page, empty for the first page.
+ * @return {Promise<Object>} page - the posts and the cursor of the next page.
+ */
+function fetchPage(sortType, cursor) {
+  const params = new URLSearchParams({'page-size': FEED_PAGE_SIZE});
+  if (cursor !== '') {
+    params.set('cursor', cursor);
+  }
+
+  if (sortType === 'default') {
+    return fetch(`/post-process?${params}`)
+        .then((response) => response.json());
+  }
+
+  params.set('sort-type', sortType);
+  return fetch('/sort-posts', {
+    headers: {
+      'Content-Type': 'application/x-www-form-urlencoded',
+    },
+    method: 'POST',
+    body: params.toString(),
+  }).then((response) => response.json());
+}
+
+/** Loads the next page of the feed whenever its end scrolls into view. */
+function observeFeedEnd() {
+  const feedEnd = document.getElementById('feed-end');
+  const observer = new IntersectionObserver((entries) => {
+    if (entries.some((entry) => entry.isIntersecting)) {
+      loadNextPage();
+    }
+  }, {rootMargin: `${FEED_END_MARGIN}px`});
+  observer.observe(feedEnd);
+}
+
+/**
+ * Returns whether the end of the feed is within FEED_END_MARGIN pixels of the
+ * viewport.
+ * @return {boolean} visible - true if the next page should be loaded.
+ */
+function isFeedEndVisible() {
+  const feedEnd = document.getElementById('feed-end');
+  return feedEnd.getBoundingClientRect().top <
+      window.innerHeight + FEED_END_MARGIN;
 }
 
 /**
@@ -115,24 +222,19 @@ async function upvotePost(upvoteBtn) { // eslint-disable-line no-unused-vars
 
 /**
  * Sends a post request to the server to sort the posts by the given sort type.
- * Then, it displays them on the page.
+ * Then, it displays the first page of them, and further pages as the user
+ * scrolls.
  * @param {String} sortType - the name of the sorting method to use.
  */
 async function sortPosts(sortType) { // eslint-disable-line no-unused-vars
   const postContainer = document.getElementById('user-posts');
+  feedGeneration++;
   postContainer.setAttribute('data-sort', sortType);
+  postContainer.dataset.cursor = '';
+  postContainer.dataset.loading = 'false';
   postContainer.innerHTML = '<h1>Loading...</h1>';
 
-  const sortedPosts = await fetch('/sort-posts', {
-    headers: {
-      'Content-Type': 'application/x-www-form-urlencoded',
-    },
-    method: 'POST',
-    body: `sort-type=${sortType}`,
-  }).then((response) => response.json());
-
-  postContainer.innerHTML = '';
-  renderPosts(sortedPosts);
+  await loadNextPage();
 }
 
 /**
@@ -149,14 +251,18 @@ async function renderPosts(posts) {
 }
 
 /**
- * Returns an HTML Div Element representing the post.
- * @param {Entity} post - an entity representing the post.
+ * Returns an HTML Div Element representing the post. Feeds pass the summary of
+ * a post, whose text is cut to a preview, and single posts the full post.
+ * @param {Entity} post - an entity representing the post or its summary.
  */
 async function createPost(post) {
+  const text = post.text !== undefined ? post.text : post.preview;
+  const readMore = post.truncated ?
+    `… <a class='read-more' onclick='expandPost(this)'>Read more</a>` : '';
   const postHTML = `
     <div class="post-card-title">${post.title}</div>
     ${getProperFileTag(post.fileType, post.fileBlobKey)}
-    <div class='card-content'>${post.text}</div>
+    <div class='card-content'>${text}${readMore}</div>
     <div class='card-action interactions'>
       <button class='btn-flat upvote-button'
               onclick='upvotePost(this)'>
@@ -173,6 +279,18 @@ async function createPost(post) {
   return postElement;
 }
 
+/**
+ * Replaces the preview of a post with its full text, which feeds do not load
+ * up front.
+ * @param {HTMLAnchorElement} readMoreLink - the link below the preview.
+ */
+async function expandPost(readMoreLink) { // eslint-disable-line no-unused-vars
+  const postElement = readMoreLink.closest('.post-container[data-id]');
+  const post = await fetch(`/serve-post?post-id=${postElement.dataset.id}`)
+      .then((response) => response.json());
+  postElement.querySelector('.card-content').innerHTML = post.text;
+}
+
 /**
  * Loads a single post. Must be called from a url containing the 'post-id'
  * parameter.
@@ -251,15 +369,20 @@ function getProperFileTag(fileType, fileBlobKey) {
   let fileTag = '';
   const src = `/serve-file?blob-key=${fileBlobKey}`;
   if (fileType === 'video') {
+    // Only the metadata is loaded until the video is played, then it streams
+    // in byte ranges.
     fileTag = `
-      <video class='post-file' controls>
+      <video class='post-file' controls preload='metadata'>
         <source src='${src}'>
       </video>
     `.trim();
   } else if (fileType === 'image') {
+    // The feed shows a thumbnail, the full image opens on demand.
     fileTag = `
     <div class='card-image'>
-      <img src='${src}'>
+      <a href='${src}' target='_blank'>
+        <img src='${src}&size=medium' loading='lazy'>
+      </a>
     </div>
     `.trim();
   }
@@ -142,20 +142,79 @@ function postSchool(submission) {
   }).then((response) => location.reload());
 }
 
-/** Fetches and webscrapes articles for each school,
- * and creates/places each school's marker on the map.
+/** The markers of the current viewport, replaced whenever the map moves. */
+let markers = [];
+/** Counts viewport requests, so that only the latest one places markers. */
+let viewportRequests = 0;
+
+/** Places markers for the schools in view, and again whenever the map
+ * stops moving.
  * @param {Object} map - A google maps Map object.
  */
 function loadMarkersOntoMap(map) {
-  fetch('/school-data').then((response) => response.json()).then((schools) => {
-    for (const school of schools) {
-      const url = `https://www.googleapis.com/customsearch/v1?key=CAPSTONE_API_KEY&cx=CAPSTONE_SEARCH_ENG_ID&q=${school.name}`;
-      $.getJSON(url, function(result) {
-        createMarker(map, school.latitude, school.longitude,
-            school.name, result);
+  map.addListener('idle', () => loadViewport(map));
+}
+
+/** Fetches the schools, or clusters of schools, in the visible part of the
+ * map and replaces the markers with theirs.
+ * @param {Object} map - A google maps Map object.
+ */
+function loadViewport(map) {
+  const bounds = map.getBounds();
+  const params = new URLSearchParams({
+    south: bounds.getSouthWest().lat(),
+    west: bounds.getSouthWest().lng(),
+    north: bounds.getNorthEast().lat(),
+    east: bounds.getNorthEast().lng(),
+    zoom: map.getZoom(),
+  });
+  const request = ++viewportRequests;
+
+  fetch(`/school-data?${params}`).then((response) => response.json())
+      .then((view) => {
+        if (request !== viewportRequests) {
+          // The map moved again before this viewport loaded.
+          return;
+        }
+        for (const marker of markers) {
+          marker.setMap(null);
+        }
+        markers = view.schools.map((school) => createMarker(map,
+            school.latitude, school.longitude, school.name))
+            .concat(view.clusters.map((cluster) =>
+              createClusterMarker(map, cluster)));
       });
-    }
+}
+
+/** Fetches the news search results about a school.
+ * @param {string} name - The name of a school.
+ * @return {Promise<Object>} - The search results, whose items are articles.
+ */
+function fetchNews(name) {
+  const url = `https://www.googleapis.com/customsearch/v1?key=CAPSTONE_API_KEY&cx=CAPSTONE_SEARCH_ENG_ID&q=${encodeURIComponent(name)}`;
+  return $.getJSON(url);
+}
+
+/** Creates a marker for a cluster of schools, labeled with their count,
+ * that zooms the map in on them when clicked.
+ * @param {Object} map - A google maps Map object.
+ * @param {Object} cluster - The location and count of the schools.
+ * @return {Object} - The marker.
+ */
+function createClusterMarker(map, cluster) {
+  const pos = {lat: cluster.latitude, lng: cluster.longitude};
+  const marker = new google.maps.Marker({
+    position: pos,
+    map: map,
+    title: `${cluster.count} schools`,
+    label: {text: `${cluster.count}`, color: '#ffffff'},
   });
+
+  marker.addListener('click', function() {
+    map.setCenter(pos);
+    map.setZoom(map.getZoom() + 2);
+  });
+  return marker;
 }
 
 /** Creates and returns the "News" tab portion of a content string for a marker.
@@ -219,7 +278,7 @@ async function createPostsFeed(name) {
   const schoolPosts =
     await fetch(`/fetch-school-posts?school-name=${encodeURIComponent(name)}`)
         .then((res) => res.json())
-        .then((data) => createLinks(data, name));
+        .then((page) => createLinks(page.posts, name));
 
   return schoolPosts;
 }
@@ -263,19 +322,16 @@ function createContentString(name, items, posts) {
 }
 
 
-/** Creates a marker and its infowindow and adds these to the map.
+/** Creates a marker and adds it to the map. Its infowindow loads the news
+ * and posts about the school the first time the marker is clicked.
  * @param {Object} map - A google maps Map object.
  * @param {number} latitude - The latitude of the marker's location.
  * @param {number} longitude - The longitude of the marker's location.
  * @param {string} name - The name of the school associated with the marker.
- * @param {Array.<Object>} result - A list of JSON objects that represent
- * the search results for news articles about a school.
+ * @return {Object} - The marker.
  */
-async function createMarker(map, latitude, longitude, name, result) {
-  // Get the posts to be featured in the infowindow and set up marker fields.
-  const posts = await createPostsFeed(name);
+function createMarker(map, latitude, longitude, name) {
   const pos = {lat: latitude, lng: longitude};
-  const contentString = createContentString(name, result.items, posts);
 
   // Make the marker.
   const markerIcon = {
@@ -291,11 +347,15 @@ async function createMarker(map, latitude, longitude, name, result) {
   });
 
   // Make the associated infowindow.
-  const infowindow = new google.maps.InfoWindow({
-    content: contentString,
-  });
-
-  marker.addListener('click', function() {
-    infowindow.open(map, marker);
+  let infowindow;
+  marker.addListener('click', async function() {
+    if (infowindow === undefined) {
+      infowindow = Promise.all([fetchNews(name), createPostsFeed(name)])
+          .then(([result, posts]) => new google.maps.InfoWindow({
+            content: createContentString(name, result.items, posts),
+          }));
+    }
+    (await infowindow).open(map, marker);
   });
+  return marker;
 }
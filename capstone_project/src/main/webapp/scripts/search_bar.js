@@ -22,11 +22,15 @@ async function searchPosts() { // eslint-disable-line no-unused-vars
   }
 
   await resetSearchResults();
+  // Stop the feed from appending pages below the search results.
+  document.getElementById('user-posts').dataset.sort = 'search';
   const currentQuery = document.getElementById('post-search-bar').value;
-  const postsFound =
-      await fetch(`/filter-posts?search=${encodeURIComponent(currentQuery)}`)
-          .then((res) => res.json());
-  await loadPosts(postsFound);
+  const response =
+      await fetch(`/filter-posts?search=${encodeURIComponent(currentQuery)}`);
+  if (response.headers.get('X-Search-Truncated') === 'true') {
+    M.toast({html: 'Showing only the first matches. Add words to narrow it.'});
+  }
+  await loadPosts(await response.json());
 }
 
 /** Removes all current posts to allow the new posts to be loaded. */
@@ -0,0 +1,205 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.data.AnalysisCache;
+import com.google.sps.data.PostAnalysis;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that AnalysisCache answers repeated texts from memory or datastore until they expire. */
+@RunWith(JUnit4.class)
+public final class AnalysisCacheTest extends Mockito {
+  private static final long TTL = 1000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private DatastoreService datastore;
+  private Clock clock;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(0L);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void repeatedTextIsAnalyzedOnce() throws IOException {
+    LanguageServiceClient languageService = mock(LanguageServiceClient.class);
+    AnalyzeSentimentResponse sentimentResponse = mock(AnalyzeSentimentResponse.class);
+    Sentiment sentiment = mock(Sentiment.class);
+    when(languageService.analyzeSentiment(any(Document.class))).thenReturn(sentimentResponse);
+    when(sentimentResponse.getDocumentSentiment()).thenReturn(sentiment);
+    when(sentiment.getScore()).thenReturn(-0.8F);
+    AnalysisCache cache = createCache(datastore, 10);
+
+    PostAnalysis first =
+        PostAnalysis.Builder.builder().setLanguageService(languageService).setCache(cache).build();
+    first.analyzeText("I failed my exam");
+    PostAnalysis second =
+        PostAnalysis.Builder.builder().setLanguageService(languageService).setCache(cache).build();
+    second.analyzeText("  i FAILED my\nexam ");
+
+    verify(languageService, times(1)).analyzeSentiment(any(Document.class));
+    assertEquals(-0.8, second.getSentimentScore(), 0.01);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getMemoryHits());
+  }
+
+  @Test
+  public void expiredEntriesAreMisses() {
+    AnalysisCache cache = createCache(datastore, 10);
+    cache.put("hello", 0.5, Collections.emptyList());
+
+    when(clock.millis()).thenReturn(TTL - 1);
+    assertTrue(cache.get("hello").isPresent());
+    when(clock.millis()).thenReturn(TTL);
+    assertFalse(cache.get("hello").isPresent());
+
+    assertEquals(1, cache.getMemoryHits());
+    assertEquals(0, cache.getDatastoreHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntries() {
+    AnalysisCache cache = createCache(null, 2);
+    cache.put("first", 0.1, Collections.emptyList());
+    cache.put("second", 0.2, Collections.emptyList());
+    cache.get("first");
+    cache.put("third", 0.3, Collections.emptyList());
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.get("first").isPresent());
+    assertFalse(cache.get("second").isPresent());
+    assertTrue(cache.get("third").isPresent());
+  }
+
+  @Test
+  public void readsEntriesOfOtherInstancesFromDatastore() {
+    createCache(datastore, 10).put("stressed about finals", 0.0, Arrays.asList("Education"));
+    AnalysisCache cache = createCache(datastore, 10);
+
+    Optional<AnalysisCache.Result> result = cache.get("Stressed about finals");
+
+    assertTrue(result.isPresent());
+    assertEquals(Arrays.asList("Education"), result.get().getCategories());
+    assertEquals(1, cache.getDatastoreHits());
+    assertTrue(cache.get("stressed about finals").isPresent());
+    assertEquals(1, cache.getMemoryHits());
+  }
+
+  @Test
+  public void datastoreTimeoutsAreTreatedAsMisses() throws EntityNotFoundException {
+    DatastoreService failingDatastore = spy(datastore);
+    doThrow(new DatastoreTimeoutException("Deadline exceeded"))
+        .when(failingDatastore)
+        .put(any(Entity.class));
+    doThrow(new ApiProxy.ApiDeadlineExceededException("datastore_v3", "Get"))
+        .when(failingDatastore)
+        .get(any(Key.class));
+
+    createCache(failingDatastore, 10).put("stressed about finals", 0.0, Collections.emptyList());
+    AnalysisCache cache = createCache(failingDatastore, 10);
+
+    assertFalse(cache.get("stressed about finals").isPresent());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void deletesExpiredEntriesFromDatastore() {
+    AnalysisCache cache = createCache(datastore, 10);
+    cache.put("old", 0.1, Collections.emptyList());
+    when(clock.millis()).thenReturn(TTL / 2);
+    cache.put("new", 0.2, Collections.emptyList());
+
+    when(clock.millis()).thenReturn(TTL);
+    assertEquals(1, cache.deleteExpiredEntries(Long.MAX_VALUE));
+    assertEquals(1, countStoredEntries());
+    assertTrue(createCache(datastore, 10).get("new").isPresent());
+  }
+
+  @Test
+  public void indexesEntriesStoredBeforeExpiryWasIndexed() {
+    datastore.put(createUnindexedEntry("old", TTL / 2));
+    datastore.put(createUnindexedEntry("new", 2 * TTL));
+    AnalysisCache cache = createCache(datastore, 10);
+
+    when(clock.millis()).thenReturn(TTL);
+    assertEquals(2, cache.indexStoredEntries());
+    assertEquals(1, countStoredEntries());
+
+    when(clock.millis()).thenReturn(3 * TTL);
+    assertEquals(1, cache.deleteExpiredEntries(Long.MAX_VALUE));
+    assertEquals(0, countStoredEntries());
+  }
+
+  private Entity createUnindexedEntry(String text, long expiresAt) {
+    Entity entry = new Entity("AnalysisCache", AnalysisCache.hash(text));
+    entry.setUnindexedProperty("sentimentScore", 0.0);
+    entry.setUnindexedProperty("expiresAt", expiresAt);
+    return entry;
+  }
+
+  private int countStoredEntries() {
+    return datastore
+        .prepare(new Query("AnalysisCache"))
+        .countEntities(FetchOptions.Builder.withDefaults());
+  }
+
+  private AnalysisCache createCache(DatastoreService datastore, int maxEntries) {
+    return AnalysisCache.Builder.builder()
+        .datastore(datastore)
+        .clock(clock)
+        .maxEntries(maxEntries)
+        .ttlMillis(TTL)
+        .build();
+  }
+}
@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.data.AnalysisQueue;
+import com.google.sps.data.AnalysisResult;
+import com.google.sps.data.PostAnalysis;
+import com.google.sps.servlets.AnalyzePostServlet;
+import com.google.sps.servlets.PostAnalysisServlet;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that posts are analyzed by the task queue and that only their author sees the results. */
+@RunWith(JUnit4.class)
+public final class AnalysisQueueTest extends Mockito {
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private LocalServiceTestHelper serviceHelper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true);
+  private Queue queue;
+  private AnalysisQueue analysisQueue;
+
+  private final String TEXT = "I am stressed about my exams";
+  private long postID;
+
+  @Before
+  public void setUpServiceHelper() {
+    serviceHelper.setUp();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    queue = mock(Queue.class);
+    analysisQueue = AnalysisQueue.Builder.builder().queue(queue).build();
+
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", 0L);
+    post.setProperty("text", new Text(TEXT));
+    post.setProperty("reactions", new EmbeddedEntity());
+    post.setProperty("analysisStatus", AnalysisQueue.PENDING);
+    datastore.put(post);
+    postID = post.getKey().getId();
+  }
+
+  @After
+  public void tearDownServiceHelper() {
+    serviceHelper.tearDown();
+  }
+
+  @Test
+  public void enqueueIgnoresPostsAlreadyEnqueued() {
+    when(queue.add(any(TaskOptions.class))).thenThrow(new TaskAlreadyExistsException("exists"));
+
+    analysisQueue.enqueue(postID);
+    verify(queue).add(any(TaskOptions.class));
+  }
+
+  @Test
+  public void newPostIsPending() {
+    AnalysisResult analysis = analysisQueue.getAnalysis(postID).get();
+
+    assertEquals(AnalysisQueue.PENDING, analysis.getStatus());
+    assertEquals(Collections.emptyList(), analysis.getResources());
+  }
+
+  @Test
+  public void analyzePostStoresResultsOnPost() {
+    PostAnalysis postAnalysis = mock(PostAnalysis.class);
+    when(postAnalysis.getCategories()).thenReturn(Arrays.asList("Anxiety & Stress"));
+    when(postAnalysis.getSentimentScore()).thenReturn(-0.8);
+    when(postAnalysis.getResources()).thenReturn(Arrays.asList("Crisis Textline"));
+
+    analysisQueue.analyzePost(postID, postAnalysis);
+    verify(postAnalysis).analyzeText(TEXT);
+
+    AnalysisResult analysis = analysisQueue.getAnalysis(postID).get();
+    assertEquals(AnalysisQueue.DONE, analysis.getStatus());
+    assertEquals(Arrays.asList("Anxiety & Stress"), analysis.getCategories());
+    assertEquals(-0.8, analysis.getSentimentScore(), 0.0001);
+    assertEquals(Arrays.asList("Crisis Textline"), analysis.getResources());
+  }
+
+  @Test
+  public void missingPostHasNoAnalysis() {
+    assertFalse(analysisQueue.getAnalysis(postID + 1).isPresent());
+  }
+
+  @Test
+  public void workerRespondsWith403WithoutQueueHeader() throws IOException {
+    new AnalyzePostServlet().doPost(request, response);
+    verify(response).setStatus(403);
+  }
+
+  @Test
+  public void workerMarksAnalysisFailedAfterLastRetryOfAnyFailure() throws IOException {
+    // A post without text fails with a NullPointerException rather than an API error.
+    Entity brokenPost = new Entity("Post");
+    brokenPost.setProperty("analysisStatus", AnalysisQueue.PENDING);
+    datastore.put(brokenPost);
+    when(request.getHeader("X-AppEngine-QueueName")).thenReturn("post-analysis");
+    when(request.getHeader("X-AppEngine-TaskRetryCount")).thenReturn("5");
+    when(request.getParameter("id")).thenReturn(Long.toString(brokenPost.getKey().getId()));
+
+    new AnalyzePostServlet().doPost(request, response);
+    verify(response, never()).setStatus(anyInt());
+    assertEquals(
+        AnalysisQueue.FAILED,
+        analysisQueue.getAnalysis(brokenPost.getKey().getId()).get().getStatus());
+  }
+
+  @Test
+  public void workerAsksForRetryOfAnyFailureBeforeLastRetry() throws IOException {
+    Entity brokenPost = new Entity("Post");
+    datastore.put(brokenPost);
+    when(request.getHeader("X-AppEngine-QueueName")).thenReturn("post-analysis");
+    when(request.getHeader("X-AppEngine-TaskRetryCount")).thenReturn("1");
+    when(request.getParameter("id")).thenReturn(Long.toString(brokenPost.getKey().getId()));
+
+    new AnalyzePostServlet().doPost(request, response);
+    verify(response).setStatus(503);
+  }
+
+  @Test
+  public void pollRespondsWith404ForPostsOfOtherUsers() throws IOException {
+    HttpSession session = mock(HttpSession.class);
+    when(request.getSession()).thenReturn(session);
+    when(session.getAttribute("pendingAnalysis")).thenReturn(postID + 1);
+    when(request.getParameter("id")).thenReturn(Long.toString(postID));
+
+    new PostAnalysisServlet().doGet(request, response);
+    verify(response).setStatus(404);
+  }
+}
@@ -26,6 +26,7 @@ import com.google.cloud.language.v1.ClassifyTextResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.LanguageServiceClient;
 import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.data.AnalysisCache;
 import com.google.sps.data.PostAnalysis;
 import com.google.sps.data.Resource;
 import java.io.IOException;
@@ -63,7 +64,11 @@ public final class AnalysisTest extends Mockito {
     helper.setUp();
     request = mock(HttpServletRequest.class);
     languageService = mock(LanguageServiceClient.class);
-    postAnalysis = new PostAnalysis.Builder().setLanguageService(languageService).build();
+    postAnalysis =
+        new PostAnalysis.Builder()
+            .setLanguageService(languageService)
+            .setCache(AnalysisCache.Builder.builder().build())
+            .build();
   }
 
   @After
@@ -101,7 +106,6 @@ public final class AnalysisTest extends Mockito {
     when(languageService.analyzeSentiment(any(Document.class))).thenReturn(sentimentResponse);
     when(sentimentResponse.getDocumentSentiment()).thenReturn(sentiment);
     when(sentiment.getScore()).thenReturn(0F);
-    doNothing().when(languageService).close();
 
     postAnalysis.analyzeText(request);
 
@@ -109,5 +113,7 @@ public final class AnalysisTest extends Mockito {
     double actual = postAnalysis.getSentimentScore();
 
     assertEquals(expected, actual, 0.01F);
+    // The client is shared, so an analysis must not close it.
+    verify(languageService, never()).close();
   }
 }
@@ -0,0 +1,196 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.BlobCollectionReport;
+import com.google.sps.data.BlobCollector;
+import com.google.sps.data.DeletePostService;
+import java.time.Clock;
+import java.util.Date;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that BlobCollector deletes the blobs of expired posts and blobs without an owner. */
+@RunWith(JUnit4.class)
+public final class BlobCollectorTest extends Mockito {
+  private static final long GRACE_PERIOD = 1000;
+  private static final long NOW = 10000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private DatastoreService datastore;
+  private BlobstoreService blobstore;
+  private Clock clock;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    blobstore = mock(BlobstoreService.class);
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(NOW);
+    // Deleting a blob also deletes the entity blobstore keeps about it.
+    doAnswer(
+            invocation -> {
+              for (Object blobKey : invocation.getArguments()) {
+                datastore.delete(
+                    KeyFactory.createKey("__BlobInfo__", ((BlobKey) blobKey).getKeyString()));
+              }
+              return null;
+            })
+        .when(blobstore)
+        .delete(any());
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void collectsBlobsOfExpiredPosts() {
+    storeBlob("expired", 0);
+    BlobCollector.recordOwner(datastore, "expired", 1);
+    datastore.put(new Entity(DeletePostService.ORPHANED_BLOB_KIND, "expired"));
+
+    BlobCollectionReport report = createCollector(false).collect();
+
+    verify(blobstore).delete(new BlobKey("expired"));
+    assertEquals(1, report.getOrphanedBlobs());
+    assertTrue(isDeleted(DeletePostService.ORPHANED_BLOB_KIND, "expired"));
+    assertTrue(isDeleted(BlobCollector.OWNER_KIND, "expired"));
+  }
+
+  @Test
+  public void collectsOnlyOldBlobsWithoutAnOwner() {
+    storeBlob("unowned", 0);
+    storeBlob("owned", 0);
+    BlobCollector.recordOwner(datastore, "owned", 1);
+    storeBlob("uploading", NOW - GRACE_PERIOD + 1);
+    // A post written before owners were recorded.
+    storeBlob("legacy", 0);
+    Entity post = new Entity("Post");
+    post.setProperty("fileBlobKey", "legacy");
+    datastore.put(post);
+
+    BlobCollectionReport report = createCollector(false).collect();
+
+    verify(blobstore).delete(new BlobKey("unowned"));
+    verifyNoMoreInteractions(blobstore);
+    assertEquals(3, report.getScannedBlobs());
+    assertEquals(1, report.getUnownedBlobs());
+    assertEquals(false, isDeleted(BlobCollector.OWNER_KIND, "legacy"));
+  }
+
+  @Test
+  public void scansOnlyBlobsUploadedSinceTheLastRun() {
+    for (int i = 0; i < 3; i++) {
+      storeBlob("old" + i, i);
+      BlobCollector.recordOwner(datastore, "old" + i, i + 1);
+    }
+    createCollector(false).collect();
+    storeBlob("new", 100);
+    BlobCollector.recordOwner(datastore, "new", 4);
+
+    BlobCollectionReport report = createCollector(false).collect();
+
+    // The last blob of the last run is scanned again, with the new one.
+    assertEquals(2, report.getScannedBlobs());
+    verifyNoInteractions(blobstore);
+  }
+
+  @Test
+  public void stoppedRunIsResumedByTheNextRun() {
+    for (int i = 0; i < 150; i++) {
+      storeBlob("blob" + i, i);
+    }
+    // The clock passes the deadline after the first batch.
+    when(clock.millis()).thenReturn(NOW, NOW, NOW, NOW + 1);
+
+    BlobCollectionReport stopped = createCollector(false).collect();
+
+    assertEquals(100, stopped.getScannedBlobs());
+    assertEquals(100, stopped.getUnownedBlobs());
+    assertEquals(false, stopped.isComplete());
+
+    when(clock.millis()).thenReturn(NOW);
+    BlobCollectionReport resumed = createCollector(false).collect();
+
+    assertEquals(50, resumed.getScannedBlobs());
+    assertEquals(50, resumed.getUnownedBlobs());
+    assertTrue(resumed.isComplete());
+  }
+
+  @Test
+  public void dryRunOnlyCounts() {
+    storeBlob("unowned", 0);
+    datastore.put(new Entity(DeletePostService.ORPHANED_BLOB_KIND, "expired"));
+
+    BlobCollectionReport report = createCollector(true).collect();
+
+    verifyNoInteractions(blobstore);
+    assertEquals(1, report.getOrphanedBlobs());
+    assertEquals(1, report.getUnownedBlobs());
+    assertTrue(report.isDryRun());
+    assertEquals(false, isDeleted(DeletePostService.ORPHANED_BLOB_KIND, "expired"));
+  }
+
+  private BlobCollector createCollector(boolean dryRun) {
+    return BlobCollector.Builder.builder()
+        .datastore(datastore)
+        .blobstore(blobstore)
+        .clock(clock)
+        .gracePeriodMillis(GRACE_PERIOD)
+        .maxRunMillis(1)
+        .dryRun(dryRun)
+        .build();
+  }
+
+  // Stores the entity blobstore keeps about an uploaded file.
+  private void storeBlob(String blobKey, long creationMillis) {
+    Entity blobInfo = new Entity("__BlobInfo__", blobKey);
+    blobInfo.setProperty("content_type", "image/png");
+    blobInfo.setProperty("creation", new Date(creationMillis));
+    blobInfo.setProperty("filename", blobKey + ".png");
+    blobInfo.setProperty("size", 1L);
+    blobInfo.setProperty("md5_hash", "");
+    datastore.put(blobInfo);
+  }
+
+  private boolean isDeleted(String kind, String name) {
+    try {
+      datastore.get(KeyFactory.createKey(kind, name));
+      return false;
+    } catch (EntityNotFoundException e) {
+      return true;
+    }
+  }
+}
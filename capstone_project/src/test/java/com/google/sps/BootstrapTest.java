@@ -0,0 +1,242 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Bootstrap;
+import com.google.sps.data.PostFilter;
+import com.google.sps.data.PostService;
+import com.google.sps.data.Resource;
+import com.google.sps.data.SchoolCatalog;
+import com.google.sps.data.SchoolService;
+import com.google.sps.data.ShardedCounter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/**
+ * Tests that Bootstrap seeds the reference data and migrates posts and schools once per version.
+ */
+@RunWith(JUnit4.class)
+public final class BootstrapTest extends Mockito {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void seedsPreexistingResources() {
+    assertTrue(Bootstrap.Builder.builder().datastore(datastore).build().seedReferenceData());
+
+    assertEquals(Resource.PREEXISTING_RESOURCES.size(), countResources());
+  }
+
+  @Test
+  public void laterStartupsOnlyReadTheMarker() {
+    Bootstrap.Builder.builder().datastore(datastore).build().seedReferenceData();
+    DatastoreService spiedDatastore = spy(datastore);
+
+    assertFalse(Bootstrap.Builder.builder().datastore(spiedDatastore).build().seedReferenceData());
+
+    verify(spiedDatastore, never()).prepare(any(Query.class));
+    assertEquals(Resource.PREEXISTING_RESOURCES.size(), countResources());
+  }
+
+  @Test
+  public void keepsResourcesThatAlreadyExist() {
+    Resource.storeResource(datastore, "Depression", "Crisis Textline");
+
+    Bootstrap.Builder.builder().datastore(datastore).build().seedReferenceData();
+
+    assertEquals(Resource.PREEXISTING_RESOURCES.size(), countResources());
+  }
+
+  @Test
+  public void migratesPostSummariesOnce() {
+    Entity post = new Entity("Post");
+    post.setProperty("text", new Text("Old Text"));
+    datastore.put(post);
+    PostService postService = spy(PostService.Builder.builder().datastore(datastore).build());
+    Bootstrap bootstrap =
+        Bootstrap.Builder.builder().datastore(datastore).postService(postService).build();
+
+    assertEquals(Optional.of(1), bootstrap.migratePostSummaries());
+    assertEquals(Optional.empty(), bootstrap.migratePostSummaries());
+
+    verify(postService, times(1)).addMissingSummaries();
+  }
+
+  @Test
+  public void indexesPostsForSearchOnce() {
+    Entity post = new Entity("Post");
+    post.setProperty("schoolName", "Old University");
+    post.setProperty("title", "Old Title");
+    post.setProperty("text", new Text("Old Text"));
+    datastore.put(post);
+    Bootstrap bootstrap = Bootstrap.Builder.builder().datastore(datastore).build();
+
+    assertEquals(Optional.of(1), bootstrap.indexPostsForSearch());
+    assertEquals(Optional.empty(), bootstrap.indexPostsForSearch());
+
+    assertEquals(Arrays.asList(post.getKey()), keysOf(PostFilter.filterPosts("old univ")));
+  }
+
+  @Test
+  public void addsTrendingScoresOnce() {
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", 0L);
+    post.setProperty("timestamp", System.currentTimeMillis());
+    datastore.put(post);
+    Bootstrap bootstrap = Bootstrap.Builder.builder().datastore(datastore).build();
+
+    assertEquals(Optional.of(1), bootstrap.addTrendingScores());
+    assertEquals(Optional.empty(), bootstrap.addTrendingScores());
+  }
+
+  @Test
+  public void seedsUpvoteCountersOnce() throws EntityNotFoundException {
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", 50L);
+    post.setProperty("timestamp", System.currentTimeMillis());
+    Entity unvoted = new Entity("Post");
+    unvoted.setProperty("upvotes", 0L);
+    unvoted.setProperty("timestamp", System.currentTimeMillis());
+    datastore.put(Arrays.asList(post, unvoted));
+    PostService postService = PostService.Builder.builder().datastore(datastore).build();
+    Bootstrap bootstrap =
+        Bootstrap.Builder.builder().datastore(datastore).postService(postService).build();
+
+    assertEquals(Optional.of(1), bootstrap.seedUpvoteCounters());
+    assertEquals(Optional.empty(), bootstrap.seedUpvoteCounters());
+
+    // The first vote after the migration adds to the upvotes the post had.
+    ShardedCounter.Builder.builder()
+        .kind(PostService.UPVOTE_SHARD_KIND)
+        .datastore(datastore)
+        .build()
+        .increment(Long.toString(post.getKey().getId()));
+    postService.snapshotUpvotes(post.getKey().getId());
+    assertEquals(51L, datastore.get(post.getKey()).getProperty("upvotes"));
+  }
+
+  @Test
+  public void indexesSchoolsOnce() {
+    Entity school = new Entity("School");
+    school.setProperty("name", "UCI");
+    school.setProperty("latitude", 33.640339);
+    school.setProperty("longitude", -117.844248);
+    datastore.put(school);
+    SchoolService schoolService = spy(SchoolService.Builder.builder().datastore(datastore).build());
+    Bootstrap bootstrap =
+        Bootstrap.Builder.builder().datastore(datastore).schoolService(schoolService).build();
+
+    assertEquals(Optional.of(1), bootstrap.indexSchools());
+    assertEquals(Optional.empty(), bootstrap.indexSchools());
+
+    verify(schoolService, times(1)).addMissingGeohashes();
+  }
+
+  @Test
+  public void rekeysLegacySchoolsOnce() {
+    for (String name : new String[] {"UCI", "uci", "UCLA"}) {
+      Entity school = new Entity("School");
+      school.setProperty("name", name);
+      school.setProperty("latitude", 33.640339);
+      school.setProperty("longitude", -117.844248);
+      datastore.put(school);
+    }
+    Bootstrap bootstrap = Bootstrap.Builder.builder().datastore(datastore).build();
+
+    assertEquals(Optional.of(3), bootstrap.rekeySchools());
+    assertEquals(Optional.empty(), bootstrap.rekeySchools());
+
+    List<Entity> schools =
+        datastore.prepare(new Query("School")).asList(FetchOptions.Builder.withDefaults());
+    assertEquals(2, schools.size());
+    for (Entity school : schools) {
+      assertEquals(SchoolService.getKey((String) school.getProperty("name")), school.getKey());
+    }
+  }
+
+  @Test
+  public void skipsInvalidLegacySchools() {
+    storeLegacySchool("UCI", 33.640339, -117.844248);
+    storeLegacySchool(" ", 34.068965, -118.445245);
+    storeLegacySchool(null, 37.871942, -122.258476);
+    Entity withoutLocation = new Entity("School");
+    withoutLocation.setProperty("name", "MIT");
+    datastore.put(withoutLocation);
+    Bootstrap bootstrap = Bootstrap.Builder.builder().datastore(datastore).build();
+
+    // The valid school gets its geohash when it is moved, and the invalid ones stay as they are.
+    assertEquals(Optional.of(1), bootstrap.rekeySchools());
+    assertEquals(Optional.of(0), bootstrap.indexSchools());
+
+    assertEquals(
+        4,
+        datastore.prepare(new Query("School")).countEntities(FetchOptions.Builder.withDefaults()));
+    // Only the schools that have no name or no location are left out of the catalog.
+    assertEquals(
+        2, SchoolCatalog.Builder.builder().datastore(datastore).build().getSchools().size());
+  }
+
+  private void storeLegacySchool(String name, double latitude, double longitude) {
+    Entity school = new Entity("School");
+    school.setProperty("name", name);
+    school.setProperty("latitude", latitude);
+    school.setProperty("longitude", longitude);
+    datastore.put(school);
+  }
+
+  private static List<Key> keysOf(List<Entity> entities) {
+    return entities.stream().map(Entity::getKey).collect(Collectors.toList());
+  }
+
+  private int countResources() {
+    return datastore
+        .prepare(new Query("Resource"))
+        .countEntities(FetchOptions.Builder.withDefaults());
+  }
+}
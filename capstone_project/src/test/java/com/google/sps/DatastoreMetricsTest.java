@@ -0,0 +1,189 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.data.DatastoreMetrics;
+import com.google.sps.data.DatastoreMetrics.Operation;
+import com.google.sps.data.DatastoreMetrics.RequestMetrics;
+import com.google.sps.data.Histogram;
+import com.google.sps.data.MeteredDatastore;
+import com.google.sps.servlets.DatastoreMetricsFilter;
+import com.google.sps.servlets.MetricsServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that MeteredDatastore counts and times datastore calls per request. */
+@RunWith(JUnit4.class)
+public final class DatastoreMetricsTest extends Mockito {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true)
+          .setEnvEmail("admin@example.com")
+          .setEnvAuthDomain("example.com")
+          .setEnvIsAdmin(true);
+  private DatastoreMetrics metrics;
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    metrics = DatastoreMetrics.Builder.builder().build();
+    datastore = MeteredDatastore.wrap(DatastoreServiceFactory.getDatastoreService(), metrics);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void countsCallsAndEntitiesOfRequest() throws Exception {
+    metrics.beginRequest("/posts");
+    Entity first = new Entity("Post");
+    Entity second = new Entity("Post");
+    datastore.put(Arrays.asList(first, second));
+    datastore.get(first.getKey());
+    datastore.prepare(new Query("Post")).asList(FetchOptions.Builder.withDefaults());
+    for (Entity post : datastore.prepare(new Query("Post")).asIterable()) {
+      // Reads every result.
+    }
+    datastore.delete(first.getKey());
+    RequestMetrics request = metrics.endRequest(1000000).get();
+
+    assertEquals(1, request.getCalls(Operation.PUT));
+    assertEquals(1, request.getCalls(Operation.GET));
+    assertEquals(2, request.getCalls(Operation.QUERY));
+    assertEquals(1, request.getCalls(Operation.DELETE));
+    assertEquals(5, request.getCalls());
+    assertEquals(5, request.getEntitiesRead());
+    assertEquals(3, request.getEntitiesWritten());
+    assertEquals(1, metrics.getEndpoints().get("/posts").getRequests());
+    assertEquals(2, metrics.getEndpoints().get("/posts").getCalls(Operation.QUERY));
+    assertEquals(2, metrics.getLatencyMillis(Operation.QUERY).getCount());
+  }
+
+  @Test
+  public void callsOutsideRequestAreOnlyTimed() {
+    datastore.put(new Entity("Post"));
+
+    assertTrue(metrics.getEndpoints().isEmpty());
+    assertEquals(1, metrics.getLatencyMillis(Operation.PUT).getCount());
+  }
+
+  @Test
+  public void logsSlowQueries() {
+    DatastoreMetrics slowMetrics = DatastoreMetrics.Builder.builder().slowCallMillis(0).build();
+    DatastoreService slowDatastore =
+        MeteredDatastore.wrap(DatastoreServiceFactory.getDatastoreService(), slowMetrics);
+    List<String> messages = new ArrayList<>();
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            messages.add(record.getMessage());
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    Logger logger = Logger.getLogger(DatastoreMetrics.class.getName());
+    logger.addHandler(handler);
+    try {
+      slowMetrics.beginRequest("/sort");
+      for (Entity post : slowDatastore.prepare(new Query("Post")).asIterable()) {
+        // Reads every result.
+      }
+      slowMetrics.endRequest(0);
+    } finally {
+      logger.removeHandler(handler);
+    }
+
+    assertEquals(1, messages.size());
+    assertTrue(messages.get(0).startsWith("Slow datastore query on /sort"));
+  }
+
+  @Test
+  public void histogramPercentilesAreBucketBounds() {
+    Histogram histogram = new Histogram();
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(5050, histogram.getSum());
+    assertEquals(64, histogram.getPercentile(50));
+    assertEquals(100, histogram.getPercentile(99));
+  }
+
+  @Test
+  public void filterRecordsEndpointAndServletShowsIt() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getServletPath()).thenReturn("/metrics-test");
+    FilterChain chain =
+        (chainRequest, chainResponse) ->
+            MeteredDatastore.getDatastoreService().put(new Entity("Post"));
+
+    new DatastoreMetricsFilter().doFilter(request, mock(HttpServletResponse.class), chain);
+
+    StringWriter body = new StringWriter();
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(body));
+    new MetricsServlet().doGet(mock(HttpServletRequest.class), response);
+    assertTrue(body.toString().contains("\"/metrics-test\":{\"requests\":1,\"gets\":0,\"puts\":1"));
+  }
+
+  @Test
+  public void metricsAreForAdminsOnly() throws IOException {
+    helper.setEnvIsAdmin(false);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    new MetricsServlet().doGet(mock(HttpServletRequest.class), response);
+
+    verify(response).setStatus(403);
+    verify(response, never()).getWriter();
+  }
+}
@@ -14,92 +14,280 @@
 
 package com.google.sps;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.datastore.Cursor;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.KeyQuery;
+import com.google.cloud.datastore.ProjectionEntity;
+import com.google.cloud.datastore.ProjectionEntityQuery;
 import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.datastore.v1.QueryResultBatch.MoreResultsType;
 import com.google.sps.data.DeletePostService;
+import com.google.sps.data.DeletionReport;
+import com.google.sps.data.PostService;
 import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
-import org.mockito.invocation.InvocationOnMock;
+import org.mockito.invocation.Invocation;
 
 @RunWith(JUnit4.class)
 public final class DeletePostTest extends Mockito {
+  private static final String PROJECT = "test-project";
+  private final long ONE_DAY = 86400000L;
   private Datastore datastore = mock(Datastore.class);
   private DeletePostService deleteService;
   private Clock clock;
-  private final long ONE_DAY = 86400000L;
+  // The expired posts the queries return, and the offset into them that each cursor stands for.
+  // Posts in expiredBlobs have a fileBlobKey property and are also in expiredPosts.
+  private List<Key> expiredPosts;
+  private List<ProjectionEntity> expiredBlobs;
+  private Map<Cursor, Integer> cursorOffsets;
 
   @Before
   public void setUpServiceHelper() {
     clock = mock(Clock.class);
-    deleteService = spy(new DeletePostService(datastore, clock));
+    when(clock.millis()).thenReturn(ONE_DAY);
+    when(datastore.newKeyFactory()).thenAnswer(invocation -> new KeyFactory(PROJECT));
+    expiredPosts = new ArrayList<>();
+    expiredBlobs = new ArrayList<>();
+    cursorOffsets = new HashMap<>();
+    when(datastore.run(any(KeyQuery.class)))
+        .thenAnswer(invocation -> page(invocation.getArgument(0), expiredPosts, key -> key));
+    when(datastore.run(any(ProjectionEntityQuery.class)))
+        .thenAnswer(
+            invocation -> page(invocation.getArgument(0), expiredBlobs, ProjectionEntity::getKey));
+    deleteService = new DeletePostService(datastore, clock);
   }
 
   @Test
-  public void postIsDeletedWhenOlderThan24Hours() {
-    Entity post1 = mock(Entity.class);
+  public void onlyPostsOlderThan24HoursAreQueried() {
+    addExpiredPosts(1);
 
-    when(post1.getLong("timestamp")).thenReturn(0L);
-    when(clock.millis()).thenReturn(ONE_DAY + 1);
+    deleteService.deleteOldPosts();
 
-    List<Entity> posts = Arrays.asList(post1);
-    QueryResults<Entity> queriedPosts = mock(QueryResults.class);
-    when(datastore.run(any(Query.class))).thenReturn(queriedPosts);
+    // The blob keys and the post keys are both read from posts created at least a day ago.
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<StructuredQuery<?>> queries =
+        ArgumentCaptor.forClass((Class<StructuredQuery<?>>) (Class<?>) StructuredQuery.class);
+    verify(datastore, times(2)).run(queries.capture());
+    for (StructuredQuery<?> query : queries.getAllValues()) {
+      assertEquals(PropertyFilter.le("timestamp", 0L), query.getFilter());
+    }
+    assertEquals(Arrays.asList(expiredPosts), getBatches("delete", "Post"));
+  }
 
-    doAnswer(invocation -> mockForEachRemaining(invocation, posts))
-        .when(queriedPosts)
-        .forEachRemaining(any(Consumer.class));
-    deleteService.deleteOldPosts();
+  @Test
+  public void expiredPostsAreDeletedInBatches() {
+    addExpiredPosts(1200);
+
+    DeletionReport report = deleteService.deleteOldPosts();
 
-    verify(datastore, times(1)).delete(any());
-    // Since post.getKey is only called when datastore.delete is called, we can assure it will only
-    // get called on posts older than 24 hours.
-    verify(post1).getKey();
+    List<List<Object>> batches = getBatches("delete", "Post");
+    assertEquals(3, batches.size());
+    List<Object> deleted = new ArrayList<>();
+    for (List<Object> batch : batches) {
+      assertTrue(batch.size() <= 500);
+      deleted.addAll(batch);
+    }
+    assertEquals(expiredPosts, deleted);
+    assertEquals(1200, report.getDeletedPosts());
+    assertTrue(report.isComplete());
   }
 
   @Test
-  public void postsNotOlderThan24HoursNotDeleted() {
-    Entity post1 = mock(Entity.class);
-    Entity post2 = mock(Entity.class);
-    Entity post3 = mock(Entity.class);
-
-    when(post1.getLong("timestamp")).thenReturn(0L);
-    when(post2.getLong("timestamp")).thenReturn(0L);
-    when(post3.getLong("timestamp")).thenReturn(ONE_DAY);
-    when(clock.millis()).thenReturn(ONE_DAY);
+  public void noPostsAreDeletedWhenNoneExpired() {
+    DeletionReport report = deleteService.deleteOldPosts();
 
-    List<Entity> posts = Arrays.asList(post1, post2, post3);
-    QueryResults<Entity> queriedPosts = mock(QueryResults.class);
-    when(datastore.run(any(Query.class))).thenReturn(queriedPosts);
+    assertTrue(getBatches("delete", "Post").isEmpty());
+    assertEquals(0, report.getDeletedPosts());
+    assertTrue(report.isComplete());
+  }
+
+  @Test
+  public void blobsOfExpiredPostsAreRecorded() {
+    addExpiredPosts(2);
+    addBlobKey(expiredPosts.get(0), "blob-key");
+
+    DeletionReport report = deleteService.deleteOldPosts();
+
+    List<List<Object>> puts = getBatches("put");
+    assertEquals(1, puts.size());
+    Entity orphan = (Entity) puts.get(0).get(0);
+    assertEquals(DeletePostService.ORPHANED_BLOB_KIND, orphan.getKey().getKind());
+    assertEquals("blob-key", orphan.getKey().getName());
+    assertEquals(1, report.getOrphanedBlobs());
+    assertEquals(2, report.getDeletedPosts());
+    assertEquals(
+        Arrays.asList(Arrays.asList(expiredPosts.get(0)), Arrays.asList(expiredPosts.get(1))),
+        getBatches("delete", "Post"));
+  }
+
+  @Test
+  public void blobsAreRecordedOnlyForTheBatchThatIsDeleted() {
+    addExpiredPosts(1200);
+    for (Key post : expiredPosts) {
+      addBlobKey(post, "blob-" + post.getId());
+    }
+    // Starting, the first batch, its recording time, then past the deadline for the second.
+    when(clock.millis()).thenReturn(ONE_DAY, ONE_DAY, ONE_DAY, ONE_DAY + 1000);
+
+    DeletionReport report = deleteService.deleteOldPosts(1000);
+
+    List<List<Object>> puts = getBatches("put");
+    List<List<Object>> deletes = getBatches("delete", "Post");
+    assertEquals(1, puts.size());
+    assertEquals(1, deletes.size());
+    assertEquals(expiredPosts.subList(0, 500), deletes.get(0));
+    assertEquals(500, report.getOrphanedBlobs());
+    assertEquals(500, report.getDeletedPosts());
+    assertFalse(report.isComplete());
+  }
+
+  @Test
+  public void stopsStartingBatchesAfterTheDeadline() {
+    addExpiredPosts(1200);
+    // Starting, the posts with blob keys and their recording time, the first batch of the posts
+    // without, then past the deadline for the second.
+    when(clock.millis()).thenReturn(ONE_DAY, ONE_DAY, ONE_DAY, ONE_DAY, ONE_DAY + 1000);
+
+    DeletionReport report = deleteService.deleteOldPosts(1000);
+
+    assertEquals(1, getBatches("delete", "Post").size());
+    assertEquals(500, report.getDeletedPosts());
+    assertFalse(report.isComplete());
+  }
+
+  @Test
+  public void upvoteShardsAreDeletedBeforeTheirPosts() {
+    addExpiredPosts(30);
 
-    doAnswer(invocation -> mockForEachRemaining(invocation, posts))
-        .when(queriedPosts)
-        .forEachRemaining(any(Consumer.class));
     deleteService.deleteOldPosts();
 
-    verify(datastore, times(2)).delete(any());
-    // Since post.getKey is only called when datastore.delete is called, we can assure it will only
-    // get called on posts older than 24 hours.
-    verify(post1).getKey();
-    verify(post2).getKey();
-    verify(post3, never()).getKey();
+    // Every post has 20 shards and a base shard, deleted in batches of at most 500 keys.
+    List<List<Object>> shardBatches = getBatches("delete", PostService.UPVOTE_SHARD_KIND);
+    assertEquals(2, shardBatches.size());
+    Set<String> shardNames = new HashSet<>();
+    for (List<Object> batch : shardBatches) {
+      assertTrue(batch.size() <= 500);
+      for (Object shard : batch) {
+        shardNames.add(((Key) shard).getName());
+      }
+    }
+    assertEquals(30 * 21, shardNames.size());
+    assertTrue(shardNames.contains("1:0"));
+    assertTrue(shardNames.contains("30:19"));
+    assertTrue(shardNames.contains("30:base"));
+    List<List<Object>> deletes = getBatches("delete");
+    assertEquals(shardBatches, deletes.subList(0, 2));
+    assertEquals(Arrays.asList(expiredPosts), deletes.subList(2, 3));
+  }
+
+  private void addBlobKey(Key post, String blobKey) {
+    ProjectionEntity postWithBlob = mock(ProjectionEntity.class);
+    when(postWithBlob.getKey()).thenReturn(post);
+    when(postWithBlob.getString("fileBlobKey")).thenReturn(blobKey);
+    expiredBlobs.add(postWithBlob);
+  }
+
+  private void addExpiredPosts(int count) {
+    for (int id = 1; id <= count; id++) {
+      expiredPosts.add(Key.newBuilder(PROJECT, "Post", id).build());
+    }
+  }
+
+  // Returns the arguments of every call of the given batch method of datastore, in call order.
+  private List<List<Object>> getBatches(String method) {
+    List<List<Object>> batches = new ArrayList<>();
+    for (Invocation invocation : mockingDetails(datastore).getInvocations()) {
+      if (invocation.getMethod().getName().equals(method)) {
+        batches.add(Arrays.asList((Object[]) invocation.getRawArguments()[0]));
+      }
+    }
+    return batches;
+  }
+
+  // Returns the batches of getBatches whose keys are of the given kind.
+  private List<List<Object>> getBatches(String method, String kind) {
+    List<List<Object>> batches = new ArrayList<>();
+    for (List<Object> batch : getBatches(method)) {
+      if (((Key) batch.get(0)).getKind().equals(kind)) {
+        batches.add(batch);
+      }
+    }
+    return batches;
   }
 
-  // Mocks the forEachRemaining method of an Iterator. Adds the provided posts to the list
-  // that was passed in through the Consumer.
-  private Void mockForEachRemaining(InvocationOnMock invocation, List<Entity> posts) {
-    Consumer<Entity> action = (Consumer<Entity>) invocation.getArguments()[0];
-    for (Entity post : posts) {
-      action.accept(post);
+  // Returns the page of the results that starts at the cursor of the query and holds at most as
+  // many results as its limit. Like Datastore, skips results that were deleted since.
+  private <T> QueryResults<T> page(
+      StructuredQuery<?> query, List<T> results, Function<T, Key> keyOf) {
+    Set<Object> deleted = new HashSet<>();
+    for (List<Object> batch : getBatches("delete")) {
+      deleted.addAll(batch);
     }
-    return null;
+    int end = query.getStartCursor() == null ? 0 : cursorOffsets.get(query.getStartCursor());
+    List<T> pageResults = new ArrayList<>();
+    while (end < results.size() && pageResults.size() < query.getLimit()) {
+      T result = results.get(end++);
+      if (!deleted.contains(keyOf.apply(result))) {
+        pageResults.add(result);
+      }
+    }
+    boolean finished = end == results.size();
+    Cursor cursorAfter = Cursor.copyFrom(Integer.toString(end).getBytes());
+    cursorOffsets.put(cursorAfter, end);
+    Iterator<T> page = pageResults.iterator();
+    return new QueryResults<T>() {
+      @Override
+      public boolean hasNext() {
+        return page.hasNext();
+      }
+
+      @Override
+      public T next() {
+        return page.next();
+      }
+
+      @Override
+      public Class<?> getResultClass() {
+        return Object.class;
+      }
+
+      @Override
+      public Cursor getCursorAfter() {
+        return cursorAfter;
+      }
+
+      @Override
+      public int getSkippedResults() {
+        return 0;
+      }
+
+      @Override
+      public MoreResultsType getMoreResults() {
+        return finished ? MoreResultsType.NO_MORE_RESULTS : MoreResultsType.NOT_FINISHED;
+      }
+    };
   }
 }
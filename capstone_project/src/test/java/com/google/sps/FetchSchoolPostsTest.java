@@ -15,6 +15,7 @@
 package com.google.sps;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -25,12 +26,17 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.gson.Gson;
+import com.google.sps.data.PostPage;
 import com.google.sps.data.PostService;
+import com.google.sps.data.PostSummary;
+import com.google.sps.data.SchoolFeedCache;
 import com.google.sps.servlets.FetchSchoolPostsServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.After;
@@ -49,6 +55,7 @@ public final class FetchSchoolPostsTest extends Mockito {
       new LocalServiceTestHelper(
               new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
           .setEnvIsLoggedIn(true);
+  private SchoolFeedCache schoolFeedCache;
   private PostService postService;
 
   private final String school1 = "School1";
@@ -63,7 +70,8 @@ public final class FetchSchoolPostsTest extends Mockito {
     serviceHelper.setUp();
     request = Mockito.mock(HttpServletRequest.class);
     response = Mockito.mock(HttpServletResponse.class);
-    postService = spy(new PostService.Builder().build());
+    schoolFeedCache = SchoolFeedCache.Builder.builder().build();
+    postService = spy(new PostService.Builder().schoolFeedCache(schoolFeedCache).build());
     post1 = new Entity("Post");
     post2 = new Entity("Post");
     post3 = new Entity("Post");
@@ -71,17 +79,25 @@ public final class FetchSchoolPostsTest extends Mockito {
     post1.setProperty("upvotes", 0L);
     post1.setProperty("text", new Text("Default Text"));
     post1.setProperty("reactions", new EmbeddedEntity());
+    post1.setProperty("timestamp", 1L);
     post2.setProperty("schoolName", school2);
     post2.setProperty("upvotes", 0L);
     post2.setProperty("text", new Text("Default Text"));
     post2.setProperty("reactions", new EmbeddedEntity());
+    post2.setProperty("timestamp", 2L);
     post3.setProperty("schoolName", school3);
     post3.setProperty("upvotes", 0L);
     post3.setProperty("text", new Text("Default Text"));
     post3.setProperty("reactions", new EmbeddedEntity());
+    post3.setProperty("timestamp", 3L);
+    PostSummary.addSummaryProperties(post1);
+    PostSummary.addSummaryProperties(post2);
+    PostSummary.addSummaryProperties(post3);
     datastore.put(post1);
     datastore.put(post2);
     datastore.put(post3);
+    // The servlet uses the cache of the instance, which may hold pages of an earlier test.
+    SchoolFeedCache.getInstance().invalidate(school1);
   }
 
   @After
@@ -105,14 +121,62 @@ public final class FetchSchoolPostsTest extends Mockito {
 
   @Test
   public void writesJsonToResponse() throws IOException {
-    PrintWriter printWriter = mock(PrintWriter.class);
+    StringWriter stringWriter = new StringWriter();
     when(request.getParameter("school-name")).thenReturn(school1);
-    when(response.getWriter()).thenReturn(printWriter);
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
 
     Gson gson = new Gson();
-    String expectedJson = gson.toJson(Arrays.asList(PostService.convertEntityToPost(post1)));
+    PostPage expectedPage =
+        new PostPage(
+            Arrays.asList(PostService.convertEntityToSummary(post1, school1)), Optional.empty());
+    String expectedJson = gson.toJson(expectedPage);
 
     new FetchSchoolPostsServlet().doGet(request, response);
-    verify(printWriter).println(expectedJson);
+    assertEquals(expectedJson, stringWriter.toString());
+  }
+
+  @Test
+  public void schoolPagesAreNewestFirst() {
+    Entity newerPost = storeSchoolPost(school1, 5L);
+
+    PostPage first = postService.getSchoolPostsPage(school1, 1, Optional.empty());
+    PostPage second = postService.getSchoolPostsPage(school1, 1, first.getCursor());
+
+    assertEquals(newerPost.getKey().getId(), first.getPosts().get(0).getPostId());
+    assertEquals(school1, first.getPosts().get(0).getSchoolName());
+    assertEquals(post1.getKey().getId(), second.getPosts().get(0).getPostId());
+    assertTrue(postService.getSchoolPostsPage(school1, 1, second.getCursor()).getPosts().isEmpty());
+  }
+
+  @Test
+  public void firstPageIsCachedUntilPostIsStored() {
+    postService.getSchoolPostsPage(school1, 10, Optional.empty());
+    storeSchoolPost(school1, 5L);
+    PostPage cached = postService.getSchoolPostsPage(school1, 10, Optional.empty());
+
+    // Posts stored by other instances only show up once the page expires.
+    assertEquals(1, cached.getPosts().size());
+    assertEquals(1, schoolFeedCache.getHits());
+
+    doReturn(Optional.empty()).when(postService).uploadFile(request);
+    when(request.getParameter("text")).thenReturn("New Text");
+    when(request.getParameter("schools")).thenReturn(school1);
+    postService.storePost(request);
+    PostPage reloaded = postService.getSchoolPostsPage(school1, 10, Optional.empty());
+
+    assertEquals(3, reloaded.getPosts().size());
+    assertEquals(2, schoolFeedCache.getMisses());
+  }
+
+  private Entity storeSchoolPost(String schoolName, long timestamp) {
+    Entity post = new Entity("Post");
+    post.setProperty("schoolName", schoolName);
+    post.setProperty("upvotes", 0L);
+    post.setProperty("text", new Text("Default Text"));
+    post.setProperty("reactions", new EmbeddedEntity());
+    post.setProperty("timestamp", timestamp);
+    PostSummary.addSummaryProperties(post);
+    datastore.put(post);
+    return post;
   }
 }
@@ -0,0 +1,118 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.sps.data.JsonResponses;
+import com.google.sps.data.Post;
+import com.google.sps.data.PostSummary;
+import com.google.sps.data.School;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that the hand-written adapters write the same JSON as the reflective ones. */
+@RunWith(JUnit4.class)
+public final class JsonAdaptersTest extends Mockito {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private final Gson reflectiveGson = new Gson();
+  private final Gson gson = JsonResponses.getGson();
+  private EmbeddedEntity reactions;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    reactions = new EmbeddedEntity();
+    reactions.setProperty("laugh", 3L);
+    reactions.setProperty("love", 0L);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void postMatchesReflectiveJsonAndReadsBack() {
+    Post post =
+        Post.newBuilder()
+            .setText(new Text("Text with \"quotes\" and é"))
+            .setTitle("Title")
+            .setSchoolName("School")
+            .setFileType("image")
+            .setFileBlobKey("BlobKey")
+            .setReactions(reactions.getProperties())
+            .setUpvotes(7)
+            .setPostId(42)
+            .build();
+
+    String json = gson.toJson(post);
+
+    assertEquals(reflectiveGson.toJson(post), json);
+    assertEquals(json, gson.toJson(gson.fromJson(json, Post.class)));
+  }
+
+  @Test
+  public void summaryWithoutFileSkipsNullFields() {
+    PostSummary summary =
+        PostSummary.newBuilder()
+            .setTitle("Title")
+            .setFileType("none")
+            .setPreview("Preview")
+            .setTruncated(true)
+            .setPostId(42)
+            .build();
+
+    String json = gson.toJson(summary);
+
+    assertEquals(reflectiveGson.toJson(summary), json);
+    assertEquals(json, gson.toJson(gson.fromJson(json, PostSummary.class)));
+  }
+
+  @Test
+  public void schoolMatchesReflectiveJsonAndReadsBack() {
+    School school = new School("Stanford University", 37.4275, -122.1697);
+
+    String json = gson.toJson(school);
+
+    assertEquals(reflectiveGson.toJson(school), json);
+    assertEquals(school, gson.fromJson(json, School.class));
+  }
+
+  @Test
+  public void reactionsAreWrittenAsPropertyMap() throws IOException {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    JsonResponses.writeReactions(response, reactions);
+
+    assertEquals(reflectiveGson.toJson(reactions), stringWriter.toString());
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.sps.data.LanguageClientProvider;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that LanguageClientProvider bounds, counts and shuts down calls to the shared client. */
+@RunWith(JUnit4.class)
+public final class LanguageClientProviderTest extends Mockito {
+  private LanguageServiceClient client;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    client = mock(LanguageServiceClient.class);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void rejectsCallsBeyondTheLimit() throws Exception {
+    LanguageClientProvider provider =
+        LanguageClientProvider.Builder.builder()
+            .client(client)
+            .maxConcurrentCalls(1)
+            .acquireTimeoutMillis(50)
+            .build();
+    AnalyzeSentimentResponse response = AnalyzeSentimentResponse.getDefaultInstance();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(client.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              release.await();
+              return response;
+            });
+
+    Future<AnalyzeSentimentResponse> blocked =
+        executor.submit(() -> provider.analyzeSentiment(Document.getDefaultInstance()));
+    started.await(5, TimeUnit.SECONDS);
+    assertEquals(1, provider.getInFlightCalls());
+    try {
+      provider.analyzeSentiment(Document.getDefaultInstance());
+      fail("Expected the second call to be rejected");
+    } catch (RejectedExecutionException expected) {
+      // The only slot is taken by the blocked call.
+    }
+
+    release.countDown();
+    assertSame(response, blocked.get(5, TimeUnit.SECONDS));
+    assertEquals(0, provider.getInFlightCalls());
+    assertEquals(1, provider.getMaxInFlightCalls());
+    assertEquals(1, provider.getCompletedCalls());
+    assertEquals(1, provider.getRejectedCalls());
+    verify(client, times(1)).analyzeSentiment(any(Document.class));
+  }
+
+  @Test
+  public void countsFailedCallsAndFreesTheirSlot() throws IOException {
+    LanguageClientProvider provider =
+        LanguageClientProvider.Builder.builder()
+            .client(client)
+            .maxConcurrentCalls(1)
+            .acquireTimeoutMillis(50)
+            .build();
+    when(client.analyzeSentiment(any(Document.class)))
+        .thenThrow(new IllegalStateException("unavailable"))
+        .thenReturn(AnalyzeSentimentResponse.getDefaultInstance());
+
+    try {
+      provider.analyzeSentiment(Document.getDefaultInstance());
+      fail("Expected the failure of the client to be thrown");
+    } catch (IllegalStateException expected) {
+      // The failure reaches the caller unchanged.
+    }
+    provider.analyzeSentiment(Document.getDefaultInstance());
+
+    assertEquals(1, provider.getFailedCalls());
+    assertEquals(1, provider.getCompletedCalls());
+    assertEquals(0, provider.getInFlightCalls());
+  }
+
+  @Test
+  public void shutdownClosesTheClient() throws Exception {
+    LanguageClientProvider provider =
+        LanguageClientProvider.Builder.builder().client(client).build();
+    when(client.awaitTermination(anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+    provider.shutdown();
+
+    verify(client).shutdown();
+    verify(client, never()).shutdownNow();
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.Gson;
+import com.google.sps.data.PostPage;
+import com.google.sps.data.PostService;
+import com.google.sps.data.PostSummary;
+import com.google.sps.servlets.PostServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that the feed is loaded one page at a time, newest posts first. */
+@RunWith(JUnit4.class)
+public final class PostFeedTest extends Mockito {
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private LocalServiceTestHelper serviceHelper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true);
+  private PostService postService;
+
+  private final int NUM_POSTS = 5;
+  private List<Long> postIdsNewestFirst;
+
+  @Before
+  public void setUpServiceHelper() {
+    serviceHelper.setUp();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    postService = PostService.Builder.builder().build();
+
+    postIdsNewestFirst = new ArrayList<>();
+    for (long timestamp = 0; timestamp < NUM_POSTS; timestamp++) {
+      Entity post = new Entity("Post");
+      post.setProperty("upvotes", 0L);
+      post.setProperty("text", new Text("Default Text"));
+      post.setProperty("reactions", new EmbeddedEntity());
+      post.setProperty("timestamp", timestamp);
+      PostSummary.addSummaryProperties(post);
+      datastore.put(post);
+      postIdsNewestFirst.add(0, post.getKey().getId());
+    }
+  }
+
+  @After
+  public void tearDownServiceHelper() {
+    serviceHelper.tearDown();
+  }
+
+  @Test
+  public void firstPageHasNewestPostsAndCursor() {
+    PostPage page = postService.getPostsPage(2, Optional.empty());
+
+    assertEquals(postIdsNewestFirst.subList(0, 2), getPostIds(page));
+    assertTrue(page.getCursor().isPresent());
+  }
+
+  @Test
+  public void followingCursorsReturnsEveryPostOnce() {
+    List<Long> actual = new ArrayList<>();
+    Optional<String> cursor = Optional.empty();
+    do {
+      PostPage page = postService.getPostsPage(2, cursor);
+      actual.addAll(getPostIds(page));
+      cursor = page.getCursor();
+    } while (cursor.isPresent());
+
+    assertEquals(postIdsNewestFirst, actual);
+  }
+
+  @Test
+  public void lastPageHasNoCursor() {
+    PostPage page = postService.getPostsPage(NUM_POSTS + 1, Optional.empty());
+
+    assertEquals(NUM_POSTS, page.getPosts().size());
+    assertFalse(page.getCursor().isPresent());
+  }
+
+  @Test
+  public void pageHasPreviewOfLongText() {
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", 0L);
+    post.setProperty("text", new Text(String.join("", Collections.nCopies(500, "a"))));
+    post.setProperty("reactions", new EmbeddedEntity());
+    post.setProperty("timestamp", (long) NUM_POSTS);
+    PostSummary.addSummaryProperties(post);
+    datastore.put(post);
+
+    PostPage page = postService.getPostsPage(2, Optional.empty());
+    PostSummary newest = page.getPosts().get(0);
+    PostSummary next = page.getPosts().get(1);
+
+    assertEquals(post.getKey().getId(), newest.getPostId());
+    assertEquals(PostSummary.PREVIEW_LENGTH, newest.getPreview().length());
+    assertTrue(newest.isTruncated());
+    assertEquals("Default Text", next.getPreview());
+    assertFalse(next.isTruncated());
+  }
+
+  @Test
+  public void postsWithoutSummaryAppearOnceAdded() {
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", 0L);
+    post.setProperty("text", new Text("Old Text"));
+    post.setProperty("reactions", new EmbeddedEntity());
+    post.setProperty("timestamp", (long) NUM_POSTS);
+    datastore.put(post);
+
+    assertEquals(
+        NUM_POSTS, postService.getPostsPage(NUM_POSTS + 1, Optional.empty()).getPosts().size());
+    assertEquals(1, postService.addMissingSummaries());
+    PostPage page = postService.getPostsPage(NUM_POSTS + 1, Optional.empty());
+
+    assertEquals(post.getKey().getId(), page.getPosts().get(0).getPostId());
+    assertEquals("Old Text", page.getPosts().get(0).getPreview());
+    assertEquals(0, postService.addMissingSummaries());
+  }
+
+  @Test
+  public void pageSizeFallsBackToDefaultAndIsClamped() {
+    assertEquals(PostPage.DEFAULT_PAGE_SIZE, PostPage.parsePageSize(null));
+    assertEquals(PostPage.DEFAULT_PAGE_SIZE, PostPage.parsePageSize("abc"));
+    assertEquals(1, PostPage.parsePageSize("-5"));
+    assertEquals(PostPage.MAX_PAGE_SIZE, PostPage.parsePageSize("100000"));
+    assertEquals(7, PostPage.parsePageSize("7"));
+  }
+
+  @Test
+  public void writesPageAsJson() throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    when(request.getParameter("page-size")).thenReturn("2");
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    new PostServlet().doGet(request, response);
+
+    String expectedJson = new Gson().toJson(postService.getPostsPage(2, Optional.empty()));
+    assertEquals(expectedJson, stringWriter.toString());
+    verify(response).setContentType("application/json");
+  }
+
+  @Test
+  public void respondWith400OnInvalidCursor() throws IOException {
+    when(request.getParameter("cursor")).thenReturn("not-a-cursor");
+
+    new PostServlet().doGet(request, response);
+    verify(response).setStatus(400);
+  }
+
+  private List<Long> getPostIds(PostPage page) {
+    return page.getPosts().stream().map(PostSummary::getPostId).collect(Collectors.toList());
+  }
+}
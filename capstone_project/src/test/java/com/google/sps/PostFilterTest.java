@@ -15,6 +15,8 @@
 package com.google.sps;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -27,10 +29,13 @@ import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig
 import com.google.gson.Gson;
 import com.google.sps.data.Post;
 import com.google.sps.data.PostFilter;
+import com.google.sps.data.PostIndex;
+import com.google.sps.data.PostSearchResults;
 import com.google.sps.data.PostService;
 import com.google.sps.servlets.FilterPostsServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -90,6 +95,9 @@ public final class PostFilterTest extends Mockito {
     post3.setProperty("upvotes", 0L);
     post3.setProperty("reactions", new EmbeddedEntity());
     post3.setProperty("text", new Text(DEFAULT_STRING));
+    PostIndex.indexPost(post1);
+    PostIndex.indexPost(post2);
+    PostIndex.indexPost(post3);
     datastore.put(post1);
     datastore.put(post2);
     datastore.put(post3);
@@ -114,18 +122,58 @@ public final class PostFilterTest extends Mockito {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void matchesWordPrefixesInAnyOrder() {
+    List<Entity> expected = Arrays.asList(post3, post2, post1);
+    List<Entity> actual = PostFilter.filterPosts("univ TES");
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void listsPostsOnceWhenSeveralTokensMatch() {
+    // Every post has "test" and "text", which both start with the query.
+    List<Entity> actual = PostFilter.filterPosts("te");
+    assertEquals(3, actual.size());
+    assertEquals(3, actual.stream().map(Entity::getKey).distinct().count());
+  }
+
+  @Test
+  public void reportsSearchesThatReachTheLimit() {
+    PostSearchResults limited = PostFilter.search(SEARCH_QUERY, 2);
+    assertTrue(limited.isTruncated());
+    assertEquals(2, limited.getPosts().size());
+
+    PostSearchResults complete = PostFilter.search(SEARCH_QUERY, 3);
+    assertFalse(complete.isTruncated());
+    assertEquals(3, complete.getPosts().size());
+  }
+
+  @Test
+  public void requiresEveryWordInTheSameField() {
+    List<Entity> expected = Arrays.asList();
+    List<Entity> actual = PostFilter.filterPosts("Test Text");
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void tokenizesLowercaseDistinctWords() {
+    List<String> expected = Arrays.asList("test", "university", "of", "3rd");
+    List<String> actual = PostIndex.tokenize("Test-University of TEST, 3rd!");
+    assertEquals(expected, actual);
+  }
+
   @Test
   public void writesJsonArrayToResponse() throws IOException {
     when(request.getParameter("search")).thenReturn(SEARCH_QUERY);
     doNothing().when(response).setContentType("application/json");
-    PrintWriter printWriter = mock(PrintWriter.class);
-    when(response.getWriter()).thenReturn(printWriter);
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
     new FilterPostsServlet().doGet(request, response);
 
     List<Entity> postEntities = Arrays.asList(post3, post2, post1);
     List<Post> expectedPostOrder =
         postEntities.stream().map(PostService::convertEntityToPost).collect(Collectors.toList());
     String expectedJson = new Gson().toJson(expectedPostOrder);
-    verify(printWriter).println(expectedJson);
+    assertEquals(expectedJson, stringWriter.toString());
   }
 }
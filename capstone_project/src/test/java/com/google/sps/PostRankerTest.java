@@ -0,0 +1,109 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.PostIndex;
+import com.google.sps.data.PostRanker;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that search results are scored once and ordered by the field that matched. */
+@RunWith(JUnit4.class)
+public final class PostRankerTest {
+  private LocalServiceTestHelper serviceHelper = new LocalServiceTestHelper();
+  private static final List<String> QUERY = PostIndex.tokenize("test univ");
+
+  @Before
+  public void setUpServiceHelper() {
+    serviceHelper.setUp();
+  }
+
+  @After
+  public void tearDownServiceHelper() {
+    serviceHelper.tearDown();
+  }
+
+  @Test
+  public void ordersBySchoolThenTitleThenText() {
+    Entity textPost = createPost("Some School", "Some Title", "Test University");
+    Entity titlePost = createPost("Some School", "Test University", "Some Text");
+    Entity schoolPost = createPost("Test University", "Some Title", "Some Text");
+
+    List<Entity> expected = Arrays.asList(schoolPost, titlePost, textPost);
+    List<Entity> actual = PostRanker.rank(Arrays.asList(textPost, titlePost, schoolPost), QUERY);
+    assertSameOrder(expected, actual);
+  }
+
+  @Test
+  public void dropsPostsWithoutEveryTokenInOneField() {
+    Entity splitPost = createPost("Test School", "University Title", "Some Text");
+
+    assertEquals(PostRanker.NO_MATCH, PostRanker.score(splitPost, QUERY));
+    assertEquals(0, PostRanker.rank(Arrays.asList(splitPost), QUERY).size());
+  }
+
+  @Test
+  public void keepsOrderWithinRankWhenScoredInParallel() {
+    List<Entity> posts = new ArrayList<>();
+    List<Entity> expectedSchools = new ArrayList<>();
+    List<Entity> expectedTexts = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      if (i % 3 == 0) {
+        Entity post = createPost("Test University " + i, "Title", "Text");
+        expectedSchools.add(post);
+        posts.add(post);
+      } else if (i % 3 == 1) {
+        Entity post = createPost("School", "Title", "Test University " + i);
+        expectedTexts.add(post);
+        posts.add(post);
+      } else {
+        posts.add(createPost("School", "Title", "Text " + i));
+      }
+    }
+
+    List<Entity> expected = new ArrayList<>(expectedSchools);
+    expected.addAll(expectedTexts);
+    List<Entity> actual = PostRanker.rank(posts, QUERY);
+    assertSameOrder(expected, actual);
+  }
+
+  private static void assertSameOrder(List<Entity> expected, List<Entity> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i), actual.get(i));
+    }
+  }
+
+  private static Entity createPost(String schoolName, String title, String text) {
+    Entity post = new Entity("Post");
+    post.setProperty("schoolName", schoolName);
+    post.setProperty("title", title);
+    post.setProperty("text", new Text(text));
+    PostIndex.indexPost(post);
+    return post;
+  }
+}
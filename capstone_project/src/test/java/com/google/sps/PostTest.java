@@ -23,10 +23,16 @@ import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.BlobCollector;
 import com.google.sps.data.PostService;
+import com.google.sps.data.ReactionAggregator;
+import com.google.sps.data.ShardedCounter;
 import java.time.Clock;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -39,6 +45,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 @RunWith(JUnit4.class)
@@ -46,6 +53,8 @@ public final class PostTest extends Mockito {
   private DatastoreService datastore;
   private BlobstoreService blobstoreService;
   private Clock clock;
+  private ShardedCounter upvoteCounter;
+  private Queue queue;
   private HttpServletRequest request;
   private LocalServiceTestHelper serviceHelper =
       new LocalServiceTestHelper(
@@ -59,12 +68,22 @@ public final class PostTest extends Mockito {
     blobstoreService = Mockito.mock(BlobstoreService.class);
     request = Mockito.mock(HttpServletRequest.class);
     clock = Mockito.mock(Clock.class);
+    upvoteCounter = Mockito.mock(ShardedCounter.class);
+    queue = Mockito.mock(Queue.class);
     postService =
         Mockito.spy(
             PostService.Builder.builder()
                 .datastore(datastore)
                 .blobstore(blobstoreService)
                 .clock(clock)
+                .upvoteCounter(upvoteCounter)
+                .reactionAggregator(
+                    ReactionAggregator.Builder.builder()
+                        .datastore(datastore)
+                        .clock(clock)
+                        .queue(queue)
+                        .build())
+                .queue(queue)
                 .build());
   }
 
@@ -106,7 +125,12 @@ public final class PostTest extends Mockito {
     doReturn(Optional.of("BlobKey")).when(postService).uploadFile(request);
     postService.storePost(request);
 
-    verify(datastore).put(any(Entity.class));
+    // The post is stored first, then the ownership of its blob.
+    ArgumentCaptor<Entity> entities = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore, times(2)).put(entities.capture());
+    assertEquals("BlobKey", entities.getAllValues().get(0).getProperty("fileBlobKey"));
+    assertEquals(BlobCollector.OWNER_KIND, entities.getAllValues().get(1).getKind());
+    assertEquals("BlobKey", entities.getAllValues().get(1).getKey().getName());
   }
 
   @Test
@@ -117,6 +141,7 @@ public final class PostTest extends Mockito {
     when(request.getParameter("id")).thenReturn("1");
     // Mock datastore to return the prebuilt Entity.
     when(datastore.get(any(Key.class))).thenReturn(postEntity);
+    when(upvoteCounter.increment("1")).thenReturn(1L);
     Optional<Long> expected = Optional.of(1L);
     Optional<Long> actual = postService.upvotePost(request);
 
@@ -124,97 +149,83 @@ public final class PostTest extends Mockito {
   }
 
   @Test
-  public void returnEmptyOptionalOnUpvotePostNotFound() {
+  public void upvoteSchedulesSnapshotOfPost() throws EntityNotFoundException {
     when(request.getParameter("id")).thenReturn("1");
+    when(datastore.get(any(Key.class))).thenReturn(new Entity("Post"));
+    postService.upvotePost(request);
 
-    Optional<Long> expected = Optional.empty();
-    Optional<Long> actual = postService.upvotePost(request);
-    assertEquals(expected, actual);
+    // Upvotes are no longer written to the post entity directly.
+    verify(datastore, never()).put(any(Entity.class));
+    verify(queue).add(any(TaskOptions.class));
   }
 
   @Test
-  public void postsSortByNew() {
-    Entity firstPostEntity = new Entity("Post");
-    Entity secondPostEntity = new Entity("Post");
-    Entity thirdPostEntity = new Entity("Post");
-    firstPostEntity.setProperty("timestamp", 3L);
-    secondPostEntity.setProperty("timestamp", 1L);
-    thirdPostEntity.setProperty("timestamp", 2L);
-    List<Entity> posts = Arrays.asList(firstPostEntity, secondPostEntity, thirdPostEntity);
-
-    List<Entity> expected = Arrays.asList(firstPostEntity, thirdPostEntity, secondPostEntity);
-    List<Entity> actual = postService.sortEntities("new", posts);
+  public void upvoteIgnoresAlreadyScheduledSnapshot() throws EntityNotFoundException {
+    when(request.getParameter("id")).thenReturn("1");
+    when(datastore.get(any(Key.class))).thenReturn(new Entity("Post"));
+    when(upvoteCounter.increment("1")).thenReturn(2L);
+    when(queue.add(any(TaskOptions.class))).thenThrow(new TaskAlreadyExistsException(""));
 
+    Optional<Long> expected = Optional.of(2L);
+    Optional<Long> actual = postService.upvotePost(request);
     assertEquals(expected, actual);
   }
 
   @Test
-  public void postsSortByTop() {
-    Entity firstPostEntity = new Entity("Post");
-    Entity secondPostEntity = new Entity("Post");
-    Entity thirdPostEntity = new Entity("Post");
-    firstPostEntity.setProperty("upvotes", 3L);
-    secondPostEntity.setProperty("upvotes", 1L);
-    thirdPostEntity.setProperty("upvotes", 2L);
-    List<Entity> posts = Arrays.asList(firstPostEntity, secondPostEntity, thirdPostEntity);
-
-    List<Entity> expected = Arrays.asList(firstPostEntity, thirdPostEntity, secondPostEntity);
-    List<Entity> actual = postService.sortEntities("top", posts);
+  public void returnEmptyOptionalOnUpvotePostNotFound() {
+    when(request.getParameter("id")).thenReturn("1");
 
+    Optional<Long> expected = Optional.empty();
+    Optional<Long> actual = postService.upvotePost(request);
     assertEquals(expected, actual);
   }
 
   @Test
-  public void postsSortByTrending() {
-    Entity firstPostEntity = new Entity("Post");
-    Entity secondPostEntity = new Entity("Post");
-    Entity thirdPostEntity = new Entity("Post");
-    firstPostEntity.setProperty("timestamp", 100L);
-    firstPostEntity.setProperty("upvotes", 2L);
-    secondPostEntity.setProperty("timestamp", 150L);
-    secondPostEntity.setProperty("upvotes", 50L);
-    thirdPostEntity.setProperty("timestamp", 199L);
-    thirdPostEntity.setProperty("upvotes", 5L);
-    List<Entity> posts = Arrays.asList(firstPostEntity, secondPostEntity, thirdPostEntity);
-
-    List<Entity> expected = Arrays.asList(thirdPostEntity, secondPostEntity, firstPostEntity);
-
-    // Mock clock to return a static value to avoid failing tests.
-    when(clock.millis()).thenReturn(200L);
-    List<Entity> actual = postService.sortEntities("trending", posts);
+  public void reactionCountUpByOne() {
+    EmbeddedEntity reactions = new EmbeddedEntity();
+    reactions.setProperty("laugh", 0L);
+    Entity postEntity = new Entity("Post");
+    postEntity.setProperty("reactions", reactions);
+    Optional<Entity> post = Optional.ofNullable(postEntity);
+
+    when(request.getParameter("reaction")).thenReturn("laugh");
+    when(request.getParameter("post-id")).thenReturn("1");
+    doReturn(post).when(postService).getEntityFromId(1);
+
+    Optional<Long> expected = Optional.of(1L);
+    Optional<Long> actual = postService.reactToPost(request);
 
     assertEquals(expected, actual);
   }
 
   @Test
-  public void returnEmptyListOnInvalidSortMethod() {
-    Entity firstPostEntity = new Entity("Post");
-    Entity secondPostEntity = new Entity("Post");
-    Entity thirdPostEntity = new Entity("Post");
-    List<Entity> posts = Arrays.asList(firstPostEntity, secondPostEntity, thirdPostEntity);
+  public void reactionIsNotWrittenToPostRightAway() {
+    EmbeddedEntity reactions = new EmbeddedEntity();
+    reactions.setProperty("laugh", 2L);
+    Entity postEntity = new Entity("Post");
+    postEntity.setProperty("reactions", reactions);
 
-    List<Entity> expected = Arrays.asList();
-    List<Entity> actual = postService.sortEntities("invalid", posts);
+    when(request.getParameter("reaction")).thenReturn("laugh");
+    when(request.getParameter("post-id")).thenReturn("1");
+    doReturn(Optional.of(postEntity)).when(postService).getEntityFromId(1);
 
-    assertEquals(expected, actual);
+    assertEquals(Optional.of(3L), postService.reactToPost(request));
+    assertEquals(Optional.of(4L), postService.reactToPost(request));
+    verify(datastore, never()).put(any(Entity.class));
   }
 
   @Test
-  public void reactionCountUpByOne() {
+  public void returnEmptyOptionalOnUnknownReaction() {
     EmbeddedEntity reactions = new EmbeddedEntity();
     reactions.setProperty("laugh", 0L);
     Entity postEntity = new Entity("Post");
     postEntity.setProperty("reactions", reactions);
-    Optional<Entity> post = Optional.ofNullable(postEntity);
 
-    when(request.getParameter("reaction")).thenReturn("laugh");
+    when(request.getParameter("reaction")).thenReturn("angry");
     when(request.getParameter("post-id")).thenReturn("1");
-    doReturn(post).when(postService).getEntityFromId(1);
+    doReturn(Optional.of(postEntity)).when(postService).getEntityFromId(1);
 
-    Optional<Long> expected = Optional.of(1L);
-    Optional<Long> actual = postService.reactToPost(request);
-
-    assertEquals(expected, actual);
+    assertEquals(Optional.empty(), postService.reactToPost(request));
   }
 
   @Test
@@ -0,0 +1,277 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.ReactionAggregator;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/** Tests that buffered reactions are counted and written to their posts in batches. */
+@RunWith(JUnit4.class)
+public final class ReactionAggregatorTest extends Mockito {
+  private static final long FLUSH_INTERVAL = 250;
+  private DatastoreService datastore;
+  private Clock clock;
+  private Queue queue;
+  private Entity post;
+  private long postID;
+
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(0L);
+    queue = mock(Queue.class);
+    post = createPost();
+    postID = post.getKey().getId();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void reactionsAreBufferedUntilFlush() throws EntityNotFoundException {
+    ReactionAggregator aggregator = buildAggregator(100);
+    aggregator.addReaction(postID, "laugh");
+    aggregator.addReaction(postID, "laugh");
+    aggregator.addReaction(postID, "sad");
+
+    assertEquals(0L, getReactionCount(post, "laugh"));
+    assertEquals(2L, aggregator.getUnflushedCount(postID, "laugh"));
+
+    aggregator.flush();
+    assertEquals(2L, getReactionCount(post, "laugh"));
+    assertEquals(1L, getReactionCount(post, "sad"));
+    assertEquals(0L, aggregator.getUnflushedCount(postID, "laugh"));
+  }
+
+  @Test
+  public void unflushedReactionsAreAddedToReadCounts() {
+    ReactionAggregator aggregator = buildAggregator(100);
+    aggregator.addReaction(postID, "wow");
+    EmbeddedEntity reactions = (EmbeddedEntity) post.getProperty("reactions");
+
+    aggregator.addUnflushedReactions(postID, reactions);
+    assertEquals(1L, reactions.getProperty("wow"));
+  }
+
+  @Test
+  public void flushesWhenSizeThresholdIsReached() throws EntityNotFoundException {
+    ReactionAggregator aggregator = buildAggregator(3);
+    aggregator.addReaction(postID, "love");
+    aggregator.addReaction(postID, "love");
+    assertEquals(0L, getReactionCount(post, "love"));
+
+    aggregator.addReaction(postID, "love");
+    assertEquals(3L, getReactionCount(post, "love"));
+  }
+
+  @Test
+  public void flushesWhenIntervalPassed() throws EntityNotFoundException {
+    ReactionAggregator aggregator = buildAggregator(100);
+    aggregator.addReaction(postID, "think");
+    assertEquals(0L, getReactionCount(post, "think"));
+
+    when(clock.millis()).thenReturn(FLUSH_INTERVAL);
+    aggregator.addReaction(postID, "think");
+    assertEquals(2L, getReactionCount(post, "think"));
+  }
+
+  @Test
+  public void flushWritesManyPostsInBatches() throws EntityNotFoundException {
+    ReactionAggregator aggregator = buildAggregator(1000);
+    List<Entity> posts = new ArrayList<>();
+    // More posts than fit into a single cross-group transaction.
+    for (int i = 0; i < 60; i++) {
+      Entity otherPost = createPost();
+      posts.add(otherPost);
+      aggregator.addReaction(otherPost.getKey().getId(), "yikes");
+    }
+
+    aggregator.flush();
+    for (Entity otherPost : posts) {
+      assertEquals(1L, getReactionCount(otherPost, "yikes"));
+    }
+  }
+
+  @Test
+  public void reactionsToDeletedPostsAreDropped() throws EntityNotFoundException {
+    ReactionAggregator aggregator = buildAggregator(100);
+    Entity deletedPost = createPost();
+    aggregator.addReaction(deletedPost.getKey().getId(), "sad");
+    aggregator.addReaction(postID, "sad");
+    datastore.delete(deletedPost.getKey());
+
+    aggregator.flush();
+    assertEquals(1L, getReactionCount(post, "sad"));
+    assertEquals(0L, aggregator.getUnflushedCount(deletedPost.getKey().getId(), "sad"));
+  }
+
+  @Test
+  public void failedFlushKeepsReactionsForTheNextFlush() throws EntityNotFoundException {
+    DatastoreService failingDatastore = spy(datastore);
+    doThrow(new DatastoreTimeoutException("Deadline exceeded"))
+        .doCallRealMethod()
+        .when(failingDatastore)
+        .beginTransaction(any(TransactionOptions.class));
+    ReactionAggregator aggregator =
+        ReactionAggregator.Builder.builder()
+            .datastore(failingDatastore)
+            .clock(clock)
+            .queue(queue)
+            .flushIntervalMillis(FLUSH_INTERVAL)
+            .maxPendingReactions(1)
+            .build();
+
+    // The flush triggered by the reaction fails without failing the reaction.
+    assertEquals(1L, aggregator.addReaction(postID, "love"));
+    assertEquals(0L, getReactionCount(post, "love"));
+    assertEquals(1L, aggregator.getUnflushedCount(postID, "love"));
+
+    aggregator.flush();
+    assertEquals(1L, getReactionCount(post, "love"));
+    assertEquals(0L, aggregator.getUnflushedCount(postID, "love"));
+  }
+
+  @Test
+  public void firstBufferedReactionSchedulesFlushTask() {
+    ReactionAggregator aggregator = buildAggregator(100);
+    aggregator.addReaction(postID, "laugh");
+    aggregator.addReaction(postID, "sad");
+    verify(queue, times(1)).add(any(TaskOptions.class));
+
+    // The next reaction after a flush schedules the next task.
+    aggregator.flush();
+    aggregator.addReaction(postID, "laugh");
+    verify(queue, times(2)).add(any(TaskOptions.class));
+  }
+
+  @Test
+  public void flushTaskIsRetriedUntilItReachesItsAggregator() throws EntityNotFoundException {
+    ReactionAggregator aggregator = buildAggregator(100);
+    ReactionAggregator otherAggregator = buildAggregator(100);
+    aggregator.addReaction(postID, "wow");
+    ArgumentCaptor<TaskOptions> task = ArgumentCaptor.forClass(TaskOptions.class);
+    verify(queue).add(task.capture());
+    String aggregatorName = task.getValue().getStringParams().get("aggregator").get(0);
+
+    assertFalse(otherAggregator.flushForTask(aggregatorName));
+    assertEquals(0L, getReactionCount(post, "wow"));
+
+    assertTrue(aggregator.flushForTask(aggregatorName));
+    assertEquals(1L, getReactionCount(post, "wow"));
+  }
+
+  @Test
+  public void failedSchedulingIsRetriedByTheNextReaction() {
+    when(queue.add(any(TaskOptions.class)))
+        .thenThrow(new TransientFailureException("Queue unavailable"))
+        .thenReturn(null);
+    ReactionAggregator aggregator = buildAggregator(100);
+
+    assertEquals(1L, aggregator.addReaction(postID, "love"));
+    aggregator.addReaction(postID, "love");
+    aggregator.addReaction(postID, "love");
+
+    verify(queue, times(2)).add(any(TaskOptions.class));
+  }
+
+  @Test
+  public void noReactionIsLostUnderConcurrentReactsAndFlushes() throws Exception {
+    // A small threshold makes the threads flush while the others keep reacting.
+    ReactionAggregator aggregator = buildAggregator(7);
+    int numThreads = 8;
+    int reactionsPerThread = 50;
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> results = new ArrayList<>();
+    for (int thread = 0; thread < numThreads; thread++) {
+      results.add(
+          executor.submit(
+              () -> {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                for (int i = 0; i < reactionsPerThread; i++) {
+                  aggregator.addReaction(postID, "laugh");
+                }
+              }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+
+    aggregator.flush();
+    assertEquals((long) numThreads * reactionsPerThread, getReactionCount(post, "laugh"));
+  }
+
+  private ReactionAggregator buildAggregator(long maxPendingReactions) {
+    return ReactionAggregator.Builder.builder()
+        .clock(clock)
+        .queue(queue)
+        .flushIntervalMillis(FLUSH_INTERVAL)
+        .maxPendingReactions(maxPendingReactions)
+        .build();
+  }
+
+  private Entity createPost() {
+    EmbeddedEntity reactions = new EmbeddedEntity();
+    for (String reaction : new String[] {"laugh", "love", "sad", "think", "wow", "yikes"}) {
+      reactions.setProperty(reaction, 0L);
+    }
+    Entity newPost = new Entity("Post");
+    newPost.setProperty("reactions", reactions);
+    datastore.put(newPost);
+    return newPost;
+  }
+
+  private long getReactionCount(Entity post, String reaction) throws EntityNotFoundException {
+    Entity storedPost = datastore.get(post.getKey());
+    return (long) ((EmbeddedEntity) storedPost.getProperty("reactions")).getProperty(reaction);
+  }
+}
@@ -15,6 +15,10 @@
 package com.google.sps;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -26,13 +30,15 @@ import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.sps.data.Resource;
+import com.google.sps.data.ResourceCatalog;
+import java.util.Optional;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-/** Class that tests the ability to add Resource Entities to Datastore */
+/** Class that tests the ability to add Resource Entities to Datastore and look them up */
 @RunWith(JUnit4.class)
 public final class ResourceTest {
   private static DatastoreService datastore;
@@ -82,4 +88,27 @@ public final class ResourceTest {
     int actual = datastore.prepare(query).countEntities(FetchOptions.Builder.withDefaults());
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void catalogReadsAllResourcesWithOneQuery() {
+    Resource.addPreexistingResources(datastore);
+    DatastoreService spiedDatastore = spy(datastore);
+    ResourceCatalog catalog = ResourceCatalog.Builder.builder().datastore(spiedDatastore).build();
+
+    assertEquals(Optional.of("Crisis Textline"), catalog.getResource(PREEXISTING_CATEGORY));
+    assertEquals(Optional.of("Happify"), catalog.getResource("General"));
+    assertEquals(Optional.empty(), catalog.getResource("Comics"));
+
+    verify(spiedDatastore, times(1)).prepare(any(Query.class));
+  }
+
+  @Test
+  public void catalogSeesResourcesStoredAfterItLoaded() {
+    ResourceCatalog catalog = ResourceCatalog.Builder.builder().datastore(datastore).build();
+    assertEquals(Optional.empty(), catalog.getResource(PREEXISTING_CATEGORY));
+
+    Resource.storeResource(datastore, PREEXISTING_CATEGORY, "Crisis Textline");
+
+    assertEquals(Optional.of("Crisis Textline"), catalog.getResource(PREEXISTING_CATEGORY));
+  }
 }
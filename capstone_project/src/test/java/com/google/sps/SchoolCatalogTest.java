@@ -0,0 +1,191 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.sps.data.School;
+import com.google.sps.data.SchoolCatalog;
+import com.google.sps.data.SchoolService;
+import com.google.sps.servlets.MapServlet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that the school catalog is served from memory and notices writes of every instance. */
+@RunWith(JUnit4.class)
+public final class SchoolCatalogTest extends Mockito {
+  private static final long POLL_INTERVAL = 10000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private DatastoreService datastore;
+  private SchoolService schoolService;
+  private Clock clock;
+  private SchoolCatalog catalog;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    schoolService = SchoolService.Builder.builder().datastore(datastore).build();
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(0L);
+    catalog =
+        SchoolCatalog.Builder.builder()
+            .datastore(datastore)
+            .clock(clock)
+            .pollIntervalMillis(POLL_INTERVAL)
+            .build();
+    // The shared catalog may hold the schools of an earlier test.
+    SchoolCatalog.invalidate();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void registeringSchoolSwapsSnapshot() {
+    schoolService.registerSchool(new School("UCLA", 34.068965, -118.445245));
+    SchoolCatalog.Snapshot before = catalog.getSnapshot();
+
+    schoolService.registerSchool(new School("UCI", 33.640339, -117.844248));
+    SchoolCatalog.Snapshot after = catalog.getSnapshot();
+
+    assertEquals(1, before.getSchools().size());
+    assertEquals("UCI", after.getSchools().get(0).getName());
+    assertEquals(2, after.getSchools().size());
+  }
+
+  @Test
+  public void changesOfOtherInstancesAreSeenAfterPoll() {
+    schoolService.registerSchool(new School("UCLA", 34.068965, -118.445245));
+    assertEquals(1, catalog.getSchools().size());
+
+    // Another instance writes a school, which does not invalidate the catalogs of this one.
+    Entity school = new Entity(SchoolService.getKey("UCI"));
+    school.setProperty("name", "UCI");
+    school.setProperty("latitude", 33.640339);
+    school.setProperty("longitude", -117.844248);
+    datastore.put(school);
+    Entity version = new Entity(KeyFactory.createKey("CatalogVersion", "schools"));
+    version.setProperty("version", 42L);
+    datastore.put(version);
+
+    when(clock.millis()).thenReturn(POLL_INTERVAL - 1);
+    assertEquals(1, catalog.getSchools().size());
+    when(clock.millis()).thenReturn(POLL_INTERVAL);
+    assertEquals(2, catalog.getSchools().size());
+  }
+
+  @Test
+  public void servesGzippedJsonWithEtag() throws IOException {
+    schoolService.registerSchool(new School("UCI", 33.640339, -117.844248));
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(new CapturingOutputStream(body));
+
+    new MapServlet().doGet(request, response);
+
+    verify(response).setHeader("ETag", SchoolCatalog.getInstance().getSnapshot().getEtag());
+    verify(response).setHeader("Content-Encoding", "gzip");
+    JsonArray schools =
+        JsonParser.parseReader(
+                new InputStreamReader(
+                    new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())),
+                    StandardCharsets.UTF_8))
+            .getAsJsonArray();
+    assertEquals(1, schools.size());
+    assertEquals("UCI", schools.get(0).getAsJsonObject().get("name").getAsString());
+  }
+
+  @Test
+  public void servesPlainJsonWithoutGzip() throws IOException {
+    schoolService.registerSchool(new School("UCI", 33.640339, -117.844248));
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(new CapturingOutputStream(body));
+
+    new MapServlet().doGet(request, response);
+
+    verify(response, never()).setHeader("Content-Encoding", "gzip");
+    assertEquals(
+        "[{\"name\":\"UCI\",\"latitude\":33.640339,\"longitude\":-117.844248}]",
+        new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void matchingEtagIsNotModified() throws IOException {
+    schoolService.registerSchool(new School("UCI", 33.640339, -117.844248));
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getHeader("If-None-Match"))
+        .thenReturn(SchoolCatalog.getInstance().getSnapshot().getEtag());
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    new MapServlet().doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(response, never()).getOutputStream();
+  }
+
+  /** Collects what a servlet writes to its output stream. */
+  private static final class CapturingOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream bytes;
+
+    CapturingOutputStream(ByteArrayOutputStream bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void write(int b) {
+      bytes.write(b);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {}
+  }
+}
@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.data.School;
+import com.google.sps.data.SchoolCsv;
+import com.google.sps.data.SchoolImportReport;
+import com.google.sps.data.SchoolService;
+import com.google.sps.servlets.ImportSchoolsServlet;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests parsing schools from CSV and importing them in bulk. */
+@RunWith(JUnit4.class)
+public final class SchoolImportTest extends Mockito {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true)
+          .setEnvEmail("admin@example.com")
+          .setEnvAuthDomain("example.com")
+          .setEnvIsAdmin(true);
+  private DatastoreService datastore;
+  private SchoolService schoolService;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    schoolService = SchoolService.Builder.builder().datastore(datastore).build();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void parsesQuotedFieldsInAnyColumnOrder() throws IOException {
+    String csv =
+        "\uFEFFLatitude,Name,State,Longitude\r\n"
+            + "33.640339,\"University of California, Irvine\",CA,-117.844248\r\n"
+            + "\r\n"
+            + "42.360091,\"The \"\"Institute\"\"\",MA,-71.094160\n";
+
+    List<School> schools = SchoolCsv.parse(new StringReader(csv));
+
+    assertEquals(
+        Arrays.asList(
+            new School("University of California, Irvine", 33.640339, -117.844248),
+            new School("The \"Institute\"", 42.360091, -71.094160)),
+        schools);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsLocationOutOfRange() throws IOException {
+    SchoolCsv.parse(new StringReader("name,latitude,longitude\nUCI,133.6,-117.8\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingColumn() throws IOException {
+    SchoolCsv.parse(new StringReader("name,latitude\nUCI,33.6\n"));
+  }
+
+  @Test
+  public void importRegistersOnlyNewSchoolsInBatches() {
+    schoolService.registerSchool(new School("School 0", 10, 10));
+    List<School> schools = new ArrayList<>();
+    for (int i = 0; i < 1200; i++) {
+      schools.add(new School("School " + i, 10, 10 + i / 100.0));
+    }
+    schools.add(new School("school 1", 20, 20));
+
+    SchoolImportReport report = schoolService.importSchools(schools);
+
+    assertEquals(1199, report.getCreated());
+    assertEquals(2, report.getExisting());
+    assertEquals(1200, countSchools());
+    assertFalse(schoolService.registerSchool(new School("SCHOOL 1199", 10, 10)));
+  }
+
+  @Test
+  public void servletImportsCsv() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getReader())
+        .thenReturn(
+            new BufferedReader(
+                new StringReader(
+                    "name,latitude,longitude\nUCI,33.64,-117.84\nUCLA,34.07,-118.45\n")));
+    StringWriter body = new StringWriter();
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+    new ImportSchoolsServlet().doPost(request, response);
+
+    assertEquals(2, countSchools());
+    assertTrue(body.toString().contains("\"created\":2"));
+  }
+
+  @Test
+  public void servletRejectsInvalidCsvWithoutImporting() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getReader())
+        .thenReturn(
+            new BufferedReader(
+                new StringReader("name,latitude,longitude\nUCI,33.64,-117.84\nUCLA,north,-118\n")));
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+    new ImportSchoolsServlet().doPost(request, response);
+
+    verify(response).setStatus(400);
+    assertEquals(0, countSchools());
+  }
+
+  @Test
+  public void servletIsForAdminsOnly() throws IOException {
+    helper.setEnvIsAdmin(false);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    new ImportSchoolsServlet().doPost(request, response);
+
+    verify(response).setStatus(403);
+    verify(request, never()).getReader();
+  }
+
+  private int countSchools() {
+    return datastore
+        .prepare(new Query("School"))
+        .countEntities(FetchOptions.Builder.withDefaults());
+  }
+}
@@ -163,4 +163,26 @@ public final class SchoolTest extends Mockito {
     int expected = 1;
     Assert.assertEquals(expected, actual);
   }
+
+  @Test
+  public void checkEqualSchoolsHaveEqualHashCodes() {
+    School uci1 = new School("UCI", uciLatitude, uciLongitude);
+    School uci2 = new School("UCI", uciLatitude, uciLongitude);
+    School uci3 = new School("UCI", uciLatitude + 1, uciLongitude);
+
+    Assert.assertEquals(uci1.hashCode(), uci2.hashCode());
+    Assert.assertNotEquals(uci1.hashCode(), uci3.hashCode());
+  }
+
+  @Test
+  public void testUploadingSchoolsWithDifferentCaseAndSpacingInDatastore() throws IOException {
+    mapServlet.addToDatastore(new School("UC Irvine", uciLatitude, uciLongitude));
+    mapServlet.addToDatastore(new School(" uc  IRVINE ", uciLatitude, uciLongitude));
+
+    // Make sure that the second submission was recognized as the same school.
+    int actual =
+        datastore.prepare(new Query("School")).countEntities(FetchOptions.Builder.withDefaults());
+    int expected = 1;
+    Assert.assertEquals(expected, actual);
+  }
 }
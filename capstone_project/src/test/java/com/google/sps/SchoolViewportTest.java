@@ -0,0 +1,218 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.DatastoreMetrics;
+import com.google.sps.data.MeteredDatastore;
+import com.google.sps.data.School;
+import com.google.sps.data.SchoolCatalog;
+import com.google.sps.data.SchoolCluster;
+import com.google.sps.data.SchoolIndex;
+import com.google.sps.data.SchoolMapView;
+import com.google.sps.data.SchoolService;
+import com.google.sps.data.Viewport;
+import com.google.sps.servlets.MapServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests the geohash index of schools and the viewport queries of the map. */
+@RunWith(JUnit4.class)
+public final class SchoolViewportTest extends Mockito {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private DatastoreService datastore;
+  private MapServlet mapServlet;
+
+  @Before
+  public void setUp() throws IOException {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    mapServlet = new MapServlet();
+    mapServlet.addToDatastore(new School("UCI", 33.640339, -117.844248));
+    mapServlet.addToDatastore(new School("UCLA", 34.068965, -118.445245));
+    mapServlet.addToDatastore(new School("UCB", 37.871942, -122.258476));
+    mapServlet.addToDatastore(new School("MIT", 42.360091, -71.094160));
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void encodesKnownGeohash() {
+    assertEquals("u4pruydqq", SchoolIndex.encode(57.64911, 10.40744, 9));
+
+    double[] location = SchoolIndex.decode("u4pruydqq");
+    assertEquals(57.64911, location[0], 1e-4);
+    assertEquals(10.40744, location[1], 1e-4);
+  }
+
+  @Test
+  public void coverStaysWithinMaxCells() {
+    List<String> cells = SchoolIndex.cover(32, -120, 35, -117, 8);
+
+    assertTrue(cells.size() <= 8);
+    String uci = SchoolIndex.encode(33.640339, -117.844248, SchoolIndex.MAX_PRECISION);
+    assertTrue(cells.stream().anyMatch(uci::startsWith));
+    assertEquals(1, SchoolIndex.cover(-90, -180, 90, 180, 8).size());
+  }
+
+  @Test
+  public void viewportReturnsOnlySchoolsInView() {
+    SchoolMapView view =
+        SchoolService.Builder.builder()
+            .datastore(datastore)
+            .build()
+            .getSchoolsInView(new Viewport(33, -119, 35, -117, 8));
+
+    assertEquals(
+        Arrays.asList("UCI", "UCLA"),
+        view.getSchools().stream().map(School::getName).sorted().collect(Collectors.toList()));
+    assertTrue(view.getClusters().isEmpty());
+  }
+
+  @Test
+  public void viewportAcrossAntimeridianFindsBothSides() throws IOException {
+    mapServlet.addToDatastore(new School("University of Fiji", -17.6, 177.4));
+    mapServlet.addToDatastore(new School("University of Samoa", -13.8, -171.8));
+
+    SchoolMapView view =
+        SchoolService.Builder.builder()
+            .datastore(datastore)
+            .build()
+            .getSchoolsInView(new Viewport(-20, 170, -10, -170, 5));
+
+    assertEquals(2, view.getSchools().size());
+  }
+
+  @Test
+  public void tooManySchoolsAreClustered() {
+    SchoolMapView view =
+        SchoolService.Builder.builder()
+            .datastore(datastore)
+            .maxSchools(2)
+            .build()
+            .getSchoolsInView(new Viewport(20, -130, 50, -60, 4));
+
+    assertTrue(view.getSchools().isEmpty());
+    List<SchoolCluster> clusters = view.getClusters();
+    assertEquals(4, clusters.stream().mapToInt(SchoolCluster::getCount).sum());
+    assertTrue(clusters.size() < 4);
+    SchoolCluster eastCoast =
+        clusters.stream().filter(cluster -> cluster.getLongitude() > -100).findFirst().get();
+    assertEquals(1, eastCoast.getCount());
+    assertEquals(42.360091, eastCoast.getLatitude(), 1e-4);
+  }
+
+  @Test
+  public void zoomedOutViewportIsAnsweredFromCatalog() throws IOException {
+    for (int i = 0; i < 6; i++) {
+      mapServlet.addToDatastore(new School("College " + i, 40 + i, -100 + i));
+    }
+    SchoolCatalog catalog = SchoolCatalog.Builder.builder().datastore(datastore).build();
+    catalog.getSchools();
+    DatastoreMetrics metrics = DatastoreMetrics.Builder.builder().build();
+    SchoolService schoolService =
+        SchoolService.Builder.builder()
+            .datastore(MeteredDatastore.wrap(datastore, metrics))
+            .maxSchools(1)
+            .catalog(catalog)
+            .build();
+
+    metrics.beginRequest("map");
+    SchoolMapView view = schoolService.getSchoolsInView(new Viewport(20, -130, 50, -60, 4));
+    long entitiesRead = metrics.endRequest(0).get().getEntitiesRead();
+
+    // The index is read up to four entries per listed school, plus one to notice the cap.
+    assertEquals(5, entitiesRead);
+    assertTrue(view.getSchools().isEmpty());
+    assertEquals(10, view.getClusters().stream().mapToInt(SchoolCluster::getCount).sum());
+  }
+
+  @Test
+  public void schoolsWrittenBeforeIndexAreFoundOnceIndexed() {
+    Entity school = new Entity("School");
+    school.setProperty("name", "Stanford");
+    school.setProperty("latitude", 37.427475);
+    school.setProperty("longitude", -122.169719);
+    datastore.put(school);
+    SchoolService schoolService = SchoolService.Builder.builder().datastore(datastore).build();
+    Viewport bayArea = new Viewport(37, -123, 38, -122, 9);
+
+    assertEquals(1, schoolService.getSchoolsInView(bayArea).getSchools().size());
+    assertEquals(1, schoolService.addMissingGeohashes());
+    assertEquals(2, schoolService.getSchoolsInView(bayArea).getSchools().size());
+  }
+
+  @Test
+  public void servletReturnsViewport() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameter("south")).thenReturn("42");
+    when(request.getParameter("west")).thenReturn("-72");
+    when(request.getParameter("north")).thenReturn("43");
+    when(request.getParameter("east")).thenReturn("-71");
+    when(request.getParameter("zoom")).thenReturn("10");
+    StringWriter body = new StringWriter();
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+    mapServlet.doGet(request, response);
+
+    JsonObject view = JsonParser.parseString(body.toString()).getAsJsonObject();
+    assertEquals(1, view.getAsJsonArray("schools").size());
+    assertEquals(
+        "MIT", view.getAsJsonArray("schools").get(0).getAsJsonObject().get("name").getAsString());
+  }
+
+  @Test
+  public void servletRejectsIncompleteViewport() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameter("south")).thenReturn("42");
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    mapServlet.doGet(request, response);
+
+    verify(response).setStatus(400);
+  }
+
+  @Test
+  public void parsesNoViewportWithoutParameters() {
+    assertEquals(Optional.empty(), Viewport.parse(null, null, null, null, null));
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.ThumbnailService;
+import com.google.sps.servlets.ServeServlet;
+import java.io.IOException;
+import java.util.Date;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests the cache validators and byte ranges of ServeServlet. */
+@RunWith(JUnit4.class)
+public final class ServeFileTest extends Mockito {
+  private static final String BLOB_KEY = "blob-key";
+  private static final String ETAG = "\"blob-key-100\"";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalBlobstoreServiceTestConfig());
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    when(request.getParameter("blob-key")).thenReturn(BLOB_KEY);
+
+    // The entity blobstore keeps about a file of 100 bytes.
+    Entity blobInfo = new Entity("__BlobInfo__", BLOB_KEY);
+    blobInfo.setProperty("content_type", "video/mp4");
+    blobInfo.setProperty("creation", new Date());
+    blobInfo.setProperty("filename", "video.mp4");
+    blobInfo.setProperty("size", 100L);
+    blobInfo.setProperty("md5_hash", "");
+    DatastoreServiceFactory.getDatastoreService().put(blobInfo);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void servesFileWithValidators() throws IOException {
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setHeader("ETag", ETAG);
+    verify(response).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    verify(response).setHeader("X-AppEngine-BlobKey", BLOB_KEY);
+    verify(response, never()).setHeader(eq("X-AppEngine-BlobRange"), anyString());
+  }
+
+  @Test
+  public void matchingEtagIsNotModified() throws IOException {
+    when(request.getHeader("If-None-Match")).thenReturn("\"other\", " + ETAG);
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setStatus(304);
+    verify(response, never()).setHeader(eq("X-AppEngine-BlobKey"), anyString());
+  }
+
+  @Test
+  public void servesRequestedRange() throws IOException {
+    when(request.getHeader("Range")).thenReturn("bytes=10-19");
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setHeader("X-AppEngine-BlobKey", BLOB_KEY);
+    verify(response).setHeader("X-AppEngine-BlobRange", "bytes=10-19");
+  }
+
+  @Test
+  public void rangeOfAnotherVersionServesWholeFile() throws IOException {
+    when(request.getHeader("Range")).thenReturn("bytes=10-19");
+    when(request.getHeader("If-Range")).thenReturn("\"blob-key-99\"");
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setHeader("X-AppEngine-BlobKey", BLOB_KEY);
+    verify(response, never()).setHeader(eq("X-AppEngine-BlobRange"), anyString());
+  }
+
+  @Test
+  public void rangePastTheEndIsNotSatisfiable() throws IOException {
+    when(request.getHeader("Range")).thenReturn("bytes=100-");
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setStatus(416);
+    verify(response).setHeader("Content-Range", "bytes */100");
+    verify(response, never()).setHeader(eq("X-AppEngine-BlobKey"), anyString());
+  }
+
+  @Test
+  public void servesGeneratedThumbnail() throws IOException {
+    when(request.getParameter("size")).thenReturn("small");
+    ServletOutputStream out = mock(ServletOutputStream.class);
+    when(response.getOutputStream()).thenReturn(out);
+    byte[] thumbnail = {1, 2, 3};
+    Entity entity = new Entity(ThumbnailService.KIND, BLOB_KEY + "/small");
+    entity.setUnindexedProperty("data", new Blob(thumbnail));
+    DatastoreServiceFactory.getDatastoreService().put(entity);
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setHeader("ETag", "\"blob-key-small-3\"");
+    verify(response).setContentType("image/jpeg");
+    verify(out).write(thumbnail);
+    verify(response, never()).setHeader(eq("X-AppEngine-BlobKey"), anyString());
+  }
+
+  @Test
+  public void missingThumbnailFallsBackToFile() throws IOException {
+    when(request.getParameter("size")).thenReturn("small");
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setHeader("Cache-Control", "public, max-age=60");
+    verify(response).setHeader("X-AppEngine-BlobKey", BLOB_KEY);
+  }
+
+  @Test
+  public void missingFileIsNotFound() throws IOException {
+    when(request.getParameter("blob-key")).thenReturn("missing");
+
+    new ServeServlet().doGet(request, response);
+
+    verify(response).setStatus(404);
+  }
+}
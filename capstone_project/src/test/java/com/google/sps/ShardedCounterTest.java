@@ -0,0 +1,174 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.PostService;
+import com.google.sps.data.ShardedCounter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that sharded counters count every increment, including concurrent ones. */
+@RunWith(JUnit4.class)
+public final class ShardedCounterTest {
+  private static final String COUNTER = "counter";
+  private static final int NUM_SHARDS = 4;
+  private DatastoreService datastore;
+  private ShardedCounter counter;
+
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    counter = ShardedCounter.Builder.builder().kind("TestShard").numShards(NUM_SHARDS).build();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void incrementReturnsNewCount() {
+    for (long expected = 1; expected <= 10; expected++) {
+      assertEquals(expected, counter.increment(COUNTER));
+    }
+    assertEquals(10, counter.countShards(COUNTER));
+  }
+
+  @Test
+  public void incrementsAreSpreadOverShards() {
+    for (int i = 0; i < 50; i++) {
+      counter.increment(COUNTER);
+    }
+
+    int shards =
+        datastore
+            .prepare(new Query("TestShard"))
+            .countEntities(FetchOptions.Builder.withDefaults());
+    assertTrue(shards > 1 && shards <= NUM_SHARDS);
+  }
+
+  @Test
+  public void countersWithDifferentNamesAreIndependent() {
+    counter.increment(COUNTER);
+    counter.increment(COUNTER);
+    counter.increment("other");
+
+    assertEquals(2, counter.countShards(COUNTER));
+    assertEquals(1, counter.countShards("other"));
+  }
+
+  @Test
+  public void countIsReadFromShardsWhenNotCached() {
+    counter.increment(COUNTER);
+    counter.increment(COUNTER);
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+
+    assertEquals(2, counter.countShards(COUNTER));
+    assertEquals(3, counter.increment(COUNTER));
+  }
+
+  @Test
+  public void countIsCorrectUnderConcurrentIncrements() throws Exception {
+    int numThreads = 8;
+    int incrementsPerThread = 25;
+    // The local services are bound to the test thread, so the workers share its environment.
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> results = new ArrayList<>();
+    for (int thread = 0; thread < numThreads; thread++) {
+      results.add(
+          executor.submit(
+              () -> {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                for (int i = 0; i < incrementsPerThread; i++) {
+                  counter.increment(COUNTER);
+                }
+              }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    assertEquals(numThreads * incrementsPerThread, counter.countShards(COUNTER));
+  }
+
+  @Test
+  public void seededCountIsAddedToIncrements() {
+    assertTrue(counter.seed(COUNTER, 50));
+
+    assertEquals(50, counter.countShards(COUNTER));
+    assertEquals(51, counter.increment(COUNTER));
+  }
+
+  @Test
+  public void counterWithShardsIsNotSeeded() {
+    counter.increment(COUNTER);
+
+    assertFalse(counter.seed(COUNTER, 50));
+    assertFalse(counter.seed(COUNTER, 50));
+    assertEquals(1, counter.countShards(COUNTER));
+  }
+
+  @Test
+  public void snapshotCopiesCountOntoPost() throws EntityNotFoundException {
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", 0L);
+    post.setProperty("reactions", new EmbeddedEntity());
+    post.setProperty("timestamp", System.currentTimeMillis());
+    datastore.put(post);
+    long postID = post.getKey().getId();
+    ShardedCounter upvoteCounter =
+        ShardedCounter.Builder.builder().kind("UpvoteShard").numShards(NUM_SHARDS).build();
+    upvoteCounter.increment(Long.toString(postID));
+    upvoteCounter.increment(Long.toString(postID));
+
+    PostService.Builder.builder().upvoteCounter(upvoteCounter).build().snapshotUpvotes(postID);
+
+    Entity snapshot = datastore.get(post.getKey());
+    assertEquals(2L, snapshot.getProperty("upvotes"));
+    assertTrue((double) snapshot.getProperty("trendingScore") > 0);
+  }
+}
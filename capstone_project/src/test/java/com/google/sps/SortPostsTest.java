@@ -0,0 +1,183 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.data.PostPage;
+import com.google.sps.data.PostService;
+import com.google.sps.data.PostSummary;
+import com.google.sps.servlets.RefreshTrendingServlet;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/**
+ * Tests that sorted posts are read one page at a time in index order, and that trending scores are
+ * refreshed as posts age.
+ */
+@RunWith(JUnit4.class)
+public final class SortPostsTest extends Mockito {
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private LocalServiceTestHelper serviceHelper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true);
+  private Clock clock;
+  private PostService postService;
+
+  private final long NOW = 8L * 24 * 60 * 60 * 1000;
+  private final long MINUTE = 60 * 1000;
+  private Entity oldPost;
+  private Entity topPost;
+  private Entity newPost;
+
+  @Before
+  public void setUpServiceHelper() {
+    serviceHelper.setUp();
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(NOW);
+    postService = PostService.Builder.builder().clock(clock).build();
+
+    // Eight days old, so it is outside the trending window despite its score.
+    oldPost = storePost(0, 1000L, 5.0);
+    topPost = storePost(NOW - 100 * MINUTE, 50L, 0.5);
+    newPost = storePost(NOW - MINUTE, 2L, 2.0);
+  }
+
+  @After
+  public void tearDownServiceHelper() {
+    serviceHelper.tearDown();
+  }
+
+  @Test
+  public void topPageIsOrderedByUpvotes() {
+    PostPage page = postService.getSortedPostsPage("top", 10, Optional.empty()).get();
+
+    assertEquals(getIds(oldPost, topPost, newPost), getIds(page));
+    assertFalse(page.getCursor().isPresent());
+  }
+
+  @Test
+  public void trendingPageIsOrderedByStoredScore() {
+    PostPage page = postService.getSortedPostsPage("trending", 10, Optional.empty()).get();
+
+    assertEquals(getIds(oldPost, newPost, topPost), getIds(page));
+  }
+
+  @Test
+  public void postsWithoutScoreAreTrendingOnceScored() {
+    Entity unscoredPost = storePost(NOW - 10 * MINUTE, 100L, 0.0);
+    unscoredPost.removeProperty("trendingScore");
+    datastore.put(unscoredPost);
+
+    assertEquals(1, postService.addMissingTrendingScores());
+    assertEquals(10.0, getTrendingScore(unscoredPost), 0.0001);
+    PostPage page = postService.getSortedPostsPage("trending", 10, Optional.empty()).get();
+    assertEquals(getIds(unscoredPost, oldPost, newPost, topPost), getIds(page));
+    assertEquals(0, postService.addMissingTrendingScores());
+  }
+
+  @Test
+  public void followingCursorsReturnsEveryPostOnce() {
+    List<Long> actual = new ArrayList<>();
+    Optional<String> cursor = Optional.empty();
+    do {
+      PostPage page = postService.getSortedPostsPage("new", 1, cursor).get();
+      actual.addAll(getIds(page));
+      cursor = page.getCursor();
+    } while (cursor.isPresent());
+
+    assertEquals(getIds(newPost, topPost, oldPost), actual);
+  }
+
+  @Test
+  public void returnsEmptyOptionalOnInvalidSortType() {
+    assertFalse(postService.getSortedPostsPage("invalid", 10, Optional.empty()).isPresent());
+  }
+
+  @Test
+  public void refreshRecomputesScoresAndDropsOldPosts() {
+    int refreshed = postService.refreshTrendingScores();
+
+    assertEquals(3, refreshed);
+    assertEquals(0.0, getTrendingScore(oldPost), 0.0);
+    assertEquals(0.5, getTrendingScore(topPost), 0.0001);
+    assertEquals(2.0, getTrendingScore(newPost), 0.0001);
+    // Posts with a score of zero are only refreshed again once they are upvoted.
+    assertEquals(2, postService.refreshTrendingScores());
+  }
+
+  @Test
+  public void refreshRespondsWith403WithoutCronHeader() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    new RefreshTrendingServlet().doGet(request, response);
+    verify(response).setStatus(403);
+    assertTrue(getTrendingScore(oldPost) > 0);
+  }
+
+  private Entity storePost(long timestamp, long upvotes, double trendingScore) {
+    Entity post = new Entity("Post");
+    post.setProperty("upvotes", upvotes);
+    post.setProperty("text", new Text("Default Text"));
+    post.setProperty("reactions", new EmbeddedEntity());
+    post.setProperty("timestamp", timestamp);
+    post.setProperty("trendingScore", trendingScore);
+    PostSummary.addSummaryProperties(post);
+    datastore.put(post);
+    return post;
+  }
+
+  private double getTrendingScore(Entity post) {
+    try {
+      return (double) datastore.get(post.getKey()).getProperty("trendingScore");
+    } catch (EntityNotFoundException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private List<Long> getIds(Entity... posts) {
+    return Arrays.stream(posts).map(post -> post.getKey().getId()).collect(Collectors.toList());
+  }
+
+  private List<Long> getIds(PostPage page) {
+    return page.getPosts().stream().map(PostSummary::getPostId).collect(Collectors.toList());
+  }
+}
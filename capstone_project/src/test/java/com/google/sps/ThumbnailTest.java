@@ -0,0 +1,179 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.dev.BlobStorageFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.ThumbnailService;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests that ThumbnailService scales uploaded images and records the sizes on the post. */
+@RunWith(JUnit4.class)
+public final class ThumbnailTest extends Mockito {
+  private static final String BLOB_KEY = "image-key";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalBlobstoreServiceTestConfig());
+  private DatastoreService datastore;
+  private ThumbnailService thumbnailService;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    thumbnailService =
+        ThumbnailService.Builder.builder().datastore(datastore).queue(mock(Queue.class)).build();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void scalesImagesToEverySize() throws IOException, EntityNotFoundException {
+    storeImage(1000, 500);
+    long postID = storePost("image");
+
+    assertEquals(Arrays.asList("small", "medium"), thumbnailService.generateThumbnails(postID));
+
+    BufferedImage small = readThumbnail("small");
+    assertEquals(240, small.getWidth());
+    assertEquals(120, small.getHeight());
+    BufferedImage medium = readThumbnail("medium");
+    assertEquals(640, medium.getWidth());
+    assertEquals(320, medium.getHeight());
+    Entity post = datastore.get(KeyFactory.createKey("Post", postID));
+    assertEquals(Arrays.asList("small", "medium"), post.getProperty("thumbnails"));
+  }
+
+  @Test
+  public void neverScalesImagesUp() throws IOException {
+    storeImage(100, 80);
+    long postID = storePost("image");
+
+    thumbnailService.generateThumbnails(postID);
+
+    BufferedImage medium = readThumbnail("medium");
+    assertEquals(100, medium.getWidth());
+    assertEquals(80, medium.getHeight());
+  }
+
+  @Test
+  public void skipsPixelsOfLargeImages() throws IOException {
+    storeImage(1000, 500);
+    long postID = storePost("image");
+    ThumbnailService limitedService =
+        ThumbnailService.Builder.builder()
+            .datastore(datastore)
+            .queue(mock(Queue.class))
+            .maxDecodedPixels(10_000)
+            .build();
+
+    limitedService.generateThumbnails(postID);
+
+    // Only every 8th pixel of every 8th row was decoded, so the image is too small to scale.
+    BufferedImage medium = readThumbnail("medium");
+    assertEquals(125, medium.getWidth());
+    assertEquals(63, medium.getHeight());
+  }
+
+  @Test
+  public void skipsImagesThatAreTooLarge() throws IOException {
+    storeImage(2000, 1000);
+    long postID = storePost("image");
+    ThumbnailService limitedService =
+        ThumbnailService.Builder.builder()
+            .datastore(datastore)
+            .queue(mock(Queue.class))
+            .maxDecodedPixels(10_000)
+            .build();
+
+    assertEquals(Collections.emptyList(), limitedService.generateThumbnails(postID));
+  }
+
+  @Test
+  public void skipsFilesThatAreNotImages() throws IOException {
+    storeImage(100, 80);
+    long postID = storePost("video");
+
+    assertEquals(Collections.emptyList(), thumbnailService.generateThumbnails(postID));
+    assertEquals(
+        0,
+        datastore
+            .prepare(new Query(ThumbnailService.KIND))
+            .countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Stores a PNG of the given size in the local blobstore.
+  private void storeImage(int width, int height) throws IOException {
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", png);
+    try (OutputStream out = BlobStorageFactory.getBlobStorage().storeBlob(new BlobKey(BLOB_KEY))) {
+      out.write(png.toByteArray());
+    }
+    Entity blobInfo = new Entity("__BlobInfo__", BLOB_KEY);
+    blobInfo.setProperty("content_type", "image/png");
+    blobInfo.setProperty("creation", new Date());
+    blobInfo.setProperty("filename", "image.png");
+    // Blobstore reads no further than the size it recorded.
+    blobInfo.setProperty("size", (long) png.size());
+    blobInfo.setProperty("md5_hash", "");
+    datastore.put(blobInfo);
+  }
+
+  private long storePost(String fileType) {
+    Entity post = new Entity("Post");
+    post.setProperty("fileType", fileType);
+    post.setProperty("fileBlobKey", BLOB_KEY);
+    datastore.put(post);
+    return post.getKey().getId();
+  }
+
+  private BufferedImage readThumbnail(String size) throws IOException {
+    byte[] thumbnail = thumbnailService.getThumbnail(BLOB_KEY, size).get();
+    assertTrue(thumbnail.length > 0);
+    return ImageIO.read(new ByteArrayInputStream(thumbnail));
+  }
+}